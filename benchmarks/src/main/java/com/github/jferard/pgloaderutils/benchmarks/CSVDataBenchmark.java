@@ -0,0 +1,82 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.benchmarks;
+
+import com.github.jferard.pgloaderutils.CSVData;
+import com.github.jferard.pgloaderutils.reader.CSVProcessorFileReader;
+import com.github.jferard.pgloaderutils.sql.DefaultTypedValueConverter;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+
+/**
+ * {@code CSVData.asOpenableReader}: parse, convert to java objects and print back the PostgreSQL
+ * representation. One operation converts the whole data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CSVDataBenchmark {
+    @Param({"4", "16"})
+    public int cols;
+
+    @Param({"10000"})
+    public int rows;
+
+    private String data;
+    private Table table;
+
+    @Setup
+    public void setUp() {
+        this.data = SyntheticCSV.generate(this.cols, this.rows, 42);
+        this.table = SyntheticCSV.table(this.cols);
+    }
+
+    @Benchmark
+    public long asOpenableReader(final Throughput throughput) throws IOException {
+        final CSVParser parser = new CSVParser(new StringReader(this.data), CSVFormat.DEFAULT);
+        final CSVData csvData = new CSVData(parser, Collections.emptyList(), 0,
+                new DefaultTypedValueConverter());
+        final CSVProcessorFileReader reader = csvData.asOpenableReader(this.table);
+        final ReaderBenchmark.CountingWriter writer = new ReaderBenchmark.CountingWriter();
+        reader.writeTo(writer);
+        throughput.add(this.data.length(), this.rows);
+        return writer.getCount();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+
+/**
+ * A PreparedStatement that only counts the bound parameters. The count is consumed by the
+ * benchmarks to avoid dead code elimination.
+ */
+public class MockPreparedStatement {
+    private long parameters;
+
+    /**
+     * @return a PreparedStatement backed by this mock
+     */
+    public PreparedStatement create() {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                MockPreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if (method.getName().startsWith("set")) {
+                        this.parameters++;
+                        return null;
+                    }
+                    final Class<?> returnType = method.getReturnType();
+                    if (returnType == boolean.class) {
+                        return false;
+                    } else if (returnType == int.class) {
+                        return 0;
+                    } else if (returnType == long.class) {
+                        return 0L;
+                    } else if (returnType == int[].class) {
+                        return new int[0];
+                    } else {
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * @return the number of bound parameters
+     */
+    public long getParameters() {
+        return this.parameters;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.benchmarks;
+
+import com.github.jferard.pgloaderutils.DummyCSVRecordProcessor;
+import com.github.jferard.pgloaderutils.reader.CSVProcessorFileReader;
+import com.github.jferard.pgloaderutils.reader.OpenableReader;
+import com.github.jferard.pgloaderutils.reader.SimpleFileReader;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.logging.Logger;
+
+/**
+ * The throughput of the openable readers, through the pipe (a producer thread and the reading
+ * thread) and without the pipe ({@code writeTo}). One operation reads the whole data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReaderBenchmark {
+    private static final int CHUNK_COUNT = 8;
+    private static final Logger LOGGER = Logger.getLogger(ReaderBenchmark.class.getName());
+
+    @Param({"8192", "65536", "262144"})
+    public int chunkSize;
+
+    @Param({"8"})
+    public int cols;
+
+    @Param({"100000"})
+    public int rows;
+
+    private String data;
+
+    @Setup
+    public void setUp() {
+        this.data = SyntheticCSV.generate(this.cols, this.rows, 42);
+    }
+
+    @Benchmark
+    public long simpleFileReaderPipe(final Throughput throughput)
+            throws IOException, InterruptedException {
+        final SimpleFileReader reader = new SimpleFileReader(new StringReader(this.data), LOGGER,
+                64, this.chunkSize, CHUNK_COUNT);
+        return this.readThroughPipe(reader, throughput);
+    }
+
+    @Benchmark
+    public long simpleFileReaderWriteTo(final Throughput throughput) throws IOException {
+        final SimpleFileReader reader = new SimpleFileReader(new StringReader(this.data), LOGGER,
+                64, this.chunkSize, CHUNK_COUNT);
+        return this.writeTo(reader, throughput);
+    }
+
+    @Benchmark
+    public long csvProcessorFileReaderPipe(final Throughput throughput)
+            throws IOException, InterruptedException {
+        return this.readThroughPipe(this.csvProcessorFileReader(), throughput);
+    }
+
+    @Benchmark
+    public long csvProcessorFileReaderWriteTo(final Throughput throughput) throws IOException {
+        return this.writeTo(this.csvProcessorFileReader(), throughput);
+    }
+
+    private CSVProcessorFileReader csvProcessorFileReader() throws IOException {
+        final CSVParser parser = new CSVParser(new StringReader(this.data), CSVFormat.DEFAULT);
+        return new CSVProcessorFileReader(parser, DummyCSVRecordProcessor.INSTANCE,
+                this.chunkSize, CHUNK_COUNT);
+    }
+
+    private long readThroughPipe(final OpenableReader reader, final Throughput throughput)
+            throws IOException, InterruptedException {
+        final Thread producer = new Thread(() -> {
+            try {
+                reader.open();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        producer.start();
+        final char[] buffer = new char[this.chunkSize];
+        long count = 0;
+        int n = reader.read(buffer, 0, buffer.length);
+        while (n != -1) {
+            count += n;
+            n = reader.read(buffer, 0, buffer.length);
+        }
+        producer.join();
+        reader.close();
+        throughput.add(count, this.rows);
+        return count;
+    }
+
+    private long writeTo(final OpenableReader reader, final Throughput throughput)
+            throws IOException {
+        final CountingWriter writer = new CountingWriter();
+        reader.writeTo(writer);
+        throughput.add(writer.count, this.rows);
+        return writer.count;
+    }
+
+    /**
+     * A writer that only counts the chars
+     */
+    static class CountingWriter extends Writer {
+        private long count;
+
+        @Override
+        public void write(final int c) {
+            this.count++;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            this.count += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            this.count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+    }
+}
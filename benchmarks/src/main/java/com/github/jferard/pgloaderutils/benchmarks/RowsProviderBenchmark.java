@@ -0,0 +1,99 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.benchmarks;
+
+import com.github.jferard.pgloaderutils.provider.CSVRowsProvider;
+import com.github.jferard.pgloaderutils.sql.DataType;
+import com.github.jferard.pgloaderutils.sql.DefaultTypedValueConverter;
+import com.github.jferard.pgloaderutils.sql.ValueConverter;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@code CSVRowsProvider.nextRow(...).bind(...)}, the path of {@code CSVRegularLoader}, over
+ * parsed records, with the generic and the typed converters. One operation binds all the rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RowsProviderBenchmark {
+    @Param({"4", "16", "64"})
+    public int cols;
+
+    @Param({"10000"})
+    public int rows;
+
+    private List<CSVRecord> records;
+    private List<DataType> types;
+    private long chars;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String data = SyntheticCSV.generate(this.cols, this.rows, 42);
+        this.chars = data.length();
+        this.records = CSVFormat.DEFAULT.parse(new StringReader(data)).getRecords();
+        this.types = SyntheticCSV.table(this.cols).getTypes();
+    }
+
+    @Benchmark
+    public long genericConverter(final Throughput throughput) throws SQLException {
+        return this.bind((value, type) -> value, throughput);
+    }
+
+    @Benchmark
+    public long typedConverter(final Throughput throughput) throws SQLException {
+        return this.bind(new DefaultTypedValueConverter(), throughput);
+    }
+
+    private long bind(final ValueConverter converter, final Throughput throughput)
+            throws SQLException {
+        final MockPreparedStatement mock = new MockPreparedStatement();
+        final PreparedStatement statement = mock.create();
+        final CSVRowsProvider provider = CSVRowsProvider.create(this.records.iterator(),
+                Collections.emptyList(), converter);
+        while (provider.hasNext()) {
+            provider.nextRow(this.types).bind(statement, 1);
+        }
+        throughput.add(this.chars, this.rows);
+        return mock.getParameters();
+    }
+}
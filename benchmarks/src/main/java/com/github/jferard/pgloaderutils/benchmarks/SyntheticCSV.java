@@ -0,0 +1,104 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.benchmarks;
+
+import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.Table;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generator of synthetic CSV data. The columns cycle through text, integer, numeric and date,
+ * some text values need quotes and some values are empty.
+ */
+public class SyntheticCSV {
+    private static final GeneralDataType[] TYPES = {GeneralDataType.TEXT,
+            GeneralDataType.INTEGER, GeneralDataType.NUMERIC, GeneralDataType.DATE};
+
+    /**
+     * @param cols the number of columns
+     * @return a table with the matching columns
+     */
+    public static Table table(final int cols) {
+        final List<Column> columns = new ArrayList<>(cols);
+        for (int i = 0; i < cols; i++) {
+            columns.add(new Column("col" + i, TYPES[i % TYPES.length]));
+        }
+        return new Table("bench", columns);
+    }
+
+    /**
+     * @param cols the number of columns
+     * @param rows the number of rows
+     * @param seed the seed of the generator
+     * @return the CSV data, without header
+     */
+    public static String generate(final int cols, final int rows, final long seed) {
+        final Random random = new Random(seed);
+        final StringBuilder sb = new StringBuilder(cols * rows * 8);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (c > 0) {
+                    sb.append(',');
+                }
+                SyntheticCSV.appendValue(sb, random, c % TYPES.length);
+            }
+            sb.append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    private static void appendValue(final StringBuilder sb, final Random random, final int kind) {
+        if (random.nextInt(20) == 0) { // empty
+            return;
+        }
+        switch (kind) {
+            case 0:
+                if (random.nextInt(10) == 0) {
+                    sb.append("\"a \"\"quoted\"\", value\"");
+                } else {
+                    final int len = 3 + random.nextInt(12);
+                    for (int i = 0; i < len; i++) {
+                        sb.append((char) ('a' + random.nextInt(26)));
+                    }
+                }
+                break;
+            case 1:
+                sb.append(random.nextInt(1000000));
+                break;
+            case 2:
+                sb.append(random.nextInt(100000)).append('.').append(random.nextInt(100));
+                break;
+            default:
+                sb.append(String.format("%04d-%02d-%02d", 1990 + random.nextInt(30),
+                        1 + random.nextInt(12), 1 + random.nextInt(28)));
+                break;
+        }
+    }
+
+    private SyntheticCSV() {
+    }
+}
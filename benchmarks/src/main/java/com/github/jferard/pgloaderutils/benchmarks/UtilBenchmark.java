@@ -0,0 +1,86 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.benchmarks;
+
+import com.github.jferard.pgloaderutils.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.Date;
+
+/**
+ * The formatting helpers of {@link Util}, called for every value or identifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UtilBenchmark {
+    private final String text = "some text";
+    private final Integer integer = 123456;
+    private final Date date = new Date(0);
+    private final LocalDate localDate = LocalDate.of(2022, 1, 23);
+
+    @Benchmark
+    public String toPGStringText() {
+        return Util.toPGString(this.text);
+    }
+
+    @Benchmark
+    public String toPGStringInteger() {
+        return Util.toPGString(this.integer);
+    }
+
+    @Benchmark
+    public String toPGStringDate() {
+        return Util.toPGString(this.date);
+    }
+
+    @Benchmark
+    public String toPGStringLocalDate() {
+        return Util.toPGString(this.localDate);
+    }
+
+    @Benchmark
+    public String pgEscapeIdentifierSimple() {
+        return Util.pgEscapeIdentifier("simple_name");
+    }
+
+    @Benchmark
+    public String pgEscapeIdentifierQuoted() {
+        return Util.pgEscapeIdentifier("Mixed \"Case\" Name");
+    }
+
+    @Benchmark
+    public String pgEscapeIdentifierKeyword() {
+        return Util.pgEscapeIdentifier("table");
+    }
+}
@@ -22,17 +22,108 @@
 
 package com.github.jferard.pgloaderutils;
 
+import com.github.jferard.pgloaderutils.reader.MappedReader;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CSVFile {
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Find the record boundaries that split the data in n ranges of (almost) the same size.
+     * The bytes are scanned once from the start: a newline inside a quoted field is not a record
+     * boundary. This works for every ASCII compatible charset (UTF-8, ISO-8859-x, ...).
+     *
+     * @param in      the data
+     * @param size    the size of the data
+     * @param n       the max number of ranges
+     * @param charset the charset
+     * @param format  the format
+     * @return the ranges, maybe less than n
+     * @throws IOException if an I/O error occurs
+     */
+    static List<CSVFileRange> split(final InputStream in, final long size, final int n,
+                                    final Charset charset, final CSVFormat format)
+            throws IOException {
+        final int quote = format.getQuoteCharacter() == null ? -1 : format.getQuoteCharacter();
+        final int escape = format.getEscapeCharacter() == null ||
+                format.getEscapeCharacter().equals(format.getQuoteCharacter()) ? -1 :
+                format.getEscapeCharacter();
+        boolean skipHeader = format.getSkipHeaderRecord();
+        boolean inQuotes = false;
+        boolean escaped = false;
+
+        final byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        long start = 0;
+        final List<Long> boundaries = new ArrayList<>(n);
+        long nextTarget = skipHeader ? Long.MAX_VALUE : start + size / n;
+        long pos = 0;
+        int count = in.read(buffer);
+        if (count >= 3 && charset.equals(StandardCharsets.UTF_8) && buffer[0] == (byte) 0xEF &&
+                buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF) { // the infamous BOM
+            start = 3;
+            nextTarget = skipHeader ? Long.MAX_VALUE : start + (size - start) / n;
+        }
+        scan:
+        while (count != -1) {
+            for (int i = 0; i < count; i++) {
+                final int c = buffer[i];
+                if (escaped) {
+                    escaped = false;
+                } else if (c == escape) {
+                    escaped = true;
+                } else if (c == quote) {
+                    inQuotes = !inQuotes;
+                } else if (c == '\n' && !inQuotes) {
+                    final long boundary = pos + i + 1;
+                    if (skipHeader) {
+                        skipHeader = false;
+                        start = boundary;
+                        nextTarget = start + (size - start) / n;
+                    } else if (boundary >= nextTarget && boundary < size) {
+                        boundaries.add(boundary);
+                        if (boundaries.size() == n - 1) {
+                            break scan;
+                        }
+                        nextTarget = start + (size - start) * (boundaries.size() + 1) / n;
+                    }
+                }
+            }
+            pos += count;
+            count = in.read(buffer);
+        }
+        if (skipHeader) { // no record after the header
+            return new ArrayList<>();
+        }
+
+        final List<CSVFileRange> ranges = new ArrayList<>(boundaries.size() + 1);
+        long rangeStart = start;
+        for (final long boundary : boundaries) {
+            ranges.add(new CSVFileRange(rangeStart, boundary));
+            rangeStart = boundary;
+        }
+        if (rangeStart < size) {
+            ranges.add(new CSVFileRange(rangeStart, size));
+        }
+        return ranges;
+    }
+
     /**
      * Path of the file
      */
@@ -48,15 +139,60 @@ public class CSVFile {
      */
     private final CSVFormat csvFormat;
 
+    /**
+     * The max number of threads used to decompress a BGZF file
+     */
+    private final int decompressionThreads;
+
     public CSVFile(final Path path, final Charset charset, final CSVFormat csvFormat) {
+        this(path, charset, csvFormat, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param path                 the path of the file, maybe compressed (see {@link Compression})
+     * @param charset              the charset of the (decompressed) data
+     * @param csvFormat            the format
+     * @param decompressionThreads the max number of threads used to decompress a BGZF file
+     */
+    public CSVFile(final Path path, final Charset charset, final CSVFormat csvFormat,
+                   final int decompressionThreads) {
         this.path = path;
         this.charset = charset;
         this.csvFormat = csvFormat;
+        this.decompressionThreads = decompressionThreads;
+    }
+
+    /**
+     * @return the compression of the file, detected by the magic bytes
+     * @throws IOException if an I/O error occurs
+     */
+    public Compression getCompression() throws IOException {
+        try (final InputStream in = Files.newInputStream(this.path)) {
+            final byte[] magic = new byte[Compression.MAGIC_LENGTH];
+            int length = 0;
+            while (length < magic.length) {
+                final int count = in.read(magic, length, magic.length - length);
+                if (count == -1) {
+                    break;
+                }
+                length += count;
+            }
+            return Compression.detect(magic, length);
+        }
+    }
+
+    /**
+     * @return a stream on the decompressed bytes of the file
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream newInputStream() throws IOException {
+        return Compression.decompress(Files.newInputStream(this.path), this.decompressionThreads);
     }
 
     public CSVParser newCSVParser()
             throws IOException {
-        final BufferedReader reader = Files.newBufferedReader(this.path, this.charset);
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(this.newInputStream(), this.charset));
         if (this.charset.equals(StandardCharsets.UTF_8)) {
             reader.mark(1);
             if (reader.read() != '\uFEFF') { // the infamous BOM
@@ -66,4 +202,193 @@ public class CSVFile {
         return new CSVParser(
                 reader, this.csvFormat);
     }
+
+    /**
+     * A parser on a memory-mapped view of the file (see {@link MappedReader}).
+     *
+     * @return the parser
+     * @throws IOException if an I/O error occurs
+     */
+    public CSVParser newMappedCSVParser() throws IOException {
+        this.checkUncompressed();
+        final long size = Files.size(this.path);
+        return new CSVParser(MappedReader.open(this.path, this.charset, this.bomLength(), size),
+                this.csvFormat);
+    }
+
+    /**
+     * @return the length of the UTF-8 BOM at the start of the file, 0 if there is no BOM
+     * @throws IOException if an I/O error occurs
+     */
+    private int bomLength() throws IOException {
+        if (!this.charset.equals(StandardCharsets.UTF_8)) {
+            return 0;
+        }
+        try (final InputStream in = Files.newInputStream(this.path)) {
+            final byte[] bytes = new byte[3];
+            int count = 0;
+            while (count < 3) {
+                final int n = in.read(bytes, count, 3 - count);
+                if (n == -1) {
+                    return 0;
+                }
+                count += n;
+            }
+            return bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF ?
+                    3 : 0;
+        }
+    }
+
+    /**
+     * Split the file in ranges of records, e.g. to load them in parallel. The header and
+     * the BOM are not part of any range. The file must not be compressed. See
+     * {@link #newRangeReader(CSVFileRange)}, {@link #newMappedRangeReader(CSVFileRange)} and
+     * {@link #mapRange(CSVFileRange)}.
+     * <p>
+     * The file is scanned sequentially, on the calling thread, up to the last boundary (about
+     * (n-1)/n of the file): a quoted field may hold a newline, hence a boundary can't be found
+     * by seeking to an offset. A parallel load reads the file twice.
+     *
+     * @param n the max number of ranges
+     * @return the ranges, maybe less than n.
+     * @throws IOException if an I/O error occurs
+     */
+    public List<CSVFileRange> split(final int n) throws IOException {
+        this.checkUncompressed();
+        final long size = Files.size(this.path);
+        try (final InputStream in = Files.newInputStream(this.path)) {
+            return CSVFile.split(in, size, n, this.charset, this.csvFormat);
+        }
+    }
+
+    /**
+     * Split the end of the file in ranges of records, e.g. to resume a load. The scan starts at
+     * the offset, that must be a record boundary (the end of a range): the header and the
+     * bytes before the offset are not read.
+     *
+     * @param offset the offset of the first record
+     * @param n      the max number of ranges
+     * @return the ranges, maybe less than n.
+     * @throws IOException if an I/O error occurs
+     */
+    public List<CSVFileRange> split(final long offset, final int n) throws IOException {
+        if (offset == 0) {
+            return this.split(n);
+        }
+        this.checkUncompressed();
+        final long size = Files.size(this.path);
+        try (final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            channel.position(offset);
+            final CSVFormat format = this.csvFormat.builder().setSkipHeaderRecord(false).build();
+            final List<CSVFileRange> ranges = CSVFile.split(Channels.newInputStream(channel),
+                    size - offset, n, this.charset, format);
+            final List<CSVFileRange> shiftedRanges = new ArrayList<>(ranges.size());
+            for (final CSVFileRange range : ranges) {
+                shiftedRanges.add(new CSVFileRange(offset + range.getStart(),
+                        offset + range.getEnd()));
+            }
+            return shiftedRanges;
+        }
+    }
+
+    /**
+     * @param range the range
+     * @return a reader on the records of this range.
+     * @throws IOException if an I/O error occurs
+     */
+    public Reader newRangeReader(final CSVFileRange range) throws IOException {
+        final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ);
+        channel.position(range.getStart());
+        final InputStream in = new RangeInputStream(Channels.newInputStream(channel),
+                range.length());
+        return new BufferedReader(new InputStreamReader(in, this.charset));
+    }
+
+    /**
+     * @param range the range
+     * @return a reader on a memory-mapped view of the records of this range.
+     * @throws IOException if an I/O error occurs
+     */
+    public Reader newMappedRangeReader(final CSVFileRange range) throws IOException {
+        return MappedReader.open(this.path, this.charset, range.getStart(), range.getEnd());
+    }
+
+    /**
+     * Map the bytes of a range, e.g. for a parser that works on bytes. The slice is read-only,
+     * and is not copied to the heap.
+     *
+     * @param range the range, less than 2 GB
+     * @return the mapped bytes
+     * @throws IOException if an I/O error occurs
+     */
+    public ByteBuffer mapRange(final CSVFileRange range) throws IOException {
+        if (range.length() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range is too large to be mapped: " + range);
+        }
+        try (final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, range.getStart(), range.length());
+        }
+    }
+
+    private void checkUncompressed() throws IOException {
+        final Compression compression = this.getCompression();
+        if (compression != Compression.NONE) {
+            throw new IllegalStateException(
+                    "Can't map or split a compressed file (" + compression + "): " + this.path);
+        }
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public Charset getCharset() {
+        return this.charset;
+    }
+
+    public CSVFormat getCSVFormat() {
+        return this.csvFormat;
+    }
+
+    /**
+     * An input stream that stops after a given number of bytes.
+     */
+    private static class RangeInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        RangeInputStream(final InputStream in, final long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int c = this.in.read();
+            if (c != -1) {
+                this.remaining--;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int count = this.in.read(b, off, (int) Math.min(len, this.remaining));
+            if (count != -1) {
+                this.remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
 }
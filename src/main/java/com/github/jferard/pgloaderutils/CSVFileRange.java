@@ -0,0 +1,74 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+/**
+ * A range of bytes of a CSV file, aligned on record boundaries.
+ */
+public class CSVFileRange {
+    private final long start;
+    private final long end;
+
+    /**
+     * @param start the first byte (inclusive)
+     * @param end   the last byte (exclusive)
+     */
+    public CSVFileRange(final long start, final long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return this.start;
+    }
+
+    public long getEnd() {
+        return this.end;
+    }
+
+    public long length() {
+        return this.end - this.start;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof CSVFileRange)) {
+            return false;
+        }
+        final CSVFileRange other = (CSVFileRange) o;
+        return this.start == other.start && this.end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.start) * 31 + Long.hashCode(this.end);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CSVFileRange[%d, %d)", this.start, this.end);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The compression of a data file, detected by the magic bytes. Gzip is read by the JDK,
+ * bzip2 and zstd need the optional commons-compress (and zstd-jni) dependencies.
+ */
+public enum Compression {
+    NONE {
+        @Override
+        public InputStream wrap(final InputStream in, final int threads) {
+            return in;
+        }
+    },
+    GZIP {
+        @Override
+        public InputStream wrap(final InputStream in, final int threads) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE); // reads every member
+        }
+    },
+    /**
+     * Blocked gzip: a gzip file made of independent members of at most 64 KB, each member
+     * giving its own size.
+     */
+    BGZF {
+        @Override
+        public InputStream wrap(final InputStream in, final int threads) throws IOException {
+            if (threads <= 1) {
+                return GZIP.wrap(in, threads);
+            }
+            return new ParallelBGZFInputStream(in, threads);
+        }
+    },
+    BZIP2 {
+        @Override
+        public InputStream wrap(final InputStream in, final int threads) throws IOException {
+            try {
+                return new org.apache.commons.compress.compressors.bzip2
+                        .BZip2CompressorInputStream(in, true);
+            } catch (final NoClassDefFoundError e) {
+                throw new IOException("commons-compress is required to read bzip2 data", e);
+            }
+        }
+    },
+    ZSTD {
+        @Override
+        public InputStream wrap(final InputStream in, final int threads) throws IOException {
+            try {
+                return new org.apache.commons.compress.compressors.zstandard
+                        .ZstdCompressorInputStream(in);
+            } catch (final NoClassDefFoundError e) {
+                throw new IOException(
+                        "commons-compress and zstd-jni are required to read zstd data", e);
+            }
+        }
+    };
+
+    /**
+     * The number of bytes needed to detect the compression
+     */
+    public static final int MAGIC_LENGTH = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param magic  the first bytes of the data
+     * @param length the number of bytes, maybe less than MAGIC_LENGTH for a small file
+     * @return the compression
+     */
+    public static Compression detect(final byte[] magic, final int length) {
+        if (length >= 3 && magic[0] == (byte) 0x1F && magic[1] == (byte) 0x8B && magic[2] == 8) {
+            if (length >= 16 && (magic[3] & 0x04) != 0 && magic[10] == 6 && magic[11] == 0 &&
+                    magic[12] == 'B' && magic[13] == 'C' && magic[14] == 2 && magic[15] == 0) {
+                return BGZF;
+            }
+            return GZIP;
+        } else if (length >= 4 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h' &&
+                magic[3] >= '1' && magic[3] <= '9') {
+            return BZIP2;
+        } else if (length >= 4 && magic[0] == (byte) 0x28 && magic[1] == (byte) 0xB5 &&
+                magic[2] == (byte) 0x2F && magic[3] == (byte) 0xFD) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Detect the compression of a stream and decompress it on the fly.
+     *
+     * @param in      the raw stream
+     * @param threads the max number of threads used to decompress (BGZF only)
+     * @return the decompressed stream
+     * @throws IOException if an I/O error occurs
+     */
+    public static InputStream decompress(final InputStream in, final int threads)
+            throws IOException {
+        final BufferedInputStream bufferedIn = new BufferedInputStream(in, BUFFER_SIZE);
+        return Compression.detect(bufferedIn).wrap(bufferedIn, threads);
+    }
+
+    /**
+     * Detect the compression, without consuming the bytes.
+     *
+     * @param in the stream
+     * @return the compression
+     * @throws IOException if an I/O error occurs
+     */
+    public static Compression detect(final BufferedInputStream in) throws IOException {
+        final byte[] magic = new byte[MAGIC_LENGTH];
+        in.mark(MAGIC_LENGTH);
+        int length = 0;
+        while (length < MAGIC_LENGTH) {
+            final int count = in.read(magic, length, MAGIC_LENGTH - length);
+            if (count == -1) {
+                break;
+            }
+            length += count;
+        }
+        in.reset();
+        return Compression.detect(magic, length);
+    }
+
+    /**
+     * @param in      the compressed stream
+     * @param threads the max number of threads used to decompress
+     * @return the decompressed stream
+     * @throws IOException if an I/O error occurs
+     */
+    public abstract InputStream wrap(InputStream in, int threads) throws IOException;
+}
@@ -22,24 +22,72 @@
 
 package com.github.jferard.pgloaderutils;
 
+import java.util.Arrays;
 import java.util.Map;
 
 /** A fixed array of cols */
 public class FixedCols {
-    private final int size;
-    private final Map<Integer, Integer> recordIndexByFixedIndex;
+    /** The value of a missing col in the projection */
+    public static final int MISSING = -1;
 
+    /**
+     * The record index by fixed index, or MISSING
+     */
+    private final int[] projection;
+
+    /**
+     * @param size                    the number of fixed cols
+     * @param recordIndexByFixedIndex the record index by fixed index. The fixed indices outside
+     *                                of [0, size) and the null record indices are ignored.
+     */
     public FixedCols(final int size,
                      final Map<Integer, Integer> recordIndexByFixedIndex) {
-        this.size = size;
-        this.recordIndexByFixedIndex = recordIndexByFixedIndex;
+        this(new int[size]);
+        Arrays.fill(this.projection, MISSING);
+        for (final Map.Entry<Integer, Integer> entry : recordIndexByFixedIndex.entrySet()) {
+            final int fixedIndex = entry.getKey();
+            final Integer recordIndex = entry.getValue();
+            if (0 <= fixedIndex && fixedIndex < size && recordIndex != null) {
+                this.projection[fixedIndex] = recordIndex;
+            }
+        }
+    }
+
+    /**
+     * @param projection the record index by fixed index, or MISSING
+     */
+    public FixedCols(final int[] projection) {
+        this.projection = projection;
     }
 
     public int size() {
-        return this.size;
+        return this.projection.length;
     }
 
+    /**
+     * @param i the fixed index
+     * @return the record index or null
+     */
     public Integer get(final int i) {
-        return this.recordIndexByFixedIndex.get(i);
+        if (i < 0 || i >= this.projection.length) {
+            return null;
+        }
+        final int j = this.projection[i];
+        return j == MISSING ? null : j;
+    }
+
+    /**
+     * @param i the fixed index
+     * @return the record index or MISSING
+     */
+    public int indexOf(final int i) {
+        return this.projection[i];
+    }
+
+    /**
+     * @return a copy of the projection: record index by fixed index, or MISSING
+     */
+    public int[] toArray() {
+        return this.projection.clone();
     }
 }
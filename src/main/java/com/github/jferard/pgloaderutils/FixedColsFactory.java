@@ -24,7 +24,7 @@ package com.github.jferard.pgloaderutils;
 
 import org.apache.commons.csv.CSVRecord;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -45,14 +45,15 @@ public class FixedColsFactory {
         final Map<String, Integer>
                 recordIndexByRecordFieldName = IntStream.range(0, lastRow.size()).boxed()
                 .collect(Collectors.toMap(lastRow::get, Function.identity()));
-        final Map<Integer, Integer> recordIndexByFixedIndex = new HashMap<>();
-        for (int i = 0; i < this.colNames.size(); i++) {
+        final int[] projection = new int[this.colNames.size()];
+        Arrays.fill(projection, FixedCols.MISSING);
+        for (int i = 0; i < projection.length; i++) {
             final String colName = this.colNames.get(i);
             final Integer j = recordIndexByRecordFieldName.get(colName);
             if (j != null) {
-                recordIndexByFixedIndex.put(i, j);
+                projection[i] = j;
             }
         }
-        return new FixedCols(this.colNames.size(), recordIndexByFixedIndex);
+        return new FixedCols(projection);
     }
 }
\ No newline at end of file
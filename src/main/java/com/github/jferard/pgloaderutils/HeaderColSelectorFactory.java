@@ -24,7 +24,7 @@ package com.github.jferard.pgloaderutils;
 
 import org.apache.commons.csv.CSVRecord;
 
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -41,10 +41,10 @@ public class HeaderColSelectorFactory implements ColSelectorFactory {
         final int size = firstRows.size();
         assert size > 0;
         final CSVRecord lastRow = firstRows.get(size - 1);
-        final Set<Integer> indices = new HashSet<>(this.colNames.size());
+        final BitSet indices = new BitSet(lastRow.size());
         for (int i = 0; i<lastRow.size(); i++) {
             if (this.colNames.contains(lastRow.get(i).trim())) {
-                indices.add(i);
+                indices.set(i);
             }
         }
         return new SetColSelector(indices);
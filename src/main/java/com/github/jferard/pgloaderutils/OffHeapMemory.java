@@ -0,0 +1,173 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A large block of memory outside of the Java heap, made of direct or mapped byte buffers of
+ * 1 GiB (a ByteBuffer is indexed by an int). The longs and ints must be aligned on their size:
+ * they never straddle two buffers. The direct memory is bounded by -XX:MaxDirectMemorySize.
+ *
+ * @author Julien Férard
+ */
+public class OffHeapMemory {
+    private static final int PAGE_SHIFT = 30;
+
+    /**
+     * @param size the size in bytes
+     * @return a zeroed block of direct memory
+     */
+    public static OffHeapMemory allocate(final long size) {
+        return OffHeapMemory.allocate(size, PAGE_SHIFT);
+    }
+
+    static OffHeapMemory allocate(final long size, final int pageShift) {
+        final ByteBuffer[] pages = new ByteBuffer[OffHeapMemory.pagesCount(size, pageShift)];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = ByteBuffer.allocateDirect(OffHeapMemory.pageSize(size, pageShift, i));
+        }
+        return new OffHeapMemory(pages, size, pageShift);
+    }
+
+    /**
+     * @param channel  the file channel
+     * @param mode     the map mode
+     * @param position the position of the block in the file
+     * @param size     the size of the block
+     * @return the mapped block of the file
+     * @throws IOException if an I/O error occurs
+     */
+    public static OffHeapMemory map(final FileChannel channel, final FileChannel.MapMode mode,
+                                    final long position, final long size) throws IOException {
+        final ByteBuffer[] pages = new ByteBuffer[OffHeapMemory.pagesCount(size, PAGE_SHIFT)];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = channel.map(mode, position + ((long) i << PAGE_SHIFT),
+                    OffHeapMemory.pageSize(size, PAGE_SHIFT, i));
+        }
+        return new OffHeapMemory(pages, size, PAGE_SHIFT);
+    }
+
+    private static int pagesCount(final long size, final int pageShift) {
+        return (int) ((size + (1L << pageShift) - 1) >>> pageShift);
+    }
+
+    private static int pageSize(final long size, final int pageShift, final int i) {
+        return (int) Math.min(1L << pageShift, size - ((long) i << pageShift));
+    }
+
+    private final ByteBuffer[] pages;
+    private final long size;
+    private final int pageShift;
+    private final long pageMask;
+
+    private OffHeapMemory(final ByteBuffer[] pages, final long size, final int pageShift) {
+        this.pages = pages;
+        this.size = size;
+        this.pageShift = pageShift;
+        this.pageMask = (1L << pageShift) - 1;
+    }
+
+    /**
+     * @return the size in bytes
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * @param offset the offset, a multiple of 8
+     * @return the long
+     */
+    public long getLong(final long offset) {
+        return this.pages[(int) (offset >>> this.pageShift)].getLong(
+                (int) (offset & this.pageMask));
+    }
+
+    /**
+     * @param offset the offset, a multiple of 8
+     * @param value  the long
+     */
+    public void putLong(final long offset, final long value) {
+        this.pages[(int) (offset >>> this.pageShift)].putLong((int) (offset & this.pageMask),
+                value);
+    }
+
+    /**
+     * @param offset the offset, a multiple of 4
+     * @return the int
+     */
+    public int getInt(final long offset) {
+        return this.pages[(int) (offset >>> this.pageShift)].getInt(
+                (int) (offset & this.pageMask));
+    }
+
+    /**
+     * @param offset the offset, a multiple of 4
+     * @param value  the int
+     */
+    public void putInt(final long offset, final int value) {
+        this.pages[(int) (offset >>> this.pageShift)].putInt((int) (offset & this.pageMask),
+                value);
+    }
+
+    /**
+     * Copy bytes to an array. The bytes may straddle several buffers.
+     *
+     * @param offset the offset of the first byte
+     * @param dst    the destination
+     * @param off    the offset in the destination
+     * @param len    the number of bytes
+     */
+    public void get(final long offset, final byte[] dst, final int off, final int len) {
+        long position = offset;
+        int done = 0;
+        while (done < len) {
+            final ByteBuffer page = this.pages[(int) (position >>> this.pageShift)].duplicate();
+            page.position((int) (position & this.pageMask));
+            final int count = Math.min(len - done, page.remaining());
+            page.get(dst, off + done, count);
+            done += count;
+            position += count;
+        }
+    }
+
+    /**
+     * Write the whole block.
+     *
+     * @param channel the destination
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        for (final ByteBuffer page : this.pages) {
+            final ByteBuffer source = page.duplicate();
+            source.clear();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A BGZF stream inflated on several threads. The blocks are read by the caller thread (the
+ * header gives the size of the block), inflated by a pool and returned in order. At most
+ * 4 * threads blocks are in flight.
+ */
+public class ParallelBGZFInputStream extends InputStream {
+    private static final int HEADER_LENGTH = 12;
+    private static final int TRAILER_LENGTH = 8;
+    private static final int FEXTRA = 0x04;
+
+    private final InputStream in;
+    private final ExecutorService inflaters;
+    private final Deque<Future<byte[]>> pending;
+    private final int maxPending;
+    private final byte[] header;
+    private boolean eof;
+    private byte[] current;
+    private int pos;
+
+    /**
+     * @param in      the compressed stream
+     * @param threads the number of inflater threads
+     */
+    public ParallelBGZFInputStream(final InputStream in, final int threads) {
+        this.in = in;
+        this.inflaters = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPending = 4 * threads;
+        this.pending = new ArrayDeque<>(this.maxPending);
+        this.header = new byte[HEADER_LENGTH];
+        this.eof = false;
+        this.current = new byte[0];
+        this.pos = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int count = this.read(b, 0, 1);
+        return count == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (this.pos == this.current.length) { // skip the empty blocks
+            this.fill();
+            final Future<byte[]> next = this.pending.poll();
+            if (next == null) {
+                return -1;
+            }
+            this.current = this.get(next);
+            this.pos = 0;
+        }
+        final int count = Math.min(len, this.current.length - this.pos);
+        System.arraycopy(this.current, this.pos, b, off, count);
+        this.pos += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inflaters.shutdownNow();
+        this.in.close();
+    }
+
+    private void fill() throws IOException {
+        while (!this.eof && this.pending.size() < this.maxPending) {
+            final byte[] block = this.readBlock();
+            if (block == null) {
+                this.eof = true;
+            } else {
+                this.pending.add(this.inflaters.submit(() -> inflate(block)));
+            }
+        }
+    }
+
+    private byte[] get(final Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while inflating");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return the deflated data and the trailer of the next block, or null
+     * @throws IOException if the block is not a BGZF block
+     */
+    private byte[] readBlock() throws IOException {
+        final int headerCount = this.readFully(this.header, 0, HEADER_LENGTH);
+        if (headerCount == 0) {
+            return null;
+        } else if (headerCount < HEADER_LENGTH) {
+            throw new ZipException("Truncated BGZF block header");
+        }
+        if (this.header[0] != (byte) 0x1F || this.header[1] != (byte) 0x8B ||
+                this.header[2] != 8 || this.header[3] != FEXTRA) {
+            throw new ZipException("Not a BGZF block");
+        }
+        final int extraLength = this.uint16(this.header, 10);
+        final byte[] extra = new byte[extraLength];
+        if (this.readFully(extra, 0, extraLength) < extraLength) {
+            throw new ZipException("Truncated BGZF block header");
+        }
+        final int blockSize = this.blockSize(extra);
+        final int dataLength = blockSize - HEADER_LENGTH - extraLength;
+        if (dataLength < TRAILER_LENGTH) {
+            throw new ZipException("Bad BGZF block size: " + blockSize);
+        }
+        final byte[] data = new byte[dataLength];
+        if (this.readFully(data, 0, dataLength) < dataLength) {
+            throw new ZipException("Truncated BGZF block");
+        }
+        return data;
+    }
+
+    private int blockSize(final byte[] extra) throws ZipException {
+        int i = 0;
+        while (i + 4 <= extra.length) {
+            final int subfieldLength = this.uint16(extra, i + 2);
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2) {
+                return this.uint16(extra, i + 4) + 1;
+            }
+            i += 4 + subfieldLength;
+        }
+        throw new ZipException("Missing BGZF block size");
+    }
+
+    private int readFully(final byte[] b, final int off, final int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            final int count = this.in.read(b, off + total, len - total);
+            if (count == -1) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    private int uint16(final byte[] b, final int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+    }
+
+    private static byte[] inflate(final byte[] data) throws IOException {
+        final int trailer = data.length - TRAILER_LENGTH;
+        final int expectedCrc = int32(data, trailer);
+        final int size = int32(data, trailer + 4);
+        final byte[] out = new byte[size];
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, 0, trailer);
+            int count = 0;
+            while (count < size && !inflater.finished()) {
+                final int n = inflater.inflate(out, count, size - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != size) {
+                throw new ZipException("Bad BGZF block: inflated size is not " + size);
+            }
+        } catch (final DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(out, 0, size);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new ZipException("Bad BGZF block: wrong CRC");
+        }
+        return out;
+    }
+
+    private static int int32(final byte[] b, final int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 |
+                (b[i + 3] & 0xFF) << 24;
+    }
+}
@@ -22,17 +22,28 @@
 
 package com.github.jferard.pgloaderutils;
 
+import java.util.BitSet;
 import java.util.Set;
 
 public class SetColSelector implements ColSelector {
-    private final Set<Integer> indices;
+    private final BitSet indices;
 
     public SetColSelector(final Set<Integer> indices) {
+        this(new BitSet());
+        for (final int i : indices) {
+            this.indices.set(i);
+        }
+    }
+
+    /**
+     * @param indices the selected cols. The set is not copied.
+     */
+    public SetColSelector(final BitSet indices) {
         this.indices = indices;
     }
 
     @Override
     public boolean select(final int i) {
-        return this.indices.contains(i);
+        return this.indices.get(i);
     }
 }
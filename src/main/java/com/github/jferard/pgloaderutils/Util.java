@@ -25,15 +25,18 @@ package com.github.jferard.pgloaderutils;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
 import java.text.Normalizer;
 import java.text.SimpleDateFormat;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -59,6 +62,38 @@ public class Util {
                             "TO", "TRAILING", "TRUE", "UNION", "UNIQUE", "USER", "USING", "VARIADIC",
                             "VERBOSE", "WHEN", "WHERE", "WINDOW", "WITH")
                     .collect(Collectors.toCollection(HashSet::new));
+    private static final Map<String, String> PG_ENCODING_BY_CHARSET_NAME;
+
+    static {
+        PG_ENCODING_BY_CHARSET_NAME = new HashMap<>();
+        PG_ENCODING_BY_CHARSET_NAME.put("US-ASCII", "SQL_ASCII");
+        PG_ENCODING_BY_CHARSET_NAME.put("UTF-8", "UTF8");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-1", "LATIN1");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-2", "LATIN2");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-3", "LATIN3");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-4", "LATIN4");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-5", "ISO_8859_5");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-6", "ISO_8859_6");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-7", "ISO_8859_7");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-8", "ISO_8859_8");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-9", "LATIN5");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-13", "LATIN7");
+        PG_ENCODING_BY_CHARSET_NAME.put("ISO-8859-15", "LATIN9");
+        PG_ENCODING_BY_CHARSET_NAME.put("KOI8-R", "KOI8R");
+        PG_ENCODING_BY_CHARSET_NAME.put("KOI8-U", "KOI8U");
+        PG_ENCODING_BY_CHARSET_NAME.put("Shift_JIS", "SJIS");
+        PG_ENCODING_BY_CHARSET_NAME.put("EUC-JP", "EUC_JP");
+        PG_ENCODING_BY_CHARSET_NAME.put("EUC-KR", "EUC_KR");
+        PG_ENCODING_BY_CHARSET_NAME.put("GBK", "GBK");
+        PG_ENCODING_BY_CHARSET_NAME.put("GB18030", "GB18030");
+        PG_ENCODING_BY_CHARSET_NAME.put("Big5", "BIG5");
+        for (int i = 1250; i <= 1258; i++) {
+            PG_ENCODING_BY_CHARSET_NAME.put("windows-" + i, "WIN" + i);
+        }
+        PG_ENCODING_BY_CHARSET_NAME.put("IBM866", "WIN866");
+        PG_ENCODING_BY_CHARSET_NAME.put("x-IBM874", "WIN874");
+    }
+
     private final static Pattern p = Pattern
             .compile("\\p{InCombiningDiacriticalMarks}+");
 
@@ -104,6 +139,19 @@ public class Util {
                 && !RESERVED_KEYWORDS.contains(identifier.toUpperCase(Locale.ROOT));
     }
 
+    /**
+     * @param charset a Java charset
+     * @return the name of the PostgreSQL encoding, e.g. for the ENCODING option of COPY
+     * @see <a href=https://www.postgresql.org/docs/current/multibyte.html>Character Set Support</a>
+     */
+    public static String pgEncodingName(final Charset charset) {
+        final String name = PG_ENCODING_BY_CHARSET_NAME.get(charset.name());
+        if (name == null) {
+            throw new IllegalArgumentException("No PostgreSQL encoding for " + charset);
+        }
+        return name;
+    }
+
     public static String pgEscapeString(final String str) {
         if (str.contains("'")) {
             return String.format("E'%s'", str.replaceAll("'", "''"));
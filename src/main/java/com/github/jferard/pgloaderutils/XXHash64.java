@@ -0,0 +1,227 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+/**
+ * The xxHash64 non cryptographic hash function (see https://github.com/Cyan4973/xxHash), fed
+ * incrementally. The fields of a record are hashed without any String or byte[] allocation:
+ * <pre>
+ * {@code
+ * hasher.reset();
+ * for (String field : record) {
+ *     hasher.updateChars(field);
+ * }
+ * long hash = hasher.digest();
+ * }
+ * </pre>
+ *
+ * @author Julien Férard
+ */
+public class XXHash64 {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    /**
+     * @param data the data
+     * @param off  the offset
+     * @param len  the length
+     * @param seed the seed
+     * @return the hash of the data
+     */
+    public static long hash(final byte[] data, final int off, final int len, final long seed) {
+        final XXHash64 hasher = new XXHash64(seed);
+        hasher.update(data, off, len);
+        return hasher.digest();
+    }
+
+    private static long round(final long acc, final long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(final long acc, final long val) {
+        return (acc ^ XXHash64.round(0, val)) * PRIME1 + PRIME4;
+    }
+
+    private static long getLong(final byte[] b, final int i) {
+        return (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16 |
+                (b[i + 3] & 0xFFL) << 24 | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40 |
+                (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    private static long getUnsignedInt(final byte[] b, final int i) {
+        return (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16 |
+                (b[i + 3] & 0xFFL) << 24;
+    }
+
+    private final long seed;
+    private final byte[] buffer;
+    private int bufferSize;
+    private long totalLength;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    /**
+     * @param seed the seed
+     */
+    public XXHash64(final long seed) {
+        this.seed = seed;
+        this.buffer = new byte[STRIPE];
+        this.reset();
+    }
+
+    /**
+     * Forget the data.
+     */
+    public void reset() {
+        this.bufferSize = 0;
+        this.totalLength = 0;
+        this.v1 = this.seed + PRIME1 + PRIME2;
+        this.v2 = this.seed + PRIME2;
+        this.v3 = this.seed;
+        this.v4 = this.seed - PRIME1;
+    }
+
+    /**
+     * @param b the byte to add
+     */
+    public void update(final byte b) {
+        this.buffer[this.bufferSize++] = b;
+        this.totalLength++;
+        if (this.bufferSize == STRIPE) {
+            this.processStripe(this.buffer, 0);
+            this.bufferSize = 0;
+        }
+    }
+
+    /**
+     * @param data the bytes to add
+     * @param off  the offset
+     * @param len  the length
+     */
+    public void update(final byte[] data, final int off, final int len) {
+        int offset = off;
+        int remaining = len;
+        this.totalLength += len;
+        if (this.bufferSize + remaining < STRIPE) {
+            System.arraycopy(data, offset, this.buffer, this.bufferSize, remaining);
+            this.bufferSize += remaining;
+            return;
+        }
+        if (this.bufferSize > 0) {
+            final int fill = STRIPE - this.bufferSize;
+            System.arraycopy(data, offset, this.buffer, this.bufferSize, fill);
+            this.processStripe(this.buffer, 0);
+            offset += fill;
+            remaining -= fill;
+        }
+        while (remaining >= STRIPE) {
+            this.processStripe(data, offset);
+            offset += STRIPE;
+            remaining -= STRIPE;
+        }
+        System.arraycopy(data, offset, this.buffer, 0, remaining);
+        this.bufferSize = remaining;
+    }
+
+    /**
+     * Add an int, as 4 bytes little endian. Useful to delimit the fields.
+     *
+     * @param value the int
+     */
+    public void updateInt(final int value) {
+        this.update((byte) value);
+        this.update((byte) (value >>> 8));
+        this.update((byte) (value >>> 16));
+        this.update((byte) (value >>> 24));
+    }
+
+    /**
+     * Add the length of the chars, then the chars as UTF-16LE bytes.
+     *
+     * @param chars the chars
+     */
+    public void updateChars(final CharSequence chars) {
+        final int length = chars.length();
+        this.updateInt(length);
+        for (int i = 0; i < length; i++) {
+            final char c = chars.charAt(i);
+            this.update((byte) c);
+            this.update((byte) (c >>> 8));
+        }
+    }
+
+    /**
+     * @return the hash of the data added since the last reset. The state is not modified.
+     */
+    public long digest() {
+        long h;
+        if (this.totalLength >= STRIPE) {
+            h = Long.rotateLeft(this.v1, 1) + Long.rotateLeft(this.v2, 7) +
+                    Long.rotateLeft(this.v3, 12) + Long.rotateLeft(this.v4, 18);
+            h = XXHash64.mergeRound(h, this.v1);
+            h = XXHash64.mergeRound(h, this.v2);
+            h = XXHash64.mergeRound(h, this.v3);
+            h = XXHash64.mergeRound(h, this.v4);
+        } else {
+            h = this.seed + PRIME5;
+        }
+        h += this.totalLength;
+
+        int i = 0;
+        while (i + 8 <= this.bufferSize) {
+            h ^= XXHash64.round(0, XXHash64.getLong(this.buffer, i));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            i += 8;
+        }
+        if (i + 4 <= this.bufferSize) {
+            h ^= XXHash64.getUnsignedInt(this.buffer, i) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            i += 4;
+        }
+        while (i < this.bufferSize) {
+            h ^= (this.buffer[i] & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+            i++;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private void processStripe(final byte[] data, final int off) {
+        this.v1 = XXHash64.round(this.v1, XXHash64.getLong(data, off));
+        this.v2 = XXHash64.round(this.v2, XXHash64.getLong(data, off + 8));
+        this.v3 = XXHash64.round(this.v3, XXHash64.getLong(data, off + 16));
+        this.v4 = XXHash64.round(this.v4, XXHash64.getLong(data, off + 24));
+    }
+}
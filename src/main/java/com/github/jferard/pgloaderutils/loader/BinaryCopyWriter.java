@@ -0,0 +1,447 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.sql.DataType;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A writer for the PGCOPY binary format
+ * (@see https://www.postgresql.org/docs/current/sql-copy.html, "Binary Format").
+ * <p>
+ * The encoders are resolved once from the data types, then every row is written field by field:
+ * the server does not have to parse the values.
+ * <p>
+ * A TIMESTAMPTZ is an instant. The values that have an offset ({@link OffsetDateTime},
+ * {@link ZonedDateTime}, {@link Instant}, {@link Timestamp}, ...) are written as is. The
+ * values without offset ({@link LocalDateTime}, {@link LocalDate}, strings) are in the session
+ * zone, as in a text COPY: they are rejected if the session zone is unknown.
+ *
+ * @author Julien Férard
+ */
+public class BinaryCopyWriter implements Closeable {
+    private static final byte[] SIGNATURE =
+            {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    /**
+     * 2000-01-01 as epoch day
+     */
+    private static final long PG_EPOCH_DAY = 10957L;
+    /**
+     * 2000-01-01T00:00:00Z as epoch second
+     */
+    private static final long PG_EPOCH_SECOND = 946684800L;
+    private static final int NBASE = 10000;
+    private static final int NUMERIC_POS = 0x0000;
+    private static final int NUMERIC_NEG = 0x4000;
+
+    /**
+     * @param type the data type
+     * @return true if the data type has a binary encoder
+     */
+    public static boolean isSupported(final DataType type) {
+        switch (type.getSqlType()) {
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.REAL:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.BOOLEAN:
+            case Types.BINARY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final FieldEncoder[] encoders;
+
+    /**
+     * A writer that rejects the TIMESTAMPTZ values without offset.
+     *
+     * @param out   the destination
+     * @param types the types of the columns
+     */
+    public BinaryCopyWriter(final OutputStream out, final List<DataType> types) {
+        this(out, types, null);
+    }
+
+    /**
+     * @param out         the destination
+     * @param types       the types of the columns
+     * @param sessionZone the TimeZone of the session, for the TIMESTAMPTZ values without
+     *                    offset, or null to reject those values
+     */
+    public BinaryCopyWriter(final OutputStream out, final List<DataType> types,
+                            final ZoneId sessionZone) {
+        this.out = new DataOutputStream(out);
+        this.encoders = new FieldEncoder[types.size()];
+        for (int i = 0; i < this.encoders.length; i++) {
+            final DataType type = types.get(i);
+            if (type == GeneralDataType.TIMESTAMPTZ) {
+                this.encoders[i] = (o, value) -> BinaryCopyWriter.writeInstant(o,
+                        BinaryCopyWriter.toInstant(value, sessionZone));
+            } else {
+                this.encoders[i] = BinaryCopyWriter.getEncoder(type);
+            }
+        }
+    }
+
+    /**
+     * Write the signature, the flags field and the header extension area.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeHeader() throws IOException {
+        this.out.write(SIGNATURE);
+        this.out.writeInt(0); // flags: no OIDs
+        this.out.writeInt(0); // no header extension
+    }
+
+    /**
+     * @param values the values of the row, one per type. A null value is a SQL NULL.
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeRow(final List<?> values) throws IOException {
+        final int count = this.encoders.length;
+        if (values.size() != count) {
+            throw new IllegalArgumentException(
+                    String.format("Expected %d values, got %d", count, values.size()));
+        }
+        this.out.writeShort(count);
+        for (int i = 0; i < count; i++) {
+            final Object value = values.get(i);
+            if (value == null) {
+                this.out.writeInt(-1);
+            } else {
+                this.encoders[i].write(this.out, value);
+            }
+        }
+    }
+
+    /**
+     * Write the trailer. The destination is not closed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTrailer() throws IOException {
+        this.out.writeShort(-1);
+    }
+
+    /**
+     * Write the trailer and close the destination
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        this.writeTrailer();
+        this.out.close();
+    }
+
+    private static FieldEncoder getEncoder(final DataType type) {
+        switch (type.getSqlType()) {
+            case Types.SMALLINT:
+                return (out, value) -> {
+                    out.writeInt(2);
+                    out.writeShort((short) BinaryCopyWriter.toLong(value, Short.MIN_VALUE,
+                            Short.MAX_VALUE, "SMALLINT"));
+                };
+            case Types.INTEGER:
+                return (out, value) -> {
+                    out.writeInt(4);
+                    out.writeInt((int) BinaryCopyWriter.toLong(value, Integer.MIN_VALUE,
+                            Integer.MAX_VALUE, "INTEGER"));
+                };
+            case Types.BIGINT:
+                return (out, value) -> {
+                    out.writeInt(8);
+                    out.writeLong(BinaryCopyWriter.toLong(value, Long.MIN_VALUE, Long.MAX_VALUE,
+                            "BIGINT"));
+                };
+            case Types.REAL:
+                return (out, value) -> {
+                    out.writeInt(4);
+                    out.writeFloat(BinaryCopyWriter.toNumber(value).floatValue());
+                };
+            case Types.DOUBLE:
+                return (out, value) -> {
+                    out.writeInt(8);
+                    out.writeDouble(BinaryCopyWriter.toNumber(value).doubleValue());
+                };
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return (out, value) -> BinaryCopyWriter
+                        .writeNumeric(out, BinaryCopyWriter.toBigDecimal(value));
+            case Types.DATE:
+                return (out, value) -> {
+                    out.writeInt(4);
+                    out.writeInt((int) (BinaryCopyWriter.toLocalDate(value).toEpochDay() -
+                            PG_EPOCH_DAY));
+                };
+            case Types.TIMESTAMP:
+                return (out, value) -> BinaryCopyWriter.writeInstant(out,
+                        BinaryCopyWriter.toLocalDateTime(value).toInstant(ZoneOffset.UTC));
+            case Types.CHAR:
+            case Types.VARCHAR:
+                return (out, value) -> BinaryCopyWriter.writeBytes(out,
+                        Util.toPGString(value).getBytes(StandardCharsets.UTF_8));
+            case Types.BOOLEAN:
+                return (out, value) -> {
+                    out.writeInt(1);
+                    out.writeByte(BinaryCopyWriter.toBoolean(value) ? 1 : 0);
+                };
+            case Types.BINARY:
+                return (out, value) -> {
+                    final byte[] bytes;
+                    if (value instanceof byte[]) {
+                        bytes = (byte[]) value;
+                    } else {
+                        bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                    }
+                    BinaryCopyWriter.writeBytes(out, bytes);
+                };
+            default:
+                throw new IllegalArgumentException(
+                        "No binary COPY encoder for type " + type);
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] bytes)
+            throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * See numeric_send in src/backend/utils/adt/numeric.c: digits are in base 10000.
+     */
+    private static void writeNumeric(final DataOutputStream out, final BigDecimal value)
+            throws IOException {
+        final int dscale = Math.max(value.scale(), 0);
+        final String plain = value.abs().toPlainString();
+        final int dot = plain.indexOf('.');
+        final String intPart;
+        final String fracPart;
+        if (dot == -1) {
+            intPart = plain;
+            fracPart = "";
+        } else {
+            intPart = plain.substring(0, dot);
+            fracPart = plain.substring(dot + 1);
+        }
+        final int intGroups = (intPart.length() + 3) / 4;
+        final int fracGroups = (fracPart.length() + 3) / 4;
+        final short[] digits = new short[intGroups + fracGroups];
+        final int intPad = intGroups * 4 - intPart.length();
+        for (int i = 0; i < intPart.length(); i++) {
+            final int p = intPad + i;
+            digits[p / 4] = (short) (digits[p / 4] * 10 + intPart.charAt(i) - '0');
+        }
+        for (int i = 0; i < fracGroups * 4; i++) {
+            final int d = i < fracPart.length() ? fracPart.charAt(i) - '0' : 0;
+            final int g = intGroups + i / 4;
+            digits[g] = (short) (digits[g] * 10 + d);
+        }
+
+        int weight = intGroups - 1;
+        int start = 0;
+        while (start < digits.length && digits[start] == 0) {
+            start++;
+            weight--;
+        }
+        int end = digits.length;
+        while (end > start && digits[end - 1] == 0) {
+            end--;
+        }
+        final int ndigits = end - start;
+        if (ndigits == 0) {
+            weight = 0;
+        }
+        out.writeInt(8 + 2 * ndigits);
+        out.writeShort(ndigits);
+        out.writeShort(weight);
+        out.writeShort(value.signum() < 0 ? NUMERIC_NEG : NUMERIC_POS);
+        out.writeShort(dscale);
+        for (int i = start; i < end; i++) {
+            out.writeShort(digits[i]);
+        }
+    }
+
+    /**
+     * Convert a value to an integer without loss: no fractional part, no overflow.
+     *
+     * @throws IllegalArgumentException if the value is not an integer in [min, max]
+     */
+    private static long toLong(final Object value, final long min, final long max,
+                               final String typeName) {
+        final long l;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short ||
+                value instanceof Byte) {
+            l = ((Number) value).longValue();
+        } else {
+            try {
+                l = BinaryCopyWriter.toBigDecimal(value).longValueExact();
+            } catch (final ArithmeticException e) {
+                throw new IllegalArgumentException(
+                        "Can't convert " + value + " to " + typeName, e);
+            }
+        }
+        if (l < min || l > max) {
+            throw new IllegalArgumentException("Can't convert " + value + " to " + typeName);
+        }
+        return l;
+    }
+
+    private static Number toNumber(final Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            return new BigDecimal(value.toString().trim());
+        }
+    }
+
+    private static BigDecimal toBigDecimal(final Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else {
+            return new BigDecimal(value.toString().trim());
+        }
+    }
+
+    private static LocalDate toLocalDate(final Object value) {
+        if (value instanceof LocalDate) {
+            return (LocalDate) value;
+        } else if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).toLocalDate();
+        } else if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate();
+        } else if (value instanceof java.util.Date) {
+            return new java.sql.Date(((java.util.Date) value).getTime()).toLocalDate();
+        } else if (value instanceof Calendar) {
+            return new java.sql.Date(((Calendar) value).getTimeInMillis()).toLocalDate();
+        } else {
+            return LocalDate.parse(value.toString().trim());
+        }
+    }
+
+    /**
+     * Write a timestamp: microseconds since 2000-01-01T00:00:00 (UTC for a TIMESTAMPTZ).
+     */
+    private static void writeInstant(final DataOutputStream out, final Instant instant)
+            throws IOException {
+        out.writeInt(8);
+        out.writeLong((instant.getEpochSecond() - PG_EPOCH_SECOND) * 1000000L +
+                instant.getNano() / 1000);
+    }
+
+    private static Instant toInstant(final Object value, final ZoneId sessionZone) {
+        if (value instanceof Instant) {
+            return (Instant) value;
+        } else if (value instanceof OffsetDateTime) {
+            return ((OffsetDateTime) value).toInstant();
+        } else if (value instanceof ZonedDateTime) {
+            return ((ZonedDateTime) value).toInstant();
+        } else if (value instanceof Timestamp) {
+            return ((Timestamp) value).toInstant();
+        } else if (value instanceof java.util.Date) {
+            return Instant.ofEpochMilli(((java.util.Date) value).getTime());
+        } else if (value instanceof Calendar) {
+            return ((Calendar) value).toInstant();
+        }
+        if (sessionZone == null) {
+            throw new IllegalArgumentException(
+                    "TIMESTAMPTZ value without offset and unknown session zone: " + value);
+        }
+        return BinaryCopyWriter.toLocalDateTime(value).atZone(sessionZone).toInstant();
+    }
+
+    private static LocalDateTime toLocalDateTime(final Object value) {
+        if (value instanceof LocalDateTime) {
+            return (LocalDateTime) value;
+        } else if (value instanceof LocalDate) {
+            return ((LocalDate) value).atStartOfDay();
+        } else if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime();
+        } else if (value instanceof java.util.Date) {
+            return new Timestamp(((java.util.Date) value).getTime()).toLocalDateTime();
+        } else if (value instanceof Calendar) {
+            return new Timestamp(((Calendar) value).getTimeInMillis()).toLocalDateTime();
+        } else {
+            return Timestamp.valueOf(value.toString().trim()).toLocalDateTime();
+        }
+    }
+
+    private static boolean toBoolean(final Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        switch (value.toString().trim().toLowerCase(Locale.ROOT)) {
+            case "t":
+            case "true":
+            case "y":
+            case "yes":
+            case "on":
+            case "1":
+                return true;
+            case "f":
+            case "false":
+            case "n":
+            case "no":
+            case "off":
+            case "0":
+                return false;
+            default:
+                throw new IllegalArgumentException("Not a boolean: " + value);
+        }
+    }
+
+    private interface FieldEncoder {
+        void write(DataOutputStream out, Object value) throws IOException;
+    }
+}
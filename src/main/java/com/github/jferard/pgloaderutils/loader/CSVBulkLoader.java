@@ -22,15 +22,33 @@
 package com.github.jferard.pgloaderutils.loader;
 
 import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.metrics.LoadListener;
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+import com.github.jferard.pgloaderutils.metrics.LoadStage;
+import com.github.jferard.pgloaderutils.provider.RowsProvider;
 import com.github.jferard.pgloaderutils.reader.OpenableReader;
 import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.DataType;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.postgresql.copy.CopyIn;
 import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyOutputStream;
 import org.postgresql.core.BaseConnection;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -50,41 +68,74 @@ import java.util.stream.Collectors;
  * @see <a href=https://www.postgresql.org/docs/9.1/static/populate.html>the doc</a>
  */
 public class CSVBulkLoader {
+    private static final int BUFFER_SIZE = 65536;
+
     public static CSVBulkLoader toTable(final String tableName) {
         final String escapedTableName = Util.pgEscapeIdentifier(tableName);
-        return new CSVBulkLoader("TRUNCATE " + escapedTableName,
+        return new CSVBulkLoader(escapedTableName,
                 String.format("COPY %s FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')",
-                        escapedTableName),
-                "ANALYZE " + escapedTableName);
+                        escapedTableName));
     }
 
     public static CSVBulkLoader toTable(final String tableName, final List<Column> columns) {
         final String escapedTableName = Util.pgEscapeIdentifier(tableName);
-        return new CSVBulkLoader("TRUNCATE " + escapedTableName,
+        return new CSVBulkLoader(escapedTableName,
                 String.format(
                         "COPY %s %s FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')",
-                        escapedTableName, columnsToString(columns)),
-                "ANALYZE " + escapedTableName);
+                        escapedTableName, columnsToString(columns)));
     }
 
     public static CSVBulkLoader toTable(final String tableName, final char delimiter,
                                         final char quote) {
         final String escapedTableName = Util.pgEscapeIdentifier(tableName);
-        return new CSVBulkLoader("TRUNCATE " + escapedTableName,
+        return new CSVBulkLoader(escapedTableName,
                 String.format(
                         "COPY %s FROM STDIN WITH (FORMAT csv, DELIMITER '%s', QUOTE '%s')",
-                        escapedTableName, delimiter, quote),
-                "ANALYZE " + escapedTableName);
+                        escapedTableName, delimiter, quote));
     }
 
     public static CSVBulkLoader toTable(final String tableName, final List<Column> columns,
                                         final char delimiter, final char quote) {
         final String escapedTableName = Util.pgEscapeIdentifier(tableName);
-        return new CSVBulkLoader("TRUNCATE " + escapedTableName,
+        return new CSVBulkLoader(escapedTableName,
                 String.format(
                         "COPY %s %s FROM STDIN WITH (FORMAT csv, DELIMITER '%s', QUOTE '%s')",
-                        escapedTableName, columnsToString(columns), delimiter, quote),
-                "ANALYZE "+escapedTableName);
+                        escapedTableName, columnsToString(columns), delimiter, quote));
+    }
+
+    /**
+     * A loader with an explicit ENCODING option: the server decodes the data itself, hence the
+     * raw bytes of a file may be sent as is (see {@link StreamCopyDataProducer}).
+     *
+     * @param tableName the destination table
+     * @param columns   the columns of the file
+     * @param delimiter the CSV delimiter
+     * @param quote     the CSV quote char
+     * @param encoding  the charset of the data
+     * @return the loader
+     */
+    public static CSVBulkLoader toTable(final String tableName, final List<Column> columns,
+                                        final char delimiter, final char quote,
+                                        final Charset encoding) {
+        final String escapedTableName = Util.pgEscapeIdentifier(tableName);
+        return new CSVBulkLoader(escapedTableName,
+                String.format(
+                        "COPY %s %s FROM STDIN WITH (FORMAT csv, DELIMITER '%s', QUOTE '%s', " +
+                                "ENCODING '%s')",
+                        escapedTableName, columnsToString(columns), delimiter, quote,
+                        Util.pgEncodingName(encoding)));
+    }
+
+    /**
+     * @param table the destination table
+     * @return a loader that sends the rows in the PGCOPY binary format (see
+     * {@link #populateBinary(Connection, RowsProvider, boolean)})
+     */
+    public static CSVBulkLoader toTableBinary(final Table table) {
+        final String escapedTableName = Util.pgEscapeIdentifier(table.getName());
+        return new CSVBulkLoader(escapedTableName,
+                String.format("COPY %s %s FROM STDIN WITH (FORMAT binary)",
+                        escapedTableName, columnsToString(table.getColumns())), table.getTypes());
     }
 
     private static String columnsToString(final List<Column> columns) {
@@ -92,20 +143,80 @@ public class CSVBulkLoader {
                 .collect(Collectors.joining(", ", "(", ")"));
     }
 
+    /**
+     * The escaped name of the table
+     */
+    private final String escapedTableName;
     private final String truncateQuery;
     private final String copyQuery;
     private final String analyzeQuery;
+    /**
+     * The types of the columns for a binary COPY, null for a CSV COPY
+     */
+    private final List<DataType> types;
+    private LoadListener listener;
 
     /**
-     * @param truncateQuery the query to truncate the table
-     * @param copyQuery     the query to copy the table
-     * @param analyzeQuery  the query to analyze the table
+     * @param escapedTableName the escaped name of the table
+     * @param copyQuery        the query to copy the table
      */
-    CSVBulkLoader(final String truncateQuery, final String copyQuery,
-                  final String analyzeQuery) {
-        this.truncateQuery = truncateQuery;
+    CSVBulkLoader(final String escapedTableName, final String copyQuery) {
+        this(escapedTableName, copyQuery, null);
+    }
+
+    /**
+     * @param escapedTableName the escaped name of the table
+     * @param copyQuery        the query to copy the table
+     * @param types            the types of the columns for a binary COPY, null for a CSV COPY
+     */
+    CSVBulkLoader(final String escapedTableName, final String copyQuery,
+                  final List<DataType> types) {
+        this.escapedTableName = escapedTableName;
+        this.truncateQuery = "TRUNCATE " + escapedTableName;
         this.copyQuery = copyQuery;
-        this.analyzeQuery = analyzeQuery;
+        this.analyzeQuery = "ANALYZE " + escapedTableName;
+        this.types = types;
+        this.listener = LoadListener.NONE;
+    }
+
+    /**
+     * @return a loader with the FREEZE option: the rows are written frozen, hence there is no
+     * anti-wraparound vacuum nor hint-bit rewrite of the pages after the load. The COPY must
+     * happen in the transaction that created or truncated the table (see
+     * {@link #populateFresh(Connection, CopyDataProducer)}).
+     */
+    public CSVBulkLoader withFreeze() {
+        if (this.copyQuery.endsWith(", FREEZE)")) {
+            return this;
+        }
+        final CSVBulkLoader loader = new CSVBulkLoader(this.escapedTableName,
+                this.copyQuery.substring(0, this.copyQuery.length() - 1) + ", FREEZE)",
+                this.types);
+        loader.setListener(this.listener);
+        return loader;
+    }
+
+    /**
+     * @return the escaped name of the table
+     */
+    String getEscapedTableName() {
+        return this.escapedTableName;
+    }
+
+    /**
+     * @param listener the listener of the COPY: bytes sent, latency of the copies, time spent
+     *                 waiting for the server. A reader reports through its own listener (see
+     *                 {@link OpenableReader#setListener(LoadListener)}).
+     */
+    public void setListener(final LoadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the listener, {@link LoadListener#NONE} by default
+     */
+    public LoadListener getListener() {
+        return this.listener;
     }
 
     /**
@@ -125,18 +236,34 @@ public class CSVBulkLoader {
         connection.setAutoCommit(false);
 
         if (update) {
-            final Statement statement = connection.createStatement();
-            statement.executeUpdate(this.truncateQuery);
-            statement.close();
+            this.truncate(connection);
         }
+        this.copy(connection, reader);
+        this.analyze(connection);
+        connection.commit();
+        connection.setAutoCommit(storedAutoCommit);
+    }
 
+    /**
+     * Copy the data from a CSV file, without TRUNCATE, ANALYZE nor commit.
+     *
+     * @param connection the PostgreSQL connection
+     * @param reader     an OpenableReader for a CSV file
+     * @return the number of rows copied
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs (un-parsable value for instance)
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    long copy(final Connection connection, final OpenableReader reader)
+            throws IOException, SQLException, InterruptedException {
         final String copyQuery = this.copyQuery;
 
         final BaseConnection baseConnection = (BaseConnection) connection;
         final CopyManager copyManager = new CopyManager(baseConnection);
+        final long[] rowCount = {0};
         final Thread thread = new Thread(() -> {
             try {
-                copyManager.copyIn(copyQuery, reader);
+                rowCount[0] = copyManager.copyIn(copyQuery, reader);
             } catch (final IOException e) {
                 reader.setException(e);
             } catch (final SQLException e) {
@@ -150,28 +277,269 @@ public class CSVBulkLoader {
             }
         });
         // ready to copy, but the reader is still not opened
+        final long start = System.nanoTime();
         thread.start();
 
         // open the floodgates
-        reader.open();
+        try {
+            reader.open();
+        } catch (final IOException e) {
+            // the COPY thread may have failed and closed the reader (the root cause is its
+            // SQLException), or may still wait for data: close the reader to stop it.
+            reader.close();
+            thread.join();
+            final SQLException sqlException = reader.getSQLException();
+            if (sqlException != null) {
+                sqlException.addSuppressed(e);
+                throw sqlException;
+            }
+            throw e;
+        }
 
         // wait for the end of flood
+        final long opened = System.nanoTime();
         thread.join();
+        final long end = System.nanoTime();
 
-        final IOException ioException = reader.getIOException();
-        if (ioException != null) {
-            throw ioException;
-        }
         final SQLException sqlException = reader.getSQLException();
         if (sqlException != null) {
             throw sqlException;
         }
+        final IOException ioException = reader.getIOException();
+        if (ioException != null) {
+            throw ioException;
+        }
+        this.listener.stageTime(LoadStage.EXECUTE, end - opened);
+        this.listener.batchExecuted(rowCount[0], end - start);
+        return rowCount[0];
+    }
 
+    /**
+     * @param connection the connection
+     * @throws SQLException if a SQL exception occurs
+     */
+    void truncate(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        statement.executeUpdate(this.truncateQuery);
+        statement.close();
+    }
+
+    /**
+     * Delete the rows of the table. Unlike the TRUNCATE, the DELETE does not take an ACCESS
+     * EXCLUSIVE lock and does not block the concurrent copies to the table.
+     *
+     * @param connection the connection
+     * @throws SQLException if a SQL exception occurs
+     */
+    void delete(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        statement.executeUpdate("DELETE FROM " + this.escapedTableName);
+        statement.close();
+    }
+
+    /**
+     * @param connection the connection
+     * @throws SQLException if a SQL exception occurs
+     */
+    void analyze(final Connection connection) throws SQLException {
         final Statement statement = connection.createStatement();
         statement.executeUpdate(this.analyzeQuery);
         statement.close();
+    }
+
+    /**
+     * A fresh load: TRUNCATE, COPY ... FREEZE and ANALYZE in a single transaction. If the
+     * connection is not in auto-commit mode, the current transaction must not hold an open
+     * cursor, or the server refuses the FREEZE. On failure, the transaction is rolled back.
+     * <p>
+     * With {@code wal_level=minimal}, the COPY that follows the TRUNCATE in the same
+     * transaction doesn't write the rows to the WAL.
+     *
+     * @param connection the PostgreSQL connection
+     * @param producer   the producer of the data
+     * @throws IOException  if an I/O error occurs
+     * @throws SQLException if a SQL exception occurs (un-parsable value for instance)
+     */
+    public void populateFresh(final Connection connection, final CopyDataProducer producer)
+            throws IOException, SQLException {
+        final boolean storedAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            this.truncate(connection);
+            this.withFreeze().copy(connection, producer);
+            this.analyze(connection);
+            connection.commit();
+        } catch (final IOException | SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(storedAutoCommit);
+        }
+    }
+
+    /**
+     * Add the data from a CSV file to a PostgreSQL connection, without pipe nor additional
+     * thread: the reader pushes the data to the COPY stream from the calling thread.
+     *
+     * @param connection the PostgreSQL connection
+     * @param reader     an OpenableReader for a CSV file, that supports
+     *                   {@link OpenableReader#writeTo(Writer)}.
+     * @param update     true to update an existing table
+     * @throws IOException  if an I/O error occurs
+     * @throws SQLException if a SQL exception occurs (un-parsable value for instance)
+     */
+    public void populateDirect(final Connection connection, final OpenableReader reader,
+                               final boolean update)
+            throws IOException, SQLException {
+        this.populate(connection, (out, charset) -> {
+            final Writer writer = new OutputStreamWriter(out, charset);
+            reader.writeTo(writer);
+            writer.flush();
+        }, update);
+    }
+
+    /**
+     * Add the data of a producer to a PostgreSQL connection. The producer writes the data to
+     * the COPY stream from the calling thread.
+     *
+     * @param connection the PostgreSQL connection
+     * @param producer   the producer of the data
+     * @param update     true to update an existing table
+     * @throws IOException  if an I/O error occurs
+     * @throws SQLException if a SQL exception occurs (un-parsable value for instance)
+     */
+    public void populate(final Connection connection, final CopyDataProducer producer,
+                         final boolean update)
+            throws IOException, SQLException {
+        final boolean storedAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+
+        if (update) {
+            this.truncate(connection);
+        }
+        this.copy(connection, producer);
+        this.analyze(connection);
         connection.commit();
         connection.setAutoCommit(storedAutoCommit);
     }
 
+    /**
+     * Copy the data of a producer, without TRUNCATE, ANALYZE nor commit. The COPY is opened by
+     * {@code CopyManager.copyIn(String)} and the data is written to {@code CopyIn.writeToCopy}
+     * by chunks.
+     *
+     * @param connection the PostgreSQL connection
+     * @param producer   the producer of the data
+     * @return the number of rows copied
+     * @throws IOException  if an I/O error occurs
+     * @throws SQLException if a SQL exception occurs (un-parsable value for instance)
+     */
+    long copy(final Connection connection, final CopyDataProducer producer)
+            throws IOException, SQLException {
+        final BaseConnection baseConnection = (BaseConnection) connection;
+        final CopyManager copyManager = new CopyManager(baseConnection);
+        final Charset charset = Charset.forName(baseConnection.getEncoding().name());
+        final long start = System.nanoTime();
+        final CopyIn copyIn = copyManager.copyIn(this.copyQuery);
+        final long[] bytes = {0};
+        try {
+            final PGCopyOutputStream out = new PGCopyOutputStream(copyIn, BUFFER_SIZE);
+            // the producer may write byte by byte: don't call PGCopyOutputStream for each one
+            final OutputStream buffered = new BufferedOutputStream(new FilterOutputStream(out) {
+                @Override
+                public void write(final int b) throws IOException {
+                    this.out.write(b);
+                    bytes[0]++;
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len)
+                        throws IOException {
+                    this.out.write(b, off, len);
+                    bytes[0] += len;
+                }
+
+                @Override
+                public void flush() {
+                    // the data is sent by chunks and at the end of the copy: a flush would
+                    // just send a smaller chunk.
+                }
+            });
+            producer.writeTo(buffered, charset);
+            buffered.flush();
+            final long written = System.nanoTime();
+            final long rowCount = out.endCopy();
+            final long end = System.nanoTime();
+            this.listener.bytesSent(bytes[0]);
+            this.listener.stageTime(LoadStage.EXECUTE, end - written);
+            this.listener.batchExecuted(rowCount, end - start);
+            return rowCount;
+        } catch (final IOException | RuntimeException e) {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Add the rows to a PostgreSQL connection in the PGCOPY binary format. The values are encoded
+     * on the client side, from the data types of the table: the server does not parse them.
+     * The TIMESTAMPTZ values without offset are in the TimeZone of the session, as in a text
+     * COPY.
+     *
+     * @param connection   the PostgreSQL connection
+     * @param rowsProvider the rows
+     * @param update       true to update an existing table
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs
+     */
+    public void populateBinary(final Connection connection, final RowsProvider rowsProvider,
+                               final boolean update)
+            throws IOException, SQLException {
+        if (this.types == null) {
+            throw new IllegalStateException("Not a binary loader. Use toTableBinary");
+        }
+        final List<DataType> types = this.types;
+        final ZoneId sessionZone;
+        if (types.contains(GeneralDataType.TIMESTAMPTZ)) {
+            sessionZone = CSVBulkLoader.getSessionZone(connection);
+        } else {
+            sessionZone = null;
+        }
+        final LoadRecorder recorder = new LoadRecorder(this.listener);
+        this.populate(connection, (out, charset) -> {
+            final BinaryCopyWriter writer = new BinaryCopyWriter(out, types, sessionZone);
+            writer.writeHeader();
+            recorder.restart();
+            while (rowsProvider.hasNext()) {
+                final List<Object> values = rowsProvider.nextValues(types);
+                recorder.lap(LoadStage.CONVERT);
+                writer.writeRow(values);
+                recorder.lap(LoadStage.WRITE);
+                recorder.row();
+            }
+            writer.writeTrailer();
+            recorder.report();
+        }, update);
+    }
+
+    /**
+     * @return the TimeZone of the session, or null if it is not a java zone (the TIMESTAMPTZ
+     * values without offset are then rejected)
+     */
+    private static ZoneId getSessionZone(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            final ResultSet resultSet = statement.executeQuery("SHOW TimeZone");
+            if (!resultSet.next()) {
+                return null;
+            }
+            return ZoneId.of(resultSet.getString(1));
+        } catch (final DateTimeException e) {
+            return null;
+        } finally {
+            statement.close();
+        }
+    }
 }
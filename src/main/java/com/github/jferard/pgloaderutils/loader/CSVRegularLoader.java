@@ -23,6 +23,10 @@
 package com.github.jferard.pgloaderutils.loader;
 
 import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.metrics.LoadListener;
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+import com.github.jferard.pgloaderutils.metrics.LoadStage;
+import com.github.jferard.pgloaderutils.provider.BindableRow;
 import com.github.jferard.pgloaderutils.provider.RowsProvider;
 import com.github.jferard.pgloaderutils.sql.DataType;
 import com.github.jferard.pgloaderutils.sql.Table;
@@ -31,9 +35,11 @@ import org.apache.commons.csv.CSVRecord;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,14 +52,43 @@ public class CSVRegularLoader {
      * The table
      */
     private final Table destTable;
+    private LoadListener listener;
+    /**
+     * The rebuilder of the indexes, null to use the indisready flag and REINDEX
+     */
+    private IndexRebuilder indexRebuilder;
 
     public CSVRegularLoader(final RowsProvider rowsProvider, final Table destTable) {
         this.rowsProvider = rowsProvider;
         this.destTable = destTable;
+        this.listener = LoadListener.NONE;
+        this.indexRebuilder = null;
     }
 
     /**
-     * Load the data
+     * Drop the indexes before the load and create them after the load, possibly on several
+     * connections, instead of disabling the indexes (needs superuser rights) and running a
+     * REINDEX.
+     *
+     * @param indexRebuilder the rebuilder, or null
+     */
+    public void setIndexRebuilder(final IndexRebuilder indexRebuilder) {
+        this.indexRebuilder = indexRebuilder;
+    }
+
+    /**
+     * @param listener the listener of the rows read, the rows rejected, the batches and the
+     *                 stage times
+     */
+    public void setListener(final LoadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Load the data. The records of the current batch are kept: if the batch fails, it is
+     * bisected under savepoints to find the bad rows. The good rows are loaded and the bad
+     * records are ignored.
+     *
      * @param connection the connection
      * @param batchSize the batch size
      * @return the list of ignored records
@@ -61,46 +96,302 @@ public class CSVRegularLoader {
      */
     public List<CSVRecord> load(final Connection connection, final int batchSize)
             throws SQLException {
-        final boolean autoCommit = connection.getAutoCommit();
-        if (autoCommit) {
-            connection.setAutoCommit(false);
+        final boolean autoCommit = this.begin(connection);
+        final PreparedStatement indexStatement = this.disableIndexes(connection);
+
+        final PreparedStatement insertStatement =
+                connection.prepareStatement(this.destTable.insertValuesQuery());
+        final List<DataType> types = this.destTable.getTypes();
+        int count = 0;
+        final List<BufferedRow> rows = new ArrayList<>(batchSize);
+        final List<CSVRecord> ignoredRecords = new ArrayList<>();
+        final LoadRecorder recorder = new LoadRecorder(this.listener);
+        while (this.rowsProvider.hasNext()) {
+            final BufferedRow row = this.nextRow(types, ignoredRecords);
+            if (row == null) {
+                continue;
+            }
+            try {
+                row.values.bind(insertStatement, 1);
+                insertStatement.addBatch();
+            } catch (final RuntimeException | SQLException e) {
+                this.ignoreRecord(ignoredRecords, row.record, e);
+                continue;
+            }
+            recorder.lap(LoadStage.CONVERT);
+            recorder.row();
+            rows.add(row);
+            count++;
+            if (rows.size() == batchSize) {
+                CSVRegularLoader.logger.info(String.format("%s rows added", count));
+                this.executeBatch(connection, insertStatement, insertStatement, types, rows,
+                        ignoredRecords);
+                rows.clear();
+                recorder.restart();
+            }
         }
-        final PreparedStatement indexStatement = connection.prepareStatement(Table.indIsReadyQuery());
-        this.setIndIsReady(indexStatement, false);
+        recorder.report();
+        CSVRegularLoader.logger.info(String.format("%s rows added", count));
+        this.executeBatch(connection, insertStatement, insertStatement, types, rows,
+                ignoredRecords);
+        this.end(connection, indexStatement, autoCommit);
+        return ignoredRecords;
+    }
+
+    /**
+     * Load the data with multi-row statements: {@code INSERT INTO t VALUES (...), ..., (...)}.
+     * Every statement but the last one has {@code rowsPerStatement} rows (bounded by
+     * {@link Table#maxRowsPerInsert()}); the remaining rows are sent by a last statement.
+     * If a batch fails, its rows are bisected with single-row statements, as in
+     * {@link #load(Connection, int)}.
+     *
+     * @param connection       the connection
+     * @param batchSize        the batch size, in rows
+     * @param rowsPerStatement the number of rows of a statement
+     * @return the list of ignored records
+     * @throws SQLException if an SQL error occurs (!)
+     */
+    public List<CSVRecord> load(final Connection connection, final int batchSize,
+                                final int rowsPerStatement)
+            throws SQLException {
+        final int rowsCount = Math.min(rowsPerStatement, this.destTable.maxRowsPerInsert());
+        if (rowsCount <= 1) {
+            return this.load(connection, batchSize);
+        }
+        final boolean autoCommit = this.begin(connection);
+        final PreparedStatement indexStatement = this.disableIndexes(connection);
 
         final PreparedStatement insertStatement =
+                connection.prepareStatement(this.destTable.insertValuesQuery(rowsCount));
+        final PreparedStatement singleRowStatement =
                 connection.prepareStatement(this.destTable.insertValuesQuery());
         final List<DataType> types = this.destTable.getTypes();
+        final List<BufferedRow> rows = new ArrayList<>();
         int count = 0;
+        int pending = 0;
         final List<CSVRecord> ignoredRecords = new ArrayList<>();
+        final LoadRecorder recorder = new LoadRecorder(this.listener);
+        final int colsCount = types.size();
         while (this.rowsProvider.hasNext()) {
+            // the row is bound to its slot of the statement: a bad row leaves its slot to
+            // the next row.
+            final BufferedRow row = this.nextRow(types, ignoredRecords);
+            if (row == null) {
+                continue;
+            }
             try {
-                this.rowsProvider.setStatementParameters(insertStatement, types);
+                row.values.bind(insertStatement, 1 + pending * colsCount);
+                rows.add(row);
+            } catch (final RuntimeException | SQLException e) {
+                this.ignoreRecord(ignoredRecords, row.record, e);
+                continue;
+            }
+            recorder.lap(LoadStage.CONVERT);
+            recorder.row();
+            pending++;
+            if (pending == rowsCount) {
                 insertStatement.addBatch();
-                count++;
-                if (count != 0 && count % batchSize == 0) {
+                pending = 0;
+                count += rowsCount;
+                if (rows.size() >= batchSize) {
                     CSVRegularLoader.logger.info(String.format("%s rows added", count));
-                    insertStatement.executeBatch();
-                    connection.commit();
+                    this.executeBatch(connection, insertStatement, singleRowStatement, types,
+                            rows, ignoredRecords);
+                    rows.clear();
+                    recorder.restart();
                 }
-            } catch (final RuntimeException | SQLException e) {
-                final CSVRecord ignoredRecord = this.rowsProvider.getCurRecord();
-                CSVRegularLoader.logger.log(Level.SEVERE,
-                        String.format("Error when adding record %s", ignoredRecord), e);
-                ignoredRecords.add(ignoredRecord);
             }
         }
+        recorder.report();
+        final List<BufferedRow> tail = new ArrayList<>(rows.subList(rows.size() - pending,
+                rows.size()));
+        rows.subList(rows.size() - pending, rows.size()).clear();
+        this.executeBatch(connection, insertStatement, singleRowStatement, types, rows,
+                ignoredRecords);
+        if (!tail.isEmpty()) {
+            final PreparedStatement tailStatement =
+                    connection.prepareStatement(this.destTable.insertValuesQuery(tail.size()));
+            this.setRowsParameters(tailStatement, types, tail);
+            final long start = System.nanoTime();
+            final int ignoredCount = ignoredRecords.size();
+            try {
+                tailStatement.executeUpdate();
+                connection.commit();
+            } catch (final SQLException e) {
+                CSVRegularLoader.logger.log(Level.WARNING, "Last statement failed, bisect", e);
+                connection.rollback();
+                this.bisect(connection, singleRowStatement, types, tail, ignoredRecords, e);
+                connection.commit();
+            }
+            this.batchExecuted(tail.size() - (ignoredRecords.size() - ignoredCount), start);
+            tailStatement.close();
+            count += tail.size();
+        }
         CSVRegularLoader.logger.info(String.format("%s rows added", count));
-        insertStatement.executeBatch();
-        connection.commit();
-        this.setIndIsReady(indexStatement, true);
-        final Statement statement = connection.createStatement();
-        statement.execute("REINDEX TABLE "+ Util.pgEscapeIdentifier(this.destTable.getName()));
+        insertStatement.close();
+        singleRowStatement.close();
+        this.end(connection, indexStatement, autoCommit);
+        return ignoredRecords;
+    }
+
+    /**
+     * Execute the batch and commit. On failure, the batch is rolled back (the previous batches
+     * are committed) and the rows are bisected.
+     *
+     * @param batchStatement     the statement that holds the batch
+     * @param singleRowStatement the single-row statement, for the bisection
+     * @param rows               the rows of the batch
+     */
+    private void executeBatch(final Connection connection, final PreparedStatement batchStatement,
+                              final PreparedStatement singleRowStatement,
+                              final List<DataType> types, final List<BufferedRow> rows,
+                              final List<CSVRecord> ignoredRecords) throws SQLException {
+        final long start = System.nanoTime();
+        final int ignoredCount = ignoredRecords.size();
+        try {
+            batchStatement.executeBatch();
+            connection.commit();
+        } catch (final SQLException e) {
+            CSVRegularLoader.logger.log(Level.WARNING,
+                    String.format("Batch of %s rows failed, bisect", rows.size()), e);
+            batchStatement.clearBatch();
+            connection.rollback();
+            this.bisect(connection, singleRowStatement, types, rows, ignoredRecords, e);
+            connection.commit();
+        }
+        this.batchExecuted(rows.size() - (ignoredRecords.size() - ignoredCount), start);
+    }
+
+    private void batchExecuted(final int rowsLoaded, final long start) {
+        final long nanos = System.nanoTime() - start;
+        this.listener.batchExecuted(rowsLoaded, nanos);
+        this.listener.stageTime(LoadStage.EXECUTE, nanos);
+    }
+
+    /**
+     * Split the rows of a failed batch in two halves, and try each half under a savepoint.
+     * A failing half is rolled back to its savepoint and bisected again, until a single row
+     * remains: this row is bad. Hence k bad rows among n cost O(k log n) batches.
+     */
+    private void bisect(final Connection connection, final PreparedStatement statement,
+                        final List<DataType> types, final List<BufferedRow> rows,
+                        final List<CSVRecord> ignoredRecords, final SQLException cause)
+            throws SQLException {
+        if (rows.size() == 1) {
+            this.ignoreRecord(ignoredRecords, rows.get(0).record, cause);
+            return;
+        }
+        final int middle = rows.size() / 2;
+        for (final List<BufferedRow> half : Arrays.asList(rows.subList(0, middle),
+                rows.subList(middle, rows.size()))) {
+            this.tryRows(connection, statement, types, half, ignoredRecords);
+        }
+    }
+
+    private void tryRows(final Connection connection, final PreparedStatement statement,
+                         final List<DataType> types, final List<BufferedRow> rows,
+                         final List<CSVRecord> ignoredRecords) throws SQLException {
+        final Savepoint savepoint = connection.setSavepoint();
+        try {
+            for (final BufferedRow row : rows) {
+                row.values.bind(statement, 1);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.releaseSavepoint(savepoint);
+        } catch (final SQLException e) {
+            statement.clearBatch();
+            connection.rollback(savepoint);
+            this.bisect(connection, statement, types, rows, ignoredRecords, e);
+        }
+    }
+
+    /**
+     * Read the next row. If the provider fails after it moved to the next record, the record is
+     * ignored. If it fails without moving, the load is aborted: ignoring the record would loop
+     * forever on it.
+     *
+     * @return the next row, or null if the record was ignored
+     * @throws SQLException if the provider didn't move to the next record
+     */
+    private BufferedRow nextRow(final List<DataType> types,
+                                final List<CSVRecord> ignoredRecords) throws SQLException {
+        final CSVRecord previousRecord = this.rowsProvider.getCurRecord();
+        final BindableRow values;
+        try {
+            values = this.rowsProvider.nextRow(types);
+        } catch (final RuntimeException | SQLException e) {
+            final CSVRecord record = this.rowsProvider.getCurRecord();
+            if (record == null || record == previousRecord) {
+                throw new SQLException("The rows provider did not move to the next record", e);
+            }
+            this.ignoreRecord(ignoredRecords, record, e);
+            return null;
+        }
+        return new BufferedRow(values, this.rowsProvider.getCurRecord());
+    }
+
+    private void setRowsParameters(final PreparedStatement statement, final List<DataType> types,
+                                   final List<BufferedRow> rows) throws SQLException {
+        int index = 1;
+        for (final BufferedRow row : rows) {
+            row.values.bind(statement, index);
+            index += types.size();
+        }
+    }
+
+    private void ignoreRecord(final List<CSVRecord> ignoredRecords,
+                              final CSVRecord ignoredRecord, final Exception e) {
+        CSVRegularLoader.logger.log(Level.SEVERE,
+                String.format("Error when adding record %s", ignoredRecord), e);
+        ignoredRecords.add(ignoredRecord);
+        this.listener.rowsRejected(1);
+    }
+
+    private boolean begin(final Connection connection) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        return autoCommit;
+    }
+
+    /**
+     * Disable (or drop) the indexes and commit, since a failed batch will roll back the
+     * transaction.
+     *
+     * @return the statement to enable the indexes, or null if the indexes were dropped
+     */
+    private PreparedStatement disableIndexes(final Connection connection) throws SQLException {
+        if (this.indexRebuilder != null) {
+            this.indexRebuilder.dropIndexes(connection);
+            return null;
+        }
+        final PreparedStatement indexStatement = connection.prepareStatement(Table.indIsReadyQuery());
+        this.setIndIsReady(indexStatement, false);
         connection.commit();
+        return indexStatement;
+    }
+
+    private void end(final Connection connection, final PreparedStatement indexStatement,
+                     final boolean autoCommit) throws SQLException {
+        if (indexStatement == null) {
+            try {
+                this.indexRebuilder.createIndexes();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while creating the indexes", e);
+            }
+        } else {
+            this.setIndIsReady(indexStatement, true);
+            final Statement statement = connection.createStatement();
+            statement.execute(
+                    "REINDEX TABLE " + Util.pgEscapeIdentifier(this.destTable.getName()));
+            connection.commit();
+        }
         if (autoCommit) {
             connection.setAutoCommit(true);
         }
-        return ignoredRecords;
     }
 
     private void setIndIsReady(final PreparedStatement indexStatement, final boolean indIsReady)
@@ -110,4 +401,17 @@ public class CSVRegularLoader {
         indexStatement.execute();
     }
 
+    /**
+     * A row of the current batch: the values, bound by the compiled binders of the provider,
+     * and the source record.
+     */
+    private static class BufferedRow {
+        private final BindableRow values;
+        private final CSVRecord record;
+
+        BufferedRow(final BindableRow values, final CSVRecord record) {
+            this.values = values;
+            this.record = record;
+        }
+    }
 }
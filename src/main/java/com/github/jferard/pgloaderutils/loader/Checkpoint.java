@@ -0,0 +1,96 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * The position of a load in the source file, recorded with the last committed chunk.
+ *
+ * @author Julien Férard
+ */
+public class Checkpoint {
+    private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+    /**
+     * A cheap fingerprint of a file: the size and the CRC32 of the first 64 KiB. A file that
+     * was replaced or appended has another fingerprint.
+     *
+     * @param path the path of the file
+     * @return the fingerprint
+     * @throws IOException if an I/O error occurs
+     */
+    public static String fingerprint(final Path path) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[FINGERPRINT_BYTES];
+        try (final InputStream in = Files.newInputStream(path)) {
+            int total = 0;
+            while (total < FINGERPRINT_BYTES) {
+                final int count = in.read(buffer, total, FINGERPRINT_BYTES - total);
+                if (count == -1) {
+                    break;
+                }
+                total += count;
+            }
+            crc.update(buffer, 0, total);
+        }
+        return String.format("%d:%08x", Files.size(path), crc.getValue());
+    }
+
+    private final String fingerprint;
+    private final long offset;
+    private final long recordNumber;
+
+    /**
+     * @param fingerprint  the fingerprint of the file
+     * @param offset       the offset of the first record that was not committed
+     * @param recordNumber the number of records committed
+     */
+    public Checkpoint(final String fingerprint, final long offset, final long recordNumber) {
+        this.fingerprint = fingerprint;
+        this.offset = offset;
+        this.recordNumber = recordNumber;
+    }
+
+    public String getFingerprint() {
+        return this.fingerprint;
+    }
+
+    public long getOffset() {
+        return this.offset;
+    }
+
+    public long getRecordNumber() {
+        return this.recordNumber;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Checkpoint[fingerprint=%s, offset=%d, recordNumber=%d]",
+                this.fingerprint, this.offset, this.recordNumber);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.jferard.pgloaderutils.loader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A producer that pushes the data of a COPY FROM STDIN, from the calling thread.
+ *
+ * @author Julien Férard
+ */
+@FunctionalInterface
+public interface CopyDataProducer {
+    /**
+     * Write the data. Do not close the stream.
+     *
+     * @param out     the COPY stream
+     * @param charset the client encoding of the connection, to encode text data
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(OutputStream out, Charset charset) throws IOException;
+}
@@ -0,0 +1,86 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+/**
+ * The statistics of a COPY worker
+ */
+public class CopyStats {
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double ONE_MB = 1024.0 * 1024.0;
+
+    private final int worker;
+    private final long bytes;
+    private final long rows;
+    private final long nanos;
+
+    /**
+     * @param worker the index of the worker
+     * @param bytes  the number of bytes read
+     * @param rows   the number of rows copied
+     * @param nanos  the duration of the copy
+     */
+    public CopyStats(final int worker, final long bytes, final long rows, final long nanos) {
+        this.worker = worker;
+        this.bytes = bytes;
+        this.rows = rows;
+        this.nanos = nanos;
+    }
+
+    public int getWorker() {
+        return this.worker;
+    }
+
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    public long getRows() {
+        return this.rows;
+    }
+
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    /**
+     * @return the throughput in rows/s
+     */
+    public double getRowsPerSecond() {
+        return this.nanos == 0 ? 0.0 : this.rows * NANOS_PER_SECOND / this.nanos;
+    }
+
+    /**
+     * @return the throughput in MB/s
+     */
+    public double getMBPerSecond() {
+        return this.nanos == 0 ? 0.0 : this.bytes / ONE_MB * NANOS_PER_SECOND / this.nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Worker %d: %d rows, %d bytes in %.3f s (%.1f rows/s, %.2f MB/s)",
+                this.worker, this.rows, this.bytes, this.nanos / NANOS_PER_SECOND,
+                this.getRowsPerSecond(), this.getMBPerSecond());
+    }
+}
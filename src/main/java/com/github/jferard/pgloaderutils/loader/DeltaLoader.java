@@ -0,0 +1,427 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.OffHeapMemory;
+import com.github.jferard.pgloaderutils.XXHash64;
+import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load the difference between a full snapshot of a table and the previous snapshot. Every
+ * record is reduced to a xxHash64 of its key and a xxHash64 of its content, stored in an
+ * off-heap open addressing table that is persisted to a snapshot file for the next run, with
+ * the key values. Then:
+ * <ul>
+ * <li>the new keys and the changed rows are copied to the table (see {@link CSVBulkLoader});</li>
+ * <li>the changed rows and the keys that disappeared are deleted by batches;</li>
+ * <li>the unchanged rows are not sent.</li>
+ * </ul>
+ * <p>
+ * Format is:
+ *
+ * <pre>
+ * {@code
+ * TRUNCATE table                                      -- first run: no previous snapshot
+ * DELETE FROM table WHERE (key) IN ((?), ..., (?))    -- changed and deleted keys
+ * COPY table FROM stdin                               -- new and changed rows
+ * COMMIT
+ * }
+ * </pre>
+ * <p>
+ * The columns of the file are the columns of the table, and the key columns are declared on
+ * the table (see {@link Table#withKey(String...)}). The new snapshot file is written before the
+ * commit and replaces the previous one after the commit. If the load fails, the previous
+ * snapshot is kept. The table must not be modified by another process between two runs.
+ * <p>
+ * If the process stops between the commit and the replacement, the new snapshot file (the
+ * path of the snapshot followed by ".new") is kept: it matches the committed data and must
+ * replace the previous snapshot before the next run, else the next run would compare the file
+ * to an outdated snapshot.
+ * <p>
+ * The rows are printed again for the COPY: a null value (see
+ * {@link QuoteMode#ALL_NON_NULL} to parse the unquoted empty fields as null) is sent as NULL
+ * and any other value, including an empty string, is quoted.
+ * <p>
+ * Two different keys (or contents) may have the same 64 bits hash, with a probability of
+ * about n²/2^65 for n rows: such a row would be missed.
+ *
+ * @author Julien Férard
+ */
+public class DeltaLoader {
+    private static final Logger logger = Logger.getLogger(DeltaLoader.class.getName());
+    /**
+     * "PGLUDEL1"
+     */
+    private static final long MAGIC = 0x50474C5544454C31L;
+    private static final int HEADER_SIZE = 40;
+    private static final int DELETE_BATCH_SIZE = 1000;
+    private static final CSVFormat COPY_FORMAT = CSVFormat.DEFAULT.builder()
+            .setQuoteMode(QuoteMode.ALL_NON_NULL).setNullString("").build();
+
+    private final Table table;
+    private final Path snapshotPath;
+    private final int[] keyIndices;
+    private final CSVBulkLoader bulkLoader;
+    private final XXHash64 hasher;
+
+    /**
+     * @param table        the table, with the key columns
+     * @param snapshotPath the path of the snapshot file
+     * @throws IllegalArgumentException if there is no key column, or if a key column is not a
+     *                                  column of the table
+     */
+    public DeltaLoader(final Table table, final Path snapshotPath) {
+        final List<Column> columns = table.getColumns();
+        final List<String> keyColumnNames = table.getKeyColumnNames();
+        if (keyColumnNames.isEmpty()) {
+            throw new IllegalArgumentException("No key column. Use withKey");
+        }
+        this.table = table;
+        this.snapshotPath = snapshotPath;
+        this.keyIndices = new int[keyColumnNames.size()];
+        for (int k = 0; k < this.keyIndices.length; k++) {
+            this.keyIndices[k] = -1;
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).getName().equals(keyColumnNames.get(k))) {
+                    this.keyIndices[k] = i;
+                }
+            }
+            if (this.keyIndices[k] == -1) {
+                throw new IllegalArgumentException(
+                        "Unknown key column: " + keyColumnNames.get(k));
+            }
+        }
+        this.bulkLoader = CSVBulkLoader.toTable(table.getName(), columns, ',', '"',
+                StandardCharsets.UTF_8);
+        this.hasher = new XXHash64(0);
+    }
+
+    /**
+     * Load the difference between the file and the previous snapshot, or the whole file if
+     * there is no previous snapshot.
+     *
+     * @param connection the PostgreSQL connection
+     * @param file       the CSV file
+     * @return the statistics
+     * @throws IOException  if an I/O error occurs
+     * @throws SQLException if a SQL exception occurs
+     */
+    public DeltaStats load(final Connection connection, final CSVFile file)
+            throws IOException, SQLException {
+        final Path rowsPath = Files.createTempFile("pgloaderutils", ".csv");
+        final Path keysPath = Files.createTempFile("pgloaderutils", ".keys");
+        final Path newSnapshotPath =
+                this.snapshotPath.resolveSibling(this.snapshotPath.getFileName() + ".new");
+        boolean committed = false;
+        try {
+            final DeltaStats stats;
+            if (Files.exists(this.snapshotPath)) {
+                try (final FileChannel channel = FileChannel.open(this.snapshotPath,
+                        StandardOpenOption.READ)) {
+                    stats = this.load(connection, file, channel, rowsPath, keysPath,
+                            newSnapshotPath);
+                }
+            } else {
+                stats = this.load(connection, file, null, rowsPath, keysPath, newSnapshotPath);
+            }
+            committed = true;
+            try {
+                Files.move(newSnapshotPath, this.snapshotPath,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final IOException e) {
+                DeltaLoader.logger.log(Level.SEVERE, String.format(
+                        "The data was committed, but the snapshot was not replaced: move %s " +
+                                "to %s before the next run", newSnapshotPath,
+                        this.snapshotPath), e);
+                throw e;
+            }
+            DeltaLoader.logger.info(stats.toString());
+            return stats;
+        } finally {
+            Files.deleteIfExists(rowsPath);
+            Files.deleteIfExists(keysPath);
+            if (!committed) {
+                Files.deleteIfExists(newSnapshotPath);
+            }
+        }
+    }
+
+    private DeltaStats load(final Connection connection, final CSVFile file,
+                            final FileChannel previousChannel, final Path rowsPath,
+                            final Path keysPath, final Path newSnapshotPath)
+            throws IOException, SQLException {
+        RowHashTable previous = null;
+        OffHeapMemory previousKeys = null;
+        if (previousChannel != null) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (previousChannel.read(header, header.position()) == -1) {
+                    throw new IOException("Truncated snapshot file: " + this.snapshotPath);
+                }
+            }
+            header.flip();
+            if (header.getLong() != MAGIC || header.getLong() != this.keyIndices.length) {
+                throw new IOException("Not a snapshot file of this table: " + this.snapshotPath);
+            }
+            final long capacity = header.getLong();
+            final long size = header.getLong();
+            final long keysLength = header.getLong();
+            final long tableLength = capacity * RowHashTable.SLOT_SIZE;
+            previous = new RowHashTable(OffHeapMemory.map(previousChannel,
+                    FileChannel.MapMode.READ_ONLY, HEADER_SIZE, tableLength), capacity, size);
+            previousKeys = OffHeapMemory.map(previousChannel, FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + tableLength, keysLength);
+        }
+        final RowHashTable current = RowHashTable.create(previous == null ? 0 : previous.size());
+
+        final boolean storedAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            if (previous == null) {
+                this.bulkLoader.truncate(connection);
+            }
+            long inserted = 0;
+            long changed = 0;
+            long deleted = 0;
+            long unchanged = 0;
+            long keysLength = 0;
+            try (final KeyDeleter deleter = new KeyDeleter(connection);
+                 final CSVParser parser = file.newCSVParser();
+                 final CSVPrinter printer = new CSVPrinter(
+                         Files.newBufferedWriter(rowsPath, StandardCharsets.UTF_8),
+                         COPY_FORMAT);
+                 final DataOutputStream keysOut = new DataOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(keysPath)))) {
+                for (final CSVRecord record : parser) {
+                    final long keyHash = this.hashKey(record);
+                    final long contentHash = this.hashContent(record);
+                    current.put(keyHash, contentHash, keysLength);
+                    keysLength += this.writeKey(keysOut, record);
+                    final long slot = previous == null ? -1 : previous.find(keyHash);
+                    if (slot == -1) {
+                        inserted++;
+                        printer.printRecord(record);
+                    } else if (previous.getContentHash(slot) != contentHash) {
+                        changed++;
+                        deleter.delete(this.keyValues(record));
+                        printer.printRecord(record);
+                    } else {
+                        unchanged++;
+                    }
+                }
+                if (previous != null) {
+                    for (long slot = 0; slot < previous.capacity(); slot++) {
+                        final long keyHash = previous.getKeyHash(slot);
+                        if (keyHash != 0 && current.find(keyHash) == -1) {
+                            deleted++;
+                            deleter.delete(
+                                    this.readKey(previousKeys, previous.getKeyOffset(slot)));
+                        }
+                    }
+                }
+            }
+            if (inserted + changed > 0) {
+                this.bulkLoader.copy(connection, StreamCopyDataProducer.fromPath(rowsPath,
+                        StreamCopyDataProducer.DEFAULT_BLOCK_SIZE));
+            }
+            this.writeSnapshot(newSnapshotPath, current, keysPath, keysLength);
+            connection.commit();
+            return new DeltaStats(inserted, changed, deleted, unchanged);
+        } catch (final IOException | SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(storedAutoCommit);
+        }
+    }
+
+    private long hashKey(final CSVRecord record) {
+        this.hasher.reset();
+        for (final int i : this.keyIndices) {
+            final String value = record.get(i);
+            if (value == null) {
+                throw new IllegalArgumentException(
+                        "Null key value at record " + record.getRecordNumber());
+            }
+            this.hasher.updateChars(value);
+        }
+        return this.hasher.digest();
+    }
+
+    private long hashContent(final CSVRecord record) {
+        this.hasher.reset();
+        for (int i = 0; i < record.size(); i++) {
+            final String value = record.get(i);
+            if (value == null) {
+                this.hasher.updateInt(-1); // not the length of a string
+            } else {
+                this.hasher.updateChars(value);
+            }
+        }
+        return this.hasher.digest();
+    }
+
+    private List<String> keyValues(final CSVRecord record) {
+        final List<String> values = new ArrayList<>(this.keyIndices.length);
+        for (final int i : this.keyIndices) {
+            values.add(record.get(i));
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    private long writeKey(final DataOutputStream out, final CSVRecord record)
+            throws IOException {
+        long length = 0;
+        for (final int i : this.keyIndices) {
+            final byte[] bytes = record.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            length += 4 + bytes.length;
+        }
+        return length;
+    }
+
+    private List<String> readKey(final OffHeapMemory keys, final long offset) {
+        final List<String> values = new ArrayList<>(this.keyIndices.length);
+        final byte[] lengthBytes = new byte[4];
+        long position = offset;
+        for (int k = 0; k < this.keyIndices.length; k++) {
+            keys.get(position, lengthBytes, 0, 4);
+            final int length = ByteBuffer.wrap(lengthBytes).getInt();
+            final byte[] bytes = new byte[length];
+            keys.get(position + 4, bytes, 0, length);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+            position += 4 + length;
+        }
+        return values;
+    }
+
+    private void writeSnapshot(final Path path, final RowHashTable rows, final Path keysPath,
+                               final long keysLength) throws IOException {
+        try (final FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             final FileChannel keys = FileChannel.open(keysPath, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putLong(this.keyIndices.length).putLong(rows.capacity())
+                    .putLong(rows.size()).putLong(keysLength);
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            rows.getMemory().writeTo(out);
+            long position = 0;
+            while (position < keysLength) {
+                position += keys.transferTo(position, keysLength - position, out);
+            }
+            out.force(false);
+        }
+    }
+
+    /**
+     * Delete the rows by batches of keys.
+     */
+    private class KeyDeleter implements AutoCloseable {
+        private final Connection connection;
+        private final int batchSize;
+        private final List<String> values;
+        private PreparedStatement statement;
+
+        KeyDeleter(final Connection connection) {
+            this.connection = connection;
+            this.batchSize = Math.min(DELETE_BATCH_SIZE,
+                    Table.MAX_PARAMETERS / DeltaLoader.this.keyIndices.length);
+            this.values = new ArrayList<>();
+        }
+
+        void delete(final List<String> key) throws SQLException {
+            this.values.addAll(key);
+            if (this.values.size() == this.batchSize * DeltaLoader.this.keyIndices.length) {
+                this.flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            final int rows = this.values.size() / DeltaLoader.this.keyIndices.length;
+            if (rows == 0) {
+                return;
+            }
+            final PreparedStatement s;
+            if (rows == this.batchSize) {
+                if (this.statement == null) {
+                    this.statement = this.connection.prepareStatement(
+                            DeltaLoader.this.table.deleteByKeyQuery(this.batchSize));
+                }
+                s = this.statement;
+            } else {
+                s = this.connection.prepareStatement(
+                        DeltaLoader.this.table.deleteByKeyQuery(rows));
+            }
+            for (int i = 0; i < this.values.size(); i++) {
+                // the type is inferred by the server
+                s.setObject(i + 1, this.values.get(i), Types.OTHER);
+            }
+            s.executeUpdate();
+            if (s != this.statement) {
+                s.close();
+            }
+            this.values.clear();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            this.flush();
+            if (this.statement != null) {
+                this.statement.close();
+            }
+        }
+    }
+}
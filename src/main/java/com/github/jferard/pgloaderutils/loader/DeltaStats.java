@@ -0,0 +1,71 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+/**
+ * The result of a delta load (see {@link DeltaLoader}).
+ *
+ * @author Julien Férard
+ */
+public class DeltaStats {
+    private final long inserted;
+    private final long changed;
+    private final long deleted;
+    private final long unchanged;
+
+    /**
+     * @param inserted  the number of new keys
+     * @param changed   the number of keys whose content changed
+     * @param deleted   the number of keys that disappeared
+     * @param unchanged the number of rows that were not sent
+     */
+    public DeltaStats(final long inserted, final long changed, final long deleted,
+                      final long unchanged) {
+        this.inserted = inserted;
+        this.changed = changed;
+        this.deleted = deleted;
+        this.unchanged = unchanged;
+    }
+
+    public long getInserted() {
+        return this.inserted;
+    }
+
+    public long getChanged() {
+        return this.changed;
+    }
+
+    public long getDeleted() {
+        return this.deleted;
+    }
+
+    public long getUnchanged() {
+        return this.unchanged;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Delta: %d inserted, %d changed, %d deleted, %d unchanged",
+                this.inserted, this.changed, this.deleted, this.unchanged);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A COPY by chunks: every chunk of N rows (or about N chars) is copied under a savepoint and
+ * committed. If a chunk fails, it is rolled back to the savepoint and bisected: each half is
+ * copied again under its own savepoint, until the bad rows are isolated. The bad rows are
+ * written to a reject file, with the server error as the last column.
+ * <p>
+ * The records are printed again for the COPY: a null value is sent as NULL (an unquoted empty
+ * field) and any other value, including an empty string, is quoted. To keep the NULLs of a CSV
+ * file, parse it with the {@link QuoteMode#ALL_NON_NULL} quote mode: an unquoted empty field is
+ * then parsed as null, and a quoted empty field as an empty string.
+ * <p>
+ * Format is:
+ *
+ * <pre>
+ * {@code
+ * TRUNCATE table                                  -- if update
+ * SAVEPOINT; COPY FROM stdin; RELEASE; COMMIT     -- every chunk
+ * ANALYZE table; COMMIT
+ * }
+ * </pre>
+ *
+ * @author Julien Férard
+ */
+public class FaultTolerantCSVBulkLoader {
+    private static final Logger logger =
+            Logger.getLogger(FaultTolerantCSVBulkLoader.class.getName());
+
+    private final CSVBulkLoader bulkLoader;
+    private final CSVFormat format;
+    private final int chunkRows;
+    private final long chunkChars;
+
+    /**
+     * @param bulkLoader the loader (used for the queries)
+     * @param format     the format of the data sent to the COPY: delimiter and quote must match
+     *                   the COPY query. The quote mode and the null string are overridden.
+     * @param chunkRows  the maximum number of rows of a chunk
+     * @param chunkChars the approximate maximum number of chars of a chunk
+     */
+    public FaultTolerantCSVBulkLoader(final CSVBulkLoader bulkLoader, final CSVFormat format,
+                                      final int chunkRows, final long chunkChars) {
+        this.bulkLoader = bulkLoader;
+        this.format = format.builder().setHeader((String[]) null)
+                .setQuoteMode(QuoteMode.ALL_NON_NULL).setNullString("").build();
+        this.chunkRows = chunkRows;
+        this.chunkChars = chunkChars;
+    }
+
+    /**
+     * Load the records.
+     *
+     * @param connection the PostgreSQL connection
+     * @param records    the records
+     * @param rejects    the printer of the rejected records. The server error is added
+     *                   to every record
+     * @param update     true to update an existing table
+     * @return the rejected records
+     * @throws IOException  if an I/O error occurs
+     * @throws SQLException if a SQL exception occurs outside of a COPY
+     */
+    public List<CSVRecord> populate(final Connection connection, final Iterator<CSVRecord> records,
+                                    final CSVPrinter rejects, final boolean update)
+            throws IOException, SQLException {
+        final boolean storedAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            if (update) {
+                this.bulkLoader.truncate(connection);
+            }
+            final List<CSVRecord> rejected = new ArrayList<>();
+            final List<CSVRecord> chunk = new ArrayList<>();
+            long chars = 0;
+            long count = 0;
+            while (records.hasNext()) {
+                final CSVRecord record = records.next();
+                chunk.add(record);
+                chars += this.estimateChars(record);
+                if (chunk.size() >= this.chunkRows || chars >= this.chunkChars) {
+                    count += this.copyChunk(connection, chunk, rejects, rejected);
+                    FaultTolerantCSVBulkLoader.logger.fine(
+                            String.format("%s rows copied, %s rejected", count,
+                                    rejected.size()));
+                    chunk.clear();
+                    chars = 0;
+                }
+            }
+            if (!chunk.isEmpty()) {
+                count += this.copyChunk(connection, chunk, rejects, rejected);
+            }
+            FaultTolerantCSVBulkLoader.logger.info(
+                    String.format("%s rows copied, %s rejected", count, rejected.size()));
+            rejects.flush();
+            this.bulkLoader.analyze(connection);
+            connection.commit();
+            return rejected;
+        } catch (final IOException | SQLException | RuntimeException | Error e) {
+            // the committed chunks stay, but setAutoCommit(true) must not commit the current one
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(storedAutoCommit);
+        }
+    }
+
+    private long estimateChars(final CSVRecord record) {
+        long chars = record.size();
+        for (final String value : record) {
+            if (value != null) {
+                chars += value.length();
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Copy a chunk and commit.
+     *
+     * @return the number of rows copied
+     */
+    private long copyChunk(final Connection connection, final List<CSVRecord> chunk,
+                           final CSVPrinter rejects, final List<CSVRecord> rejected)
+            throws IOException, SQLException {
+        final long count = this.tryCopy(connection, chunk, rejects, rejected);
+        connection.commit();
+        return count;
+    }
+
+    /**
+     * Copy the rows under a savepoint. If the copy fails, roll back to the savepoint and
+     * bisect.
+     *
+     * @return the number of rows copied
+     */
+    private long tryCopy(final Connection connection, final List<CSVRecord> rows,
+                         final CSVPrinter rejects, final List<CSVRecord> rejected)
+            throws IOException, SQLException {
+        final Savepoint savepoint = connection.setSavepoint();
+        try {
+            final long count = this.bulkLoader.copy(connection, (out, charset) -> {
+                final Writer writer = new OutputStreamWriter(out, charset);
+                final CSVPrinter printer = new CSVPrinter(writer, this.format);
+                for (final CSVRecord row : rows) {
+                    printer.printRecord(row);
+                }
+                printer.flush();
+            });
+            connection.releaseSavepoint(savepoint);
+            return count;
+        } catch (final SQLException | IOException e) {
+            connection.rollback(savepoint);
+            if (rows.size() == 1) {
+                final CSVRecord row = rows.get(0);
+                FaultTolerantCSVBulkLoader.logger.log(Level.WARNING,
+                        String.format("Reject record %s", row.getRecordNumber()), e);
+                final List<String> values = new ArrayList<>(row.size() + 1);
+                for (final String value : row) {
+                    values.add(value);
+                }
+                values.add(e.getMessage());
+                rejects.printRecord(values);
+                rejected.add(row);
+                this.bulkLoader.getListener().rowsRejected(1);
+                return 0;
+            }
+            final int middle = rows.size() / 2;
+            return this.tryCopy(connection, rows.subList(0, middle), rejects, rejected) +
+                    this.tryCopy(connection, rows.subList(middle, rows.size()), rejects,
+                            rejected);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.sql.Index;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Drop the declared indexes before a load and create them again after the load, on several
+ * connections at once. Unlike the {@code pg_index.indisready} trick followed by
+ * {@code REINDEX TABLE}, this needs no superuser rights, and the indexes are built
+ * concurrently. Each CREATE INDEX may also use parallel maintenance workers.
+ */
+public class IndexRebuilder {
+    private static final Logger logger = Logger.getLogger(IndexRebuilder.class.getName());
+    private static final Pattern MEMORY_PATTERN = Pattern.compile("\\d+\\s*(kB|MB|GB|TB)?");
+
+    private final List<Index> indexes;
+    private final List<Connection> connections;
+    private String maintenanceWorkMem;
+    private int maxParallelMaintenanceWorkers;
+
+    /**
+     * @param indexes     the indexes of the table
+     * @param connections the connections used to create the indexes, one per worker
+     */
+    public IndexRebuilder(final List<Index> indexes, final List<Connection> connections) {
+        this.indexes = indexes;
+        this.connections = connections;
+        this.maintenanceWorkMem = null;
+        this.maxParallelMaintenanceWorkers = -1;
+    }
+
+    /**
+     * @param maintenanceWorkMem the memory of a CREATE INDEX, e.g. "1GB", or null for the
+     *                           server setting
+     */
+    public void setMaintenanceWorkMem(final String maintenanceWorkMem) {
+        if (maintenanceWorkMem != null &&
+                !MEMORY_PATTERN.matcher(maintenanceWorkMem).matches()) {
+            throw new IllegalArgumentException("Not a memory size: " + maintenanceWorkMem);
+        }
+        this.maintenanceWorkMem = maintenanceWorkMem;
+    }
+
+    /**
+     * @param maxParallelMaintenanceWorkers the max number of parallel workers of a CREATE
+     *                                      INDEX (PostgreSQL 11+), or -1 for the server setting
+     */
+    public void setMaxParallelMaintenanceWorkers(final int maxParallelMaintenanceWorkers) {
+        this.maxParallelMaintenanceWorkers = maxParallelMaintenanceWorkers;
+    }
+
+    /**
+     * Drop the indexes and commit.
+     *
+     * @param connection the connection
+     * @throws SQLException if a SQL exception occurs
+     */
+    public void dropIndexes(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        for (final Index index : this.indexes) {
+            statement.executeUpdate(index.dropIndexQuery());
+        }
+        statement.close();
+        connection.commit();
+    }
+
+    /**
+     * Create the indexes, one transaction per index. The indexes are shared among the
+     * connections.
+     *
+     * @throws SQLException         if a SQL exception occurs
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public void createIndexes() throws SQLException, InterruptedException {
+        final ConcurrentLinkedQueue<Index> queue = new ConcurrentLinkedQueue<>(this.indexes);
+        final int workersCount = Math.min(this.connections.size(), this.indexes.size());
+        if (workersCount == 0) {
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(workersCount);
+        final List<Future<Void>> futures = new ArrayList<>(workersCount);
+        for (final Connection connection : this.connections.subList(0, workersCount)) {
+            futures.add(executor.submit(() -> {
+                this.createIndexes(connection, queue);
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        SQLException failure = null;
+        for (final Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (final ExecutionException e) {
+                if (failure == null) {
+                    failure = IndexRebuilder.toSQLException(e.getCause());
+                } else {
+                    failure.setNextException(IndexRebuilder.toSQLException(e.getCause()));
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void createIndexes(final Connection connection,
+                               final ConcurrentLinkedQueue<Index> queue) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        try {
+            final Statement statement = connection.createStatement();
+            Index index = queue.poll();
+            while (index != null) {
+                final long start = System.nanoTime();
+                if (this.maintenanceWorkMem != null) { // SET LOCAL: until the commit
+                    statement.execute(String.format("SET LOCAL maintenance_work_mem = '%s'",
+                            this.maintenanceWorkMem));
+                }
+                if (this.maxParallelMaintenanceWorkers >= 0) {
+                    statement.execute(String.format(
+                            "SET LOCAL max_parallel_maintenance_workers = %d",
+                            this.maxParallelMaintenanceWorkers));
+                }
+                statement.execute(index.createIndexQuery());
+                connection.commit();
+                IndexRebuilder.logger.info(String.format("%s in %.3f s", index.createIndexQuery(),
+                        (System.nanoTime() - start) / 1e9));
+                index = queue.poll();
+            }
+            statement.close();
+        } catch (final SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            if (autoCommit) {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static SQLException toSQLException(final Throwable e) {
+        if (e instanceof SQLException) {
+            return (SQLException) e;
+        }
+        return new SQLException(e);
+    }
+}
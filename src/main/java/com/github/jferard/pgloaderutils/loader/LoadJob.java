@@ -0,0 +1,56 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.sql.Table;
+
+/**
+ * A file to load into a table (see {@link MultiFileLoader}).
+ */
+public class LoadJob {
+    private final CSVFile file;
+    private final Table table;
+
+    /**
+     * @param file  the file. The records must match the columns of the table.
+     * @param table the destination table
+     */
+    public LoadJob(final CSVFile file, final Table table) {
+        this.file = file;
+        this.table = table;
+    }
+
+    public CSVFile getFile() {
+        return this.file;
+    }
+
+    public Table getTable() {
+        return this.table;
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getPath() + " -> " + this.table.getName();
+    }
+}
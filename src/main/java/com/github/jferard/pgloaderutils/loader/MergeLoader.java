@@ -0,0 +1,195 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.CSVFileRange;
+import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.reader.OpenableReader;
+import com.github.jferard.pgloaderutils.reader.SimpleFileReader;
+import com.github.jferard.pgloaderutils.sql.Table;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Refresh a table that already contains data: every chunk of data is copied into a session
+ * TEMP table with the columns of the table, then merged into the table by a single set-based
+ * query (see {@link Table#upsertQuery(String)} and {@link Table#mergeQuery(String)}).
+ * <p>
+ * Format is:
+ *
+ * <pre>
+ * {@code
+ * CREATE TEMP TABLE IF NOT EXISTS table_merge (...) ON COMMIT DELETE ROWS; COMMIT
+ * COPY table_merge FROM stdin                            -- a chunk
+ * INSERT INTO table SELECT ... FROM table_merge ON CONFLICT (key) DO UPDATE ...; COMMIT
+ * ...
+ * ANALYZE table; COMMIT
+ * }
+ * </pre>
+ * <p>
+ * The key columns are declared on the table (see {@link Table#withKey(String...)}). A key
+ * must not appear twice in a chunk.
+ */
+public class MergeLoader {
+    private static final Logger logger = Logger.getLogger(MergeLoader.class.getName());
+    private static final String MERGE_SUFFIX = "_merge";
+    private static final int MB_STEP = 64;
+
+    private final Table table;
+    private final Table tempTable;
+    private final CSVBulkLoader bulkLoader;
+    private boolean useMerge;
+
+    /**
+     * @param table the table, with the key columns
+     */
+    public MergeLoader(final Table table) {
+        this(table, ',', '"');
+    }
+
+    /**
+     * @param table     the table, with the key columns
+     * @param delimiter the CSV delimiter
+     * @param quote     the CSV quote char
+     */
+    public MergeLoader(final Table table, final char delimiter, final char quote) {
+        this.table = table;
+        this.tempTable = table.withName(table.getName() + MERGE_SUFFIX);
+        this.bulkLoader = CSVBulkLoader.toTable(this.tempTable.getName(),
+                this.tempTable.getColumns(), delimiter, quote);
+        this.useMerge = false;
+    }
+
+    /**
+     * @param useMerge true to use MERGE (PostgreSQL 15+, no unique index needed) instead of
+     *                 INSERT ... ON CONFLICT
+     */
+    public void setUseMerge(final boolean useMerge) {
+        this.useMerge = useMerge;
+    }
+
+    /**
+     * Merge the data of a producer in a single chunk.
+     *
+     * @param connection the PostgreSQL connection
+     * @param producer   the producer of the data
+     * @return the number of rows inserted or updated
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public long merge(final Connection connection, final CopyDataProducer producer)
+            throws IOException, SQLException, InterruptedException {
+        return this.load(connection,
+                Collections.singletonList(c -> this.bulkLoader.copy(c, producer)));
+    }
+
+    /**
+     * Merge the data of a reader in a single chunk.
+     *
+     * @param connection the PostgreSQL connection
+     * @param reader     an OpenableReader for a CSV file
+     * @return the number of rows inserted or updated
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public long merge(final Connection connection, final OpenableReader reader)
+            throws IOException, SQLException, InterruptedException {
+        return this.load(connection,
+                Collections.singletonList(c -> this.bulkLoader.copy(c, reader)));
+    }
+
+    /**
+     * Merge a file by chunks. The file must not be compressed.
+     *
+     * @param connection the PostgreSQL connection
+     * @param file       the CSV file. The format must match the COPY query.
+     * @param chunkBytes the approximate size of a chunk
+     * @return the number of rows inserted or updated
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public long merge(final Connection connection, final CSVFile file, final long chunkBytes)
+            throws IOException, SQLException, InterruptedException {
+        final long size = Files.size(file.getPath());
+        final int n = (int) Math.max(1, (size + chunkBytes - 1) / chunkBytes);
+        final List<Copier> copiers = new ArrayList<>();
+        for (final CSVFileRange range : file.split(n)) {
+            copiers.add(c -> this.bulkLoader.copy(c, new SimpleFileReader(
+                    file.newRangeReader(range), MergeLoader.logger, MB_STEP)));
+        }
+        return this.load(connection, copiers);
+    }
+
+    private long load(final Connection connection, final List<Copier> copiers)
+            throws IOException, SQLException, InterruptedException {
+        final String mergeQuery = this.useMerge ? this.table.mergeQuery(this.tempTable.getName())
+                : this.table.upsertQuery(this.tempTable.getName());
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            this.execute(connection, this.tempTable.createTempTableQuery());
+            connection.commit();
+            long rows = 0;
+            for (final Copier copier : copiers) {
+                try {
+                    copier.copy(connection);
+                    rows += this.execute(connection, mergeQuery);
+                    // ON COMMIT DELETE ROWS: the temp table is emptied
+                    connection.commit();
+                } catch (final IOException | SQLException | InterruptedException |
+                        RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+            this.execute(connection, "ANALYZE " + Util.pgEscapeIdentifier(this.table.getName()));
+            connection.commit();
+            return rows;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private int execute(final Connection connection, final String query) throws SQLException {
+        final Statement statement = connection.createStatement();
+        final int count = statement.executeUpdate(query);
+        statement.close();
+        return count;
+    }
+
+    private interface Copier {
+        long copy(Connection connection) throws IOException, SQLException, InterruptedException;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.DummyCSVRecordProcessor;
+import com.github.jferard.pgloaderutils.metrics.LoadMetrics;
+import com.github.jferard.pgloaderutils.reader.CSVProcessorFileReader;
+import com.github.jferard.pgloaderutils.sql.Table;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load many files into many tables over a bounded set of connections: one worker thread per
+ * connection takes the next job (largest files first), copies the file and commits. Each file
+ * is a transaction, and files targeting the same table are copied concurrently.
+ * <p>
+ * The tables are truncated once, before the first copy, and analyzed once, by the worker that
+ * finishes the last file of the table.
+ */
+public class MultiFileLoader {
+    private static final Logger logger = Logger.getLogger(MultiFileLoader.class.getName());
+
+    private final List<Connection> connections;
+
+    /**
+     * @param connections the PostgreSQL connections, one per worker
+     */
+    public MultiFileLoader(final List<Connection> connections) {
+        this.connections = connections;
+    }
+
+    /**
+     * Load the files. A failed file is rolled back and the other files are loaded; the first
+     * failure is thrown at the end.
+     *
+     * @param jobs   the files and their tables
+     * @param update true to truncate the tables before the load
+     * @return the aggregate metrics of the load
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public LoadMetrics load(final List<LoadJob> jobs, final boolean update)
+            throws IOException, SQLException, InterruptedException {
+        final LoadMetrics metrics = new LoadMetrics();
+        final Map<String, CSVBulkLoader> loaderByTable = new LinkedHashMap<>();
+        final Map<String, AtomicInteger> remainingByTable = new HashMap<>();
+        for (final LoadJob job : jobs) {
+            final Table table = job.getTable();
+            final CSVBulkLoader loader = loaderByTable.computeIfAbsent(table.getName(),
+                    name -> CSVBulkLoader.toTable(name, table.getColumns()));
+            loader.setListener(metrics);
+            remainingByTable.computeIfAbsent(table.getName(), name -> new AtomicInteger())
+                    .incrementAndGet();
+        }
+
+        final boolean[] storedAutoCommits = new boolean[this.connections.size()];
+        for (int i = 0; i < this.connections.size(); i++) {
+            final Connection connection = this.connections.get(i);
+            storedAutoCommits[i] = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+        }
+        try {
+            if (update) {
+                final Connection firstConnection = this.connections.get(0);
+                for (final CSVBulkLoader loader : loaderByTable.values()) {
+                    loader.truncate(firstConnection);
+                }
+                firstConnection.commit();
+            }
+            final ConcurrentLinkedQueue<LoadJob> queue =
+                    new ConcurrentLinkedQueue<>(MultiFileLoader.largestFirst(jobs));
+            final Throwable failure = this.runWorkers(queue, loaderByTable, remainingByTable,
+                    metrics);
+            MultiFileLoader.logger.info(metrics.toString());
+            if (failure != null) {
+                ParallelCSVBulkLoader.rethrow(failure);
+            }
+            return metrics;
+        } finally {
+            for (int i = 0; i < this.connections.size(); i++) {
+                this.connections.get(i).setAutoCommit(storedAutoCommits[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the first failure, or null
+     */
+    private Throwable runWorkers(final ConcurrentLinkedQueue<LoadJob> queue,
+                                 final Map<String, CSVBulkLoader> loaderByTable,
+                                 final Map<String, AtomicInteger> remainingByTable,
+                                 final LoadMetrics metrics) throws InterruptedException {
+        final int workersCount = this.connections.size();
+        final ExecutorService executor = Executors.newFixedThreadPool(workersCount);
+        final List<Future<Throwable>> futures = new ArrayList<>(workersCount);
+        for (final Connection connection : this.connections) {
+            futures.add(executor.submit(() -> {
+                Throwable firstFailure = null;
+                LoadJob job = queue.poll();
+                while (job != null) {
+                    final String tableName = job.getTable().getName();
+                    final CSVBulkLoader loader = loaderByTable.get(tableName);
+                    final Throwable failure = this.loadFile(connection, loader, job, metrics);
+                    if (firstFailure == null) {
+                        firstFailure = failure;
+                    }
+                    if (remainingByTable.get(tableName).decrementAndGet() == 0) {
+                        loader.analyze(connection);
+                        connection.commit();
+                    }
+                    job = queue.poll();
+                }
+                return firstFailure;
+            }));
+        }
+        executor.shutdown();
+
+        Throwable failure = null;
+        for (final Future<Throwable> future : futures) {
+            Throwable workerFailure;
+            try {
+                workerFailure = future.get();
+            } catch (final ExecutionException e) {
+                workerFailure = e.getCause();
+            }
+            if (failure == null) {
+                failure = workerFailure;
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Copy a file and commit, or roll back.
+     *
+     * @return the failure or null
+     */
+    private Throwable loadFile(final Connection connection, final CSVBulkLoader loader,
+                               final LoadJob job, final LoadMetrics metrics)
+            throws SQLException {
+        final CSVFile file = job.getFile();
+        try {
+            final long start = System.nanoTime();
+            final long rows = loader.copy(connection, (out, charset) -> {
+                final CSVProcessorFileReader reader = CSVProcessorFileReader.forWriter(
+                        file.newCSVParser(), DummyCSVRecordProcessor.INSTANCE);
+                reader.setListener(metrics);
+                final Writer writer = new OutputStreamWriter(out, charset);
+                reader.writeTo(writer);
+                writer.flush();
+            });
+            connection.commit();
+            MultiFileLoader.logger.info(String.format("%s: %d rows in %.3f s", job, rows,
+                    (System.nanoTime() - start) / 1e9));
+            return null;
+        } catch (final IOException | SQLException | RuntimeException e) {
+            MultiFileLoader.logger.log(Level.SEVERE, String.format("%s failed, rollback", job),
+                    e);
+            connection.rollback();
+            return e;
+        }
+    }
+
+    /**
+     * Sort the jobs by decreasing file size, to avoid a large file at the end of the load.
+     */
+    private static List<LoadJob> largestFirst(final List<LoadJob> jobs) {
+        final Map<LoadJob, Long> sizeByJob = new HashMap<>();
+        for (final LoadJob job : jobs) {
+            long size;
+            try {
+                size = Files.size(job.getFile().getPath());
+            } catch (final IOException e) {
+                size = 0;
+            }
+            sizeByJob.put(job, size);
+        }
+        final List<LoadJob> sortedJobs = new ArrayList<>(jobs);
+        sortedJobs.sort(Collections.reverseOrder(Comparator.comparing(sizeByJob::get)));
+        return sortedJobs;
+    }
+}
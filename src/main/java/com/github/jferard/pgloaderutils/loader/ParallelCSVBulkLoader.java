@@ -0,0 +1,258 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.CSVFileRange;
+import com.github.jferard.pgloaderutils.reader.SimpleFileReader;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load a single CSV file with several concurrent COPY on several connections. The file is
+ * split in ranges aligned on record boundaries (see {@link CSVFile#split(int)}), and every
+ * connection copies one range.
+ * <p>
+ * Format is:
+ *
+ * <pre>
+ * {@code
+ * DELETE FROM table         -- first connection, if update
+ * COPY FROM stdin            -- every connection, in parallel
+ * COMMIT                     -- every connection, one after the other, if all copies
+ *                               succeeded (or ROLLBACK)
+ * ANALYZE table; COMMIT      -- first connection
+ * }
+ * </pre>
+ * <p>
+ * The clearing is a DELETE in the transaction of the first worker (a TRUNCATE would take an
+ * ACCESS EXCLUSIVE lock and block the other connections): if a copy fails, every transaction
+ * is rolled back and the old data is kept.
+ * <p>
+ * The commits are not atomic: they are sent one after the other, hence the other sessions may
+ * see the table without its old rows and with only some of the ranges, until the last commit.
+ * If a commit fails, the next transactions are rolled back but the previous ones stay
+ * committed. Use {@link TwoPhaseCSVBulkLoader} to make all the ranges visible at once.
+ * <p>
+ * On any failure, including an interruption of the calling thread, the workers are awaited and
+ * every connection is rolled back before its auto-commit mode is restored.
+ * <p>
+ * The split (see {@link CSVFile#split(int)}) scans the file on the calling thread before the
+ * copies start: the file is read twice.
+ *
+ * @author Julien Férard
+ */
+public class ParallelCSVBulkLoader {
+    private static final Logger logger = Logger.getLogger(ParallelCSVBulkLoader.class.getName());
+    private static final int MB_STEP = 64;
+
+    private final CSVBulkLoader bulkLoader;
+
+    /**
+     * @param bulkLoader the loader (used for the queries)
+     */
+    public ParallelCSVBulkLoader(final CSVBulkLoader bulkLoader) {
+        this.bulkLoader = bulkLoader;
+    }
+
+    /**
+     * Load the file.
+     *
+     * @param connections the PostgreSQL connections, one per worker
+     * @param file        the CSV file. The format must match the COPY query.
+     * @param update      true to update an existing table
+     * @return the statistics of the workers
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs (un-parsable value for instance)
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public List<CopyStats> populate(final List<Connection> connections, final CSVFile file,
+                                    final boolean update)
+            throws IOException, SQLException, InterruptedException {
+        final List<CSVFileRange> ranges = file.split(connections.size());
+        final int workersCount = ranges.size();
+        final Connection firstConnection = connections.get(0);
+        final boolean[] storedAutoCommits = new boolean[connections.size()];
+        for (int i = 0; i < connections.size(); i++) {
+            final Connection connection = connections.get(i);
+            storedAutoCommits[i] = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+        }
+        try {
+            if (update) {
+                this.bulkLoader.delete(firstConnection);
+            }
+
+            final List<CopyStats> stats = this.copyRanges(connections, file, ranges);
+            this.commit(connections, workersCount);
+            for (final CopyStats stat : stats) {
+                ParallelCSVBulkLoader.logger.info(stat.toString());
+            }
+
+            this.bulkLoader.analyze(firstConnection);
+            firstConnection.commit();
+            return stats;
+        } catch (final IOException | SQLException | InterruptedException | RuntimeException |
+                Error e) {
+            // before the autocommit is restored: setAutoCommit(true) would commit
+            ParallelCSVBulkLoader.rollback(connections);
+            throw e;
+        } finally {
+            for (int i = 0; i < connections.size(); i++) {
+                connections.get(i).setAutoCommit(storedAutoCommits[i]);
+            }
+        }
+    }
+
+    /**
+     * Commit the workers, one after the other. If a commit fails, the next workers will be
+     * rolled back.
+     */
+    private void commit(final List<Connection> connections, final int workersCount)
+            throws SQLException {
+        for (int i = 0; i < workersCount; i++) {
+            try {
+                connections.get(i).commit();
+            } catch (final SQLException e) {
+                ParallelCSVBulkLoader.logger.log(Level.SEVERE, String.format(
+                        "Commit of worker %s failed, %s workers were committed", i, i), e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Roll back every connection. A failure is logged: the other connections are still rolled
+     * back.
+     *
+     * @param connections the connections
+     */
+    static void rollback(final List<Connection> connections) {
+        for (final Connection connection : connections) {
+            try {
+                connection.rollback();
+            } catch (final SQLException e) {
+                ParallelCSVBulkLoader.logger.log(Level.SEVERE, "Can't rollback", e);
+            }
+        }
+    }
+
+    /**
+     * Copy the ranges in parallel. If a copy fails or if the thread is interrupted, the workers
+     * are awaited and the failure is thrown.
+     */
+    private List<CopyStats> copyRanges(final List<Connection> connections, final CSVFile file,
+                                       final List<CSVFileRange> ranges)
+            throws IOException, SQLException, InterruptedException {
+        final int workersCount = ranges.size();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(workersCount, 1));
+        final List<Future<CopyStats>> futures = new ArrayList<>(workersCount);
+        for (int i = 0; i < workersCount; i++) {
+            final int worker = i;
+            final Connection connection = connections.get(i);
+            final CSVFileRange range = ranges.get(i);
+            futures.add(executor.submit(() -> {
+                final long start = System.nanoTime();
+                final SimpleFileReader reader = new SimpleFileReader(file.newRangeReader(range),
+                        ParallelCSVBulkLoader.logger, MB_STEP);
+                final long rows = this.bulkLoader.copy(connection, reader);
+                return new CopyStats(worker, range.length(), rows, System.nanoTime() - start);
+            }));
+        }
+        executor.shutdown();
+
+        final List<CopyStats> stats = new ArrayList<>(workersCount);
+        Throwable failure = null;
+        try {
+            for (final Future<CopyStats> future : futures) {
+                try {
+                    stats.add(future.get());
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            failure = e;
+            ParallelCSVBulkLoader.cancel(executor, futures);
+        }
+        if (failure != null) {
+            ParallelCSVBulkLoader.logger.log(Level.SEVERE, "A worker failed, rollback", failure);
+            ParallelCSVBulkLoader.rethrow(failure);
+        }
+        return stats;
+    }
+
+    /**
+     * Interrupt the workers and wait for their end: the connections can't be rolled back while
+     * a worker uses them.
+     *
+     * @param executor the executor of the workers, shut down
+     * @param futures  the futures of the workers
+     */
+    static void cancel(final ExecutorService executor, final List<? extends Future<?>> futures) {
+        for (final Future<?> future : futures) {
+            future.cancel(true);
+        }
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void rethrow(final Throwable failure)
+            throws IOException, SQLException, InterruptedException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        } else if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else {
+            throw new IOException(failure);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.CSVFileRange;
+import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.reader.SimpleFileReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Load a CSV file by chunks, one transaction per chunk, and resume an interrupted load from
+ * the last committed chunk. The file is split in ranges of records (see
+ * {@link CSVFile#split(long, int)}) and every range is copied, then the position of the next
+ * range is saved in a control table, in the same transaction:
+ *
+ * <pre>
+ * {@code
+ * TRUNCATE table             -- if update and there is no checkpoint
+ * COPY FROM stdin            -- a chunk
+ * INSERT INTO checkpoint ... -- the offset of the next chunk, the number of records and the
+ * COMMIT                     -- fingerprint of the file
+ * ...
+ * ANALYZE table; DELETE FROM checkpoint ...; COMMIT
+ * }
+ * </pre>
+ * <p>
+ * A load of the same file (same fingerprint, see {@link Checkpoint#fingerprint}) to the same
+ * table starts at the saved offset. The checkpoint is deleted at the end of the load. The
+ * control table is created if it does not exist. The file must not be compressed.
+ *
+ * @author Julien Férard
+ */
+public class ResumableCSVBulkLoader {
+    public static final String DEFAULT_CHECKPOINT_TABLE = "pgloaderutils_checkpoint";
+    private static final Logger logger = Logger.getLogger(ResumableCSVBulkLoader.class.getName());
+    private static final int MB_STEP = 64;
+
+    private final CSVBulkLoader bulkLoader;
+    private final long chunkBytes;
+    private String checkpointTable;
+
+    /**
+     * @param bulkLoader the loader (used for the queries)
+     * @param chunkBytes the approximate size of a chunk. A larger chunk means less commits, but
+     *                   more data to reload after a failure.
+     */
+    public ResumableCSVBulkLoader(final CSVBulkLoader bulkLoader, final long chunkBytes) {
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkBytes);
+        }
+        this.bulkLoader = bulkLoader;
+        this.chunkBytes = chunkBytes;
+        this.checkpointTable = DEFAULT_CHECKPOINT_TABLE;
+    }
+
+    /**
+     * @param checkpointTable the name of the control table, {@link #DEFAULT_CHECKPOINT_TABLE}
+     *                        by default
+     */
+    public void setCheckpointTable(final String checkpointTable) {
+        this.checkpointTable = checkpointTable;
+    }
+
+    /**
+     * Load the file, or the remaining chunks of the file.
+     *
+     * @param connection the PostgreSQL connection
+     * @param file       the CSV file. The format must match the COPY query.
+     * @param update     true to update an existing table (ignored on resume)
+     * @return the last checkpoint
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs (un-parsable value for instance)
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public Checkpoint populate(final Connection connection, final CSVFile file,
+                               final boolean update)
+            throws IOException, SQLException, InterruptedException {
+        final boolean storedAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            this.createCheckpointTable(connection);
+            connection.commit();
+
+            final String fingerprint = Checkpoint.fingerprint(file.getPath());
+            Checkpoint checkpoint = this.loadCheckpoint(connection, fingerprint);
+            boolean truncate;
+            if (checkpoint == null) {
+                checkpoint = new Checkpoint(fingerprint, 0, 0);
+                truncate = update;
+            } else {
+                ResumableCSVBulkLoader.logger.info("Resume the load at " + checkpoint);
+                truncate = false;
+            }
+
+            final long remaining = Files.size(file.getPath()) - checkpoint.getOffset();
+            final int n = (int) Math.max(1, (remaining + this.chunkBytes - 1) / this.chunkBytes);
+            final List<CSVFileRange> ranges = file.split(checkpoint.getOffset(), n);
+            for (final CSVFileRange range : ranges) {
+                try {
+                    if (truncate) {
+                        this.bulkLoader.truncate(connection);
+                    }
+                    final SimpleFileReader reader = new SimpleFileReader(
+                            file.newRangeReader(range), ResumableCSVBulkLoader.logger, MB_STEP);
+                    final long rows = this.bulkLoader.copy(connection, reader);
+                    checkpoint = new Checkpoint(fingerprint, range.getEnd(),
+                            checkpoint.getRecordNumber() + rows);
+                    this.saveCheckpoint(connection, checkpoint);
+                    connection.commit();
+                    truncate = false;
+                } catch (final IOException | SQLException | InterruptedException |
+                        RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+
+            if (truncate) { // no record
+                this.bulkLoader.truncate(connection);
+            }
+            this.bulkLoader.analyze(connection);
+            this.deleteCheckpoint(connection);
+            connection.commit();
+            return checkpoint;
+        } finally {
+            connection.setAutoCommit(storedAutoCommit);
+        }
+    }
+
+    private void createCheckpointTable(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        statement.executeUpdate(String.format("CREATE TABLE IF NOT EXISTS %s (" +
+                        "table_name text PRIMARY KEY, fingerprint text NOT NULL, " +
+                        "byte_offset bigint NOT NULL, record_number bigint NOT NULL)",
+                Util.pgEscapeIdentifier(this.checkpointTable)));
+        statement.close();
+    }
+
+    /**
+     * @return the checkpoint of the table, or null if there is no checkpoint or if the
+     * checkpoint belongs to another file.
+     */
+    private Checkpoint loadCheckpoint(final Connection connection, final String fingerprint)
+            throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(String.format(
+                "SELECT fingerprint, byte_offset, record_number FROM %s WHERE table_name = ?",
+                Util.pgEscapeIdentifier(this.checkpointTable)));
+        statement.setString(1, this.bulkLoader.getEscapedTableName());
+        final ResultSet resultSet = statement.executeQuery();
+        Checkpoint checkpoint = null;
+        if (resultSet.next()) {
+            final String savedFingerprint = resultSet.getString(1);
+            if (savedFingerprint.equals(fingerprint)) {
+                checkpoint = new Checkpoint(fingerprint, resultSet.getLong(2),
+                        resultSet.getLong(3));
+            } else {
+                ResumableCSVBulkLoader.logger.warning(String.format(
+                        "The checkpoint of %s belongs to another file (%s), ignored",
+                        this.bulkLoader.getEscapedTableName(), savedFingerprint));
+            }
+        }
+        resultSet.close();
+        statement.close();
+        return checkpoint;
+    }
+
+    private void saveCheckpoint(final Connection connection, final Checkpoint checkpoint)
+            throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(String.format(
+                "INSERT INTO %s (table_name, fingerprint, byte_offset, record_number) " +
+                        "VALUES (?, ?, ?, ?) ON CONFLICT (table_name) DO UPDATE SET " +
+                        "fingerprint = EXCLUDED.fingerprint, " +
+                        "byte_offset = EXCLUDED.byte_offset, " +
+                        "record_number = EXCLUDED.record_number",
+                Util.pgEscapeIdentifier(this.checkpointTable)));
+        statement.setString(1, this.bulkLoader.getEscapedTableName());
+        statement.setString(2, checkpoint.getFingerprint());
+        statement.setLong(3, checkpoint.getOffset());
+        statement.setLong(4, checkpoint.getRecordNumber());
+        statement.executeUpdate();
+        statement.close();
+    }
+
+    private void deleteCheckpoint(final Connection connection) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(String.format(
+                "DELETE FROM %s WHERE table_name = ?",
+                Util.pgEscapeIdentifier(this.checkpointTable)));
+        statement.setString(1, this.bulkLoader.getEscapedTableName());
+        statement.executeUpdate();
+        statement.close();
+    }
+}
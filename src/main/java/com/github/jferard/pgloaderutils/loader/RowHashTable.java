@@ -0,0 +1,158 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.OffHeapMemory;
+
+/**
+ * An off-heap open addressing table (linear probing) of the rows of a snapshot: the hash of
+ * the key, the hash of the content and the offset of the key values in a side block. A key hash
+ * of 0 marks an empty slot (a real 0 hash is stored as 1).
+ */
+class RowHashTable {
+    static final int SLOT_SIZE = 24;
+    private static final long MIN_CAPACITY = 1024;
+
+    /**
+     * @param expectedSize the expected number of rows
+     * @return an empty table, filled up to 50 % at the expected size
+     */
+    static RowHashTable create(final long expectedSize) {
+        final long capacity =
+                Math.max(MIN_CAPACITY, Long.highestOneBit(expectedSize * 2 - 1) << 1);
+        return new RowHashTable(OffHeapMemory.allocate(capacity * SLOT_SIZE), capacity, 0);
+    }
+
+    private static long normalize(final long keyHash) {
+        return keyHash == 0 ? 1 : keyHash;
+    }
+
+    private OffHeapMemory memory;
+    private long capacity;
+    private long mask;
+    private long size;
+
+    /**
+     * @param memory   the slots
+     * @param capacity the number of slots, a power of two
+     * @param size     the number of rows
+     */
+    RowHashTable(final OffHeapMemory memory, final long capacity, final long size) {
+        this.memory = memory;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.size = size;
+    }
+
+    /**
+     * @param keyHash the hash of the key
+     * @return the slot, or -1
+     */
+    long find(final long keyHash) {
+        final long h = RowHashTable.normalize(keyHash);
+        long slot = h & this.mask;
+        while (true) {
+            final long cur = this.memory.getLong(slot * SLOT_SIZE);
+            if (cur == h) {
+                return slot;
+            } else if (cur == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Add or replace a row.
+     *
+     * @param keyHash     the hash of the key
+     * @param contentHash the hash of the content
+     * @param keyOffset   the offset of the key values
+     */
+    void put(final long keyHash, final long contentHash, final long keyOffset) {
+        if ((this.size + 1) * 10 > this.capacity * 7) {
+            this.grow();
+        }
+        if (this.insert(RowHashTable.normalize(keyHash), contentHash, keyOffset)) {
+            this.size++;
+        }
+    }
+
+    private boolean insert(final long h, final long contentHash, final long keyOffset) {
+        long slot = h & this.mask;
+        while (true) {
+            final long offset = slot * SLOT_SIZE;
+            final long cur = this.memory.getLong(offset);
+            if (cur == 0 || cur == h) {
+                this.memory.putLong(offset, h);
+                this.memory.putLong(offset + 8, contentHash);
+                this.memory.putLong(offset + 16, keyOffset);
+                return cur == 0;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    private void grow() {
+        final OffHeapMemory oldMemory = this.memory;
+        final long oldCapacity = this.capacity;
+        this.capacity = oldCapacity * 2;
+        this.mask = this.capacity - 1;
+        this.memory = OffHeapMemory.allocate(this.capacity * SLOT_SIZE);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            final long offset = slot * SLOT_SIZE;
+            final long h = oldMemory.getLong(offset);
+            if (h != 0) {
+                this.insert(h, oldMemory.getLong(offset + 8), oldMemory.getLong(offset + 16));
+            }
+        }
+    }
+
+    /**
+     * @param slot the slot
+     * @return the hash of the key, 0 if the slot is empty
+     */
+    long getKeyHash(final long slot) {
+        return this.memory.getLong(slot * SLOT_SIZE);
+    }
+
+    long getContentHash(final long slot) {
+        return this.memory.getLong(slot * SLOT_SIZE + 8);
+    }
+
+    long getKeyOffset(final long slot) {
+        return this.memory.getLong(slot * SLOT_SIZE + 16);
+    }
+
+    long capacity() {
+        return this.capacity;
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    OffHeapMemory getMemory() {
+        return this.memory;
+    }
+}
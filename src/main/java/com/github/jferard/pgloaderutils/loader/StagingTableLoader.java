@@ -0,0 +1,210 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.reader.OpenableReader;
+import com.github.jferard.pgloaderutils.sql.Index;
+import com.github.jferard.pgloaderutils.sql.SimpleIndex;
+import com.github.jferard.pgloaderutils.sql.Table;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refresh a table without blocking the readers: the data is copied into an UNLOGGED staging
+ * table without indexes, the staging table is set LOGGED (before the indexes, that would be
+ * rewritten), the indexes are built in parallel (see {@link IndexRebuilder}), the table is
+ * analyzed, and finally swapped with the live table by a short transaction of renames. The
+ * readers are blocked only during this last transaction.
+ * <p>
+ * The live table is dropped by the swap: it must not be referenced by views or foreign keys
+ * (the swap would fail and the live table would be kept). The staging table is created from
+ * the {@link Table} definition only: the grants, triggers, rules, policies, comments, defaults
+ * and constraints of the live table that are not part of this definition are lost, and must
+ * be recreated by the caller after the swap.
+ */
+public class StagingTableLoader {
+    private static final Logger logger = Logger.getLogger(StagingTableLoader.class.getName());
+    private static final String STAGING_SUFFIX = "_staging";
+    private static final String OLD_SUFFIX = "_old";
+
+    private final Table table;
+    private final Table stagingTable;
+    private final List<SimpleIndex> indexes;
+    private final List<SimpleIndex> stagingIndexes;
+    private final IndexRebuilder indexRebuilder;
+    private boolean logged;
+
+    /**
+     * @param table            the live table
+     * @param indexes          the indexes of the live table
+     * @param indexConnections the connections used to build the indexes, one per worker
+     */
+    public StagingTableLoader(final Table table, final List<SimpleIndex> indexes,
+                              final List<Connection> indexConnections) {
+        this.table = table;
+        this.stagingTable = table.withName(table.getName() + STAGING_SUFFIX);
+        this.indexes = indexes;
+        this.stagingIndexes = new ArrayList<>(indexes.size());
+        for (final SimpleIndex index : indexes) {
+            this.stagingIndexes.add(
+                    index.onTable(index.getName() + STAGING_SUFFIX, this.stagingTable.getName()));
+        }
+        this.indexRebuilder =
+                new IndexRebuilder(new ArrayList<Index>(this.stagingIndexes), indexConnections);
+        this.logged = true;
+    }
+
+    /**
+     * @param logged false to keep the table UNLOGGED (faster, but truncated after a crash)
+     */
+    public void setLogged(final boolean logged) {
+        this.logged = logged;
+    }
+
+    /**
+     * @return the rebuilder of the indexes, e.g. to set maintenance_work_mem
+     */
+    public IndexRebuilder getIndexRebuilder() {
+        return this.indexRebuilder;
+    }
+
+    /**
+     * Load the data of a producer and swap the tables.
+     *
+     * @param connection the PostgreSQL connection
+     * @param producer   the producer of the data
+     * @return the number of rows copied
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public long populate(final Connection connection, final CopyDataProducer producer)
+            throws IOException, SQLException, InterruptedException {
+        return this.load(connection, (loader, c) -> loader.copy(c, producer));
+    }
+
+    /**
+     * Load the data of a reader and swap the tables.
+     *
+     * @param connection the PostgreSQL connection
+     * @param reader     an OpenableReader for a CSV file
+     * @return the number of rows copied
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public long populate(final Connection connection, final OpenableReader reader)
+            throws IOException, SQLException, InterruptedException {
+        return this.load(connection, (loader, c) -> loader.copy(c, reader));
+    }
+
+    private long load(final Connection connection, final Copier copier)
+            throws IOException, SQLException, InterruptedException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            final long rows;
+            try {
+                this.execute(connection, this.stagingTable.dropTableQuery(true),
+                        this.stagingTable.createTableQuery(false, true));
+                final CSVBulkLoader loader = CSVBulkLoader.toTable(this.stagingTable.getName(),
+                        this.stagingTable.getColumns());
+                rows = copier.copy(loader, connection);
+                connection.commit();
+                if (this.logged) {
+                    // before the indexes: SET LOGGED rewrites the table and its indexes
+                    this.execute(connection, this.stagingTable.setLoggedQuery());
+                }
+                this.indexRebuilder.createIndexes();
+                this.execute(connection,
+                        "ANALYZE " + Util.pgEscapeIdentifier(this.stagingTable.getName()));
+            } catch (final IOException | SQLException | InterruptedException | RuntimeException e) {
+                StagingTableLoader.logger.log(Level.SEVERE, "Load failed, drop the staging table",
+                        e);
+                this.dropStagingTable(connection);
+                throw e;
+            }
+            this.swap(connection);
+            return rows;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Replace the live table by the staging table in a single transaction, and give the
+     * staging indexes the names of the live indexes.
+     */
+    private void swap(final Connection connection) throws SQLException {
+        final String oldName = this.table.getName() + OLD_SUFFIX;
+        final List<String> queries = new ArrayList<>();
+        queries.add(this.table.renameTableQuery(oldName));
+        queries.add(this.stagingTable.renameTableQuery(this.table.getName()));
+        queries.add(this.table.withName(oldName).dropTableQuery(true));
+        for (int i = 0; i < this.indexes.size(); i++) {
+            queries.add(this.stagingIndexes.get(i)
+                    .renameIndexQuery(this.indexes.get(i).getName()));
+        }
+        try {
+            this.execute(connection, queries.toArray(new String[0]));
+        } catch (final SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    private void dropStagingTable(final Connection connection) {
+        try {
+            connection.rollback();
+            this.execute(connection, this.stagingTable.dropTableQuery(true));
+        } catch (final SQLException e) {
+            StagingTableLoader.logger.log(Level.WARNING, "Can't drop the staging table", e);
+        }
+    }
+
+    /**
+     * Execute the queries and commit.
+     */
+    private void execute(final Connection connection, final String... queries)
+            throws SQLException {
+        final Statement statement = connection.createStatement();
+        for (final String query : queries) {
+            statement.executeUpdate(query);
+        }
+        statement.close();
+        connection.commit();
+    }
+
+    private interface Copier {
+        long copy(CSVBulkLoader loader, Connection connection)
+                throws IOException, SQLException, InterruptedException;
+    }
+}
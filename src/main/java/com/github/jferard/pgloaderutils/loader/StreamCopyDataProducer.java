@@ -0,0 +1,112 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.Compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A producer that sends the raw bytes of a stream to the COPY stream, by large blocks. There is
+ * no decoding nor encoding: the loader must declare the charset of the stream with the ENCODING
+ * option (see {@link CSVBulkLoader#toTable(String, java.util.List, char, char, Charset)}).
+ * A leading UTF-8 BOM is skipped, since the server would see it as data.
+ *
+ * @author Julien Férard
+ */
+public class StreamCopyDataProducer implements CopyDataProducer {
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    /**
+     * @param path      the path of the file, maybe compressed (see {@link Compression})
+     * @param blockSize the size of a block, in bytes
+     * @return the producer
+     * @throws IOException if the file can't be opened
+     */
+    public static StreamCopyDataProducer fromPath(final Path path, final int blockSize)
+            throws IOException {
+        return new StreamCopyDataProducer(
+                Compression.decompress(Files.newInputStream(path), 1), blockSize);
+    }
+
+    private final InputStream in;
+    private final int blockSize;
+
+    /**
+     * @param in        the stream. It will be closed by {@link #writeTo(OutputStream, Charset)}
+     * @param blockSize the size of a block, in bytes
+     */
+    public StreamCopyDataProducer(final InputStream in, final int blockSize) {
+        this.in = in;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public void writeTo(final OutputStream out, final Charset charset) throws IOException {
+        try {
+            final byte[] block = new byte[Math.max(this.blockSize, UTF_8_BOM.length)];
+            int count = this.fill(block);
+            int offset = this.startsWithBOM(block, count) ? UTF_8_BOM.length : 0;
+            while (count > 0) {
+                out.write(block, offset, count - offset);
+                offset = 0;
+                count = this.in.read(block);
+            }
+        } finally {
+            this.in.close();
+        }
+    }
+
+    /**
+     * Fill the first block, to be sure that the BOM is complete.
+     */
+    private int fill(final byte[] block) throws IOException {
+        int count = 0;
+        while (count < block.length) {
+            final int n = this.in.read(block, count, block.length - count);
+            if (n == -1) {
+                break;
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    private boolean startsWithBOM(final byte[] block, final int count) {
+        if (count < UTF_8_BOM.length) {
+            return false;
+        }
+        for (int i = 0; i < UTF_8_BOM.length; i++) {
+            if (block[i] != UTF_8_BOM[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
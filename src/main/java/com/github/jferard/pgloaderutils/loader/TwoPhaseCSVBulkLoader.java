@@ -0,0 +1,276 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.CSVFileRange;
+import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.reader.SimpleFileReader;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load a single CSV file with several concurrent COPY on several connections, all or nothing.
+ * As in {@link ParallelCSVBulkLoader}, the file is split in ranges and every connection copies
+ * one range, but every worker prepares its transaction instead of committing it. The first
+ * connection, the coordinator, commits the prepared transactions only if all the workers
+ * succeeded.
+ * <p>
+ * Format is:
+ *
+ * <pre>
+ * {@code
+ * DELETE FROM table                -- first connection, if update
+ * COPY FROM stdin                  -- every connection, in parallel
+ * PREPARE TRANSACTION 'gid_i'      -- every connection, if its copy succeeded (or ROLLBACK)
+ * COMMIT PREPARED 'gid_i'          -- first connection, if all workers prepared their
+ *                                  -- transactions (or ROLLBACK PREPARED)
+ * ANALYZE table                    -- first connection
+ * }
+ * </pre>
+ * <p>
+ * The server must accept prepared transactions ({@code max_prepared_transactions} must be at
+ * least the number of connections). The TRUNCATE is replaced by a DELETE in the transaction of
+ * the first connection: a TRUNCATE would take an ACCESS EXCLUSIVE lock, held until the COMMIT
+ * PREPARED, that would block the other connections.
+ * <p>
+ * If the calling thread is interrupted, the workers are interrupted and awaited, then the
+ * transactions are rolled back, prepared or not.
+ * <p>
+ * If a COMMIT PREPARED fails (e.g. the coordinator lost the connection), the remaining prepared
+ * transactions stay on the server: they are logged and must be committed by hand (see the
+ * {@code pg_prepared_xacts} view).
+ *
+ * @author Julien Férard
+ */
+public class TwoPhaseCSVBulkLoader {
+    private static final Logger logger = Logger.getLogger(TwoPhaseCSVBulkLoader.class.getName());
+    private static final int MB_STEP = 64;
+
+    private final CSVBulkLoader bulkLoader;
+    private final String gidPrefix;
+
+    /**
+     * @param bulkLoader the loader (used for the queries)
+     */
+    public TwoPhaseCSVBulkLoader(final CSVBulkLoader bulkLoader) {
+        this(bulkLoader, "pgloaderutils");
+    }
+
+    /**
+     * @param bulkLoader the loader (used for the queries)
+     * @param gidPrefix  the prefix of the global identifiers of the prepared transactions. The
+     *                   identifier of worker i is {@code gidPrefix + "_" + uuid + "_" + i},
+     *                   where uuid is unique to a load: concurrent loads don't collide.
+     */
+    public TwoPhaseCSVBulkLoader(final CSVBulkLoader bulkLoader, final String gidPrefix) {
+        this.bulkLoader = bulkLoader;
+        this.gidPrefix = gidPrefix;
+    }
+
+    /**
+     * Load the file.
+     *
+     * @param connections the PostgreSQL connections, one per worker
+     * @param file        the CSV file. The format must match the COPY query.
+     * @param update      true to update an existing table
+     * @return the statistics of the workers
+     * @throws IOException          if an I/O error occurs
+     * @throws SQLException         if a SQL exception occurs (un-parsable value for instance)
+     * @throws InterruptedException if a thread is interrupted.
+     */
+    public List<CopyStats> populate(final List<Connection> connections, final CSVFile file,
+                                    final boolean update)
+            throws IOException, SQLException, InterruptedException {
+        final List<CSVFileRange> ranges = file.split(connections.size());
+        final int participantsCount = Math.max(ranges.size(), 1);
+        final Connection coordinator = connections.get(0);
+        final boolean[] storedAutoCommits = new boolean[connections.size()];
+        for (int i = 0; i < connections.size(); i++) {
+            final Connection connection = connections.get(i);
+            storedAutoCommits[i] = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+        }
+        try {
+            if (update) {
+                try {
+                    this.bulkLoader.delete(coordinator);
+                } catch (final SQLException e) {
+                    coordinator.rollback();
+                    throw e;
+                }
+            }
+            final String runId = UUID.randomUUID().toString();
+            final List<String> gids = new ArrayList<>(participantsCount);
+            for (int i = 0; i < participantsCount; i++) {
+                gids.add(this.gidPrefix + "_" + runId + "_" + i);
+            }
+
+            final List<CopyStats> stats = this.copyAndPrepare(connections, file, ranges, gids);
+            for (final CopyStats stat : stats) {
+                TwoPhaseCSVBulkLoader.logger.info(stat.toString());
+            }
+
+            // COMMIT PREPARED cannot run inside a transaction block
+            coordinator.setAutoCommit(true);
+            this.commitPrepared(coordinator, gids);
+            this.bulkLoader.analyze(coordinator);
+            return stats;
+        } finally {
+            for (int i = 0; i < connections.size(); i++) {
+                connections.get(i).setAutoCommit(storedAutoCommits[i]);
+            }
+        }
+    }
+
+    /**
+     * Copy the ranges and prepare the transactions in parallel. If a worker fails or if the
+     * thread is interrupted, the transactions are rolled back, prepared or not.
+     */
+    private List<CopyStats> copyAndPrepare(final List<Connection> connections,
+                                           final CSVFile file, final List<CSVFileRange> ranges,
+                                           final List<String> gids)
+            throws IOException, SQLException, InterruptedException {
+        final int participantsCount = gids.size();
+        final ExecutorService executor = Executors.newFixedThreadPool(participantsCount);
+        final List<Future<CopyStats>> futures = new ArrayList<>(participantsCount);
+        final List<String> preparedGids =
+                Collections.synchronizedList(new ArrayList<>(participantsCount));
+        for (int i = 0; i < participantsCount; i++) {
+            final int worker = i;
+            final Connection connection = connections.get(i);
+            futures.add(executor.submit(() -> {
+                final long start = System.nanoTime();
+                long bytes = 0;
+                long rows = 0;
+                if (worker < ranges.size()) {
+                    final CSVFileRange range = ranges.get(worker);
+                    final SimpleFileReader reader = new SimpleFileReader(
+                            file.newRangeReader(range), TwoPhaseCSVBulkLoader.logger, MB_STEP);
+                    bytes = range.length();
+                    rows = this.bulkLoader.copy(connection, reader);
+                }
+                this.execute(connection, "PREPARE TRANSACTION", gids.get(worker));
+                preparedGids.add(gids.get(worker));
+                return new CopyStats(worker, bytes, rows, System.nanoTime() - start);
+            }));
+        }
+        executor.shutdown();
+
+        final List<CopyStats> stats = new ArrayList<>(participantsCount);
+        Throwable failure = null;
+        try {
+            for (final Future<CopyStats> future : futures) {
+                try {
+                    stats.add(future.get());
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            failure = e;
+            ParallelCSVBulkLoader.cancel(executor, futures);
+        }
+        if (failure != null) {
+            TwoPhaseCSVBulkLoader.logger.log(Level.SEVERE, "A worker failed, rollback", failure);
+            for (int i = 0; i < participantsCount; i++) {
+                if (!preparedGids.contains(gids.get(i))) {
+                    this.rollback(connections.get(i));
+                }
+            }
+            this.rollbackPrepared(connections.get(0), new ArrayList<>(preparedGids));
+            ParallelCSVBulkLoader.rethrow(failure);
+        }
+        return stats;
+    }
+
+    private void rollback(final Connection connection) {
+        try {
+            connection.rollback();
+        } catch (final SQLException e) {
+            TwoPhaseCSVBulkLoader.logger.log(Level.SEVERE, "Can't rollback", e);
+        }
+    }
+
+    private void rollbackPrepared(final Connection coordinator, final List<String> gids) {
+        try {
+            coordinator.setAutoCommit(true);
+            for (final String gid : gids) {
+                this.execute(coordinator, "ROLLBACK PREPARED", gid);
+            }
+        } catch (final SQLException e) {
+            TwoPhaseCSVBulkLoader.logger.log(Level.SEVERE, String.format(
+                    "Can't rollback the prepared transactions %s, see pg_prepared_xacts", gids),
+                    e);
+        }
+    }
+
+    /**
+     * Commit the prepared transactions. Once a transaction is committed, the others have to be
+     * committed too: a failure does not stop the loop.
+     */
+    private void commitPrepared(final Connection coordinator, final List<String> gids)
+            throws SQLException {
+        final List<String> remainingGids = new ArrayList<>();
+        SQLException failure = null;
+        for (final String gid : gids) {
+            try {
+                this.execute(coordinator, "COMMIT PREPARED", gid);
+            } catch (final SQLException e) {
+                remainingGids.add(gid);
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            final String message = String.format(
+                    "Can't commit the prepared transactions %s, see pg_prepared_xacts",
+                    remainingGids);
+            TwoPhaseCSVBulkLoader.logger.log(Level.SEVERE, message, failure);
+            throw new SQLException(message, failure);
+        }
+    }
+
+    private void execute(final Connection connection, final String command, final String gid)
+            throws SQLException {
+        final Statement statement = connection.createStatement();
+        statement.executeUpdate(command + " " + Util.pgEscapeString(gid));
+        statement.close();
+    }
+}
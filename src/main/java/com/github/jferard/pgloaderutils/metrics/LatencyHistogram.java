@@ -0,0 +1,100 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies, with power of two buckets: the bucket k &gt; 0 holds the
+ * values in [2^(k-1), 2^k), the bucket 0 holds 0. The percentiles are approximated by the upper bound of the bucket.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * @param nanos the latency
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 0);
+        this.counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMaxNanos() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean latency, 0 if there is no value
+     */
+    public double getMeanNanos() {
+        final long n = this.count.get();
+        return n == 0 ? 0.0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return an upper bound of the percentile, 0 if there is no value
+     */
+    public long getPercentileNanos(final double percentile) {
+        final long n = this.count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int k = 0; k < BUCKETS; k++) {
+            seen += this.counts.get(k);
+            if (seen >= rank) {
+                return Math.min((1L << k) - 1, this.max.get()); // (1L << 63) - 1 is Long.MAX_VALUE
+            }
+        }
+        return this.max.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d, mean=%.3f ms, p50<=%.3f ms, p99<=%.3f ms, max=%.3f ms",
+                this.getCount(), this.getMeanNanos() / 1e6, this.getPercentileNanos(50) / 1e6,
+                this.getPercentileNanos(99) / 1e6, this.getMaxNanos() / 1e6);
+    }
+}
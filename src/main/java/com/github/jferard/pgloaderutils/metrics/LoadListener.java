@@ -0,0 +1,71 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.metrics;
+
+/**
+ * A listener of the progress of a load. The readers and the loaders report by batches, not
+ * for every row. A listener may be called from several threads (see
+ * {@link com.github.jferard.pgloaderutils.reader.ParallelCSVProcessorFileReader}).
+ */
+public interface LoadListener {
+    /**
+     * A listener that ignores everything
+     */
+    LoadListener NONE = new LoadListener() {
+    };
+
+    /**
+     * @param rows  the number of rows read since the last call
+     * @param chars the number of chars written since the last call
+     */
+    default void rowsRead(final long rows, final long chars) {
+    }
+
+    /**
+     * @param rows the number of rejected rows since the last call
+     */
+    default void rowsRejected(final long rows) {
+    }
+
+    /**
+     * @param stage the stage
+     * @param nanos the time spent in this stage since the last call
+     */
+    default void stageTime(final LoadStage stage, final long nanos) {
+    }
+
+    /**
+     * @param bytes the number of bytes sent to the server since the last call
+     */
+    default void bytesSent(final long bytes) {
+    }
+
+    /**
+     * A batch (JDBC batch or COPY) was executed by the server
+     *
+     * @param rows  the number of rows of the batch
+     * @param nanos the latency of the batch
+     */
+    default void batchExecuted(final long rows, final long nanos) {
+    }
+}
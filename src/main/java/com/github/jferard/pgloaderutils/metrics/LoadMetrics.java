@@ -0,0 +1,189 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A thread safe listener that aggregates the metrics of a load: rows/s, bytes/s, rejected rows,
+ * latency of the batches and time spent in each stage. The stage times tell whether a slow load
+ * is bound by the client (parse, convert) or by the server (write, execute).
+ */
+public class LoadMetrics implements LoadListener {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final LongSupplier clock;
+    private final long startNanos;
+    private final LongAdder rowsRead;
+    private final LongAdder chars;
+    private final LongAdder rejected;
+    private final LongAdder bytes;
+    private final LongAdder rowsLoaded;
+    private final LongAdder[] stageNanos;
+    private final LatencyHistogram batchLatencies;
+
+    public LoadMetrics() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock the clock, in nanoseconds
+     */
+    public LoadMetrics(final LongSupplier clock) {
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+        this.rowsRead = new LongAdder();
+        this.chars = new LongAdder();
+        this.rejected = new LongAdder();
+        this.bytes = new LongAdder();
+        this.rowsLoaded = new LongAdder();
+        this.stageNanos = new LongAdder[LoadStage.values().length];
+        for (int i = 0; i < this.stageNanos.length; i++) {
+            this.stageNanos[i] = new LongAdder();
+        }
+        this.batchLatencies = new LatencyHistogram();
+    }
+
+    @Override
+    public void rowsRead(final long rows, final long chars) {
+        this.rowsRead.add(rows);
+        this.chars.add(chars);
+    }
+
+    @Override
+    public void rowsRejected(final long rows) {
+        this.rejected.add(rows);
+    }
+
+    @Override
+    public void stageTime(final LoadStage stage, final long nanos) {
+        this.stageNanos[stage.ordinal()].add(nanos);
+    }
+
+    @Override
+    public void bytesSent(final long bytes) {
+        this.bytes.add(bytes);
+    }
+
+    @Override
+    public void batchExecuted(final long rows, final long nanos) {
+        this.rowsLoaded.add(rows);
+        this.batchLatencies.record(nanos);
+    }
+
+    /**
+     * @return the time since the creation of the metrics
+     */
+    public long getElapsedNanos() {
+        return this.clock.getAsLong() - this.startNanos;
+    }
+
+    public long getRowsRead() {
+        return this.rowsRead.sum();
+    }
+
+    public long getChars() {
+        return this.chars.sum();
+    }
+
+    public long getRejectedRows() {
+        return this.rejected.sum();
+    }
+
+    public long getBytesSent() {
+        return this.bytes.sum();
+    }
+
+    /**
+     * @return the number of rows acknowledged by the server
+     */
+    public long getRowsLoaded() {
+        return this.rowsLoaded.sum();
+    }
+
+    /**
+     * @param stage the stage
+     * @return the time spent in this stage, summed over the threads
+     */
+    public long getStageNanos(final LoadStage stage) {
+        return this.stageNanos[stage.ordinal()].sum();
+    }
+
+    public LatencyHistogram getBatchLatencies() {
+        return this.batchLatencies;
+    }
+
+    /**
+     * @return the rows loaded (or read if the server did not acknowledge any row yet) per
+     * second
+     */
+    public double getRowsPerSecond() {
+        final long rows = this.getRowsLoaded();
+        return this.perSecond(rows == 0 ? this.getRowsRead() : rows);
+    }
+
+    /**
+     * @return the bytes sent (or chars written if no byte was counted) per second
+     */
+    public double getBytesPerSecond() {
+        final long bytes = this.getBytesSent();
+        return this.perSecond(bytes == 0 ? this.getChars() : bytes);
+    }
+
+    /**
+     * @return the ratio of the client side stages in the time of all stages, between 0 and 1.
+     * Near 1, the load is bound by the client.
+     */
+    public double getClientRatio() {
+        long client = 0;
+        long total = 0;
+        for (final LoadStage stage : LoadStage.values()) {
+            final long nanos = this.getStageNanos(stage);
+            if (stage.isClientSide()) {
+                client += nanos;
+            }
+            total += nanos;
+        }
+        return total == 0 ? 0.0 : (double) client / total;
+    }
+
+    private double perSecond(final long value) {
+        final long nanos = this.getElapsedNanos();
+        return nanos <= 0 ? 0.0 : value * NANOS_PER_SECOND / nanos;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(String.format(
+                "%d rows read, %d rows loaded, %d rejected in %.3f s (%.1f rows/s, %.1f bytes/s)",
+                this.getRowsRead(), this.getRowsLoaded(), this.getRejectedRows(),
+                this.getElapsedNanos() / NANOS_PER_SECOND, this.getRowsPerSecond(),
+                this.getBytesPerSecond()));
+        for (final LoadStage stage : LoadStage.values()) {
+            sb.append(String.format(", %s: %.3f s", stage,
+                    this.getStageNanos(stage) / NANOS_PER_SECOND));
+        }
+        return sb.append(", batches: ").append(this.batchLatencies).toString();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.metrics;
+
+/**
+ * A helper for a single thread that accumulates the counters and the stage times, and reports
+ * them to a listener every {@code REPORT_ROWS} rows. Nothing is measured if the listener is
+ * {@link LoadListener#NONE}.
+ */
+public class LoadRecorder {
+    public static final int REPORT_ROWS = 1024;
+
+    private final LoadListener listener;
+    private final boolean enabled;
+    private final long[] stageNanos;
+    private long rows;
+    private long chars;
+    private long rejected;
+    private long last;
+
+    public LoadRecorder(final LoadListener listener) {
+        this.listener = listener;
+        this.enabled = listener != LoadListener.NONE;
+        this.stageNanos = new long[LoadStage.values().length];
+        this.last = this.enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Restart the stopwatch, e.g. after a pause that belongs to no stage.
+     */
+    public void restart() {
+        if (this.enabled) {
+            this.last = System.nanoTime();
+        }
+    }
+
+    /**
+     * Add the time since the last lap (or restart) to a stage
+     *
+     * @param stage the stage
+     */
+    public void lap(final LoadStage stage) {
+        if (this.enabled) {
+            final long now = System.nanoTime();
+            this.stageNanos[stage.ordinal()] += now - this.last;
+            this.last = now;
+        }
+    }
+
+    /**
+     * @param count the number of chars written
+     */
+    public void chars(final long count) {
+        this.chars += count;
+    }
+
+    /**
+     * One more row read. Reports every REPORT_ROWS rows.
+     */
+    public void row() {
+        this.rows++;
+        if (this.rows == REPORT_ROWS) {
+            this.report();
+        }
+    }
+
+    /**
+     * @param count the number of rows read. Reports if REPORT_ROWS rows are reached.
+     */
+    public void rows(final long count) {
+        this.rows += count;
+        if (this.rows >= REPORT_ROWS) {
+            this.report();
+        }
+    }
+
+    /**
+     * One more row rejected
+     */
+    public void rejected() {
+        this.rejected++;
+    }
+
+    /**
+     * Report the counters and the stage times since the last report.
+     */
+    public void report() {
+        if (this.enabled) {
+            this.listener.rowsRead(this.rows, this.chars);
+            if (this.rejected > 0) {
+                this.listener.rowsRejected(this.rejected);
+            }
+            final LoadStage[] stages = LoadStage.values();
+            for (int i = 0; i < stages.length; i++) {
+                if (this.stageNanos[i] > 0) {
+                    this.listener.stageTime(stages[i], this.stageNanos[i]);
+                    this.stageNanos[i] = 0;
+                }
+            }
+        }
+        this.rows = 0;
+        this.chars = 0;
+        this.rejected = 0;
+    }
+}
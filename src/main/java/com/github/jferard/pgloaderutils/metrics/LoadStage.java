@@ -0,0 +1,54 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.metrics;
+
+/**
+ * The stages of a load. PARSE and CONVERT are spent on the client, WRITE (blocked on a
+ * full pipe or socket) and EXECUTE (waiting for the server to run a batch or to end a COPY)
+ * are spent waiting for the server.
+ */
+public enum LoadStage {
+    /**
+     * Read and parse the records
+     */
+    PARSE,
+    /**
+     * Clean or convert the values
+     */
+    CONVERT,
+    /**
+     * Write the data to the COPY stream or to the pipe
+     */
+    WRITE,
+    /**
+     * Wait for the server: execute a batch, end a COPY
+     */
+    EXECUTE;
+
+    /**
+     * @return true if this stage is spent on the client
+     */
+    public boolean isClientSide() {
+        return this == PARSE || this == CONVERT;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A row read by a {@link RowsProvider}. The row may be bound several times, e.g. to retry the
+ * rows of a failed batch.
+ */
+@FunctionalInterface
+public interface BindableRow {
+    /**
+     * Convert the values of the row and bind them to the parameters of a statement.
+     *
+     * @param statement  the statement
+     * @param firstIndex the index of the first parameter (1-based)
+     * @throws SQLException if a value can't be bound
+     */
+    void bind(PreparedStatement statement, int firstIndex) throws SQLException;
+}
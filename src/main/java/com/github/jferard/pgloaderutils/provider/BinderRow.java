@@ -0,0 +1,70 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A row kept as the strings of the record: the values are converted and bound by the compiled
+ * binders of the columns, without boxing.
+ */
+class BinderRow implements BindableRow {
+    private final List<Object> commonValues;
+    private final ColumnBinder[] binders;
+    private final int[] sqlTypes;
+    private final String[] values;
+
+    /**
+     * @param commonValues the values of the first columns
+     * @param binders      the binders of all the columns
+     * @param sqlTypes     the SQL types of all the columns
+     * @param values       the values of the record, after the common values. A short record
+     *                     has less values than columns: the last columns are set to null.
+     */
+    BinderRow(final List<Object> commonValues, final ColumnBinder[] binders,
+              final int[] sqlTypes, final String[] values) {
+        this.commonValues = commonValues;
+        this.binders = binders;
+        this.sqlTypes = sqlTypes;
+        this.values = values;
+    }
+
+    @Override
+    public void bind(final PreparedStatement statement, final int firstIndex)
+            throws SQLException {
+        final int commonSize = this.commonValues.size();
+        for (int i = 0; i < commonSize; i++) {
+            statement.setObject(firstIndex + i, this.commonValues.get(i), this.sqlTypes[i]);
+        }
+        final int boundCount = commonSize + this.values.length;
+        for (int i = commonSize; i < boundCount; i++) {
+            this.binders[i].bind(statement, firstIndex + i, this.values[i - commonSize]);
+        }
+        // short record: set last cols to null
+        for (int i = boundCount; i < this.binders.length; i++) {
+            statement.setNull(firstIndex + i, this.sqlTypes[i]);
+        }
+    }
+}
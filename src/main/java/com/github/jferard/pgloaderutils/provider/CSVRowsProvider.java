@@ -50,6 +50,12 @@ public class CSVRowsProvider implements RowsProvider {
     private final Iterator<CSVRecord> iterator;
     private final CSVRecordProcessor recordProcessor;
     private CSVRecord curRecord;
+    /**
+     * The types of the last call, the binders and the sql types are compiled from these types
+     */
+    private List<DataType> compiledTypes;
+    private ColumnBinder[] binders;
+    private int[] sqlTypes;
 
     public static CSVRowsProvider create(final Iterator<CSVRecord> iterator, final List<Object> commonValues,
                                          final ValueConverter converter, final ColSelector selector) {
@@ -67,12 +73,11 @@ public class CSVRowsProvider implements RowsProvider {
 
     public static CSVRowsProvider create(final Iterator<CSVRecord> iterator, final List<Object> commonValues,
                                          final ValueConverter converter, final FixedCols fixedCols) {
+        final int[] projection = fixedCols.toArray();
         final CSVRecordProcessor recordProcessor = record -> {
-            final int size = fixedCols.size();
-            final List<String> ret = new ArrayList<>(size);
-            for (int i = 0; i < size; i++) {
-                Integer j = fixedCols.get(i);
-                if (j == null) {
+            final List<String> ret = new ArrayList<>(projection.length);
+            for (final int j : projection) {
+                if (j == FixedCols.MISSING) {
                     ret.add("");
                 } else {
                     ret.add(record.get(j));
@@ -106,33 +111,86 @@ public class CSVRowsProvider implements RowsProvider {
     public void setStatementParameters(final PreparedStatement preparedStatement,
                                        final List<DataType> types)
             throws SQLException {
+        if (types != this.compiledTypes) {
+            this.compile(types);
+        }
+        final ColumnBinder[] binders = this.binders;
+        final int[] sqlTypes = this.sqlTypes;
         final int commonSize = this.commonValues.size();
         final CSVRecord rawRecord = this.iterator.next();
         this.curRecord = rawRecord;
         final Iterable<String> record = this.recordProcessor.cleanRecord(rawRecord);
 
         for (int i = 0; i < commonSize; i++) {
-            final DataType dataType = types.get(i);
             final Object value = this.commonValues.get(i);
-            preparedStatement.setObject(1 + i, value, dataType.getSqlType());
+            preparedStatement.setObject(1 + i, value, sqlTypes[i]);
         }
-//        final int recordSize = record.size();
         int k = commonSize; // column index
-        final int colsCount = types.size();
+        final int colsCount = binders.length;
         for (final String v : record) {
-            final DataType type = types.get(k);
-            final Object value = this.converter.toJavaObject(v, type);
-            preparedStatement.setObject(1 + k, value, type.getSqlType());
-            k++;
             if (k >= colsCount) {
                 return;
             }
+            binders[k].bind(preparedStatement, 1 + k, v);
+            k++;
+        }
+        while (k < colsCount) { // short record
+            preparedStatement.setNull(1 + k, sqlTypes[k]);
+            k++;
+        }
+    }
+
+    private void compile(final List<DataType> types) {
+        this.binders = ColumnBinder.compile(types, this.converter);
+        this.sqlTypes = types.stream().mapToInt(DataType::getSqlType).toArray();
+        this.compiledTypes = types;
+    }
+
+    @Override
+    public List<Object> nextValues(final List<DataType> types) {
+        final CSVRecord rawRecord = this.iterator.next();
+        this.curRecord = rawRecord;
+        final Iterable<String> record = this.recordProcessor.cleanRecord(rawRecord);
+
+        final int colsCount = types.size();
+        final List<Object> values = new ArrayList<>(colsCount);
+        for (final Object commonValue : this.commonValues) {
+            values.add(commonValue);
+        }
+        int k = values.size(); // column index
+        for (final String v : record) {
+            if (k >= colsCount) {
+                return values;
+            }
+            values.add(this.converter.toJavaObject(v, types.get(k)));
+            k++;
         }
         while (k < colsCount) { // short record
-            final DataType type = types.get(k);
-            preparedStatement.setNull(1 + k, type.getSqlType());
+            values.add(null);
             k++;
         }
+        return values;
+    }
+
+    @Override
+    public BindableRow nextRow(final List<DataType> types) {
+        if (types != this.compiledTypes) {
+            this.compile(types);
+        }
+        final CSVRecord rawRecord = this.iterator.next();
+        this.curRecord = rawRecord;
+        final Iterable<String> record = this.recordProcessor.cleanRecord(rawRecord);
+
+        final int valuesCount = Math.max(0, types.size() - this.commonValues.size());
+        final List<String> values = new ArrayList<>(valuesCount);
+        for (final String v : record) {
+            if (values.size() >= valuesCount) {
+                break;
+            }
+            values.add(v);
+        }
+        return new BinderRow(this.commonValues, this.binders, this.sqlTypes,
+                values.toArray(new String[0]));
     }
 
     @Override
@@ -0,0 +1,154 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import com.github.jferard.pgloaderutils.sql.DataType;
+import com.github.jferard.pgloaderutils.sql.TypedValueConverter;
+import com.github.jferard.pgloaderutils.sql.ValueConverter;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Converts a value and binds it to a parameter of a statement. The binders are resolved once
+ * per column: the loop over the rows does not dispatch on the type.
+ */
+@FunctionalInterface
+public interface ColumnBinder {
+    /**
+     * Create the binders of the columns.
+     *
+     * @param types     the types of the columns
+     * @param converter the converter. If it's a {@link TypedValueConverter}, the binders use the
+     *                  type-specific setters ({@code setInt}, {@code setLong}, ...). Otherwise,
+     *                  they use {@code setObject}.
+     * @return a binder per column
+     */
+    static ColumnBinder[] compile(final List<DataType> types, final ValueConverter converter) {
+        final ColumnBinder[] binders = new ColumnBinder[types.size()];
+        for (int i = 0; i < binders.length; i++) {
+            binders[i] = ColumnBinder.create(types.get(i), converter);
+        }
+        return binders;
+    }
+
+    /**
+     * @param type      the type of the column
+     * @param converter the converter
+     * @return the binder of the column
+     */
+    static ColumnBinder create(final DataType type, final ValueConverter converter) {
+        final int sqlType = type.getSqlType();
+        if (!(converter instanceof TypedValueConverter)) {
+            return (statement, index, value) -> statement.setObject(index,
+                    converter.toJavaObject(value, type), sqlType);
+        }
+        final TypedValueConverter c = (TypedValueConverter) converter;
+        switch (sqlType) {
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setBoolean(index, c.toBoolean(value));
+                    }
+                };
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setInt(index, c.toInt(value));
+                    }
+                };
+            case Types.BIGINT:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setLong(index, c.toLong(value));
+                    }
+                };
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setDouble(index, c.toDouble(value));
+                    }
+                };
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setBigDecimal(index, c.toBigDecimal(value));
+                    }
+                };
+            case Types.DATE:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setDate(index, c.toDate(value));
+                    }
+                };
+            case Types.TIMESTAMP:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setTimestamp(index, c.toTimestamp(value));
+                    }
+                };
+            case Types.CHAR:
+            case Types.VARCHAR:
+                return (statement, index, value) -> {
+                    if (c.isNull(value)) {
+                        statement.setNull(index, sqlType);
+                    } else {
+                        statement.setString(index, c.toText(value));
+                    }
+                };
+            default:
+                return (statement, index, value) -> statement.setObject(index,
+                        c.toJavaObject(value, type), sqlType);
+        }
+    }
+
+    /**
+     * @param statement the statement
+     * @param index     the index of the parameter (1-based)
+     * @param value     the value from the CSV file
+     * @throws SQLException if the value can't be bound
+     */
+    void bind(PreparedStatement statement, int index, String value) throws SQLException;
+}
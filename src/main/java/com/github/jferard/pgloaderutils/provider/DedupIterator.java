@@ -0,0 +1,209 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.XXHash64;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator that skips the records with a duplicate key, to be passed to a
+ * {@link RowsProvider} (see {@link CSVRowsProvider} and {@link SimpleCSVRowsProvider}), so
+ * that a duplicate primary key does not fail the load. The keys are reduced to 128 bits
+ * hashes (two xxHash64) and stored in an off-heap open addressing table: there is no String
+ * nor boxed value per key. Above the memory budget, the table is moved to a memory-mapped
+ * file.
+ * <p>
+ * The budget bounds the direct memory, not the working set: a growth holds the old and the new
+ * tables (1.5 times the new size), and the mapped file is probed at random. The table takes 34
+ * to 69 bytes per key (24 bytes per slot, load factor between 35% and 70%): if it does not fit
+ * in the page cache, almost every lookup is a read from the disk.
+ *
+ * @author Julien Férard
+ */
+public class DedupIterator implements Iterator<CSVRecord>, Closeable {
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+    private static final long SEED2 = 0x9E3779B97F4A7C15L;
+
+    /**
+     * @param records      the records
+     * @param keyIndices   the indices of the key fields in a record
+     * @param memoryBudget the max size of the direct memory, in bytes (not a bound on the
+     *                     working set)
+     * @return an iterator that keeps the first record of every key
+     * @throws IOException if an I/O error occurs
+     */
+    public static DedupIterator keepFirst(final Iterator<CSVRecord> records,
+                                          final int[] keyIndices, final long memoryBudget)
+            throws IOException {
+        return new DedupIterator(null, records, keyIndices, DedupMode.KEEP_FIRST,
+                new KeyHashTable(memoryBudget, DedupIterator.tempDirectory()));
+    }
+
+    /**
+     * @param file         the file, read twice
+     * @param keyIndices   the indices of the key fields in a record
+     * @param mode         keep the first or the last record of every key
+     * @param memoryBudget the max size of the direct memory, in bytes (not a bound on the
+     *                     working set)
+     * @return the iterator. Close it to close the file.
+     * @throws IOException if an I/O error occurs
+     */
+    public static DedupIterator create(final CSVFile file, final int[] keyIndices,
+                                       final DedupMode mode, final long memoryBudget)
+            throws IOException {
+        final KeyHashTable keys = new KeyHashTable(memoryBudget, DedupIterator.tempDirectory());
+        if (mode == DedupMode.KEEP_LAST) {
+            final Hasher hasher = new Hasher(keyIndices);
+            try (final CSVParser parser = file.newCSVParser()) {
+                for (final CSVRecord record : parser) {
+                    hasher.hash(record);
+                    keys.put(hasher.h1, hasher.h2, record.getRecordNumber());
+                }
+            } catch (final IOException | RuntimeException e) {
+                keys.close();
+                throw e;
+            }
+        }
+        final CSVParser parser = file.newCSVParser();
+        return new DedupIterator(parser, parser.iterator(), keyIndices, mode, keys);
+    }
+
+    private static Path tempDirectory() {
+        return Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    private final Closeable source;
+    private final Iterator<CSVRecord> records;
+    private final DedupMode mode;
+    private final KeyHashTable keys;
+    private final Hasher hasher;
+    private CSVRecord nextRecord;
+    private long duplicates;
+
+    private DedupIterator(final Closeable source, final Iterator<CSVRecord> records,
+                          final int[] keyIndices, final DedupMode mode,
+                          final KeyHashTable keys) {
+        this.source = source;
+        this.records = records;
+        this.mode = mode;
+        this.keys = keys;
+        this.hasher = new Hasher(keyIndices);
+        this.nextRecord = null;
+        this.duplicates = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.nextRecord == null && this.records.hasNext()) {
+            final CSVRecord record = this.records.next();
+            this.hasher.hash(record);
+            if (this.isKept(record)) {
+                this.nextRecord = record;
+            } else {
+                this.duplicates++;
+            }
+        }
+        return this.nextRecord != null;
+    }
+
+    private boolean isKept(final CSVRecord record) {
+        final long recordNumber = record.getRecordNumber();
+        if (this.mode == DedupMode.KEEP_FIRST) {
+            try {
+                return this.keys.putIfAbsent(this.hasher.h1, this.hasher.h2, recordNumber) ==
+                        KeyHashTable.MISSING;
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            return this.keys.get(this.hasher.h1, this.hasher.h2) == recordNumber;
+        }
+    }
+
+    @Override
+    public CSVRecord next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final CSVRecord record = this.nextRecord;
+        this.nextRecord = null;
+        return record;
+    }
+
+    /**
+     * @return the number of records skipped so far
+     */
+    public long getDuplicates() {
+        return this.duplicates;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.source != null) {
+                this.source.close();
+            }
+        } finally {
+            this.keys.close();
+        }
+    }
+
+    /**
+     * Two xxHash64 of the key fields, with different seeds.
+     */
+    private static class Hasher {
+        private final int[] keyIndices;
+        private final XXHash64 hasher1;
+        private final XXHash64 hasher2;
+        private long h1;
+        private long h2;
+
+        Hasher(final int[] keyIndices) {
+            this.keyIndices = keyIndices;
+            this.hasher1 = new XXHash64(0);
+            this.hasher2 = new XXHash64(SEED2);
+        }
+
+        void hash(final CSVRecord record) {
+            this.hasher1.reset();
+            this.hasher2.reset();
+            for (final int i : this.keyIndices) {
+                final String value = record.get(i);
+                this.hasher1.updateChars(value);
+                this.hasher2.updateChars(value);
+            }
+            this.h1 = this.hasher1.digest();
+            this.h2 = this.hasher2.digest();
+        }
+    }
+}
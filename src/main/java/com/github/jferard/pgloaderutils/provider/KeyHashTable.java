@@ -0,0 +1,212 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import com.github.jferard.pgloaderutils.OffHeapMemory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An off-heap open addressing table (linear probing) from 128 bits key hashes to longs, without
+ * boxing. A slot is 24 bytes: the two halves of the hash and the value. If the table outgrows
+ * the memory budget, it is moved to a memory-mapped temporary file: the OS pages it to the disk.
+ * <p>
+ * The budget bounds the direct memory, not the working set:
+ * <ul>
+ * <li>during a growth, the old and the new tables are both held: 1.5 times the new size;</li>
+ * <li>a mapped table is not partitioned: a lookup is a random access to the whole file. If the
+ * file does not fit in the page cache, almost every lookup is a read from the disk.</li>
+ * </ul>
+ */
+class KeyHashTable implements Closeable {
+    static final long MISSING = -1;
+    private static final int SLOT_SIZE = 24;
+    private static final long MIN_CAPACITY = 1024;
+
+    private static long normalize(final long h1, final long h2) {
+        return h1 == 0 && h2 == 0 ? 1 : h2;
+    }
+
+    private final long memoryBudget;
+    private final Path spillDirectory;
+    private OffHeapMemory memory;
+    private Path spillPath;
+    private FileChannel spillChannel;
+    private long capacity;
+    private long mask;
+    private long size;
+
+    /**
+     * @param memoryBudget   the max size of the direct memory, in bytes. Not a bound on the
+     *                       working set (see above)
+     * @param spillDirectory the directory of the mapped file
+     * @throws IOException if the file can't be created
+     */
+    KeyHashTable(final long memoryBudget, final Path spillDirectory) throws IOException {
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.capacity = MIN_CAPACITY;
+        this.mask = MIN_CAPACITY - 1;
+        this.size = 0;
+        this.memory = this.allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @param h1    the first half of the hash
+     * @param h2    the second half of the hash
+     * @param value the value, not {@link #MISSING}
+     * @return the previous value, or {@link #MISSING} if the value was added
+     * @throws IOException if the table can't grow
+     */
+    long putIfAbsent(final long h1, final long h2, final long value) throws IOException {
+        return this.put(h1, h2, value, false);
+    }
+
+    /**
+     * @param h1    the first half of the hash
+     * @param h2    the second half of the hash
+     * @param value the value, not {@link #MISSING}
+     * @return the previous value, or {@link #MISSING}
+     * @throws IOException if the table can't grow
+     */
+    long put(final long h1, final long h2, final long value) throws IOException {
+        return this.put(h1, h2, value, true);
+    }
+
+    private long put(final long h1, final long h2, final long value, final boolean replace)
+            throws IOException {
+        if ((this.size + 1) * 10 > this.capacity * 7) {
+            this.grow();
+        }
+        final long offset = this.probe(h1, KeyHashTable.normalize(h1, h2));
+        if (this.isEmpty(offset)) {
+            this.write(offset, h1, KeyHashTable.normalize(h1, h2), value);
+            this.size++;
+            return MISSING;
+        }
+        final long previous = this.memory.getLong(offset + 16);
+        if (replace) {
+            this.memory.putLong(offset + 16, value);
+        }
+        return previous;
+    }
+
+    /**
+     * @param h1 the first half of the hash
+     * @param h2 the second half of the hash
+     * @return the value, or {@link #MISSING}
+     */
+    long get(final long h1, final long h2) {
+        final long offset = this.probe(h1, KeyHashTable.normalize(h1, h2));
+        return this.isEmpty(offset) ? MISSING : this.memory.getLong(offset + 16);
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the table was moved to a mapped file
+     */
+    boolean isSpilled() {
+        return this.spillPath != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closeSpillFile();
+    }
+
+    /**
+     * @return the offset of the slot of the hash, or of the empty slot where it should be
+     */
+    private long probe(final long h1, final long h2) {
+        long slot = (h1 ^ h2) & this.mask;
+        while (true) {
+            final long offset = slot * SLOT_SIZE;
+            final long cur1 = this.memory.getLong(offset);
+            final long cur2 = this.memory.getLong(offset + 8);
+            if ((cur1 == h1 && cur2 == h2) || (cur1 == 0 && cur2 == 0)) {
+                return offset;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    private boolean isEmpty(final long offset) {
+        return this.memory.getLong(offset) == 0 && this.memory.getLong(offset + 8) == 0;
+    }
+
+    private void write(final long offset, final long h1, final long h2, final long value) {
+        this.memory.putLong(offset, h1);
+        this.memory.putLong(offset + 8, h2);
+        this.memory.putLong(offset + 16, value);
+    }
+
+    private void grow() throws IOException {
+        final OffHeapMemory oldMemory = this.memory;
+        final long oldCapacity = this.capacity;
+        final Path oldSpillPath = this.spillPath;
+        final FileChannel oldSpillChannel = this.spillChannel;
+        this.capacity = oldCapacity * 2;
+        this.mask = this.capacity - 1;
+        this.memory = this.allocate(this.capacity);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            final long offset = slot * SLOT_SIZE;
+            final long h1 = oldMemory.getLong(offset);
+            final long h2 = oldMemory.getLong(offset + 8);
+            if (h1 != 0 || h2 != 0) {
+                this.write(this.probe(h1, h2), h1, h2, oldMemory.getLong(offset + 16));
+            }
+        }
+        if (oldSpillPath != null && oldSpillPath != this.spillPath) {
+            oldSpillChannel.close();
+            Files.deleteIfExists(oldSpillPath);
+        }
+    }
+
+    private OffHeapMemory allocate(final long capacity) throws IOException {
+        final long bytes = capacity * SLOT_SIZE;
+        if (bytes <= this.memoryBudget) {
+            return OffHeapMemory.allocate(bytes);
+        }
+        this.spillPath = Files.createTempFile(this.spillDirectory, "pgloaderutils", ".keys");
+        this.spillChannel = FileChannel.open(this.spillPath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // the file is extended with zeroes
+        return OffHeapMemory.map(this.spillChannel, FileChannel.MapMode.READ_WRITE, 0, bytes);
+    }
+
+    private void closeSpillFile() throws IOException {
+        if (this.spillPath != null) {
+            this.spillChannel.close();
+            Files.deleteIfExists(this.spillPath);
+            this.spillPath = null;
+        }
+    }
+}
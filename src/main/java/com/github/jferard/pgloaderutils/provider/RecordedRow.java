@@ -0,0 +1,130 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import com.github.jferard.pgloaderutils.sql.DataType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A row recorded from {@link RowsProvider#setStatementParameters}: the provider binds a fake
+ * statement that records the calls to the setters, and the calls are replayed on the real
+ * statement. This is the default row of the providers that only bind statements.
+ */
+class RecordedRow implements BindableRow {
+    /**
+     * Read the next record of the provider.
+     *
+     * @param provider the provider
+     * @param types    the types of the columns
+     * @return the row
+     * @throws SQLException if the provider can't bind the record
+     */
+    static RecordedRow record(final RowsProvider provider, final List<DataType> types)
+            throws SQLException {
+        final List<Call> calls = new ArrayList<>(types.size());
+        final PreparedStatement recorder = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("set") && args != null && args.length >= 2 &&
+                            args[0] instanceof Integer) {
+                        calls.add(new Call(method, args));
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(
+                            "Not a setter of a parameter: " + method.getName());
+                });
+        provider.setStatementParameters(recorder, types);
+        return new RecordedRow(calls);
+    }
+
+    private final List<Call> calls;
+
+    private RecordedRow(final List<Call> calls) {
+        this.calls = calls;
+    }
+
+    @Override
+    public void bind(final PreparedStatement statement, final int firstIndex)
+            throws SQLException {
+        for (final Call call : this.calls) {
+            final Object[] args = Arrays.copyOf(call.args, call.args.length);
+            args[0] = (Integer) args[0] + firstIndex - 1;
+            try {
+                call.method.invoke(statement, args);
+            } catch (final InvocationTargetException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new SQLException(cause);
+                }
+            } catch (final IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @param colsCount the number of columns
+     * @return the values that were bound, one per column (null for {@code setNull} or for a
+     * parameter that was not bound)
+     */
+    List<Object> getValues(final int colsCount) {
+        final List<Object> values = new ArrayList<>(colsCount);
+        for (int i = 0; i < colsCount; i++) {
+            values.add(null);
+        }
+        for (final Call call : this.calls) {
+            final int k = (Integer) call.args[0] - 1;
+            if (0 <= k && k < colsCount && !call.method.getName().equals("setNull")) {
+                values.set(k, call.args[1]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * A call to a setter
+     */
+    private static class Call {
+        private final Method method;
+        private final Object[] args;
+
+        Call(final Method method, final Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+    }
+}
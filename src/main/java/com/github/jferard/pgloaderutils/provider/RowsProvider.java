@@ -36,5 +36,35 @@ public interface RowsProvider {
                                 List<DataType> types)
             throws SQLException;
 
+    /**
+     * Read the next record and convert it to java objects, without binding them. Short records
+     * are padded with nulls, long records are truncated. The default implementation records
+     * the values bound by {@link #setStatementParameters}.
+     *
+     * @param types the types of the columns
+     * @return the values of the next row, one per type
+     * @throws IllegalStateException if the provider can't bind the record
+     */
+    default List<Object> nextValues(final List<DataType> types) {
+        try {
+            return RecordedRow.record(this, types).getValues(types.size());
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Can't read the next record", e);
+        }
+    }
+
+    /**
+     * Read the next record, without binding it. The returned row binds its values when it is
+     * bound, possibly several times. The default implementation records the calls of
+     * {@link #setStatementParameters} and replays them.
+     *
+     * @param types the types of the columns
+     * @return the next row
+     * @throws SQLException if the provider can't bind the record
+     */
+    default BindableRow nextRow(final List<DataType> types) throws SQLException {
+        return RecordedRow.record(this, types);
+    }
+
     CSVRecord getCurRecord();
 }
@@ -28,6 +28,7 @@ import org.apache.commons.csv.CSVRecord;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -44,6 +45,12 @@ public class SimpleCSVRowsProvider implements RowsProvider {
 
     private final Iterator<CSVRecord> iterator;
     private CSVRecord curRecord;
+    /**
+     * The types of the last call, the binders and the sql types are compiled from these types
+     */
+    private List<DataType> compiledTypes;
+    private ColumnBinder[] binders;
+    private int[] sqlTypes;
 
     public SimpleCSVRowsProvider(final Iterator<CSVRecord> iterator, final List<Object> commonValues,
                                  final ValueConverter converter) {
@@ -63,37 +70,71 @@ public class SimpleCSVRowsProvider implements RowsProvider {
     public void setStatementParameters(final PreparedStatement preparedStatement,
                                        final List<DataType> types)
             throws SQLException {
+        if (types != this.compiledTypes) {
+            this.compile(types);
+        }
+        final ColumnBinder[] binders = this.binders;
+        final int[] sqlTypes = this.sqlTypes;
         final int commonSize = this.commonValues.size();
         final CSVRecord record = this.iterator.next();
         this.curRecord = record;
         for (int i = 0; i < commonSize; i++) {
-            final DataType dataType = types.get(i);
             final Object value = this.commonValues.get(i);
-            preparedStatement.setObject(1 + i, value, dataType.getSqlType());
+            preparedStatement.setObject(1 + i, value, sqlTypes[i]);
         }
         final int recordSize = record.size();
-        final int remainingColumnsCount = types.size() - commonSize;
-        if (recordSize < remainingColumnsCount) {
-            for (int i = commonSize; i < commonSize + recordSize; i++) {
-                final DataType type = types.get(i);
-                final int j = i - commonSize; // record index
-                final Object value = this.converter.toJavaObject(record.get(j), type);
-                preparedStatement.setObject(1 + i, value, type.getSqlType());
-            }
-            // short record: set last cols to null
-            for (int i = commonSize + recordSize; i < commonSize + remainingColumnsCount; i++) {
-                final DataType type = types.get(i);
-                preparedStatement.setNull(1 + i, type.getSqlType());
-            }
-        } else {
-            // long record: ignore last values
-            for (int i = commonSize; i < commonSize + remainingColumnsCount; i++) {
-                final DataType type = types.get(i);
-                final int j = i - commonSize; // record index
-                final Object value = this.converter.toJavaObject(record.get(j), type);
-                preparedStatement.setObject(1 + i, value, type.getSqlType());
+        final int colsCount = binders.length;
+        final int boundCount = Math.min(colsCount, commonSize + recordSize);
+        for (int i = commonSize; i < boundCount; i++) {
+            final int j = i - commonSize; // record index
+            binders[i].bind(preparedStatement, 1 + i, record.get(j));
+        }
+        // short record: set last cols to null. Long record: ignore last values
+        for (int i = boundCount; i < colsCount; i++) {
+            preparedStatement.setNull(1 + i, sqlTypes[i]);
+        }
+    }
+
+    private void compile(final List<DataType> types) {
+        this.binders = ColumnBinder.compile(types, this.converter);
+        this.sqlTypes = types.stream().mapToInt(DataType::getSqlType).toArray();
+        this.compiledTypes = types;
+    }
+
+    @Override
+    public List<Object> nextValues(final List<DataType> types) {
+        final CSVRecord record = this.iterator.next();
+        this.curRecord = record;
+        final int colsCount = types.size();
+        final List<Object> values = new ArrayList<>(colsCount);
+        values.addAll(this.commonValues);
+        final int commonSize = this.commonValues.size();
+        final int recordSize = record.size();
+        for (int i = commonSize; i < colsCount; i++) {
+            final int j = i - commonSize; // record index
+            if (j < recordSize) {
+                values.add(this.converter.toJavaObject(record.get(j), types.get(i)));
+            } else { // short record
+                values.add(null);
             }
         }
+        return values;
+    }
+
+    @Override
+    public BindableRow nextRow(final List<DataType> types) {
+        if (types != this.compiledTypes) {
+            this.compile(types);
+        }
+        final CSVRecord record = this.iterator.next();
+        this.curRecord = record;
+        final int commonSize = this.commonValues.size();
+        final int valuesCount = Math.max(0, Math.min(types.size() - commonSize, record.size()));
+        final String[] values = new String[valuesCount];
+        for (int j = 0; j < valuesCount; j++) {
+            values[j] = record.get(j);
+        }
+        return new BinderRow(this.commonValues, this.binders, this.sqlTypes, values);
     }
 
     @Override
@@ -22,6 +22,8 @@
 package com.github.jferard.pgloaderutils.reader;
 
 import com.github.jferard.pgloaderutils.CSVRecordProcessor;
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+import com.github.jferard.pgloaderutils.metrics.LoadStage;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -30,9 +32,8 @@ import org.apache.commons.csv.CSVRecord;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PipedReader;
-import java.io.PipedWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -46,8 +47,6 @@ import java.util.logging.Logger;
  * @author Julien Férard
  */
 public class CSVProcessorFileReader extends OpenableReader {
-    private static final int BUFFER_SIZE = 4096;
-
     public static CSVProcessorFileReader fromStream(final InputStream stream, final Charset charset,
                                                     final CSVFormat format,
                                                     final CSVRecordProcessor recordCleaner)
@@ -64,40 +63,91 @@ public class CSVProcessorFileReader extends OpenableReader {
         return new CSVProcessorFileReader(parser, recordCleaner);
     }
 
+    /**
+     * @param parser          the parser
+     * @param recordProcessor the processor
+     * @return a reader without pipe, that only pushes the data to a writer (see
+     * {@link #writeTo(Writer)}): {@code open} and {@code read} throw an IllegalStateException.
+     */
+    public static CSVProcessorFileReader forWriter(final CSVParser parser,
+                                                   final CSVRecordProcessor recordProcessor) {
+        return new CSVProcessorFileReader(parser, recordProcessor, null);
+    }
+
     private final Logger logger;
     private final Reader modifiedStreamReader;
-    private final CSVPrinter printer;
+    private final Writer pipedWriter;
     private final CSVRecordProcessor recordProcessor;
     private final CSVParser parser;
     private final List<CSVRecord> ignoredRecords;
 
     public CSVProcessorFileReader(final CSVParser parser, final CSVRecordProcessor recordProcessor)
             throws IOException {
+        this(parser, recordProcessor, ChunkedPipe.DEFAULT_CHUNK_SIZE,
+                ChunkedPipe.DEFAULT_CHUNK_COUNT);
+    }
+
+    /**
+     * @param parser          the parser
+     * @param recordProcessor the processor
+     * @param chunkSize       the size of a chunk of the pipe, in chars
+     * @param chunkCount      the number of chunks of the pipe
+     * @throws IOException if an I/O error occurs
+     */
+    public CSVProcessorFileReader(final CSVParser parser, final CSVRecordProcessor recordProcessor,
+                                  final int chunkSize, final int chunkCount)
+            throws IOException {
+        this(parser, recordProcessor, new ChunkedPipe(chunkSize, chunkCount));
+    }
+
+    private CSVProcessorFileReader(final CSVParser parser,
+                                   final CSVRecordProcessor recordProcessor,
+                                   final ChunkedPipe pipe) {
         this.recordProcessor = recordProcessor;
-        final PipedWriter pipedWriter = new PipedWriter();
-        this.modifiedStreamReader = new PipedReader(pipedWriter, BUFFER_SIZE);
+        if (pipe == null) {
+            this.pipedWriter = null;
+            this.modifiedStreamReader = null;
+        } else {
+            this.pipedWriter = pipe.getWriter();
+            this.modifiedStreamReader = pipe.getReader();
+        }
 
         this.parser = parser;
-        this.printer = new CSVPrinter(pipedWriter, CSVFormat.RFC4180);
         this.logger = Logger.getLogger("Cleaner");
         this.ignoredRecords = new ArrayList<>();
     }
 
     @Override
     public void open() throws IOException {
+        this.checkPipe();
+        this.writeTo(this.pipedWriter);
+        this.pipedWriter.close();
+    }
+
+    @Override
+    public void writeTo(final Writer writer) throws IOException {
+        final LoadRecorder recorder = new LoadRecorder(this.getListener());
+        final CSVPrinter printer =
+                new CSVPrinter(new CountingWriter(writer, recorder), CSVFormat.RFC4180);
         int i = 0;
         CSVRecord record = null;
         final Iterator<CSVRecord> iterator = this.parser.iterator();
         try {
             while (iterator.hasNext()) {
                 record = iterator.next();
+                recorder.lap(LoadStage.PARSE);
                 try {
                     final Iterable<String> l = this.recordProcessor.cleanRecord(record);
-                    this.printer.printRecord(l);
+                    recorder.lap(LoadStage.CONVERT);
+                    printer.printRecord(l);
+                    recorder.lap(LoadStage.WRITE);
+                    recorder.row();
                 } catch (final RuntimeException e) {
                     this.logger.log(Level.SEVERE, String.format("Error at line %s. Last record was %s",
                             this.parser.getRecordNumber(), record), e);
                     this.ignoredRecords.add(record);
+                    recorder.rejected();
+                    recorder.restart();
                 }
                 if (i % 100000 == 0) {
                     this.logger.info("Lines written:" + i);
@@ -105,23 +155,37 @@ public class CSVProcessorFileReader extends OpenableReader {
                 i++;
             }
         } catch (final IOException e) {
+            // the write end is broken: don't flush
             this.logger.log(Level.SEVERE, String.format("Error at line %s. Last record was %s",
                     this.parser.getRecordNumber(), record), e);
+            throw e;
+        } finally {
+            this.parser.close();
         }
-        this.parser.close();
-        this.printer.close();
+        printer.flush();
+        recorder.lap(LoadStage.WRITE);
+        recorder.report();
     }
 
     @Override
     public void close() throws IOException {
-        this.modifiedStreamReader.close();
+        if (this.modifiedStreamReader != null) {
+            this.modifiedStreamReader.close();
+        }
     }
 
     @Override
     public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        this.checkPipe();
         return this.modifiedStreamReader.read(cbuf, off, len);
     }
 
+    private void checkPipe() {
+        if (this.pipedWriter == null) {
+            throw new IllegalStateException("No pipe: use writeTo");
+        }
+    }
+
     public List<CSVRecord> getIgnoredRecords() {
         return this.ignoredRecords;
     }
@@ -0,0 +1,307 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.jferard.pgloaderutils.reader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pipe between one writer thread and one reader thread. A replacement for the
+ * {@code PipedWriter}/{@code PipedReader} pair, that synchronizes on every write and polls
+ * every second.
+ * <p>
+ * The data goes through a bounded ring of reusable {@code char[]} chunks. The writer fills a
+ * chunk and publishes it; the reader consumes the published chunks and releases them. There
+ * is no lock: the two sides only share two volatile counters, and a side that has to wait
+ * parks until the other side wakes it up.
+ *
+ * @author Julien Férard
+ */
+public class ChunkedPipe {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_CHUNK_COUNT = 8;
+    private static final int SPIN_COUNT = 100;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final char[][] chunks;
+    private final int[] lengths;
+    private final Writer writer;
+    private final Reader reader;
+
+    /**
+     * Index of the next chunk to read. Written by the reader only.
+     */
+    private volatile long head;
+    /**
+     * Index of the next chunk to write. Written by the writer only.
+     */
+    private volatile long tail;
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+    private volatile Thread waitingReader;
+    private volatile Thread waitingWriter;
+
+    /**
+     * A new pipe with the default chunk size and count.
+     */
+    public ChunkedPipe() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_COUNT);
+    }
+
+    /**
+     * @param chunkSize  the size of a chunk, in chars
+     * @param chunkCount the number of chunks
+     */
+    public ChunkedPipe(final int chunkSize, final int chunkCount) {
+        if (chunkSize <= 0 || chunkCount <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("Chunk size and count must be positive: %d, %d", chunkSize,
+                            chunkCount));
+        }
+        this.chunks = new char[chunkCount][chunkSize];
+        this.lengths = new int[chunkCount];
+        this.head = 0;
+        this.tail = 0;
+        this.writer = new PipeWriter();
+        this.reader = new PipeReader();
+    }
+
+    /**
+     * @return the write end of the pipe
+     */
+    public Writer getWriter() {
+        return this.writer;
+    }
+
+    /**
+     * @return the read end of the pipe
+     */
+    public Reader getReader() {
+        return this.reader;
+    }
+
+    private static void wakeUp(final Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private class PipeWriter extends Writer {
+        private char[] chunk;
+        private int pos;
+
+        @Override
+        public void write(final int c) throws IOException {
+            if (this.chunk == null || this.pos == this.chunk.length) {
+                this.nextChunk();
+            }
+            this.chunk[this.pos++] = (char) c;
+        }
+
+        @Override
+        public void write(final char[] cbuf, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.chunk == null || this.pos == this.chunk.length) {
+                    this.nextChunk();
+                }
+                final int count = Math.min(len, this.chunk.length - this.pos);
+                System.arraycopy(cbuf, off, this.chunk, this.pos, count);
+                this.pos += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void write(final String str, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.chunk == null || this.pos == this.chunk.length) {
+                    this.nextChunk();
+                }
+                final int count = Math.min(len, this.chunk.length - this.pos);
+                str.getChars(off, off + count, this.chunk, this.pos);
+                this.pos += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        /**
+         * Publish the current chunk, if any, and wait for a free chunk.
+         */
+        private void nextChunk() throws IOException {
+            this.publish();
+            final long t = ChunkedPipe.this.tail;
+            int spins = 0;
+            while (t - ChunkedPipe.this.head >= ChunkedPipe.this.chunks.length) {
+                this.checkReaderOpen();
+                if (spins < SPIN_COUNT) {
+                    spins++;
+                    Thread.yield();
+                } else {
+                    ChunkedPipe.this.waitingWriter = Thread.currentThread();
+                    if (t - ChunkedPipe.this.head >= ChunkedPipe.this.chunks.length) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    ChunkedPipe.this.waitingWriter = null;
+                }
+            }
+            this.chunk = ChunkedPipe.this.chunks[(int) (t % ChunkedPipe.this.chunks.length)];
+            this.pos = 0;
+        }
+
+        private void publish() throws IOException {
+            this.checkReaderOpen();
+            if (this.chunk != null && this.pos > 0) {
+                final long t = ChunkedPipe.this.tail;
+                ChunkedPipe.this.lengths[(int) (t % ChunkedPipe.this.chunks.length)] = this.pos;
+                ChunkedPipe.this.tail = t + 1; // volatile write: the chunk is visible
+                ChunkedPipe.wakeUp(ChunkedPipe.this.waitingReader);
+            }
+            this.chunk = null;
+            this.pos = 0;
+        }
+
+        private void checkReaderOpen() throws IOException {
+            if (ChunkedPipe.this.readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+            if (ChunkedPipe.this.writerClosed) {
+                throw new IOException("Write end closed");
+            }
+        }
+
+        /**
+         * Publish the current chunk: the reader will be able to read the data.
+         */
+        @Override
+        public void flush() throws IOException {
+            this.publish();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ChunkedPipe.this.writerClosed) {
+                return;
+            }
+            try {
+                if (!ChunkedPipe.this.readerClosed) {
+                    this.publish();
+                }
+            } finally {
+                ChunkedPipe.this.writerClosed = true;
+                ChunkedPipe.wakeUp(ChunkedPipe.this.waitingReader);
+            }
+        }
+    }
+
+    private class PipeReader extends Reader {
+        private int pos;
+
+        @Override
+        public int read() throws IOException {
+            if (!this.awaitData()) {
+                return -1;
+            }
+            final int index = (int) (ChunkedPipe.this.head % ChunkedPipe.this.chunks.length);
+            final char c = ChunkedPipe.this.chunks[index][this.pos++];
+            if (this.pos == ChunkedPipe.this.lengths[index]) {
+                this.release();
+            }
+            return c;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.awaitData()) {
+                return -1;
+            }
+            int read = 0;
+            // read the available chunks, without waiting
+            while (read < len && ChunkedPipe.this.head != ChunkedPipe.this.tail) {
+                final int index =
+                        (int) (ChunkedPipe.this.head % ChunkedPipe.this.chunks.length);
+                final int length = ChunkedPipe.this.lengths[index];
+                final int count = Math.min(len - read, length - this.pos);
+                System.arraycopy(ChunkedPipe.this.chunks[index], this.pos, cbuf, off + read,
+                        count);
+                this.pos += count;
+                read += count;
+                if (this.pos == length) {
+                    this.release();
+                }
+            }
+            return read;
+        }
+
+        /**
+         * @return true if there is a chunk to read, false if the writer is closed.
+         */
+        private boolean awaitData() throws IOException {
+            int spins = 0;
+            while (ChunkedPipe.this.head == ChunkedPipe.this.tail) {
+                if (ChunkedPipe.this.readerClosed) {
+                    throw new IOException("Pipe closed");
+                }
+                if (ChunkedPipe.this.writerClosed) {
+                    // the last chunk may have been published just before the close
+                    return ChunkedPipe.this.head != ChunkedPipe.this.tail;
+                }
+                if (spins < SPIN_COUNT) {
+                    spins++;
+                    Thread.yield();
+                } else {
+                    ChunkedPipe.this.waitingReader = Thread.currentThread();
+                    if (ChunkedPipe.this.head == ChunkedPipe.this.tail &&
+                            !ChunkedPipe.this.writerClosed) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    ChunkedPipe.this.waitingReader = null;
+                }
+            }
+            return true;
+        }
+
+        private void release() {
+            this.pos = 0;
+            ChunkedPipe.this.head++; // only the reader writes head
+            ChunkedPipe.wakeUp(ChunkedPipe.this.waitingWriter);
+        }
+
+        @Override
+        public boolean ready() {
+            return ChunkedPipe.this.head != ChunkedPipe.this.tail;
+        }
+
+        @Override
+        public void close() {
+            ChunkedPipe.this.readerClosed = true;
+            ChunkedPipe.wakeUp(ChunkedPipe.this.waitingWriter);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.reader;
+
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A writer that counts the chars written, for a {@link LoadRecorder}.
+ */
+class CountingWriter extends FilterWriter {
+    private final LoadRecorder recorder;
+
+    CountingWriter(final Writer out, final LoadRecorder recorder) {
+        super(out);
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        this.out.write(c);
+        this.recorder.chars(1);
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        this.out.write(cbuf, off, len);
+        this.recorder.chars(len);
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        this.out.write(str, off, len);
+        this.recorder.chars(len);
+    }
+}
@@ -28,13 +28,14 @@ import com.github.jferard.javamcsv.MetaCSVReadException;
 import com.github.jferard.javamcsv.MetaCSVReader;
 import com.github.jferard.javamcsv.MetaCSVRecord;
 import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+import com.github.jferard.pgloaderutils.metrics.LoadStage;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 
 import java.io.IOException;
-import java.io.PipedReader;
-import java.io.PipedWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -43,41 +44,70 @@ import java.util.logging.Logger;
 
 public class FromMetaCSVFileReader
         extends OpenableReader {
-    private static final int BUFFER_SIZE = 4096;
     private final Logger logger;
     private final Reader modifiedStreamReader;
     private final MetaCSVReader metaReader;
-    private final CSVPrinter printer;
+    private final Writer pipedWriter;
     private Iterator<MetaCSVRecord> iterator;
 
     public FromMetaCSVFileReader(final MetaCSVReader metaReader) throws IOException {
+        this(metaReader, ChunkedPipe.DEFAULT_CHUNK_SIZE, ChunkedPipe.DEFAULT_CHUNK_COUNT);
+    }
+
+    /**
+     * @param metaReader the MetaCSV reader
+     * @param chunkSize  the size of a chunk of the pipe, in chars
+     * @param chunkCount the number of chunks of the pipe
+     * @throws IOException if an I/O error occurs
+     */
+    public FromMetaCSVFileReader(final MetaCSVReader metaReader, final int chunkSize,
+                                 final int chunkCount) throws IOException {
         this.metaReader = metaReader;
-        final PipedWriter pipedWriter = new PipedWriter();
-        this.modifiedStreamReader = new PipedReader(pipedWriter, BUFFER_SIZE);
-        this.printer = new CSVPrinter(pipedWriter, CSVFormat.RFC4180);
+        final ChunkedPipe pipe = new ChunkedPipe(chunkSize, chunkCount);
+        this.pipedWriter = pipe.getWriter();
+        this.modifiedStreamReader = pipe.getReader();
         this.logger = Logger.getLogger("Cleaner");
     }
 
     @Override
     public void open() throws IOException {
+        this.writeTo(this.pipedWriter);
+        this.pipedWriter.close();
+    }
+
+    @Override
+    public void writeTo(final Writer writer) throws IOException {
+        final LoadRecorder recorder = new LoadRecorder(this.getListener());
+        final CSVPrinter printer =
+                new CSVPrinter(new CountingWriter(writer, recorder), CSVFormat.RFC4180);
         int i = 0;
         MetaCSVRecord record = null;
         try {
             while (this.iterator.hasNext()) {
                 record = this.iterator.next();
-                this.printer.printRecord(record.toCanonicalList());
+                recorder.lap(LoadStage.PARSE);
+                final List<String> values = record.toCanonicalList();
+                recorder.lap(LoadStage.CONVERT);
+                printer.printRecord(values);
+                recorder.lap(LoadStage.WRITE);
+                recorder.row();
                 if (i % 100000 == 0) {
                     this.logger.info("Lines written:" + i);
                 }
                 i++;
             }
         } catch (final IOException e) {
+            // the write end is broken: don't flush
             this.logger
                     .log(Level.SEVERE, "Error at line " + i + ". Last record was " +
                             record, e);
+            throw e;
+        } finally {
+            this.metaReader.close();
         }
-        this.metaReader.close();
-        this.printer.close();
+        printer.flush();
+        recorder.lap(LoadStage.WRITE);
+        recorder.report();
     }
 
     @Override
@@ -0,0 +1,309 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.reader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reader on a memory-mapped region of a file. The region is mapped by windows
+ * ({@code FileChannel.map}): there is no read syscall and no intermediate byte buffer on the
+ * heap. ISO-8859-1, US-ASCII and UTF-8 are decoded by hand, other charsets by a
+ * {@code CharsetDecoder}.
+ * <p>
+ * A window always starts at the first byte that was not decoded: a multi-byte sequence split by
+ * the end of a window is decoded in the next window. Malformed input is replaced by U+FFFD.
+ *
+ * @author Julien Férard
+ */
+public class MappedReader extends Reader {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final char REPLACEMENT = '\uFFFD';
+    private static final int NO_PENDING = -1;
+
+    private enum Decoding {LATIN_1, ASCII, UTF_8, OTHER}
+
+    /**
+     * @param path    the file
+     * @param charset the charset
+     * @param start   the first byte of the region
+     * @param end     the end of the region (excluded)
+     * @return the reader
+     * @throws IOException if the file can't be opened
+     */
+    public static MappedReader open(final Path path, final Charset charset, final long start,
+                                    final long end) throws IOException {
+        return new MappedReader(FileChannel.open(path, StandardOpenOption.READ), charset, start,
+                end, DEFAULT_WINDOW_SIZE);
+    }
+
+    private final FileChannel channel;
+    private final long end;
+    private final int windowSize;
+    private final Decoding decoding;
+    private final CharsetDecoder decoder;
+    private ByteBuffer window;
+    private long windowStart;
+    /**
+     * A low surrogate that did not fit in the caller buffer
+     */
+    private int pending;
+    private boolean flushed;
+
+    /**
+     * @param channel    the channel, closed by {@link #close()}
+     * @param charset    the charset
+     * @param start      the first byte of the region
+     * @param end        the end of the region (excluded)
+     * @param windowSize the size of a window, at least 4 bytes
+     */
+    public MappedReader(final FileChannel channel, final Charset charset, final long start,
+                        final long end, final int windowSize) {
+        if (windowSize < 4) {
+            throw new IllegalArgumentException("Window is too small: " + windowSize);
+        }
+        this.channel = channel;
+        this.end = end;
+        this.windowSize = windowSize;
+        if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            this.decoding = Decoding.LATIN_1;
+            this.decoder = null;
+        } else if (charset.equals(StandardCharsets.US_ASCII)) {
+            this.decoding = Decoding.ASCII;
+            this.decoder = null;
+        } else if (charset.equals(StandardCharsets.UTF_8)) {
+            this.decoding = Decoding.UTF_8;
+            this.decoder = null;
+        } else {
+            this.decoding = Decoding.OTHER;
+            this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        this.windowStart = start;
+        this.window = null;
+        this.pending = NO_PENDING;
+        this.flushed = false;
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (this.pending != NO_PENDING) {
+            cbuf[off] = (char) this.pending;
+            this.pending = NO_PENDING;
+            n++;
+        }
+        while (n < len) {
+            if ((this.window == null || !this.window.hasRemaining()) && !this.remap()) {
+                if (this.decoding == Decoding.OTHER && !this.flushed) {
+                    n += this.flushDecoder(cbuf, off + n, len - n);
+                }
+                break;
+            }
+            final int count;
+            switch (this.decoding) {
+                case LATIN_1:
+                    count = this.decodeLatin1(cbuf, off + n, len - n);
+                    break;
+                case ASCII:
+                    count = this.decodeASCII(cbuf, off + n, len - n);
+                    break;
+                case UTF_8:
+                    count = this.decodeUTF8(cbuf, off + n, len - n);
+                    break;
+                default:
+                    count = this.decodeOther(cbuf, off + n, len - n);
+                    break;
+            }
+            n += count;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    /**
+     * Map the next window, from the first byte that was not decoded.
+     *
+     * @return false if the end of the region is reached
+     */
+    private boolean remap() throws IOException {
+        final long position =
+                this.window == null ? this.windowStart : this.windowStart + this.window.position();
+        if (position >= this.end) {
+            return false;
+        }
+        final long size = Math.min(this.windowSize, this.end - position);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        this.windowStart = position;
+        return true;
+    }
+
+    private boolean isLastWindow() {
+        return this.windowStart + this.window.limit() >= this.end;
+    }
+
+    private int decodeLatin1(final char[] cbuf, final int off, final int len) {
+        final ByteBuffer window = this.window;
+        final int count = Math.min(len, window.remaining());
+        for (int i = 0; i < count; i++) {
+            cbuf[off + i] = (char) (window.get() & 0xFF);
+        }
+        return count;
+    }
+
+    private int decodeASCII(final char[] cbuf, final int off, final int len) {
+        final ByteBuffer window = this.window;
+        final int count = Math.min(len, window.remaining());
+        for (int i = 0; i < count; i++) {
+            final int b = window.get();
+            cbuf[off + i] = b < 0 ? REPLACEMENT : (char) b;
+        }
+        return count;
+    }
+
+    /**
+     * Decode UTF-8 until the caller buffer is full or the window is exhausted. If a sequence is
+     * split by the end of the window, stop and remap the window at the start of the sequence.
+     */
+    private int decodeUTF8(final char[] cbuf, final int off, final int len) throws IOException {
+        final ByteBuffer window = this.window;
+        int n = 0;
+        int position = window.position();
+        final int limit = window.limit();
+        while (n < len && position < limit) {
+            final int b0 = window.get(position) & 0xFF;
+            if (b0 < 0x80) {
+                cbuf[off + n++] = (char) b0;
+                position++;
+                continue;
+            }
+            final int size;
+            if (b0 >= 0xC2 && b0 < 0xE0) {
+                size = 2;
+            } else if (b0 >= 0xE0 && b0 < 0xF0) {
+                size = 3;
+            } else if (b0 >= 0xF0 && b0 < 0xF5) {
+                size = 4;
+            } else {
+                cbuf[off + n++] = REPLACEMENT;
+                position++;
+                continue;
+            }
+            if (limit - position < size && !this.isLastWindow()) {
+                window.position(position);
+                this.remap();
+                return n;
+            }
+            final int codePoint = this.decodeUTF8Sequence(window, position, limit, b0, size);
+            if (codePoint < 0) {
+                cbuf[off + n++] = REPLACEMENT;
+                position++;
+            } else if (codePoint < 0x10000) {
+                cbuf[off + n++] = (char) codePoint;
+                position += size;
+            } else {
+                cbuf[off + n++] = Character.highSurrogate(codePoint);
+                if (n < len) {
+                    cbuf[off + n++] = Character.lowSurrogate(codePoint);
+                } else {
+                    this.pending = Character.lowSurrogate(codePoint);
+                }
+                position += size;
+            }
+        }
+        window.position(position);
+        return n;
+    }
+
+    /**
+     * @return the code point, or -1 if the sequence is malformed
+     */
+    private int decodeUTF8Sequence(final ByteBuffer window, final int position, final int limit,
+                                   final int b0, final int size) {
+        if (limit - position < size) {
+            return -1;
+        }
+        final int b1 = window.get(position + 1) & 0xFF;
+        if ((b1 & 0xC0) != 0x80) {
+            return -1;
+        }
+        if (size == 2) {
+            return ((b0 & 0x1F) << 6) | (b1 & 0x3F);
+        }
+        if (b0 == 0xE0 && b1 < 0xA0 || b0 == 0xED && b1 >= 0xA0 || b0 == 0xF0 && b1 < 0x90 ||
+                b0 == 0xF4 && b1 >= 0x90) { // overlong, surrogate or out of range
+            return -1;
+        }
+        final int b2 = window.get(position + 2) & 0xFF;
+        if ((b2 & 0xC0) != 0x80) {
+            return -1;
+        }
+        if (size == 3) {
+            return ((b0 & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F);
+        }
+        final int b3 = window.get(position + 3) & 0xFF;
+        if ((b3 & 0xC0) != 0x80) {
+            return -1;
+        }
+        return ((b0 & 0x07) << 18) | ((b1 & 0x3F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F);
+    }
+
+    private int decodeOther(final char[] cbuf, final int off, final int len) throws IOException {
+        final CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        final boolean lastWindow = this.isLastWindow();
+        final CoderResult result = this.decoder.decode(this.window, out, lastWindow);
+        if (result.isUnderflow() && this.window.hasRemaining() && !lastWindow) {
+            this.remap(); // an incomplete sequence at the end of the window
+        }
+        return out.position() - off;
+    }
+
+    private int flushDecoder(final char[] cbuf, final int off, final int len) {
+        final CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        if (this.window == null) {
+            this.decoder.decode(ByteBuffer.allocate(0), out, true);
+        }
+        if (this.decoder.flush(out).isUnderflow()) {
+            this.flushed = true;
+        }
+        return out.position() - off;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.channel.close();
+    }
+}
@@ -21,8 +21,11 @@
  */
 package com.github.jferard.pgloaderutils.reader;
 
+import com.github.jferard.pgloaderutils.metrics.LoadListener;
+
 import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
 import java.sql.SQLException;
 
 /**
@@ -35,10 +38,14 @@ import java.sql.SQLException;
  *     reader.open();  // open the floodgates
  *     thread.join();  // wait for the end of flood
  * </pre>
+ * <p>
+ * A single threaded application may skip the reader side and push the data to a writer with
+ * {@code writeTo(writer)}.
  */
 public abstract class OpenableReader extends Reader {
     private IOException ioException;
     private SQLException sqlException;
+    private LoadListener listener = LoadListener.NONE;
 
     /**
      * Unlock read
@@ -47,6 +54,29 @@ public abstract class OpenableReader extends Reader {
      */
     public abstract void open() throws IOException;
 
+    /**
+     * Push the data to a writer, in the calling thread, instead of making it available to
+     * {@code read}. The writer is flushed, but not closed.
+     *
+     * @param writer the destination
+     * @throws IOException if an I/O error occurs
+     */
+    public abstract void writeTo(final Writer writer) throws IOException;
+
+    /**
+     * @param listener the listener of the rows read, the rows rejected and the stage times
+     */
+    public void setListener(final LoadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the listener, {@link LoadListener#NONE} by default
+     */
+    public LoadListener getListener() {
+        return this.listener;
+    }
+
     /**
      * @param e the exception
      */
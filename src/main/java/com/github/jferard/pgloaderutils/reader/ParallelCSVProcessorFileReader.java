@@ -0,0 +1,325 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.reader;
+
+import com.github.jferard.pgloaderutils.CSVRecordProcessor;
+import com.github.jferard.pgloaderutils.metrics.LoadListener;
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+import com.github.jferard.pgloaderutils.metrics.LoadStage;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link CSVProcessorFileReader} that cleans the records in parallel. The pipeline is:
+ * <ol>
+ * <li>a splitter thread parses the records and groups them in batches;</li>
+ * <li>a pool of workers cleans the records of a batch and prints them to CSV text;</li>
+ * <li>the thread of {@link #writeTo(Writer)} writes the batches, in the input order or in the
+ * order of completion.</li>
+ * </ol>
+ * The number of batches in flight is bounded, hence the memory used too.
+ *
+ * @author Julien Férard
+ */
+public class ParallelCSVProcessorFileReader extends OpenableReader {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final Logger logger;
+    private final Reader modifiedStreamReader;
+    private final Writer pipedWriter;
+    private final CSVRecordProcessor recordProcessor;
+    private final CSVParser parser;
+    private final List<CSVRecord> ignoredRecords;
+    private final int threads;
+    private final int batchSize;
+    private final boolean preserveOrder;
+
+    /**
+     * @param parser          the parser
+     * @param recordProcessor the processor. Must be thread safe.
+     * @param threads         the number of workers
+     * @param preserveOrder   true to write the records in the input order
+     * @throws IOException if an I/O error occurs
+     */
+    public ParallelCSVProcessorFileReader(final CSVParser parser,
+                                          final CSVRecordProcessor recordProcessor,
+                                          final int threads, final boolean preserveOrder)
+            throws IOException {
+        this(parser, recordProcessor, threads, DEFAULT_BATCH_SIZE, preserveOrder,
+                ChunkedPipe.DEFAULT_CHUNK_SIZE, ChunkedPipe.DEFAULT_CHUNK_COUNT);
+    }
+
+    /**
+     * @param parser          the parser
+     * @param recordProcessor the processor. Must be thread safe.
+     * @param threads         the number of workers
+     * @param batchSize       the number of records of a batch
+     * @param preserveOrder   true to write the records in the input order
+     * @param chunkSize       the size of a chunk of the pipe, in chars
+     * @param chunkCount      the number of chunks of the pipe
+     * @throws IOException if an I/O error occurs
+     */
+    public ParallelCSVProcessorFileReader(final CSVParser parser,
+                                          final CSVRecordProcessor recordProcessor,
+                                          final int threads, final int batchSize,
+                                          final boolean preserveOrder, final int chunkSize,
+                                          final int chunkCount)
+            throws IOException {
+        this.recordProcessor = recordProcessor;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.preserveOrder = preserveOrder;
+        final ChunkedPipe pipe = new ChunkedPipe(chunkSize, chunkCount);
+        this.pipedWriter = pipe.getWriter();
+        this.modifiedStreamReader = pipe.getReader();
+
+        this.parser = parser;
+        this.logger = Logger.getLogger("Cleaner");
+        this.ignoredRecords = new ArrayList<>();
+    }
+
+    @Override
+    public void open() throws IOException {
+        this.writeTo(this.pipedWriter);
+        this.pipedWriter.close();
+    }
+
+    @Override
+    public void writeTo(final Writer writer) throws IOException {
+        final BlockingQueue<Batch> done = new LinkedBlockingQueue<>();
+        final Semaphore inFlight = new Semaphore(2 * this.threads);
+        final ExecutorService workers = Executors.newFixedThreadPool(this.threads, r -> {
+            final Thread thread = new Thread(r, "csv-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final Thread splitter = new Thread(() -> this.split(workers, done, inFlight),
+                "csv-splitter");
+        splitter.setDaemon(true);
+        splitter.start();
+        try {
+            this.reassemble(writer, done, inFlight);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            splitter.interrupt();
+            workers.shutdownNow();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Parse the records and submit the batches. The last batch is an end marker that holds the
+     * number of batches.
+     */
+    private void split(final ExecutorService workers, final BlockingQueue<Batch> done,
+                       final Semaphore inFlight) {
+        int index = 0;
+        CSVRecord record = null;
+        final LoadRecorder recorder = new LoadRecorder(this.getListener());
+        try {
+            final Iterator<CSVRecord> iterator = this.parser.iterator();
+            List<CSVRecord> records = new ArrayList<>(this.batchSize);
+            while (iterator.hasNext()) {
+                record = iterator.next();
+                records.add(record);
+                if (records.size() == this.batchSize) {
+                    recorder.lap(LoadStage.PARSE);
+                    inFlight.acquire();
+                    recorder.restart(); // waiting for the workers is not parsing
+                    this.submit(workers, done, index++, records);
+                    records = new ArrayList<>(this.batchSize);
+                }
+            }
+            recorder.lap(LoadStage.PARSE);
+            recorder.report();
+            if (!records.isEmpty()) {
+                inFlight.acquire();
+                this.submit(workers, done, index++, records);
+            }
+            this.parser.close();
+        } catch (final InterruptedException e) {
+            return;
+        } catch (final IOException | RuntimeException e) {
+            this.logger.log(Level.SEVERE, String.format("Error at line %s. Last record was %s",
+                    this.parser.getRecordNumber(), record), e);
+        }
+        done.add(Batch.end(index));
+    }
+
+    private void submit(final ExecutorService workers, final BlockingQueue<Batch> done,
+                        final int index, final List<CSVRecord> records) {
+        workers.execute(() -> done.add(this.clean(index, records)));
+    }
+
+    /**
+     * Clean and print the records of a batch. Runs on a worker.
+     */
+    private Batch clean(final int index, final List<CSVRecord> records) {
+        final long start = System.nanoTime();
+        final StringBuilder sb = new StringBuilder(records.size() * 64);
+        final List<CSVRecord> ignored = new ArrayList<>();
+        try {
+            final CSVPrinter printer = new CSVPrinter(sb, CSVFormat.RFC4180);
+            for (final CSVRecord record : records) {
+                try {
+                    printer.printRecord(this.recordProcessor.cleanRecord(record));
+                } catch (final RuntimeException e) {
+                    this.logger.log(Level.SEVERE, String.format("Error at line %s. Record was %s",
+                            record.getRecordNumber(), record), e);
+                    ignored.add(record);
+                }
+            }
+        } catch (final IOException | Error e) {
+            return Batch.failure(index, e);
+        }
+        final LoadListener listener = this.getListener();
+        listener.stageTime(LoadStage.CONVERT, System.nanoTime() - start);
+        if (!ignored.isEmpty()) {
+            listener.rowsRejected(ignored.size());
+        }
+        return new Batch(index, records.size(), sb.toString(), ignored);
+    }
+
+    /**
+     * Write the batches, in order if required.
+     */
+    private void reassemble(final Writer writer, final BlockingQueue<Batch> done,
+                            final Semaphore inFlight) throws IOException, InterruptedException {
+        final Map<Integer, Batch> pending = new HashMap<>();
+        final LoadRecorder recorder = new LoadRecorder(this.getListener());
+        int total = -1;
+        int next = 0;
+        long lines = 0;
+        while (total == -1 || next < total) {
+            final Batch batch = done.take();
+            recorder.restart(); // waiting for the workers is not writing
+            if (batch.text == null && batch.failure == null) { // end marker
+                total = batch.index;
+                continue;
+            }
+            if (batch.failure != null) {
+                throw new IOException("Worker failed on batch " + batch.index, batch.failure);
+            }
+            if (this.preserveOrder) {
+                pending.put(batch.index, batch);
+                Batch nextBatch = pending.remove(next);
+                while (nextBatch != null) {
+                    lines = this.write(writer, nextBatch, lines, recorder);
+                    inFlight.release();
+                    next++;
+                    nextBatch = pending.remove(next);
+                }
+            } else {
+                lines = this.write(writer, batch, lines, recorder);
+                inFlight.release();
+                next++;
+            }
+        }
+        recorder.report();
+    }
+
+    private long write(final Writer writer, final Batch batch, final long lines,
+                       final LoadRecorder recorder)
+            throws IOException {
+        writer.write(batch.text);
+        recorder.lap(LoadStage.WRITE);
+        recorder.chars(batch.text.length());
+        recorder.rows(batch.size - batch.ignored.size());
+        this.ignoredRecords.addAll(batch.ignored);
+        final long newLines = lines + batch.size;
+        if (newLines / 100000 != lines / 100000) {
+            this.logger.info("Lines written:" + newLines);
+        }
+        return newLines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.modifiedStreamReader.close();
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        return this.modifiedStreamReader.read(cbuf, off, len);
+    }
+
+    /**
+     * @return the ignored records. In input order if the order is preserved.
+     */
+    public List<CSVRecord> getIgnoredRecords() {
+        return this.ignoredRecords;
+    }
+
+    /**
+     * A batch of records, printed to CSV text.
+     */
+    private static class Batch {
+        static Batch end(final int count) {
+            return new Batch(count, 0, null, null);
+        }
+
+        static Batch failure(final int index, final Throwable failure) {
+            return new Batch(index, 0, null, null, failure);
+        }
+
+        private final int index;
+        private final int size;
+        private final String text;
+        private final List<CSVRecord> ignored;
+        private final Throwable failure;
+
+        Batch(final int index, final int size, final String text,
+              final List<CSVRecord> ignored) {
+            this(index, size, text, ignored, null);
+        }
+
+        Batch(final int index, final int size, final String text,
+              final List<CSVRecord> ignored, final Throwable failure) {
+            this.index = index;
+            this.size = size;
+            this.text = text;
+            this.ignored = ignored;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.reader;
+
+import com.github.jferard.pgloaderutils.Util;
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+import com.github.jferard.pgloaderutils.metrics.LoadStage;
+import com.github.jferard.pgloaderutils.source.RecordSource;
+import com.github.jferard.pgloaderutils.sql.DataType;
+import com.github.jferard.pgloaderutils.sql.ValueConverter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An OpenableReader that writes the records of a {@link RecordSource} in the RFC 4180 format.
+ * The fields pass straight through (from the char buffer of the source to the writer), except
+ * the converted columns: these are materialized as Strings, converted by the
+ * {@link ValueConverter} and written back with {@link Util#toPGString(Object)}.
+ *
+ * @author Julien Férard
+ */
+public class RecordSourceFileReader extends OpenableReader {
+    private final Logger logger;
+    private final Reader modifiedStreamReader;
+    private final Writer pipedWriter;
+    private final RecordSource source;
+    private final List<DataType> types;
+    private final ValueConverter converter;
+    private final BitSet convertedCols;
+    private long ignoredCount;
+
+    /**
+     * A pass-through reader: no field is converted.
+     *
+     * @param source the source
+     * @throws IOException if an I/O error occurs
+     */
+    public RecordSourceFileReader(final RecordSource source) throws IOException {
+        this(source, null, null, new BitSet());
+    }
+
+    /**
+     * @param source        the source
+     * @param types         the types of the columns
+     * @param converter     the converter
+     * @param convertedCols the indices of the columns to convert
+     * @throws IOException if an I/O error occurs
+     */
+    public RecordSourceFileReader(final RecordSource source, final List<DataType> types,
+                                  final ValueConverter converter, final BitSet convertedCols)
+            throws IOException {
+        this.source = source;
+        this.types = types;
+        this.converter = converter;
+        this.convertedCols = convertedCols;
+        final ChunkedPipe pipe = new ChunkedPipe(ChunkedPipe.DEFAULT_CHUNK_SIZE,
+                ChunkedPipe.DEFAULT_CHUNK_COUNT);
+        this.pipedWriter = pipe.getWriter();
+        this.modifiedStreamReader = pipe.getReader();
+        this.logger = Logger.getLogger("Cleaner");
+        this.ignoredCount = 0;
+    }
+
+    @Override
+    public void open() throws IOException {
+        this.writeTo(this.pipedWriter);
+        this.pipedWriter.close();
+    }
+
+    @Override
+    public void writeTo(final Writer writer) throws IOException {
+        final RecordSource source = this.source;
+        final StringBuilder line = new StringBuilder();
+        char[] chars = new char[1024];
+        final LoadRecorder recorder = new LoadRecorder(this.getListener());
+        try {
+            while (source.next()) {
+                recorder.lap(LoadStage.PARSE);
+                line.setLength(0);
+                try {
+                    this.appendRecord(source, line);
+                } catch (final RuntimeException e) {
+                    this.logger.log(Level.SEVERE,
+                            String.format("Error at record %s", source.getRecordNumber()), e);
+                    this.ignoredCount++;
+                    recorder.rejected();
+                    recorder.restart();
+                    continue;
+                }
+                recorder.lap(LoadStage.CONVERT);
+                final int length = line.length();
+                if (length > chars.length) {
+                    chars = new char[Math.max(length, 2 * chars.length)];
+                }
+                line.getChars(0, length, chars, 0); // no String
+                writer.write(chars, 0, length);
+                recorder.lap(LoadStage.WRITE);
+                recorder.chars(length);
+                recorder.row();
+                if (source.getRecordNumber() % 100000 == 0) {
+                    this.logger.info("Lines written:" + source.getRecordNumber());
+                }
+            }
+        } finally {
+            source.close();
+        }
+        writer.flush();
+        recorder.lap(LoadStage.WRITE);
+        recorder.report();
+    }
+
+    private void appendRecord(final RecordSource source, final StringBuilder line)
+            throws IOException {
+        final int size = source.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            if (this.convertedCols.get(i)) {
+                final Object value =
+                        this.converter.toJavaObject(source.getString(i), this.types.get(i));
+                this.appendField(line, Util.toPGString(value));
+            } else {
+                final CharSequence field = source.get(i);
+                if (RecordSourceFileReader.needsQuotes(field)) {
+                    this.appendField(line, field);
+                } else {
+                    source.appendTo(i, line);
+                }
+            }
+        }
+        line.append("\r\n");
+    }
+
+    private void appendField(final StringBuilder line, final CharSequence field) {
+        if (!RecordSourceFileReader.needsQuotes(field)) {
+            line.append(field);
+            return;
+        }
+        line.append('"');
+        final int length = field.length();
+        for (int i = 0; i < length; i++) {
+            final char c = field.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    private static boolean needsQuotes(final CharSequence field) {
+        final int length = field.length();
+        for (int i = 0; i < length; i++) {
+            final char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.modifiedStreamReader.close();
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        return this.modifiedStreamReader.read(cbuf, off, len);
+    }
+
+    /**
+     * @return the number of records that could not be converted
+     */
+    public long getIgnoredCount() {
+        return this.ignoredCount;
+    }
+}
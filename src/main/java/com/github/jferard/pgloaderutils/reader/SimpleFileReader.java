@@ -21,33 +21,39 @@
  */
 package com.github.jferard.pgloaderutils.reader;
 
+import com.github.jferard.pgloaderutils.metrics.LoadRecorder;
+import com.github.jferard.pgloaderutils.metrics.LoadStage;
+
 import java.io.IOException;
-import java.io.PipedReader;
-import java.io.PipedWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.util.logging.Logger;
 
 /**
  * Normalized File Reader. It's an OpenableReader that writes a log entry every 16 MB.
+ * The data is copied by blocks: the size of a block is the size of a chunk of the pipe.
  *
  * @author Julien Férard
  */
 public class SimpleFileReader extends OpenableReader {
     private static final int ONE_KB;
-    private static final int BUFFER_SIZE;
     private static final int ONE_MB;
+    public static final int DEFAULT_BLOCK_SIZE;
+    private static final int DEFAULT_BLOCK_COUNT;
 
     static {
         ONE_KB = 1024;
-        BUFFER_SIZE = 4 * ONE_KB;
         ONE_MB = ONE_KB * ONE_KB;
+        DEFAULT_BLOCK_SIZE = 256 * ONE_KB;
+        DEFAULT_BLOCK_COUNT = 4;
     }
 
     private final Reader modifiedStreamReader;
     private final Reader reader;
     private final Logger logger;
     private final int mbStep;
-    private final PipedWriter pipedWriter;
+    private final Writer pipedWriter;
+    private final int blockSize;
 
     /**
      * Create a new openable reader
@@ -58,28 +64,62 @@ public class SimpleFileReader extends OpenableReader {
      * @throws IOException if an I/O error occurs
      */
     public SimpleFileReader(final Reader reader, final Logger logger, final int mbStep) throws IOException {
+        this(reader, logger, mbStep, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT);
+    }
+
+    /**
+     * Create a new openable reader
+     *
+     * @param reader     the wrapped reader
+     * @param logger     a logger
+     * @param mbStep     the step for log entries
+     * @param chunkSize  the size of a chunk of the pipe and of a block, in chars
+     * @param chunkCount the number of chunks of the pipe
+     * @throws IOException if an I/O error occurs
+     */
+    public SimpleFileReader(final Reader reader, final Logger logger, final int mbStep,
+                            final int chunkSize, final int chunkCount) throws IOException {
         this.reader = reader;
         this.logger = logger;
         this.mbStep = mbStep;
-        this.pipedWriter = new PipedWriter();
-        this.modifiedStreamReader = new PipedReader(this.pipedWriter, BUFFER_SIZE);
+        this.blockSize = chunkSize;
+        final ChunkedPipe pipe = new ChunkedPipe(chunkSize, chunkCount);
+        this.pipedWriter = pipe.getWriter();
+        this.modifiedStreamReader = pipe.getReader();
     }
 
     @Override
     public void open() throws IOException {
-        int i = 0;
-        // TODO: use a buffer
-        int c = this.reader.read();
-        while (c != -1) {
-            this.pipedWriter.write(c);
-            c = this.reader.read();
-            i++;
-            if (i % this.mbStep * ONE_MB == 0) {
+        this.writeTo(this.pipedWriter);
+        this.pipedWriter.close();
+    }
+
+    @Override
+    public void writeTo(final Writer writer) throws IOException {
+        final char[] block = new char[this.blockSize];
+        final long step = (long) this.mbStep * ONE_MB;
+        long i = 0;
+        long nextLog = step;
+        final LoadRecorder recorder = new LoadRecorder(this.getListener());
+        int count = this.reader.read(block);
+        recorder.lap(LoadStage.PARSE);
+        while (count != -1) {
+            writer.write(block, 0, count);
+            recorder.lap(LoadStage.WRITE);
+            recorder.chars(count); // no row here: the data is not parsed
+            i += count;
+            if (i >= nextLog) {
                 this.logger.fine("MBytes read: " + i / ONE_MB);
+                nextLog += step;
+                recorder.report();
             }
+            count = this.reader.read(block);
+            recorder.lap(LoadStage.PARSE);
         }
         this.reader.close();
-        this.pipedWriter.close();
+        writer.flush();
+        recorder.lap(LoadStage.WRITE);
+        recorder.report();
     }
 
     @Override
@@ -0,0 +1,84 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.source;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A record source backed by a commons-csv parser, for the formats that {@link CSVTokenizer}
+ * does not handle.
+ *
+ * @author Julien Férard
+ */
+public class CSVParserRecordSource implements RecordSource {
+    private final CSVParser parser;
+    private final Iterator<CSVRecord> iterator;
+    private CSVRecord record;
+
+    /**
+     * @param parser the parser
+     */
+    public CSVParserRecordSource(final CSVParser parser) {
+        this.parser = parser;
+        this.iterator = parser.iterator();
+        this.record = null;
+    }
+
+    @Override
+    public boolean next() {
+        if (!this.iterator.hasNext()) {
+            return false;
+        }
+        this.record = this.iterator.next();
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return this.record.size();
+    }
+
+    @Override
+    public CharSequence get(final int i) {
+        return this.record.get(i);
+    }
+
+    @Override
+    public String getString(final int i) {
+        return this.record.get(i);
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return this.record.getRecordNumber();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.parser.close();
+    }
+}
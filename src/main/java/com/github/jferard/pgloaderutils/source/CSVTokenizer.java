@@ -0,0 +1,341 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.source;
+
+import org.apache.commons.csv.CSVFormat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A hand-written CSV tokenizer. The fields of a record are copied (and unquoted) into a single
+ * char buffer, and described by an array of offsets: the buffers are reused from one record to
+ * the next, and no String is created unless {@link #getString(int)} is called.
+ * <p>
+ * The tokenizer handles a delimiter, a quote char (doubled inside a quoted field), LF, CR and
+ * CRLF line endings and empty lines. Chars after a closing quote are kept as is.
+ *
+ * @author Julien Férard
+ */
+public class CSVTokenizer implements RecordSource {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int EOF = -1;
+    private static final int NO_QUOTE = -2;
+
+    /**
+     * @param reader the reader
+     * @param format the format. Must have a one-char delimiter and no escape char other than the
+     *               quote. The header, the comments, the trim and the surrounding spaces options
+     *               are not supported: the records are read as is.
+     * @return the tokenizer
+     * @throws IllegalArgumentException if the format has an unsupported option
+     */
+    public static CSVTokenizer create(final Reader reader, final CSVFormat format) {
+        final String delimiter = format.getDelimiterString();
+        if (delimiter.length() != 1) {
+            throw new IllegalArgumentException("Delimiter must be a char: " + delimiter);
+        }
+        final Character quote = format.getQuoteCharacter();
+        final Character escape = format.getEscapeCharacter();
+        if (escape != null && !escape.equals(quote)) {
+            throw new IllegalArgumentException("Escape char is not supported: " + escape);
+        }
+        if (format.getHeader() != null || format.getSkipHeaderRecord()) {
+            throw new IllegalArgumentException("Header is not supported");
+        }
+        final Character commentMarker = format.getCommentMarker();
+        if (commentMarker != null) {
+            throw new IllegalArgumentException("Comment marker is not supported: " + commentMarker);
+        }
+        if (format.getTrim() || format.getIgnoreSurroundingSpaces()) {
+            throw new IllegalArgumentException("Trim and surrounding spaces are not supported");
+        }
+        return new CSVTokenizer(reader, delimiter.charAt(0), quote == null ? NO_QUOTE : quote,
+                format.getIgnoreEmptyLines(), DEFAULT_BUFFER_SIZE);
+    }
+
+    private final Reader reader;
+    private final int delimiter;
+    private final int quote;
+    private final boolean ignoreEmptyLines;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * The unquoted content of the fields of the current record
+     */
+    private char[] row;
+    private int rowLength;
+    /**
+     * The field i is row[starts[i]:ends[i]]
+     */
+    private int[] starts;
+    private int[] ends;
+    private int size;
+    private FieldView[] views;
+    private long recordNumber;
+    /**
+     * True if the current line is empty (no char, no quote)
+     */
+    private boolean emptyLine;
+
+    /**
+     * @param reader           the reader
+     * @param delimiter        the delimiter
+     * @param quote            the quote char, or a negative value if there is no quote char
+     * @param ignoreEmptyLines if true, skip the empty lines
+     * @param bufferSize       the size of the input buffer
+     */
+    public CSVTokenizer(final Reader reader, final char delimiter, final int quote,
+                        final boolean ignoreEmptyLines, final int bufferSize) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.quote = quote < 0 ? NO_QUOTE : quote;
+        this.ignoreEmptyLines = ignoreEmptyLines;
+        this.buffer = new char[bufferSize];
+        this.position = 0;
+        this.limit = 0;
+        this.row = new char[256];
+        this.starts = new int[16];
+        this.ends = new int[16];
+        this.views = new FieldView[16];
+        this.size = 0;
+        this.recordNumber = 0;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        do {
+            if (this.peek() == EOF) {
+                return false;
+            }
+            this.readRecord();
+        } while (this.ignoreEmptyLines && this.emptyLine);
+        this.recordNumber++;
+        return true;
+    }
+
+    /**
+     * Read the fields of a record, up to the line ending.
+     */
+    private void readRecord() throws IOException {
+        this.rowLength = 0;
+        this.size = 0;
+        this.emptyLine = true;
+        while (true) {
+            final int start = this.rowLength;
+            int c = this.read();
+            if (c == this.quote) {
+                this.emptyLine = false;
+                c = this.readQuoted();
+            }
+            while (c != this.delimiter && c != '\n' && c != '\r' && c != EOF) {
+                this.append((char) c);
+                c = this.read();
+            }
+            this.addField(start, this.rowLength);
+            if (c == this.delimiter) {
+                this.emptyLine = false;
+                continue;
+            }
+            if (c == '\r' && this.peek() == '\n') {
+                this.read();
+            }
+            this.emptyLine = this.emptyLine && this.rowLength == 0;
+            return;
+        }
+    }
+
+    /**
+     * Read a quoted field, after the opening quote.
+     *
+     * @return the char after the closing quote
+     */
+    private int readQuoted() throws IOException {
+        while (true) {
+            final int c = this.read();
+            if (c == EOF) {
+                throw new IOException(
+                        "EOF reached before the closing quote of record " + (this.recordNumber + 1));
+            } else if (c == this.quote) {
+                if (this.peek() == this.quote) {
+                    this.read();
+                    this.append((char) c);
+                } else {
+                    return this.read();
+                }
+            } else {
+                this.append((char) c);
+            }
+        }
+    }
+
+    private void append(final char c) {
+        if (this.rowLength == this.row.length) {
+            this.row = Arrays.copyOf(this.row, this.row.length * 2);
+        }
+        this.row[this.rowLength++] = c;
+    }
+
+    private void addField(final int start, final int end) {
+        if (this.size == this.starts.length) {
+            final int newLength = this.starts.length * 2;
+            this.starts = Arrays.copyOf(this.starts, newLength);
+            this.ends = Arrays.copyOf(this.ends, newLength);
+            this.views = Arrays.copyOf(this.views, newLength);
+        }
+        this.starts[this.size] = start;
+        this.ends[this.size] = end;
+        this.size++;
+    }
+
+    private int read() throws IOException {
+        if (this.position == this.limit && !this.fill()) {
+            return EOF;
+        }
+        return this.buffer[this.position++];
+    }
+
+    private int peek() throws IOException {
+        if (this.position == this.limit && !this.fill()) {
+            return EOF;
+        }
+        return this.buffer[this.position];
+    }
+
+    private boolean fill() throws IOException {
+        final int count = this.reader.read(this.buffer, 0, this.buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        this.position = 0;
+        this.limit = count;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public CharSequence get(final int i) {
+        this.checkIndex(i);
+        FieldView view = this.views[i];
+        if (view == null) {
+            view = new FieldView(i);
+            this.views[i] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public String getString(final int i) {
+        this.checkIndex(i);
+        return new String(this.row, this.starts[i], this.ends[i] - this.starts[i]);
+    }
+
+    @Override
+    public void appendTo(final int i, final Appendable destination) throws IOException {
+        this.checkIndex(i);
+        if (destination instanceof StringBuilder) {
+            ((StringBuilder) destination).append(this.row, this.starts[i],
+                    this.ends[i] - this.starts[i]);
+        } else if (destination instanceof Writer) {
+            ((Writer) destination).write(this.row, this.starts[i],
+                    this.ends[i] - this.starts[i]);
+        } else {
+            destination.append(this.get(i));
+        }
+    }
+
+    /**
+     * @return the chars of the current record. The field i is {@code [getStart(i), getEnd(i))}.
+     */
+    public char[] getRow() {
+        return this.row;
+    }
+
+    public int getStart(final int i) {
+        this.checkIndex(i);
+        return this.starts[i];
+    }
+
+    public int getEnd(final int i) {
+        this.checkIndex(i);
+        return this.ends[i];
+    }
+
+    private void checkIndex(final int i) {
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException("Field " + i + " of " + this.size);
+        }
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return this.recordNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    /**
+     * A view on the field of the current record. The view is reused from one record to the next.
+     */
+    private class FieldView implements CharSequence {
+        private final int index;
+
+        FieldView(final int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int length() {
+            return CSVTokenizer.this.ends[this.index] - CSVTokenizer.this.starts[this.index];
+        }
+
+        @Override
+        public char charAt(final int i) {
+            if (i < 0 || i >= this.length()) {
+                throw new IndexOutOfBoundsException(String.valueOf(i));
+            }
+            return CSVTokenizer.this.row[CSVTokenizer.this.starts[this.index] + i];
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            return this.toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return CSVTokenizer.this.getString(this.index);
+        }
+    }
+}
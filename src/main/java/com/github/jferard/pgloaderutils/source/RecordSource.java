@@ -0,0 +1,77 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of records, read one at a time. The fields of the current record are views: they are
+ * valid until the next call to {@link #next()}. Use {@link #getString(int)} to keep a value.
+ *
+ * @author Julien Férard
+ */
+public interface RecordSource extends Closeable {
+    /**
+     * Read the next record.
+     *
+     * @return false if there is no more record
+     * @throws IOException if an I/O error occurs
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return the number of fields of the current record
+     */
+    int size();
+
+    /**
+     * @param i the index of the field
+     * @return a view on the field, valid until the next call to {@link #next()}
+     */
+    CharSequence get(int i);
+
+    /**
+     * @param i the index of the field
+     * @return the field, as a new String
+     */
+    default String getString(final int i) {
+        return this.get(i).toString();
+    }
+
+    /**
+     * Append a field to a destination, without creating a String if possible.
+     *
+     * @param i           the index of the field
+     * @param destination the destination
+     * @throws IOException if an I/O error occurs
+     */
+    default void appendTo(final int i, final Appendable destination) throws IOException {
+        destination.append(this.get(i));
+    }
+
+    /**
+     * @return the number of the current record (1 for the first record)
+     */
+    long getRecordNumber();
+}
@@ -0,0 +1,110 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.sql;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * A typed converter for the standard formats: an empty string is NULL, numbers are written
+ * with a dot, dates are {@code yyyy-mm-dd}, timestamps {@code yyyy-mm-dd hh:mm:ss[.f...]}.
+ */
+public class DefaultTypedValueConverter implements TypedValueConverter {
+    @Override
+    public boolean isNull(final String value) {
+        return value == null || value.isEmpty();
+    }
+
+    @Override
+    public boolean toBoolean(final String value) {
+        return Boolean.parseBoolean(value) || value.equals("t") || value.equals("1");
+    }
+
+    @Override
+    public int toInt(final String value) {
+        return Integer.parseInt(value);
+    }
+
+    @Override
+    public long toLong(final String value) {
+        return Long.parseLong(value);
+    }
+
+    @Override
+    public double toDouble(final String value) {
+        return Double.parseDouble(value);
+    }
+
+    @Override
+    public BigDecimal toBigDecimal(final String value) {
+        return new BigDecimal(value);
+    }
+
+    @Override
+    public Date toDate(final String value) {
+        return Date.valueOf(value);
+    }
+
+    @Override
+    public Timestamp toTimestamp(final String value) {
+        return Timestamp.valueOf(value);
+    }
+
+    @Override
+    public String toText(final String value) {
+        return value;
+    }
+
+    @Override
+    public Object toJavaObject(final String value, final DataType type) {
+        if (this.isNull(value)) {
+            return null;
+        }
+        switch (type.getSqlType()) {
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return this.toBoolean(value);
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return this.toInt(value);
+            case Types.BIGINT:
+                return this.toLong(value);
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return this.toDouble(value);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return this.toBigDecimal(value);
+            case Types.DATE:
+                return this.toDate(value);
+            case Types.TIMESTAMP:
+                return this.toTimestamp(value);
+            default:
+                return this.toText(value);
+        }
+    }
+}
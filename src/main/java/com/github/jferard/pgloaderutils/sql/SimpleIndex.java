@@ -74,6 +74,28 @@ public class SimpleIndex implements Index {
                 this.method.toString().toLowerCase(Locale.ROOT), this.expression);
     }
 
+    /**
+     * @param name      the name of the new index
+     * @param tableName the table of the new index
+     * @return the same index on another table, e.g. a staging table
+     */
+    public SimpleIndex onTable(final String name, final String tableName) {
+        return new SimpleIndex(this.method, name, tableName, this.expression);
+    }
+
+    /**
+     * @param newName the new name
+     * @return the query to rename the index
+     */
+    public String renameIndexQuery(final String newName) {
+        return String.format("ALTER INDEX %s RENAME TO %s", Util.pgEscapeIdentifier(this.name),
+                Util.pgEscapeIdentifier(newName));
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
     @Override
     public String dropIndexQuery() {
         return String.format("DROP INDEX %s", Util.pgEscapeIdentifier(this.name));
@@ -25,10 +25,18 @@ package com.github.jferard.pgloaderutils.sql;
 import com.github.jferard.pgloaderutils.Util;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class Table {
+    /**
+     * The maximum number of bind parameters of a statement (the count is an int16 in the
+     * Bind message of the protocol)
+     */
+    public static final int MAX_PARAMETERS = 65535;
+
     public static Table create(final String name, final Column... columns) {
         return new Table(name, Arrays.asList(columns));
     }
@@ -44,19 +52,51 @@ public class Table {
     }
     private final String name;
     private final List<Column> columns;
+    /**
+     * The names of the key columns, for the upserts
+     */
+    private final List<String> keyColumnNames;
 
     public Table(final String name, final List<Column> columns) {
+        this(name, columns, Collections.emptyList());
+    }
+
+    /**
+     * @param name           the name of the table
+     * @param columns        the columns
+     * @param keyColumnNames the names of the key columns: a unique index or constraint must
+     *                       exist on those columns for an INSERT ... ON CONFLICT
+     */
+    public Table(final String name, final List<Column> columns,
+                 final List<String> keyColumnNames) {
         assert columns.size() > 0;
+        final Set<String> columnNames =
+                columns.stream().map(Column::getName).collect(Collectors.toSet());
+        for (final String keyColumnName : keyColumnNames) {
+            if (!columnNames.contains(keyColumnName)) {
+                throw new IllegalArgumentException("Unknown key column: " + keyColumnName);
+            }
+        }
         this.name = name;
         this.columns = columns;
+        this.keyColumnNames = keyColumnNames;
     }
 
     public String createTableQuery(final boolean ifNotExists) {
-        final StringBuilder sb = new StringBuilder();
+        return this.createTableQuery(ifNotExists, false);
+    }
+
+    /**
+     * @param ifNotExists true to add IF NOT EXISTS
+     * @param unlogged    true for an UNLOGGED table: no WAL, but the table is truncated after a
+     *                    crash
+     * @return the query
+     */
+    public String createTableQuery(final boolean ifNotExists, final boolean unlogged) {
+        final StringBuilder sb = new StringBuilder(unlogged ? "CREATE UNLOGGED TABLE " :
+                "CREATE TABLE ");
         if (ifNotExists) {
-            sb.append("CREATE TABLE IF NOT EXISTS ");
-        } else {
-            sb.append("CREATE TABLE ");
+            sb.append("IF NOT EXISTS ");
         }
         sb.append(Util.pgEscapeIdentifier(this.name)).append(" (\n    ");
         sb.append(this.columns.stream().map(Column::getDefinition)
@@ -73,17 +113,176 @@ public class Table {
         }
     }
 
+    /**
+     * @return the query to make an UNLOGGED table permanent. The table is rewritten to the WAL.
+     */
+    public String setLoggedQuery() {
+        return "ALTER TABLE " + Util.pgEscapeIdentifier(this.name) + " SET LOGGED";
+    }
+
+    /**
+     * @param newName the new name
+     * @return the query to rename the table, if it exists
+     */
+    public String renameTableQuery(final String newName) {
+        return String.format("ALTER TABLE IF EXISTS %s RENAME TO %s",
+                Util.pgEscapeIdentifier(this.name), Util.pgEscapeIdentifier(newName));
+    }
+
+    /**
+     * @param name the name of the new table
+     * @return a table with the same columns
+     */
+    public Table withName(final String name) {
+        return new Table(name, this.columns, this.keyColumnNames);
+    }
+
+    /**
+     * @param keyColumnNames the names of the key columns
+     * @return a table with the same name and columns, and those key columns
+     */
+    public Table withKey(final String... keyColumnNames) {
+        return new Table(this.name, this.columns, Arrays.asList(keyColumnNames));
+    }
+
+    /**
+     * @return the query to create a temporary table with the same columns. The rows are
+     * deleted at the end of every transaction.
+     */
+    public String createTempTableQuery() {
+        return "CREATE TEMP TABLE IF NOT EXISTS " + Util.pgEscapeIdentifier(this.name) +
+                " (\n    " + this.columns.stream().map(Column::getDefinition)
+                .collect(Collectors.joining(",\n    ")) + "\n) ON COMMIT DELETE ROWS";
+    }
+
+    /**
+     * @param sourceTableName the name of the table that holds the new rows
+     * @return the set-based upsert: {@code INSERT INTO t (...) SELECT ... FROM source
+     * ON CONFLICT (key) DO UPDATE SET ...}. A key must not appear twice in the source table.
+     * @throws IllegalStateException if there is no key column
+     */
+    public String upsertQuery(final String sourceTableName) {
+        this.checkKey();
+        final String columnNames = this.columnNames("");
+        final StringBuilder sb = new StringBuilder("INSERT INTO ")
+                .append(Util.pgEscapeIdentifier(this.name)).append(" (").append(columnNames)
+                .append(")\nSELECT ").append(columnNames).append(" FROM ")
+                .append(Util.pgEscapeIdentifier(sourceTableName)).append("\nON CONFLICT (")
+                .append(this.keyColumnNames.stream().map(Util::pgEscapeIdentifier)
+                        .collect(Collectors.joining(", "))).append(")");
+        final List<String> valueColumnNames = this.valueColumnNames();
+        if (valueColumnNames.isEmpty()) {
+            sb.append(" DO NOTHING");
+        } else {
+            sb.append(" DO UPDATE SET ").append(valueColumnNames.stream()
+                    .map(n -> n + " = EXCLUDED." + n).collect(Collectors.joining(", ")));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param sourceTableName the name of the table that holds the new rows
+     * @return the PostgreSQL 15+ equivalent of {@link #upsertQuery(String)}: {@code MERGE INTO
+     * t USING source ON key WHEN MATCHED THEN UPDATE ... WHEN NOT MATCHED THEN INSERT ...}. No
+     * unique index is needed. A key must not appear twice in the source table.
+     * @throws IllegalStateException if there is no key column
+     */
+    public String mergeQuery(final String sourceTableName) {
+        this.checkKey();
+        final StringBuilder sb = new StringBuilder("MERGE INTO ")
+                .append(Util.pgEscapeIdentifier(this.name)).append(" AS d\nUSING ")
+                .append(Util.pgEscapeIdentifier(sourceTableName)).append(" AS s\nON ")
+                .append(this.keyColumnNames.stream().map(Util::pgEscapeIdentifier)
+                        .map(n -> "d." + n + " = s." + n).collect(Collectors.joining(" AND ")));
+        final List<String> valueColumnNames = this.valueColumnNames();
+        if (!valueColumnNames.isEmpty()) {
+            sb.append("\nWHEN MATCHED THEN UPDATE SET ").append(valueColumnNames.stream()
+                    .map(n -> n + " = s." + n).collect(Collectors.joining(", ")));
+        }
+        sb.append("\nWHEN NOT MATCHED THEN INSERT (").append(this.columnNames(""))
+                .append(") VALUES (").append(this.columnNames("s.")).append(")");
+        return sb.toString();
+    }
+
+    /**
+     * @param rows the number of keys
+     * @return the query to delete rows by key: {@code DELETE FROM t WHERE (k1, k2) IN ((?, ?),
+     * ..., (?, ?))}
+     * @throws IllegalStateException if there is no key column
+     */
+    public String deleteByKeyQuery(final int rows) {
+        this.checkKey();
+        final String params = this.keyColumnNames.stream().map(n -> "?")
+                .collect(Collectors.joining(", ", "(", ")"));
+        final StringBuilder sb = new StringBuilder("DELETE FROM ")
+                .append(Util.pgEscapeIdentifier(this.name)).append(" WHERE ")
+                .append(this.keyColumnNames.stream().map(Util::pgEscapeIdentifier)
+                        .collect(Collectors.joining(", ", "(", ")")))
+                .append(" IN (").append(params);
+        for (int r = 1; r < rows; r++) {
+            sb.append(", ").append(params);
+        }
+        return sb.append(")").toString();
+    }
+
+    private void checkKey() {
+        if (this.keyColumnNames.isEmpty()) {
+            throw new IllegalStateException("No key column. Use withKey");
+        }
+    }
+
+    private String columnNames(final String prefix) {
+        return this.columns.stream().map(c -> prefix + Util.pgEscapeIdentifier(c.getName()))
+                .collect(Collectors.joining(", "));
+    }
+
+    private List<String> valueColumnNames() {
+        return this.columns.stream().map(Column::getName)
+                .filter(n -> !this.keyColumnNames.contains(n)).map(Util::pgEscapeIdentifier)
+                .collect(Collectors.toList());
+    }
+
     public String insertValuesQuery() {
+        return this.insertValuesQuery(1);
+    }
+
+    /**
+     * @param rows the number of rows of the statement
+     * @return a multi-row query: {@code INSERT INTO t VALUES (?, ...), ..., (?, ...)}
+     * @throws IllegalArgumentException if the number of parameters is greater than
+     * {@link #MAX_PARAMETERS}
+     */
+    public String insertValuesQuery(final int rows) {
+        if (rows < 1 || rows > this.maxRowsPerInsert()) {
+            throw new IllegalArgumentException(
+                    "Rows count must be between 1 and " + this.maxRowsPerInsert() + ": " + rows);
+        }
         final StringBuilder sb =
                 new StringBuilder("INSERT INTO ").append(Util.pgEscapeIdentifier(this.name)).append(" VALUES (\n");
-        sb.append("?");
-        for (int i = 1; i < this.columns.size(); i++) {
-            sb.append(", ?");
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) {
+                sb.append(", (\n");
+            }
+            sb.append("?");
+            for (int i = 1; i < this.columns.size(); i++) {
+                sb.append(", ?");
+            }
+            sb.append("\n)");
         }
-        sb.append("\n)");
         return sb.toString();
     }
 
+    /**
+     * @return the maximum number of rows of a multi-row INSERT
+     */
+    public int maxRowsPerInsert() {
+        return MAX_PARAMETERS / this.columns.size();
+    }
+
+    public List<Column> getColumns() {
+        return this.columns;
+    }
+
     public List<DataType> getTypes() {
         return this.columns.stream().map(Column::getType).collect(Collectors.toList());
     }
@@ -91,4 +290,8 @@ public class Table {
     public String getName() {
         return this.name;
     }
+
+    public List<String> getKeyColumnNames() {
+        return this.keyColumnNames;
+    }
 }
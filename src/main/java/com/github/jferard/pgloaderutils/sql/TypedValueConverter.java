@@ -0,0 +1,56 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.sql;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+/**
+ * A value converter with a method per JDBC type: the values are converted to primitives (or to
+ * the object expected by the driver) without boxing nor dispatch on the type.
+ * See {@code ColumnBinder}.
+ */
+public interface TypedValueConverter extends ValueConverter {
+    /**
+     * @param value the value
+     * @return true if the value represents a SQL NULL
+     */
+    boolean isNull(String value);
+
+    boolean toBoolean(String value);
+
+    int toInt(String value);
+
+    long toLong(String value);
+
+    double toDouble(String value);
+
+    BigDecimal toBigDecimal(String value);
+
+    Date toDate(String value);
+
+    Timestamp toTimestamp(String value);
+
+    String toText(String value);
+}
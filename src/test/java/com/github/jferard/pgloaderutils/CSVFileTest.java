@@ -35,13 +35,19 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 
 @RunWith(PowerMockRunner.class)
@@ -54,8 +60,8 @@ public class CSVFileTest {
         final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
 
         PowerMock.resetAll();
-        EasyMock.expect(Files.newBufferedReader(path, StandardCharsets.UTF_8))
-                .andReturn(new BufferedReader(new StringReader("a,b,c\r\n1,2,3")));
+        EasyMock.expect(Files.newInputStream(path)).andReturn(
+                new ByteArrayInputStream("a,b,c\r\n1,2,3".getBytes(StandardCharsets.UTF_8)));
 
         PowerMock.replayAll();
         final CSVParser parser = file.newCSVParser();
@@ -74,8 +80,8 @@ public class CSVFileTest {
         final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
 
         PowerMock.resetAll();
-        EasyMock.expect(Files.newBufferedReader(path, StandardCharsets.UTF_8))
-                .andReturn(new BufferedReader(new StringReader("\uFEFFa,b,c\r\n1,2,3")));
+        EasyMock.expect(Files.newInputStream(path)).andReturn(
+                new ByteArrayInputStream("\uFEFFa,b,c\r\n1,2,3".getBytes(StandardCharsets.UTF_8)));
 
         PowerMock.replayAll();
         final CSVParser parser = file.newCSVParser();
@@ -86,4 +92,105 @@ public class CSVFileTest {
 
         PowerMock.verifyAll();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSplit() throws IOException {
+        final byte[] data = "a,b\nc,\"d\ne\"\nf,g\nh,i\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList(new CSVFileRange(0, 12), new CSVFileRange(12, 16),
+                        new CSVFileRange(16, 20)),
+                CSVFile.split(new ByteArrayInputStream(data), data.length, 3,
+                        StandardCharsets.UTF_8, CSVFormat.DEFAULT));
+    }
+
+    @Test
+    public void testSplitOneRange() throws IOException {
+        final byte[] data = "a,\"b\nc\nd\"\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(Collections.singletonList(new CSVFileRange(0, 10)),
+                CSVFile.split(new ByteArrayInputStream(data), data.length, 4,
+                        StandardCharsets.UTF_8, CSVFormat.DEFAULT));
+    }
+
+    @Test
+    public void testSplitBOMAndHeader() throws IOException {
+        final byte[] data = "\uFEFFh1,h2\na,b\nc,d\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList(new CSVFileRange(9, 13), new CSVFileRange(13, 17)),
+                CSVFile.split(new ByteArrayInputStream(data), data.length, 2,
+                        StandardCharsets.UTF_8,
+                        CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build()));
+    }
+
+    @Test
+    public void testRangeReader() throws IOException {
+        final Path path = Files.createTempFile("test", ".csv");
+        try {
+            Files.write(path, "a,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+            final List<CSVFileRange> ranges = file.split(2);
+            Assert.assertEquals(2, ranges.size());
+            Assert.assertEquals("a,b\nc,d\n",
+                    TestHelper.readAll(file.newRangeReader(ranges.get(0))));
+            Assert.assertEquals("e,f\n", TestHelper.readAll(file.newRangeReader(ranges.get(1))));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testSplitFromOffset() throws IOException {
+        final Path path = Files.createTempFile("test", ".csv");
+        try {
+            Files.write(path, "h,i\na,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8,
+                    CSVFormat.DEFAULT.builder().setSkipHeaderRecord(true).build());
+            final List<CSVFileRange> ranges = file.split(8, 2);
+            Assert.assertEquals(
+                    Arrays.asList(new CSVFileRange(8, 12), new CSVFileRange(12, 16)), ranges);
+            Assert.assertEquals("c,d\n", TestHelper.readAll(file.newRangeReader(ranges.get(0))));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        final Path path = Files.createTempFile("test", ".csv");
+        try {
+            Files.write(path, "\uFEFFa,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+            final CSVParser parser = file.newMappedCSVParser();
+            Assert.assertEquals(Arrays.asList("a", "b"), parser.iterator().next().toList());
+            parser.close();
+
+            final List<CSVFileRange> ranges = file.split(2);
+            Assert.assertEquals("a,b\nc,d\n",
+                    TestHelper.readAll(file.newMappedRangeReader(ranges.get(0))));
+            final ByteBuffer slice = file.mapRange(ranges.get(1));
+            Assert.assertEquals(4, slice.remaining());
+            Assert.assertEquals('e', slice.get(0));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testGzipBOM() throws IOException {
+        final Path path = Files.createTempFile("test", ".csv.gz");
+        try {
+            try (final OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+                out.write("\uFEFFa,b\r\n".getBytes(StandardCharsets.UTF_8));
+            }
+            try (final OutputStream out = new GZIPOutputStream(
+                    Files.newOutputStream(path, StandardOpenOption.APPEND))) {
+                out.write("c,d\r\n".getBytes(StandardCharsets.UTF_8)); // second member
+            }
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+            Assert.assertEquals(Compression.GZIP, file.getCompression());
+            final List<CSVRecord> records = file.newCSVParser().getRecords();
+            Assert.assertEquals(Arrays.asList("a", "b"), records.get(0).toList());
+            Assert.assertEquals(Arrays.asList("c", "d"), records.get(1).toList());
+            Assert.assertThrows(IllegalStateException.class, () -> file.split(2));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
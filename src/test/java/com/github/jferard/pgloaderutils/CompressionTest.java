@@ -0,0 +1,149 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressionTest {
+    private static final byte[] DATA = "a,b,c\r\n1,2,3\r\n".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testNone() throws IOException {
+        Assert.assertEquals(Compression.NONE, Compression.detect(DATA, DATA.length));
+        Assert.assertEquals(Compression.NONE, Compression.detect(new byte[0], 0));
+        Assert.assertArrayEquals(DATA, this.decompress(DATA, 1));
+    }
+
+    @Test
+    public void testGzipMultiMember() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(gzip(DATA));
+        out.write(gzip(DATA));
+        final byte[] compressed = out.toByteArray();
+        Assert.assertEquals(Compression.GZIP, Compression.detect(compressed, compressed.length));
+        Assert.assertEquals("a,b,c\r\n1,2,3\r\na,b,c\r\n1,2,3\r\n",
+                new String(this.decompress(compressed, 4), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBZip2() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final OutputStream bzOut = new BZip2CompressorOutputStream(out)) {
+            bzOut.write(DATA);
+        }
+        final byte[] compressed = out.toByteArray();
+        Assert.assertEquals(Compression.BZIP2, Compression.detect(compressed, compressed.length));
+        Assert.assertArrayEquals(DATA, this.decompress(compressed, 1));
+    }
+
+    @Test
+    public void testZstdMagic() {
+        final byte[] magic = {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0};
+        Assert.assertEquals(Compression.ZSTD, Compression.detect(magic, magic.length));
+    }
+
+    @Test
+    public void testBGZF() throws IOException {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            final byte[] block = ("block " + i + "\n").getBytes(StandardCharsets.UTF_8);
+            expected.write(block);
+            out.write(bgzfBlock(block));
+        }
+        out.write(bgzfBlock(new byte[0])); // EOF marker
+        final byte[] compressed = out.toByteArray();
+        Assert.assertEquals(Compression.BGZF, Compression.detect(compressed, compressed.length));
+        Assert.assertArrayEquals(expected.toByteArray(), this.decompress(compressed, 1));
+        Assert.assertArrayEquals(expected.toByteArray(), this.decompress(compressed, 3));
+    }
+
+    @Test
+    public void testBGZFBadCRC() throws IOException {
+        final byte[] compressed = bgzfBlock(DATA);
+        compressed[compressed.length - 8] ^= 1;
+        Assert.assertThrows(IOException.class, () -> this.decompress(compressed, 2));
+    }
+
+    private byte[] decompress(final byte[] compressed, final int threads) throws IOException {
+        try (final InputStream in =
+                     Compression.decompress(new ByteArrayInputStream(compressed), threads)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[7];
+            int count = in.read(buffer);
+            while (count != -1) {
+                out.write(buffer, 0, count);
+                count = in.read(buffer);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] gzip(final byte[] data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final OutputStream gzOut = new GZIPOutputStream(out)) {
+            gzOut.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bgzfBlock(final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        final byte[] deflated = new byte[data.length + 64];
+        final int deflatedLength = deflater.deflate(deflated);
+        deflater.end();
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C',
+                2, 0}, 0, 16);
+        final int blockSize = 16 + 2 + deflatedLength + 8 - 1;
+        writeInt(out, blockSize, 2);
+        out.write(deflated, 0, deflatedLength);
+        writeInt(out, (int) crc.getValue(), 4);
+        writeInt(out, data.length, 4);
+        return out.toByteArray();
+    }
+
+    private static void writeInt(final ByteArrayOutputStream out, final int value,
+                                 final int length) {
+        for (int i = 0; i < length; i++) {
+            out.write(value >>> (8 * i));
+        }
+    }
+}
@@ -42,5 +42,7 @@ public class FixedColsFactoryTest {
         Assert.assertNull(fixedCols.get(0));
         Assert.assertEquals((Integer) 0, fixedCols.get(1));
         Assert.assertEquals((Integer) 2, fixedCols.get(2));
+        Assert.assertEquals(FixedCols.MISSING, fixedCols.indexOf(0));
+        Assert.assertArrayEquals(new int[]{-1, 0, 2}, fixedCols.toArray());
     }
 }
\ No newline at end of file
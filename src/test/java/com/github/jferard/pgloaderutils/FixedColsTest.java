@@ -0,0 +1,47 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class FixedColsTest {
+    @Test
+    public void testOutOfRangeIndices() {
+        final Map<Integer, Integer> recordIndexByFixedIndex = new HashMap<>();
+        recordIndexByFixedIndex.put(0, 3);
+        recordIndexByFixedIndex.put(2, 1);
+        recordIndexByFixedIndex.put(-1, 0);
+        recordIndexByFixedIndex.put(1, null);
+        final FixedCols fixedCols = new FixedCols(2, recordIndexByFixedIndex);
+        Assert.assertEquals(2, fixedCols.size());
+        Assert.assertEquals((Integer) 3, fixedCols.get(0));
+        Assert.assertNull(fixedCols.get(1));
+        Assert.assertNull(fixedCols.get(2));
+        Assert.assertNull(fixedCols.get(-1));
+        Assert.assertArrayEquals(new int[]{3, FixedCols.MISSING}, fixedCols.toArray());
+    }
+}
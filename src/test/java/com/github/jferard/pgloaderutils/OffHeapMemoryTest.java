@@ -0,0 +1,70 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class OffHeapMemoryTest {
+    @Test
+    public void testPages() {
+        final OffHeapMemory memory = OffHeapMemory.allocate(40, 4);
+        Assert.assertEquals(40, memory.size());
+        memory.putLong(8, 0x0102030405060708L);
+        memory.putLong(16, -1L);
+        memory.putInt(36, 7);
+        Assert.assertEquals(0x0102030405060708L, memory.getLong(8));
+        Assert.assertEquals(-1L, memory.getLong(16));
+        Assert.assertEquals(0L, memory.getLong(24));
+        Assert.assertEquals(7, memory.getInt(36));
+
+        final byte[] bytes = new byte[6];
+        memory.get(12, bytes, 0, 6);
+        Assert.assertArrayEquals(new byte[]{5, 6, 7, 8, -1, -1}, bytes);
+    }
+
+    @Test
+    public void testMap() throws IOException {
+        final Path path = Files.createTempFile("test", ".bin");
+        try {
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                final OffHeapMemory memory = OffHeapMemory.allocate(16);
+                memory.putLong(8, 42L);
+                memory.writeTo(channel);
+            }
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final OffHeapMemory memory =
+                        OffHeapMemory.map(channel, FileChannel.MapMode.READ_ONLY, 8, 8);
+                Assert.assertEquals(42L, memory.getLong(0));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
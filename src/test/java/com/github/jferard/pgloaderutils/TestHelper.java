@@ -22,13 +22,31 @@
 
 package com.github.jferard.pgloaderutils;
 
+import org.easymock.EasyMock;
+import org.easymock.IArgumentMatcher;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Encoding;
+import org.postgresql.core.QueryExecutor;
+import org.powermock.api.easymock.PowerMock;
+
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class TestHelper {
     public static final int BUFFER_SIZE = 8 * 1024;
+    /**
+     * The LogManager holds weak references: keep the configured loggers alive until the class
+     * under test gets its own reference.
+     */
+    private static final List<Logger> LOGGERS = new ArrayList<>();
 
     public static String readAll(final Reader reader) throws IOException {
         final char[] buffer = new char[BUFFER_SIZE];
@@ -47,6 +65,7 @@ public class TestHelper {
 
     public static RecordsStore configLog(final String name) {
         final Logger logger = Logger.getLogger(name);
+        LOGGERS.add(logger);
         final TestLogHandlerHandler handler = new TestLogHandlerHandler();
         handler.setLevel(Level.ALL);
         logger.setUseParentHandlers(false);
@@ -54,5 +73,71 @@ public class TestHelper {
         logger.setLevel(Level.ALL);
         return handler;
     }
-}
 
+    /**
+     * Expect a COPY of the data written by a CopyDataProducer.
+     *
+     * @param rows the number of rows copied, or -1 if the COPY fails
+     */
+    public static void expectCopy(final BaseConnection connection, final String copySQL,
+                                  final String data, final long rows) throws SQLException {
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        EasyMock.expect(connection.getEncoding()).andReturn(Encoding.defaultEncoding()).times(2);
+        EasyMock.expect(connection.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(copySQL, false)).andReturn(copyOp);
+        copyOp.writeToCopy(TestHelper.startsWith(bytes), EasyMock.eq(0),
+                EasyMock.eq(bytes.length));
+        if (rows == -1) {
+            EasyMock.expect(copyOp.endCopy()).andThrow(new SQLException("invalid input syntax"));
+        } else {
+            EasyMock.expect(copyOp.endCopy()).andReturn(rows);
+            EasyMock.expect(copyOp.getHandledRowCount()).andReturn(rows);
+        }
+    }
+
+    /**
+     * Expect a COPY of the data of an OpenableReader.
+     *
+     * @param rows the number of rows copied, or -1 if the COPY fails
+     */
+    public static void expectReaderCopy(final BaseConnection connection, final String copySQL,
+                                        final String data, final long rows)
+            throws SQLException {
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        EasyMock.expect(connection.getEncoding()).andReturn(Encoding.defaultEncoding());
+        EasyMock.expect(connection.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(copySQL, false)).andReturn(copyOp);
+        copyOp.writeToCopy(EasyMock.aryEq(bytes), EasyMock.eq(0), EasyMock.eq(bytes.length));
+        if (rows == -1) {
+            EasyMock.expect(copyOp.endCopy()).andThrow(new SQLException("invalid input syntax"));
+        } else {
+            EasyMock.expect(copyOp.endCopy()).andReturn(rows);
+        }
+        EasyMock.expect(copyOp.isActive()).andReturn(false);
+    }
+
+    /**
+     * The PGCopyOutputStream sends its whole buffer
+     */
+    public static byte[] startsWith(final byte[] expected) {
+        EasyMock.reportMatcher(new IArgumentMatcher() {
+            @Override
+            public boolean matches(final Object argument) {
+                return argument instanceof byte[] && Arrays.equals(expected,
+                        Arrays.copyOf((byte[]) argument, expected.length));
+            }
+
+            @Override
+            public void appendTo(final StringBuffer buffer) {
+                buffer.append("startsWith(").append(Arrays.toString(expected)).append(")");
+            }
+        });
+        return null;
+    }
+}
@@ -29,6 +29,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -118,4 +120,17 @@ public class UtilTest {
         Assert.assertEquals("bar", br.readLine());
         Assert.assertNull(br.readLine());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPgEncodingName() {
+        Assert.assertEquals("UTF8", Util.pgEncodingName(StandardCharsets.UTF_8));
+        Assert.assertEquals("LATIN1", Util.pgEncodingName(StandardCharsets.ISO_8859_1));
+        Assert.assertEquals("WIN1252", Util.pgEncodingName(Charset.forName("windows-1252")));
+        Assert.assertEquals("LATIN9", Util.pgEncodingName(Charset.forName("ISO-8859-15")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPgEncodingNameUnknown() {
+        Util.pgEncodingName(StandardCharsets.UTF_16);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class XXHash64Test {
+    @Test
+    public void testReferenceValues() {
+        Assert.assertEquals(0xEF46DB3751D8E999L, this.hash(""));
+        Assert.assertEquals(0xD24EC4F1A98C6E5BL, this.hash("a"));
+        Assert.assertEquals(0x44BC2CF5AD770999L, this.hash("abc"));
+        Assert.assertEquals(0xFBCEA83C8A378BF1L,
+                this.hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void testIncremental() {
+        final byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        final long expected = XXHash64.hash(data, 0, data.length, 42);
+        final XXHash64 hasher = new XXHash64(42);
+        for (int split = 0; split <= data.length; split += 7) {
+            hasher.reset();
+            hasher.update(data, 0, split);
+            for (int i = split; i < data.length; i++) {
+                hasher.update(data[i]);
+            }
+            Assert.assertEquals(expected, hasher.digest());
+        }
+    }
+
+    @Test
+    public void testChars() {
+        final XXHash64 hasher = new XXHash64(0);
+        hasher.updateChars("ab");
+        hasher.updateChars("c");
+        final long h1 = hasher.digest();
+        hasher.reset();
+        hasher.updateChars("a");
+        hasher.updateChars("bc");
+        Assert.assertNotEquals(h1, hasher.digest());
+        Assert.assertEquals(XXHash64.hash(new byte[]{2, 0, 0, 0, 'a', 0, 'b', 0, 1, 0, 0, 0, 'c',
+                0}, 0, 14, 0), h1);
+    }
+
+    private long hash(final String s) {
+        final byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        return XXHash64.hash(bytes, 0, bytes.length, 0);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.sql.DataType;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BinaryCopyWriterTest {
+    @Test
+    public void testHeaderAndTrailer() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BinaryCopyWriter writer =
+                new BinaryCopyWriter(out, Collections.singletonList(GeneralDataType.INTEGER));
+        writer.writeHeader();
+        writer.close();
+        Assert.assertArrayEquals(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r',
+                '\n', 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF}, out.toByteArray());
+    }
+
+    @Test
+    public void testRow() throws IOException {
+        final byte[] bytes = this.row(Arrays.<DataType>asList(GeneralDataType.INTEGER,
+                GeneralDataType.BIGINT, GeneralDataType.TEXT, GeneralDataType.BOOLEAN,
+                GeneralDataType.INTEGER), Arrays.asList(1, "2", "é", "t", null));
+        Assert.assertArrayEquals(new byte[]{0, 5,
+                0, 0, 0, 4, 0, 0, 0, 1,
+                0, 0, 0, 8, 0, 0, 0, 0, 0, 0, 0, 2,
+                0, 0, 0, 2, (byte) 0xC3, (byte) 0xA9,
+                0, 0, 0, 1, 1,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}, bytes);
+    }
+
+    @Test
+    public void testDates() throws IOException {
+        final byte[] bytes = this.row(Arrays.<DataType>asList(GeneralDataType.DATE,
+                GeneralDataType.TIMESTAMP), Arrays.asList(LocalDate.of(2000, 1, 2),
+                LocalDateTime.of(2000, 1, 1, 0, 0, 1)));
+        Assert.assertArrayEquals(new byte[]{0, 2,
+                0, 0, 0, 4, 0, 0, 0, 1,
+                0, 0, 0, 8, 0, 0, 0, 0, 0, 0x0F, 0x42, 0x40}, bytes);
+    }
+
+    @Test
+    public void testTimestampTzWithOffset() throws IOException {
+        final byte[] bytes = this.row(
+                Collections.<DataType>singletonList(GeneralDataType.TIMESTAMPTZ),
+                Collections.singletonList(
+                        OffsetDateTime.of(2000, 1, 1, 1, 0, 1, 0, ZoneOffset.ofHours(1))));
+        Assert.assertArrayEquals(new byte[]{0, 1,
+                0, 0, 0, 8, 0, 0, 0, 0, 0, 0x0F, 0x42, 0x40}, bytes);
+    }
+
+    @Test
+    public void testTimestampTzSessionZone() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BinaryCopyWriter writer = new BinaryCopyWriter(out,
+                Collections.<DataType>singletonList(GeneralDataType.TIMESTAMPTZ),
+                ZoneId.of("Europe/Paris"));
+        writer.writeRow(Collections.singletonList(LocalDateTime.of(2000, 1, 1, 1, 0, 1)));
+        Assert.assertArrayEquals(new byte[]{0, 1,
+                0, 0, 0, 8, 0, 0, 0, 0, 0, 0x0F, 0x42, 0x40}, out.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTimestampTzWithoutSessionZone() throws IOException {
+        this.row(Collections.<DataType>singletonList(GeneralDataType.TIMESTAMPTZ),
+                Collections.singletonList(LocalDateTime.of(2000, 1, 1, 0, 0, 1)));
+    }
+
+    @Test
+    public void testNumeric() throws IOException {
+        // 12345.678 = 1 2345 . 6780 -> weight 1, dscale 3
+        Assert.assertArrayEquals(new byte[]{0, 1,
+                        0, 0, 0, 14, 0, 3, 0, 1, 0x40, 0, 0, 3, 0, 1, 0x09, 0x29, 0x1A, 0x7C},
+                this.row(Collections.<DataType>singletonList(GeneralDataType.NUMERIC),
+                        Collections.singletonList(new BigDecimal("-12345.678"))));
+        // 0.0005 -> weight -1, one digit 5
+        Assert.assertArrayEquals(new byte[]{0, 1,
+                        0, 0, 0, 10, 0, 1, (byte) 0xFF, (byte) 0xFF, 0, 0, 0, 4, 0, 5},
+                this.row(Collections.<DataType>singletonList(GeneralDataType.NUMERIC),
+                        Collections.singletonList(new BigDecimal("0.0005"))));
+        // 0.00 -> no digit
+        Assert.assertArrayEquals(new byte[]{0, 1,
+                        0, 0, 0, 8, 0, 0, 0, 0, 0, 0, 0, 2},
+                this.row(Collections.<DataType>singletonList(GeneralDataType.DECIMAL),
+                        Collections.singletonList("0.00")));
+    }
+
+    @Test
+    public void testExactIntegers() throws IOException {
+        Assert.assertArrayEquals(new byte[]{0, 1, 0, 0, 0, 2, (byte) 0x80, 0},
+                this.row(Collections.<DataType>singletonList(GeneralDataType.SMALLINT),
+                        Collections.singletonList(Short.MIN_VALUE)));
+        Assert.assertArrayEquals(new byte[]{0, 1, 0, 0, 0, 4, 0, 0, 0, 7},
+                this.row(Collections.<DataType>singletonList(GeneralDataType.INTEGER),
+                        Collections.singletonList("7.00")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSmallIntOverflow() throws IOException {
+        this.row(Collections.<DataType>singletonList(GeneralDataType.SMALLINT),
+                Collections.singletonList(40000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntegerFraction() throws IOException {
+        this.row(Collections.<DataType>singletonList(GeneralDataType.INTEGER),
+                Collections.singletonList(1.5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBigIntOverflow() throws IOException {
+        this.row(Collections.<DataType>singletonList(GeneralDataType.BIGINT),
+                Collections.singletonList("9223372036854775808"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedType() {
+        new BinaryCopyWriter(new ByteArrayOutputStream(),
+                Collections.singletonList(GeneralDataType.XML));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongRowSize() throws IOException {
+        this.row(Collections.<DataType>singletonList(GeneralDataType.INTEGER),
+                Arrays.asList(1, 2));
+    }
+
+    private byte[] row(final List<DataType> types, final List<?> values) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BinaryCopyWriter writer = new BinaryCopyWriter(out, types);
+        writer.writeRow(values);
+        return out.toByteArray();
+    }
+}
@@ -22,10 +22,19 @@
 
 package com.github.jferard.pgloaderutils.loader;
 
+import com.github.jferard.pgloaderutils.metrics.LoadListener;
+import com.github.jferard.pgloaderutils.provider.CSVRowsProvider;
+import com.github.jferard.pgloaderutils.provider.RowsProvider;
+import com.github.jferard.pgloaderutils.reader.OpenableReader;
 import com.github.jferard.pgloaderutils.reader.SimpleFileReader;
 import com.github.jferard.pgloaderutils.sql.Column;
 import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.junit.Assert;
 import org.junit.Test;
 import org.postgresql.copy.CopyIn;
 import org.postgresql.core.BaseConnection;
@@ -35,9 +44,13 @@ import org.powermock.api.easymock.PowerMock;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -70,6 +83,282 @@ public class CSVBulkLoaderTest {
         this.aTest(bl, "COPY \"table\" (foo, bar) FROM STDIN WITH (FORMAT csv, DELIMITER ';', QUOTE '\"')");
     }
 
+    @Test
+    public void test5() throws IOException, SQLException, InterruptedException {
+        final List<Column> columns = Arrays.asList(new Column("foo",
+                GeneralDataType.TEXT), new Column("bar", GeneralDataType.INTEGER));
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table", columns, ';', '"',
+                StandardCharsets.ISO_8859_1);
+        this.aTest(bl, "COPY \"table\" (foo, bar) FROM STDIN WITH (FORMAT csv, DELIMITER ';', QUOTE '\"', ENCODING 'LATIN1')");
+    }
+
+    @Test
+    public void testBinary() throws IOException, SQLException {
+        final Table table = Table.create("table", new Column("foo", GeneralDataType.TEXT),
+                new Column("bar", GeneralDataType.INTEGER));
+        final CSVBulkLoader bl = CSVBulkLoader.toTableBinary(table);
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement1 = PowerMock.createMock(Statement.class);
+        final Statement statement2 = PowerMock.createMock(Statement.class);
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+        final Capture<byte[]> bytes = EasyMock.newCapture();
+        final Capture<Integer> len = EasyMock.newCapture();
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement1);
+        EasyMock.expect(statement1.executeUpdate("TRUNCATE \"table\"")).andReturn(1);
+        statement1.close();
+        EasyMock.expect(connection.getEncoding()).andReturn(Encoding.defaultEncoding()).times(2);
+        EasyMock.expect(connection.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(
+                        "COPY \"table\" (foo, bar) FROM STDIN WITH (FORMAT binary)", false))
+                .andReturn(copyOp);
+        copyOp.writeToCopy(EasyMock.capture(bytes), EasyMock.eq(0), EasyMock.captureInt(len));
+        EasyMock.expect(copyOp.endCopy()).andReturn(1L);
+        EasyMock.expect(copyOp.getHandledRowCount()).andReturn(1L);
+        EasyMock.expect(connection.createStatement()).andReturn(statement2);
+        EasyMock.expect(statement2.executeUpdate("ANALYZE \"table\"")).andReturn(1);
+        statement2.close();
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final Iterator<CSVRecord> iterator =
+                CSVFormat.DEFAULT.parse(new StringReader("a,1")).iterator();
+        bl.populateBinary(connection, CSVRowsProvider.create(iterator, Collections.emptyList(),
+                (value, type) -> value), true);
+
+        PowerMock.verifyAll();
+        Assert.assertArrayEquals(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r',
+                        '\n', 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                        0, 2, 0, 0, 0, 1, 'a', 0, 0, 0, 4, 0, 0, 0, 1,
+                        (byte) 0xFF, (byte) 0xFF},
+                Arrays.copyOf(bytes.getValue(), len.getValue()));
+    }
+
+    @Test
+    public void testCopyPrefersSQLException()
+            throws IOException, SQLException, InterruptedException {
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table");
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        final SQLException exception = new SQLException("invalid input syntax");
+        // the write end fails because the COPY thread failed and closed the reader
+        final OpenableReader reader = new OpenableReader() {
+            private volatile boolean closed;
+
+            @Override
+            public void open() throws IOException {
+                while (!this.closed) {
+                    Thread.yield();
+                }
+                throw new IOException("Pipe closed");
+            }
+
+            @Override
+            public void writeTo(final Writer writer) {
+                throw new AssertionError();
+            }
+
+            @Override
+            public int read(final char[] cbuf, final int off, final int len) {
+                return -1;
+            }
+
+            @Override
+            public void close() {
+                this.closed = true;
+            }
+        };
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getEncoding()).andReturn(Encoding.defaultEncoding());
+        EasyMock.expect(connection.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(
+                        "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')",
+                        false))
+                .andThrow(exception);
+
+        PowerMock.replayAll();
+        try {
+            bl.copy(connection, reader);
+            Assert.fail();
+        } catch (final SQLException e) {
+            Assert.assertSame(exception, e);
+            Assert.assertEquals("Pipe closed", e.getSuppressed()[0].getMessage());
+        }
+
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testDirect() throws IOException, SQLException {
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table");
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+        final Capture<byte[]> bytes = EasyMock.newCapture();
+        final Capture<Integer> len = EasyMock.newCapture();
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.getEncoding()).andReturn(Encoding.defaultEncoding()).times(2);
+        EasyMock.expect(connection.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(
+                        "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')",
+                        false))
+                .andReturn(copyOp);
+        copyOp.writeToCopy(EasyMock.capture(bytes), EasyMock.eq(0), EasyMock.captureInt(len));
+        EasyMock.expect(copyOp.endCopy()).andReturn(1L);
+        EasyMock.expect(copyOp.getHandledRowCount()).andReturn(1L);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("ANALYZE \"table\"")).andReturn(1);
+        statement.close();
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        bl.populateDirect(connection,
+                new SimpleFileReader(new StringReader("a,b,c"), Logger.getLogger("test"), 1),
+                false);
+
+        PowerMock.verifyAll();
+        Assert.assertArrayEquals(new byte[]{'a', ',', 'b', ',', 'c'},
+                Arrays.copyOf(bytes.getValue(), len.getValue()));
+    }
+
+    @Test
+    public void testFresh() throws IOException, SQLException {
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table");
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement).times(2);
+        EasyMock.expect(statement.executeUpdate("TRUNCATE \"table\"")).andReturn(0);
+        this.expectFreezeCopy(connection, copyOp);
+        EasyMock.expect(copyOp.endCopy()).andReturn(1L);
+        EasyMock.expect(copyOp.getHandledRowCount()).andReturn(1L);
+        EasyMock.expect(statement.executeUpdate("ANALYZE \"table\"")).andReturn(0);
+        statement.close();
+        EasyMock.expectLastCall().times(2);
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        bl.populateFresh(connection,
+                (out, charset) -> out.write("a,b,c".getBytes(charset)));
+
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testFreshFails() throws IOException, SQLException {
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table");
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+        final SQLException exception = new SQLException("cannot perform COPY FREEZE");
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        connection.setAutoCommit(false);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("TRUNCATE \"table\"")).andReturn(0);
+        statement.close();
+        this.expectFreezeCopy(connection, copyOp);
+        EasyMock.expect(copyOp.endCopy()).andThrow(exception);
+        connection.rollback();
+
+        PowerMock.replayAll();
+        try {
+            bl.populateFresh(connection,
+                    (out, charset) -> out.write("a,b,c".getBytes(charset)));
+            Assert.fail();
+        } catch (final SQLException e) {
+            Assert.assertSame(exception, e);
+        }
+
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testWithFreeze() {
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table").withFreeze();
+        Assert.assertSame(bl, bl.withFreeze());
+    }
+
+    @Test
+    public void testCopyByteByByte() throws IOException, SQLException {
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table");
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+        final long[] bytesSent = {0};
+        bl.setListener(new LoadListener() {
+            @Override
+            public void bytesSent(final long bytes) {
+                bytesSent[0] += bytes;
+            }
+        });
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getEncoding()).andReturn(Encoding.defaultEncoding()).times(2);
+        EasyMock.expect(connection.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(
+                        "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')",
+                        false))
+                .andReturn(copyOp);
+        // a single write, without any flush by the producer
+        copyOp.writeToCopy(EasyMock.anyObject(byte[].class), EasyMock.eq(0), EasyMock.eq(5));
+        EasyMock.expect(copyOp.endCopy()).andReturn(1L);
+        EasyMock.expect(copyOp.getHandledRowCount()).andReturn(1L);
+
+        PowerMock.replayAll();
+        final long rows = bl.copy(connection, (out, charset) -> {
+            for (final byte b : "a,b,c".getBytes(charset)) {
+                out.write(b);
+            }
+        });
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(1L, rows);
+        Assert.assertEquals(5L, bytesSent[0]);
+    }
+
+    private void expectFreezeCopy(final BaseConnection connection, final CopyIn copyOp)
+            throws SQLException {
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        EasyMock.expect(connection.getEncoding()).andReturn(Encoding.defaultEncoding()).times(2);
+        EasyMock.expect(connection.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(
+                        "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', " +
+                                "QUOTE '\"', FREEZE)", false))
+                .andReturn(copyOp);
+        copyOp.writeToCopy(EasyMock.anyObject(byte[].class), EasyMock.eq(0), EasyMock.eq(5));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotBinary() throws IOException, SQLException {
+        final CSVBulkLoader bl = CSVBulkLoader.toTable("table");
+        bl.populateBinary(PowerMock.createMock(BaseConnection.class),
+                PowerMock.createMock(RowsProvider.class), true);
+    }
+
     private void aTest(final CSVBulkLoader bl, final String copySQL)
             throws SQLException, IOException, InterruptedException {
         final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
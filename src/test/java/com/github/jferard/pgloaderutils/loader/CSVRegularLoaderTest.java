@@ -29,7 +29,10 @@ import com.github.jferard.pgloaderutils.HeaderColSelectorFactory;
 import com.github.jferard.pgloaderutils.provider.CSVRowsProvider;
 import com.github.jferard.pgloaderutils.provider.RowsProvider;
 import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.DataType;
 import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.IndexMethod;
+import com.github.jferard.pgloaderutils.sql.SimpleIndex;
 import com.github.jferard.pgloaderutils.sql.Table;
 import com.github.jferard.pgloaderutils.sql.ValueConverter;
 import com.google.common.collect.Lists;
@@ -46,6 +49,7 @@ import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.Arrays;
@@ -89,6 +93,7 @@ public class CSVRegularLoaderTest {
         indexStatement.setBoolean(1, false);
         indexStatement.setString(2, "table");
         EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
 
         EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
                 "?\n" +
@@ -117,6 +122,58 @@ public class CSVRegularLoaderTest {
         Assert.assertTrue(recs.isEmpty());
     }
 
+    @Test
+    public void testIndexRebuilder() throws IOException, SQLException {
+        final Column column = new Column("foo", GeneralDataType.INTEGER);
+        final Table t = new Table("table", Collections.singletonList(column));
+        final ValueConverter converter = (value, type) -> Integer.valueOf(value);
+        final Iterator<CSVRecord> iterator =
+                CSVFormat.DEFAULT.parse(new StringReader("foo\n1")).iterator();
+        iterator.next();
+        final RowsProvider rp = CSVRowsProvider.create(
+                iterator, Collections.emptyList(), converter);
+        final CSVRegularLoader rl = new CSVRegularLoader(rp, t);
+
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final PreparedStatement insertStatement = PowerMock.createMock(PreparedStatement.class);
+        rl.setIndexRebuilder(new IndexRebuilder(
+                Collections.singletonList(SimpleIndex.create(IndexMethod.BTREE, t, column)),
+                Collections.singletonList(connection)));
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("DROP INDEX table_foo_idx")).andReturn(0);
+        statement.close();
+        connection.commit();
+
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                ")")).andReturn(insertStatement);
+        insertStatement.setObject(1, 1, Types.INTEGER);
+        insertStatement.addBatch();
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{1});
+        connection.commit();
+
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.execute(
+                "CREATE INDEX table_foo_idx ON \"table\" USING btree(foo)")).andReturn(false);
+        connection.commit();
+        statement.close();
+
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final List<CSVRecord> recs = rl.load(connection, 10);
+
+        PowerMock.verifyAll();
+        Assert.assertTrue(recs.isEmpty());
+    }
+
     @Test
     public void testBadRow() throws IOException, SQLException {
         final Table t =
@@ -143,12 +200,143 @@ public class CSVRegularLoaderTest {
         indexStatement.setBoolean(1, false);
         indexStatement.setString(2, "table");
         EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
+
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                ")")).andReturn(insertStatement);
+        insertStatement.setObject(1, 1, Types.INTEGER);
+        insertStatement.addBatch();
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{1, 1});
+        connection.commit();
+
+        indexStatement.setBoolean(1, true);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.execute("REINDEX TABLE \"table\"")).andReturn(true);
+        connection.commit();
+
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final List<CSVRecord> recs = rl.load(connection, 10);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(1, recs.size());
+        Assert.assertEquals(Collections.singletonList("A"), Lists.newArrayList(recs.get(0)));
+    }
+
+    @Test
+    public void testBindError() throws IOException, SQLException {
+        final Table t =
+                new Table("table",
+                        Collections.singletonList(new Column("foo", GeneralDataType.INTEGER)));
+        final ValueConverter converter = (value, type) -> Integer.valueOf(value);
+        final Iterator<CSVRecord> iterator =
+                CSVFormat.DEFAULT.parse(new StringReader("foo\n1\n2")).iterator();
+        iterator.next();
+        final RowsProvider rp = CSVRowsProvider.create(
+                iterator, Collections.emptyList(), converter);
+        final CSVRegularLoader rl = new CSVRegularLoader(rp, t);
+
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final PreparedStatement insertStatement = PowerMock.createMock(PreparedStatement.class);
+        final PreparedStatement indexStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+
+        EasyMock.expect(connection.prepareStatement(SQL_INDEX)).andReturn(indexStatement);
+        indexStatement.setBoolean(1, false);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
+
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                ")")).andReturn(insertStatement);
+        insertStatement.setObject(1, 1, Types.INTEGER);
+        insertStatement.addBatch();
+        insertStatement.setObject(1, 2, Types.INTEGER);
+        EasyMock.expectLastCall().andThrow(new SQLException("can't bind"));
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{1});
+        connection.commit();
+
+        indexStatement.setBoolean(1, true);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.execute("REINDEX TABLE \"table\"")).andReturn(true);
+        connection.commit();
+
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final List<CSVRecord> recs = rl.load(connection, 10);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(1, recs.size());
+        Assert.assertEquals(Collections.singletonList("2"), Lists.newArrayList(recs.get(0)));
+    }
+
+    @Test
+    public void testBindOnlyProvider() throws IOException, SQLException {
+        final Table t =
+                new Table("table",
+                        Collections.singletonList(new Column("foo", GeneralDataType.INTEGER)));
+        final Iterator<CSVRecord> iterator =
+                CSVFormat.DEFAULT.parse(new StringReader("1\nA\n2")).iterator();
+        final RowsProvider rp = new RowsProvider() {
+            private CSVRecord curRecord;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public void setStatementParameters(final PreparedStatement preparedStatement,
+                                               final List<DataType> types)
+                    throws SQLException {
+                this.curRecord = iterator.next();
+                preparedStatement.setObject(1, Integer.valueOf(this.curRecord.get(0)),
+                        Types.INTEGER);
+            }
+
+            @Override
+            public CSVRecord getCurRecord() {
+                return this.curRecord;
+            }
+        };
+        final CSVRegularLoader rl = new CSVRegularLoader(rp, t);
+
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final PreparedStatement insertStatement = PowerMock.createMock(PreparedStatement.class);
+        final PreparedStatement indexStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+
+        EasyMock.expect(connection.prepareStatement(SQL_INDEX)).andReturn(indexStatement);
+        indexStatement.setBoolean(1, false);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
 
         EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
                 "?\n" +
                 ")")).andReturn(insertStatement);
         insertStatement.setObject(1, 1, Types.INTEGER);
         insertStatement.addBatch();
+        insertStatement.setObject(1, 2, Types.INTEGER);
+        insertStatement.addBatch();
         EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{1, 1});
         connection.commit();
 
@@ -170,6 +358,234 @@ public class CSVRegularLoaderTest {
         Assert.assertEquals(Collections.singletonList("A"), Lists.newArrayList(recs.get(0)));
     }
 
+    @Test
+    public void testStuckProvider() throws SQLException {
+        final Table t =
+                new Table("table",
+                        Collections.singletonList(new Column("foo", GeneralDataType.INTEGER)));
+        final IllegalStateException exception = new IllegalStateException("stuck");
+        final RowsProvider rp = new RowsProvider() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public void setStatementParameters(final PreparedStatement preparedStatement,
+                                               final List<DataType> types) {
+                throw exception;
+            }
+
+            @Override
+            public CSVRecord getCurRecord() {
+                return null;
+            }
+        };
+        final CSVRegularLoader rl = new CSVRegularLoader(rp, t);
+
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final PreparedStatement insertStatement = PowerMock.createMock(PreparedStatement.class);
+        final PreparedStatement indexStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+
+        EasyMock.expect(connection.prepareStatement(SQL_INDEX)).andReturn(indexStatement);
+        indexStatement.setBoolean(1, false);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
+
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                ")")).andReturn(insertStatement);
+
+        PowerMock.replayAll();
+        try {
+            rl.load(connection, 10);
+            Assert.fail();
+        } catch (final SQLException e) {
+            Assert.assertSame(exception, e.getCause());
+        }
+
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testMultiRow() throws IOException, SQLException {
+        final Table t =
+                new Table("table",
+                        Collections.singletonList(new Column("foo", GeneralDataType.INTEGER)));
+        final ValueConverter converter = (value, type) -> Integer.valueOf(value);
+        final Iterator<CSVRecord> iterator =
+                CSVFormat.DEFAULT.parse(new StringReader("foo\n1\n2\nA\n3\n4\n5")).iterator();
+        iterator.next();
+        final RowsProvider rp = CSVRowsProvider.create(
+                iterator, Collections.emptyList(), converter);
+        final CSVRegularLoader rl = new CSVRegularLoader(rp, t);
+
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final PreparedStatement insertStatement = PowerMock.createMock(PreparedStatement.class);
+        final PreparedStatement tailStatement = PowerMock.createMock(PreparedStatement.class);
+        final PreparedStatement singleRowStatement = PowerMock.createMock(PreparedStatement.class);
+        final PreparedStatement indexStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+
+        EasyMock.expect(connection.prepareStatement(SQL_INDEX)).andReturn(indexStatement);
+        indexStatement.setBoolean(1, false);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
+
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                "), (\n" +
+                "?\n" +
+                ")")).andReturn(insertStatement);
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                ")")).andReturn(singleRowStatement);
+        insertStatement.setObject(1, 1, Types.INTEGER);
+        insertStatement.setObject(2, 2, Types.INTEGER);
+        insertStatement.addBatch();
+        insertStatement.setObject(1, 3, Types.INTEGER);
+        insertStatement.setObject(2, 4, Types.INTEGER);
+        insertStatement.addBatch();
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{2, 2});
+        insertStatement.setObject(1, 5, Types.INTEGER);
+        connection.commit();
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{});
+        connection.commit();
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                ")")).andReturn(tailStatement);
+        tailStatement.setObject(1, 5, Types.INTEGER);
+        EasyMock.expect(tailStatement.executeUpdate()).andReturn(1);
+        connection.commit();
+        tailStatement.close();
+        insertStatement.close();
+        singleRowStatement.close();
+
+        indexStatement.setBoolean(1, true);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.execute("REINDEX TABLE \"table\"")).andReturn(true);
+        connection.commit();
+
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final List<CSVRecord> recs = rl.load(connection, 4, 2);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(1, recs.size());
+        Assert.assertEquals(Collections.singletonList("A"), Lists.newArrayList(recs.get(0)));
+    }
+
+    @Test
+    public void testBisect() throws IOException, SQLException {
+        final Table t =
+                new Table("table",
+                        Collections.singletonList(new Column("foo", GeneralDataType.INTEGER)));
+        final ValueConverter converter = (value, type) -> Integer.valueOf(value);
+        final Iterator<CSVRecord> iterator =
+                CSVFormat.DEFAULT.parse(new StringReader("foo\n1\n2\n3\n-4")).iterator();
+        iterator.next();
+        final RowsProvider rp = CSVRowsProvider.create(
+                iterator, Collections.emptyList(), converter);
+        final CSVRegularLoader rl = new CSVRegularLoader(rp, t);
+
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final PreparedStatement insertStatement = PowerMock.createMock(PreparedStatement.class);
+        final PreparedStatement indexStatement = PowerMock.createMock(PreparedStatement.class);
+        final Savepoint savepoint1 = PowerMock.createMock(Savepoint.class);
+        final Savepoint savepoint2 = PowerMock.createMock(Savepoint.class);
+        final Savepoint savepoint3 = PowerMock.createMock(Savepoint.class);
+        final Savepoint savepoint4 = PowerMock.createMock(Savepoint.class);
+        final SQLException exception = new SQLException("check constraint");
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+
+        EasyMock.expect(connection.prepareStatement(SQL_INDEX)).andReturn(indexStatement);
+        indexStatement.setBoolean(1, false);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
+
+        EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
+                "?\n" +
+                ")")).andReturn(insertStatement);
+        for (int i = 1; i <= 4; i++) {
+            insertStatement.setObject(1, i == 4 ? -4 : i, Types.INTEGER);
+            insertStatement.addBatch();
+        }
+        EasyMock.expect(insertStatement.executeBatch()).andThrow(exception);
+        insertStatement.clearBatch();
+        connection.rollback();
+
+        // [1, 2]
+        EasyMock.expect(connection.setSavepoint()).andReturn(savepoint1);
+        insertStatement.setObject(1, 1, Types.INTEGER);
+        insertStatement.addBatch();
+        insertStatement.setObject(1, 2, Types.INTEGER);
+        insertStatement.addBatch();
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{1, 1});
+        connection.releaseSavepoint(savepoint1);
+        // [3, -4]
+        EasyMock.expect(connection.setSavepoint()).andReturn(savepoint2);
+        insertStatement.setObject(1, 3, Types.INTEGER);
+        insertStatement.addBatch();
+        insertStatement.setObject(1, -4, Types.INTEGER);
+        insertStatement.addBatch();
+        EasyMock.expect(insertStatement.executeBatch()).andThrow(exception);
+        insertStatement.clearBatch();
+        connection.rollback(savepoint2);
+        // [3]
+        EasyMock.expect(connection.setSavepoint()).andReturn(savepoint3);
+        insertStatement.setObject(1, 3, Types.INTEGER);
+        insertStatement.addBatch();
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{1});
+        connection.releaseSavepoint(savepoint3);
+        // [-4]
+        EasyMock.expect(connection.setSavepoint()).andReturn(savepoint4);
+        insertStatement.setObject(1, -4, Types.INTEGER);
+        insertStatement.addBatch();
+        EasyMock.expect(insertStatement.executeBatch()).andThrow(exception);
+        insertStatement.clearBatch();
+        connection.rollback(savepoint4);
+        connection.commit();
+
+        EasyMock.expect(insertStatement.executeBatch()).andReturn(new int[]{});
+        connection.commit();
+
+        indexStatement.setBoolean(1, true);
+        indexStatement.setString(2, "table");
+        EasyMock.expect(indexStatement.execute()).andReturn(true);
+
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.execute("REINDEX TABLE \"table\"")).andReturn(true);
+        connection.commit();
+
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final List<CSVRecord> recs = rl.load(connection, 4);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(1, recs.size());
+        Assert.assertEquals(Collections.singletonList("-4"), Lists.newArrayList(recs.get(0)));
+    }
+
     @Test
     public void testToRegularLoader() throws IOException, SQLException {
         final Connection connection = PowerMock.createMock(Connection.class);
@@ -197,6 +613,7 @@ public class CSVRegularLoaderTest {
         indexStatement.setBoolean(1, false);
         indexStatement.setString(2, "table");
         EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
 
         EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
                 "?, ?, ?, ?\n" +
@@ -264,6 +681,7 @@ public class CSVRegularLoaderTest {
         indexStatement.setBoolean(1, false);
         indexStatement.setString(2, "table");
         EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
 
         EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
                 "?, ?, ?\n" +
@@ -331,6 +749,7 @@ public class CSVRegularLoaderTest {
         indexStatement.setBoolean(1, false);
         indexStatement.setString(2, "table");
         EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
 
         EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
                 "?, ?, ?, ?\n" +
@@ -401,6 +820,7 @@ public class CSVRegularLoaderTest {
         indexStatement.setBoolean(1, false);
         indexStatement.setString(2, "table");
         EasyMock.expect(indexStatement.execute()).andReturn(true);
+        connection.commit();
 
         EasyMock.expect(connection.prepareStatement("INSERT INTO \"table\" VALUES (\n" +
                 "?, ?, ?\n" +
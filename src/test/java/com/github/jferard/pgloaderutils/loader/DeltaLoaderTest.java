@@ -0,0 +1,211 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.TestHelper;
+import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.QuoteMode;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.core.BaseConnection;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+public class DeltaLoaderTest {
+    private static final String COPY_SQL =
+            "COPY t (id, v) FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"', " +
+                    "ENCODING 'UTF8')";
+    private static final Table TABLE = Table.create("t",
+            new Column("id", GeneralDataType.INTEGER), new Column("v", GeneralDataType.TEXT))
+            .withKey("id");
+
+    private Path csvPath;
+    private Path snapshotPath;
+    private CSVFile file;
+    private DeltaLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        this.csvPath = Files.createTempFile("test", ".csv");
+        this.snapshotPath = Files.createTempFile("test", ".snapshot");
+        Files.delete(this.snapshotPath);
+        this.file = new CSVFile(this.csvPath, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+        this.loader = new DeltaLoader(TABLE, this.snapshotPath);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(this.csvPath);
+        Files.deleteIfExists(this.snapshotPath);
+    }
+
+    @Test
+    public void test() throws IOException, SQLException {
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final PreparedStatement delete = PowerMock.createMock(PreparedStatement.class);
+
+        // first run: full load
+        Files.write(this.csvPath, "1,a\n2,b\n3,c\n".getBytes(StandardCharsets.UTF_8));
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("TRUNCATE t")).andReturn(0);
+        statement.close();
+        TestHelper.expectCopy(connection, COPY_SQL,
+                "\"1\",\"a\"\r\n\"2\",\"b\"\r\n\"3\",\"c\"\r\n", 3);
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final DeltaStats stats1 = this.loader.load(connection, this.file);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(3, stats1.getInserted());
+        Assert.assertTrue(Files.exists(this.snapshotPath));
+
+        // second run: 2 changed, 3 deleted, 4 inserted
+        Files.write(this.csvPath, "1,a\n2,x\n4,d\n".getBytes(StandardCharsets.UTF_8));
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.prepareStatement("DELETE FROM t WHERE (id) IN ((?), (?))"))
+                .andReturn(delete);
+        delete.setObject(1, "2", Types.OTHER);
+        delete.setObject(2, "3", Types.OTHER);
+        EasyMock.expect(delete.executeUpdate()).andReturn(2);
+        delete.close();
+        TestHelper.expectCopy(connection, COPY_SQL, "\"2\",\"x\"\r\n\"4\",\"d\"\r\n", 2);
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final DeltaStats stats2 = this.loader.load(connection, this.file);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(1, stats2.getInserted());
+        Assert.assertEquals(1, stats2.getChanged());
+        Assert.assertEquals(1, stats2.getDeleted());
+        Assert.assertEquals(1, stats2.getUnchanged());
+
+        // third run: nothing to do
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final DeltaStats stats3 = this.loader.load(connection, this.file);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(3, stats3.getUnchanged());
+        Assert.assertEquals(0, stats3.getDeleted());
+    }
+
+    @Test
+    public void testCopyFails() throws IOException, SQLException {
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+
+        Files.write(this.csvPath, "1,a\n".getBytes(StandardCharsets.UTF_8));
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        connection.setAutoCommit(false);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("TRUNCATE t")).andThrow(new SQLException("lock"));
+        connection.rollback();
+
+        PowerMock.replayAll();
+        final SQLException e = Assert.assertThrows(SQLException.class,
+                () -> this.loader.load(connection, this.file));
+
+        PowerMock.verifyAll();
+        Assert.assertEquals("lock", e.getMessage());
+        Assert.assertFalse(Files.exists(this.snapshotPath));
+    }
+
+    @Test
+    public void testNullAndEmpty() throws IOException, SQLException {
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final CSVFile file = new CSVFile(this.csvPath, StandardCharsets.UTF_8,
+                CSVFormat.DEFAULT.builder().setQuoteMode(QuoteMode.ALL_NON_NULL).build());
+
+        Files.write(this.csvPath, "1,\n2,\"\"\n".getBytes(StandardCharsets.UTF_8));
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("TRUNCATE t")).andReturn(0);
+        statement.close();
+        TestHelper.expectCopy(connection, COPY_SQL, "\"1\",\r\n\"2\",\"\"\r\n", 2);
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final DeltaStats stats = this.loader.load(connection, file);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(2, stats.getInserted());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownKeyColumn() {
+        new DeltaLoader(TABLE.withKey("foo"), this.snapshotPath);
+    }
+
+    @Test
+    public void testTable() {
+        final RowHashTable table = RowHashTable.create(10);
+        Assert.assertEquals(1024, table.capacity());
+        for (int i = 0; i < 1000; i++) {
+            table.put(i * 0x9E3779B97F4A7C15L, i, 3L * i);
+        }
+        table.put(0, 42, 0);
+        Assert.assertEquals(2048, table.capacity());
+        Assert.assertEquals(1000, table.size());
+        final long slot = table.find(999 * 0x9E3779B97F4A7C15L);
+        Assert.assertEquals(999, table.getContentHash(slot));
+        Assert.assertEquals(2997, table.getKeyOffset(slot));
+        Assert.assertEquals(42, table.getContentHash(table.find(0)));
+        Assert.assertEquals(-1, table.find(12345));
+    }
+}
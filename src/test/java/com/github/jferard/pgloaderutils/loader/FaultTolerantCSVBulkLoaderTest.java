@@ -0,0 +1,156 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.TestHelper;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.core.BaseConnection;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+
+public class FaultTolerantCSVBulkLoaderTest {
+    private static final String COPY_SQL =
+            "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')";
+
+    @Test
+    public void test() throws IOException, SQLException {
+        final FaultTolerantCSVBulkLoader loader = new FaultTolerantCSVBulkLoader(
+                CSVBulkLoader.toTable("table"), CSVFormat.DEFAULT, 2, 1000);
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement1 = PowerMock.createMock(Statement.class);
+        final Statement statement2 = PowerMock.createMock(Statement.class);
+        final Savepoint savepoint = PowerMock.createMock(Savepoint.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement1);
+        EasyMock.expect(statement1.executeUpdate("TRUNCATE \"table\"")).andReturn(1);
+        statement1.close();
+        EasyMock.expect(connection.setSavepoint()).andReturn(savepoint).times(4);
+        // first chunk fails, then is bisected
+        TestHelper.expectCopy(connection, COPY_SQL, "\"a\",\"1\"\r\n\"b\",\"X\"\r\n", -1);
+        connection.rollback(savepoint);
+        TestHelper.expectCopy(connection, COPY_SQL, "\"a\",\"1\"\r\n", 1);
+        connection.releaseSavepoint(savepoint);
+        TestHelper.expectCopy(connection, COPY_SQL, "\"b\",\"X\"\r\n", -1);
+        connection.rollback(savepoint);
+        connection.commit();
+        // second chunk
+        TestHelper.expectCopy(connection, COPY_SQL, "\"c\",\"3\"\r\n", 1);
+        connection.releaseSavepoint(savepoint);
+        connection.commit();
+        EasyMock.expect(connection.createStatement()).andReturn(statement2);
+        EasyMock.expect(statement2.executeUpdate("ANALYZE \"table\"")).andReturn(1);
+        statement2.close();
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final Iterator<CSVRecord> records =
+                CSVFormat.DEFAULT.parse(new StringReader("a,1\nb,X\nc,3")).iterator();
+        final StringWriter rejectWriter = new StringWriter();
+        final List<CSVRecord> rejected = loader.populate(connection, records,
+                new CSVPrinter(rejectWriter, CSVFormat.RFC4180), true);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(1, rejected.size());
+        Assert.assertEquals(2, rejected.get(0).getRecordNumber());
+        Assert.assertEquals("b,X,invalid input syntax\r\n", rejectWriter.toString());
+    }
+
+    @Test
+    public void testNullAndEmpty() throws IOException, SQLException {
+        final FaultTolerantCSVBulkLoader loader = new FaultTolerantCSVBulkLoader(
+                CSVBulkLoader.toTable("table"), CSVFormat.DEFAULT, 2, 1000);
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final Savepoint savepoint = PowerMock.createMock(Savepoint.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.setSavepoint()).andReturn(savepoint);
+        // the position of a field does not matter
+        TestHelper.expectCopy(connection, COPY_SQL, ",\"\"\r\n\"\",\r\n", 1);
+        connection.releaseSavepoint(savepoint);
+        connection.commit();
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("ANALYZE \"table\"")).andReturn(1);
+        statement.close();
+        connection.commit();
+        connection.setAutoCommit(false);
+
+        PowerMock.replayAll();
+        final CSVFormat format =
+                CSVFormat.DEFAULT.builder().setQuoteMode(QuoteMode.ALL_NON_NULL).build();
+        final Iterator<CSVRecord> records =
+                format.parse(new StringReader(",\"\"\n\"\",")).iterator();
+        final List<CSVRecord> rejected = loader.populate(connection, records,
+                new CSVPrinter(new StringWriter(), CSVFormat.RFC4180), false);
+
+        PowerMock.verifyAll();
+        Assert.assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    public void testRecordsFail() throws IOException, SQLException {
+        final FaultTolerantCSVBulkLoader loader = new FaultTolerantCSVBulkLoader(
+                CSVBulkLoader.toTable("table"), CSVFormat.DEFAULT, 2, 1000);
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final IllegalStateException exception = new IllegalStateException("malformed CSV");
+        final Iterator<CSVRecord> records = PowerMock.createMock(Iterator.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(records.hasNext()).andThrow(exception);
+        connection.rollback();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        try {
+            loader.populate(connection, records,
+                    new CSVPrinter(new StringWriter(), CSVFormat.RFC4180), false);
+            Assert.fail();
+        } catch (final IllegalStateException e) {
+            Assert.assertSame(exception, e);
+        }
+
+        PowerMock.verifyAll();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.Index;
+import com.github.jferard.pgloaderutils.sql.IndexMethod;
+import com.github.jferard.pgloaderutils.sql.SimpleIndex;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.powermock.api.easymock.PowerMock;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class IndexRebuilderTest {
+    private static final Column COL1 = new Column("foo", GeneralDataType.INTEGER);
+    private static final Column COL2 = new Column("bar", GeneralDataType.TEXT);
+    private static final Table TABLE = Table.create("t", COL1, COL2);
+    private static final List<Index> INDEXES = Arrays.asList(
+            SimpleIndex.create(IndexMethod.BTREE, TABLE, COL1),
+            SimpleIndex.create(IndexMethod.HASH, TABLE, COL2));
+
+    @Test
+    public void testDrop() throws SQLException {
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final IndexRebuilder rebuilder =
+                new IndexRebuilder(INDEXES, Collections.singletonList(connection));
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("DROP INDEX t_foo_idx")).andReturn(0);
+        EasyMock.expect(statement.executeUpdate("DROP INDEX t_bar_idx")).andReturn(0);
+        statement.close();
+        connection.commit();
+
+        PowerMock.replayAll();
+        rebuilder.dropIndexes(connection);
+
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testCreate() throws SQLException, InterruptedException {
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final IndexRebuilder rebuilder =
+                new IndexRebuilder(INDEXES, Collections.singletonList(connection));
+        rebuilder.setMaintenanceWorkMem("2GB");
+        rebuilder.setMaxParallelMaintenanceWorkers(4);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.execute("SET LOCAL maintenance_work_mem = '2GB'"))
+                .andReturn(false).times(2);
+        EasyMock.expect(statement.execute("SET LOCAL max_parallel_maintenance_workers = 4"))
+                .andReturn(false).times(2);
+        EasyMock.expect(statement.execute("CREATE INDEX t_foo_idx ON t USING btree(foo)"))
+                .andReturn(false);
+        EasyMock.expect(statement.execute("CREATE INDEX t_bar_idx ON t USING hash(bar)"))
+                .andReturn(false);
+        connection.commit();
+        EasyMock.expectLastCall().times(2);
+        statement.close();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        rebuilder.createIndexes();
+
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testCreateFails() throws SQLException {
+        final Connection connection = PowerMock.createMock(Connection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final IndexRebuilder rebuilder =
+                new IndexRebuilder(INDEXES.subList(0, 1), Collections.singletonList(connection));
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.execute("CREATE INDEX t_foo_idx ON t USING btree(foo)"))
+                .andThrow(new SQLException("no space left"));
+        connection.rollback();
+
+        PowerMock.replayAll();
+        final SQLException e = Assert.assertThrows(SQLException.class, rebuilder::createIndexes);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals("no space left", e.getMessage());
+    }
+
+    @Test
+    public void testBadMemory() {
+        final IndexRebuilder rebuilder =
+                new IndexRebuilder(INDEXES, Collections.emptyList());
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> rebuilder.setMaintenanceWorkMem("1GB'; DROP TABLE t; --"));
+    }
+}
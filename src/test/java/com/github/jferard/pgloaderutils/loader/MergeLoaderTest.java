@@ -0,0 +1,130 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.TestHelper;
+import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.apache.commons.csv.CSVFormat;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.core.BaseConnection;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class MergeLoaderTest {
+    private static final String COPY_SQL =
+            "COPY t_merge (id, v) FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')";
+    private static final Table TABLE = Table.create("t",
+            new Column("id", GeneralDataType.INTEGER), new Column("v", GeneralDataType.TEXT))
+            .withKey("id");
+    private static final String CREATE_SQL = "CREATE TEMP TABLE IF NOT EXISTS t_merge (\n" +
+            "    id INTEGER,\n" +
+            "    v TEXT\n" +
+            ") ON COMMIT DELETE ROWS";
+
+    private Path path;
+    private CSVFile file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.path = Files.createTempFile("test", ".csv");
+        Files.write(this.path, "1,a\n2,b\n".getBytes(StandardCharsets.UTF_8));
+        this.file = new CSVFile(this.path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(this.path);
+    }
+
+    @Test
+    public void test() throws IOException, SQLException, InterruptedException {
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final MergeLoader loader = new MergeLoader(TABLE);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement).times(4);
+        statement.close();
+        EasyMock.expectLastCall().times(4);
+        EasyMock.expect(statement.executeUpdate(CREATE_SQL)).andReturn(0);
+        connection.commit();
+        TestHelper.expectReaderCopy(connection, COPY_SQL, "1,a\n", 1);
+        EasyMock.expect(statement.executeUpdate(TABLE.upsertQuery("t_merge"))).andReturn(1);
+        connection.commit();
+        TestHelper.expectReaderCopy(connection, COPY_SQL, "2,b\n", 1);
+        EasyMock.expect(statement.executeUpdate(TABLE.upsertQuery("t_merge"))).andReturn(1);
+        connection.commit();
+        EasyMock.expect(statement.executeUpdate("ANALYZE t")).andReturn(0);
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final long rows = loader.merge(connection, this.file, 4);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(2, rows);
+    }
+
+    @Test
+    public void testMergeFails() throws IOException, SQLException {
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final MergeLoader loader = new MergeLoader(TABLE);
+        loader.setUseMerge(true);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        connection.setAutoCommit(false);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(connection.createStatement()).andReturn(statement).times(2);
+        EasyMock.expect(statement.executeUpdate(CREATE_SQL)).andReturn(0);
+        statement.close();
+        connection.commit();
+        TestHelper.expectReaderCopy(connection, COPY_SQL, "1,a\n2,b\n", 2);
+        EasyMock.expect(statement.executeUpdate(TABLE.mergeQuery("t_merge")))
+                .andThrow(new SQLException("MERGE command cannot affect row a second time"));
+        connection.rollback();
+
+        PowerMock.replayAll();
+        final SQLException e = Assert.assertThrows(SQLException.class,
+                () -> loader.merge(connection, this.file, 1024));
+
+        PowerMock.verifyAll();
+        Assert.assertEquals("MERGE command cannot affect row a second time", e.getMessage());
+    }
+}
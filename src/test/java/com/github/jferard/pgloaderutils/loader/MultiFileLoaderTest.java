@@ -0,0 +1,115 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.TestHelper;
+import com.github.jferard.pgloaderutils.metrics.LoadMetrics;
+import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.apache.commons.csv.CSVFormat;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.core.BaseConnection;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MultiFileLoaderTest {
+    private static final String COPY_SQL =
+            "COPY %s (a, b) FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')";
+
+    @Test
+    public void test() throws IOException, SQLException, InterruptedException {
+        final Table table1 = Table.create("t1", new Column("a", GeneralDataType.TEXT),
+                new Column("b", GeneralDataType.TEXT));
+        final Table table2 = Table.create("t2", new Column("a", GeneralDataType.TEXT),
+                new Column("b", GeneralDataType.TEXT));
+        final List<Path> paths = new ArrayList<>();
+        try {
+            final CSVFile file1 = this.createFile(paths, "a,b\nc,d\ne,f\n");
+            final CSVFile file2 = this.createFile(paths, "g,h\n");
+            final CSVFile file3 = this.createFile(paths, "i,j\nk,l\n");
+            final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+            final Statement statement = PowerMock.createMock(Statement.class);
+
+            PowerMock.resetAll();
+            EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+            connection.setAutoCommit(false);
+            EasyMock.expect(connection.createStatement()).andReturn(statement).times(4);
+            EasyMock.expect(statement.executeUpdate("TRUNCATE t1")).andReturn(0);
+            EasyMock.expect(statement.executeUpdate("TRUNCATE t2")).andReturn(0);
+            statement.close();
+            EasyMock.expectLastCall().times(4);
+            connection.commit();
+            // largest first: file1, file3, file2
+            TestHelper.expectCopy(connection, String.format(COPY_SQL, "t1"),
+                    "a,b\r\nc,d\r\ne,f\r\n", 3);
+            connection.commit();
+            TestHelper.expectCopy(connection, String.format(COPY_SQL, "t2"),
+                    "i,j\r\nk,l\r\n", 2);
+            connection.commit();
+            EasyMock.expect(statement.executeUpdate("ANALYZE t2")).andReturn(0);
+            connection.commit();
+            TestHelper.expectCopy(connection, String.format(COPY_SQL, "t1"), "g,h\r\n", 1);
+            connection.commit();
+            EasyMock.expect(statement.executeUpdate("ANALYZE t1")).andReturn(0);
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            PowerMock.replayAll();
+            final MultiFileLoader loader =
+                    new MultiFileLoader(Collections.<Connection>singletonList(connection));
+            final LoadMetrics metrics = loader.load(Arrays.asList(new LoadJob(file1, table1),
+                    new LoadJob(file2, table1), new LoadJob(file3, table2)), true);
+
+            PowerMock.verifyAll();
+            Assert.assertEquals(6, metrics.getRowsLoaded());
+            Assert.assertEquals(6, metrics.getRowsRead());
+            Assert.assertEquals(3, metrics.getBatchLatencies().getCount());
+        } finally {
+            for (final Path path : paths) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private CSVFile createFile(final List<Path> paths, final String data) throws IOException {
+        final Path path = Files.createTempFile("test", ".csv");
+        paths.add(path);
+        Files.write(path, data.getBytes(StandardCharsets.UTF_8));
+        return new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+    }
+}
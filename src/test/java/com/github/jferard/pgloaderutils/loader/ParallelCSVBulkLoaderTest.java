@@ -0,0 +1,231 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.TestHelper;
+import org.apache.commons.csv.CSVFormat;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Encoding;
+import org.postgresql.core.QueryExecutor;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ParallelCSVBulkLoaderTest {
+    private static final String COPY_SQL =
+            "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')";
+
+    @Test
+    public void test() throws IOException, SQLException, InterruptedException {
+        final Path path = Files.createTempFile("test", ".csv");
+        try {
+            Files.write(path, "a,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+            final ParallelCSVBulkLoader loader =
+                    new ParallelCSVBulkLoader(CSVBulkLoader.toTable("table"));
+
+            final BaseConnection connection1 = PowerMock.createMock(BaseConnection.class);
+            final BaseConnection connection2 = PowerMock.createMock(BaseConnection.class);
+            final Statement statement1 = PowerMock.createMock(Statement.class);
+            final Statement statement2 = PowerMock.createMock(Statement.class);
+
+            PowerMock.resetAll();
+            EasyMock.expect(connection1.getAutoCommit()).andReturn(true);
+            connection1.setAutoCommit(false);
+            EasyMock.expect(connection2.getAutoCommit()).andReturn(true);
+            connection2.setAutoCommit(false);
+            EasyMock.expect(connection1.createStatement()).andReturn(statement1);
+            EasyMock.expect(statement1.executeUpdate("DELETE FROM \"table\"")).andReturn(1);
+            statement1.close();
+            TestHelper.expectReaderCopy(connection1, COPY_SQL, "a,b\nc,d\n", 2);
+            TestHelper.expectReaderCopy(connection2, COPY_SQL, "e,f\n", 1);
+            connection1.commit();
+            connection2.commit();
+            EasyMock.expect(connection1.createStatement()).andReturn(statement2);
+            EasyMock.expect(statement2.executeUpdate("ANALYZE \"table\"")).andReturn(1);
+            statement2.close();
+            connection1.commit();
+            connection1.setAutoCommit(true);
+            connection2.setAutoCommit(true);
+
+            PowerMock.replayAll();
+            final List<CopyStats> stats =
+                    loader.populate(Arrays.<Connection>asList(connection1, connection2), file,
+                            true);
+
+            PowerMock.verifyAll();
+            Assert.assertEquals(2, stats.size());
+            Assert.assertEquals(0, stats.get(0).getWorker());
+            Assert.assertEquals(8, stats.get(0).getBytes());
+            Assert.assertEquals(2, stats.get(0).getRows());
+            Assert.assertEquals(4, stats.get(1).getBytes());
+            Assert.assertEquals(1, stats.get(1).getRows());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testFailedCopyKeepsOldData()
+            throws IOException, SQLException, InterruptedException {
+        final Path path = Files.createTempFile("test", ".csv");
+        try {
+            Files.write(path, "a,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+            final ParallelCSVBulkLoader loader =
+                    new ParallelCSVBulkLoader(CSVBulkLoader.toTable("table"));
+
+            final BaseConnection connection1 = PowerMock.createMock(BaseConnection.class);
+            final BaseConnection connection2 = PowerMock.createMock(BaseConnection.class);
+            final Statement statement1 = PowerMock.createMock(Statement.class);
+            final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+            final SQLException exception = new SQLException("bad value");
+
+            PowerMock.resetAll();
+            EasyMock.expect(connection1.getAutoCommit()).andReturn(true);
+            connection1.setAutoCommit(false);
+            EasyMock.expect(connection2.getAutoCommit()).andReturn(true);
+            connection2.setAutoCommit(false);
+            EasyMock.expect(connection1.createStatement()).andReturn(statement1);
+            EasyMock.expect(statement1.executeUpdate("DELETE FROM \"table\"")).andReturn(1);
+            statement1.close();
+            TestHelper.expectReaderCopy(connection1, COPY_SQL, "a,b\nc,d\n", 2);
+            EasyMock.expect(connection2.getEncoding()).andReturn(Encoding.defaultEncoding());
+            EasyMock.expect(connection2.getQueryExecutor()).andReturn(queryExecutor);
+            EasyMock.expect(connection2.getAutoCommit()).andReturn(false);
+            EasyMock.expect(queryExecutor.startCopy(COPY_SQL, false)).andThrow(exception);
+            connection1.rollback();
+            connection2.rollback();
+            connection1.setAutoCommit(true);
+            connection2.setAutoCommit(true);
+
+            PowerMock.replayAll();
+            try {
+                loader.populate(Arrays.<Connection>asList(connection1, connection2), file, true);
+                Assert.fail();
+            } catch (final SQLException e) {
+                Assert.assertSame(exception, e);
+            }
+
+            PowerMock.verifyAll();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testInterrupted() throws IOException, SQLException, InterruptedException {
+        final Path path = Files.createTempFile("test", ".csv");
+        try {
+            Files.write(path, "a,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+            final ParallelCSVBulkLoader loader =
+                    new ParallelCSVBulkLoader(CSVBulkLoader.toTable("table"));
+
+            final BaseConnection connection1 = PowerMock.createMock(BaseConnection.class);
+            final BaseConnection connection2 = PowerMock.createMock(BaseConnection.class);
+            final Statement statement1 = PowerMock.createMock(Statement.class);
+            final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+            final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+            final CountDownLatch copying = new CountDownLatch(2);
+            final byte[] bytes = "e,f\n".getBytes(StandardCharsets.UTF_8);
+
+            PowerMock.resetAll();
+            EasyMock.expect(connection1.getAutoCommit()).andReturn(true);
+            connection1.setAutoCommit(false);
+            EasyMock.expect(connection2.getAutoCommit()).andReturn(true);
+            connection2.setAutoCommit(false);
+            EasyMock.expect(connection1.createStatement()).andReturn(statement1);
+            EasyMock.expect(statement1.executeUpdate("DELETE FROM \"table\"")).andReturn(1);
+            statement1.close();
+            final QueryExecutor queryExecutor1 = PowerMock.createMock(QueryExecutor.class);
+            final CopyIn copyOp1 = PowerMock.createMock(CopyIn.class);
+            final byte[] bytes1 = "a,b\nc,d\n".getBytes(StandardCharsets.UTF_8);
+            EasyMock.expect(connection1.getEncoding()).andReturn(Encoding.defaultEncoding());
+            EasyMock.expect(connection1.getQueryExecutor()).andReturn(queryExecutor1);
+            EasyMock.expect(connection1.getAutoCommit()).andReturn(false);
+            EasyMock.expect(queryExecutor1.startCopy(COPY_SQL, false)).andReturn(copyOp1);
+            copyOp1.writeToCopy(EasyMock.aryEq(bytes1), EasyMock.eq(0),
+                    EasyMock.eq(bytes1.length));
+            EasyMock.expect(copyOp1.endCopy()).andReturn(2L);
+            EasyMock.expect(copyOp1.isActive()).andAnswer(() -> {
+                copying.countDown();
+                return false;
+            });
+            EasyMock.expect(connection2.getEncoding()).andReturn(Encoding.defaultEncoding());
+            EasyMock.expect(connection2.getQueryExecutor()).andReturn(queryExecutor);
+            EasyMock.expect(connection2.getAutoCommit()).andReturn(false);
+            EasyMock.expect(queryExecutor.startCopy(COPY_SQL, false)).andReturn(copyOp);
+            copyOp.writeToCopy(EasyMock.aryEq(bytes), EasyMock.eq(0),
+                    EasyMock.eq(bytes.length));
+            EasyMock.expectLastCall().andAnswer(() -> {
+                copying.countDown();
+                try {
+                    new CountDownLatch(1).await(); // until the worker is interrupted
+                } catch (final InterruptedException e) {
+                    throw new SQLException("interrupted");
+                }
+                return null;
+            });
+            connection1.rollback();
+            connection2.rollback();
+            connection1.setAutoCommit(true);
+            connection2.setAutoCommit(true);
+
+            PowerMock.replayAll();
+            final AtomicReference<Throwable> thrown = new AtomicReference<>();
+            final Thread thread = new Thread(() -> {
+                try {
+                    loader.populate(Arrays.<Connection>asList(connection1, connection2), file,
+                            true);
+                } catch (final Throwable e) {
+                    thrown.set(e);
+                }
+            });
+            thread.start();
+            copying.await();
+            thread.interrupt();
+            thread.join();
+
+            PowerMock.verifyAll();
+            Assert.assertTrue(thrown.get() instanceof InterruptedException);
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
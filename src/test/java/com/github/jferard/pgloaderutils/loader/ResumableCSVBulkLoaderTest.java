@@ -0,0 +1,182 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.TestHelper;
+import org.apache.commons.csv.CSVFormat;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.core.BaseConnection;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class ResumableCSVBulkLoaderTest {
+    private static final String COPY_SQL =
+            "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')";
+
+    private Path path;
+    private CSVFile file;
+    private String fingerprint;
+    private BaseConnection connection;
+    private Statement statement;
+    private PreparedStatement select;
+    private ResultSet resultSet;
+    private PreparedStatement insert;
+    private PreparedStatement delete;
+
+    @Before
+    public void setUp() throws IOException {
+        this.path = Files.createTempFile("test", ".csv");
+        Files.write(this.path, "a,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+        this.file = new CSVFile(this.path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+        this.fingerprint = Checkpoint.fingerprint(this.path);
+        this.connection = PowerMock.createMock(BaseConnection.class);
+        this.statement = PowerMock.createMock(Statement.class);
+        this.select = PowerMock.createMock(PreparedStatement.class);
+        this.resultSet = PowerMock.createMock(ResultSet.class);
+        this.insert = PowerMock.createMock(PreparedStatement.class);
+        this.delete = PowerMock.createMock(PreparedStatement.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(this.path);
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        Assert.assertTrue(this.fingerprint.startsWith("12:"));
+        Files.write(this.path, "a,b\nc,d\ne,g\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNotEquals(this.fingerprint, Checkpoint.fingerprint(this.path));
+    }
+
+    @Test
+    public void test() throws IOException, SQLException, InterruptedException {
+        final ResumableCSVBulkLoader loader =
+                new ResumableCSVBulkLoader(CSVBulkLoader.toTable("table"), 8);
+
+        PowerMock.resetAll();
+        this.expectStart();
+        EasyMock.expect(this.resultSet.next()).andReturn(false);
+        this.expectEndSelect();
+        EasyMock.expect(this.connection.createStatement()).andReturn(this.statement);
+        EasyMock.expect(this.statement.executeUpdate("TRUNCATE \"table\"")).andReturn(0);
+        this.statement.close();
+        TestHelper.expectReaderCopy(this.connection, COPY_SQL, "a,b\nc,d\n", 2);
+        this.expectCheckpoint(8, 2);
+        TestHelper.expectReaderCopy(this.connection, COPY_SQL, "e,f\n", 1);
+        this.expectCheckpoint(12, 3);
+        this.expectEnd();
+
+        PowerMock.replayAll();
+        final Checkpoint checkpoint = loader.populate(this.connection, this.file, true);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(12, checkpoint.getOffset());
+        Assert.assertEquals(3, checkpoint.getRecordNumber());
+    }
+
+    @Test
+    public void testResume() throws IOException, SQLException, InterruptedException {
+        final ResumableCSVBulkLoader loader =
+                new ResumableCSVBulkLoader(CSVBulkLoader.toTable("table"), 4);
+
+        PowerMock.resetAll();
+        this.expectStart();
+        EasyMock.expect(this.resultSet.next()).andReturn(true);
+        EasyMock.expect(this.resultSet.getString(1)).andReturn(this.fingerprint);
+        EasyMock.expect(this.resultSet.getLong(2)).andReturn(4L);
+        EasyMock.expect(this.resultSet.getLong(3)).andReturn(1L);
+        this.expectEndSelect();
+        TestHelper.expectReaderCopy(this.connection, COPY_SQL, "c,d\n", 1);
+        this.expectCheckpoint(8, 2);
+        TestHelper.expectReaderCopy(this.connection, COPY_SQL, "e,f\n", 1);
+        this.expectCheckpoint(12, 3);
+        this.expectEnd();
+
+        PowerMock.replayAll();
+        final Checkpoint checkpoint = loader.populate(this.connection, this.file, true);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(3, checkpoint.getRecordNumber());
+    }
+
+    private void expectStart() throws SQLException {
+        EasyMock.expect(this.connection.getAutoCommit()).andReturn(true);
+        this.connection.setAutoCommit(false);
+        EasyMock.expect(this.connection.createStatement()).andReturn(this.statement);
+        EasyMock.expect(this.statement.executeUpdate(
+                EasyMock.startsWith("CREATE TABLE IF NOT EXISTS pgloaderutils_checkpoint ")))
+                .andReturn(0);
+        this.statement.close();
+        this.connection.commit();
+        EasyMock.expect(this.connection.prepareStatement(EasyMock.startsWith("SELECT")))
+                .andReturn(this.select);
+        this.select.setString(1, "\"table\"");
+        EasyMock.expect(this.select.executeQuery()).andReturn(this.resultSet);
+    }
+
+    private void expectEndSelect() throws SQLException {
+        this.resultSet.close();
+        this.select.close();
+    }
+
+    private void expectCheckpoint(final long offset, final long recordNumber)
+            throws SQLException {
+        EasyMock.expect(this.connection.prepareStatement(EasyMock.startsWith("INSERT")))
+                .andReturn(this.insert);
+        this.insert.setString(1, "\"table\"");
+        this.insert.setString(2, this.fingerprint);
+        this.insert.setLong(3, offset);
+        this.insert.setLong(4, recordNumber);
+        EasyMock.expect(this.insert.executeUpdate()).andReturn(1);
+        this.insert.close();
+        this.connection.commit();
+    }
+
+    private void expectEnd() throws SQLException {
+        EasyMock.expect(this.connection.createStatement()).andReturn(this.statement);
+        EasyMock.expect(this.statement.executeUpdate("ANALYZE \"table\"")).andReturn(0);
+        this.statement.close();
+        EasyMock.expect(this.connection.prepareStatement(
+                "DELETE FROM pgloaderutils_checkpoint WHERE table_name = ?"))
+                .andReturn(this.delete);
+        this.delete.setString(1, "\"table\"");
+        EasyMock.expect(this.delete.executeUpdate()).andReturn(1);
+        this.delete.close();
+        this.connection.commit();
+        this.connection.setAutoCommit(true);
+    }
+}
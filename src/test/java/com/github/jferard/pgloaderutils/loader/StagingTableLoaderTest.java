@@ -0,0 +1,138 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.TestHelper;
+import com.github.jferard.pgloaderutils.sql.Column;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import com.github.jferard.pgloaderutils.sql.IndexMethod;
+import com.github.jferard.pgloaderutils.sql.SimpleIndex;
+import com.github.jferard.pgloaderutils.sql.Table;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.core.BaseConnection;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+public class StagingTableLoaderTest {
+    private static final String DATA = "1\r\n2\r\n";
+    private static final String COPY_SQL =
+            "COPY t_staging (a) FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')";
+    private static final Column COLUMN = new Column("a", GeneralDataType.INTEGER);
+    private static final Table TABLE = Table.create("t", COLUMN);
+
+    @Test
+    public void test() throws IOException, SQLException, InterruptedException {
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final StagingTableLoader loader = this.createLoader(connection);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement).times(5);
+        statement.close();
+        EasyMock.expectLastCall().times(5);
+        EasyMock.expect(statement.executeUpdate("DROP TABLE IF EXISTS t_staging")).andReturn(0);
+        EasyMock.expect(statement.executeUpdate("CREATE UNLOGGED TABLE t_staging (\n" +
+                "    a INTEGER\n" +
+                ")")).andReturn(0);
+        connection.commit();
+        TestHelper.expectCopy(connection, COPY_SQL, DATA, 2);
+        connection.commit();
+        // logged
+        EasyMock.expect(statement.executeUpdate("ALTER TABLE t_staging SET LOGGED"))
+                .andReturn(0);
+        connection.commit();
+        // indexes, analyze
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        EasyMock.expect(statement.execute(
+                "CREATE INDEX t_a_idx_staging ON t_staging USING btree(a)")).andReturn(false);
+        connection.commit();
+        EasyMock.expect(statement.executeUpdate("ANALYZE t_staging")).andReturn(0);
+        connection.commit();
+        // swap
+        EasyMock.expect(statement.executeUpdate("ALTER TABLE IF EXISTS t RENAME TO t_old"))
+                .andReturn(0);
+        EasyMock.expect(statement.executeUpdate("ALTER TABLE IF EXISTS t_staging RENAME TO t"))
+                .andReturn(0);
+        EasyMock.expect(statement.executeUpdate("DROP TABLE IF EXISTS t_old")).andReturn(0);
+        EasyMock.expect(statement.executeUpdate("ALTER INDEX t_a_idx_staging RENAME TO t_a_idx"))
+                .andReturn(0);
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final long rows = loader.populate(connection, this.producer());
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(2, rows);
+    }
+
+    @Test
+    public void testCopyFails() throws SQLException {
+        final BaseConnection connection = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final StagingTableLoader loader = this.createLoader(connection);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(false);
+        connection.setAutoCommit(false);
+        EasyMock.expect(connection.createStatement()).andReturn(statement).times(2);
+        statement.close();
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(statement.executeUpdate("DROP TABLE IF EXISTS t_staging")).andReturn(0)
+                .times(2);
+        EasyMock.expect(statement.executeUpdate("CREATE UNLOGGED TABLE t_staging (\n" +
+                "    a INTEGER\n" +
+                ")")).andReturn(0);
+        connection.commit();
+        TestHelper.expectCopy(connection, COPY_SQL, DATA, -1);
+        connection.rollback();
+        connection.commit();
+        connection.setAutoCommit(false);
+
+        PowerMock.replayAll();
+        final SQLException e = Assert.assertThrows(SQLException.class,
+                () -> loader.populate(connection, this.producer()));
+
+        PowerMock.verifyAll();
+        Assert.assertEquals("invalid input syntax", e.getMessage());
+    }
+
+    private StagingTableLoader createLoader(final Connection connection) {
+        return new StagingTableLoader(TABLE,
+                Collections.singletonList(SimpleIndex.create(IndexMethod.BTREE, TABLE, COLUMN)),
+                Collections.singletonList(connection));
+    }
+
+    private CopyDataProducer producer() {
+        return (out, charset) -> out.write(DATA.getBytes(charset));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class StreamCopyDataProducerTest {
+    @Test
+    public void testWriteTo() throws IOException {
+        final byte[] bytes = "foo,bar\nbaz,qux".getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StreamCopyDataProducer(new ByteArrayInputStream(bytes), 4).writeTo(out,
+                StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(bytes, out.toByteArray());
+    }
+
+    @Test
+    public void testWriteToBOM() throws IOException {
+        final byte[] bytes = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'a', ',', 'b'};
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StreamCopyDataProducer(new ByteArrayInputStream(bytes), 2).writeTo(out,
+                StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(new byte[]{'a', ',', 'b'}, out.toByteArray());
+    }
+
+    @Test
+    public void testWriteToEmpty() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StreamCopyDataProducer(new ByteArrayInputStream(new byte[0]), 2).writeTo(out,
+                StandardCharsets.UTF_8);
+        Assert.assertEquals(0, out.size());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.loader;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import com.github.jferard.pgloaderutils.TestHelper;
+import org.apache.commons.csv.CSVFormat;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Encoding;
+import org.postgresql.core.QueryExecutor;
+import org.powermock.api.easymock.PowerMock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TwoPhaseCSVBulkLoaderTest {
+    private static final String UUID_REGEX = "[0-9a-f-]{36}";
+    private static final String COPY_SQL =
+            "COPY \"table\" FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"')";
+
+    private Path path;
+    private CSVFile file;
+    private TwoPhaseCSVBulkLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        this.path = Files.createTempFile("test", ".csv");
+        Files.write(this.path, "a,b\nc,d\ne,f\n".getBytes(StandardCharsets.UTF_8));
+        this.file = new CSVFile(this.path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+        this.loader = new TwoPhaseCSVBulkLoader(CSVBulkLoader.toTable("table"), "load");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(this.path);
+    }
+
+    @Test
+    public void test() throws IOException, SQLException, InterruptedException {
+        final BaseConnection connection1 = PowerMock.createMock(BaseConnection.class);
+        final BaseConnection connection2 = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection1.getAutoCommit()).andReturn(true);
+        connection1.setAutoCommit(false);
+        EasyMock.expect(connection2.getAutoCommit()).andReturn(true);
+        connection2.setAutoCommit(false);
+        EasyMock.expect(connection1.createStatement()).andReturn(statement).times(5);
+        EasyMock.expect(connection2.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeUpdate("DELETE FROM \"table\"")).andReturn(3);
+        TestHelper.expectReaderCopy(connection1, COPY_SQL, "a,b\nc,d\n", 2);
+        TestHelper.expectReaderCopy(connection2, COPY_SQL, "e,f\n", 1);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "PREPARE TRANSACTION 'load_" + UUID_REGEX + "_0'"))).andReturn(0);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "PREPARE TRANSACTION 'load_" + UUID_REGEX + "_1'"))).andReturn(0);
+        connection1.setAutoCommit(true);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "COMMIT PREPARED 'load_" + UUID_REGEX + "_0'"))).andReturn(0);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "COMMIT PREPARED 'load_" + UUID_REGEX + "_1'"))).andReturn(0);
+        EasyMock.expect(statement.executeUpdate("ANALYZE \"table\"")).andReturn(0);
+        statement.close();
+        EasyMock.expectLastCall().times(6);
+        connection2.setAutoCommit(true);
+
+        PowerMock.replayAll();
+        final List<CopyStats> stats = this.loader.populate(
+                Arrays.<Connection>asList(connection1, connection2), this.file, true);
+
+        PowerMock.verifyAll();
+        Assert.assertEquals(2, stats.size());
+        Assert.assertEquals(2, stats.get(0).getRows());
+        Assert.assertEquals(1, stats.get(1).getRows());
+    }
+
+    @Test
+    public void testWorkerFails() throws IOException, SQLException, InterruptedException {
+        final BaseConnection connection1 = PowerMock.createMock(BaseConnection.class);
+        final BaseConnection connection2 = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection1.getAutoCommit()).andReturn(false);
+        connection1.setAutoCommit(false);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(connection2.getAutoCommit()).andReturn(false);
+        connection2.setAutoCommit(false);
+        EasyMock.expectLastCall().times(2);
+        TestHelper.expectReaderCopy(connection1, COPY_SQL, "a,b\nc,d\n", 2);
+        TestHelper.expectReaderCopy(connection2, COPY_SQL, "e,f\n", -1);
+        EasyMock.expect(connection1.createStatement()).andReturn(statement).times(2);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "PREPARE TRANSACTION 'load_" + UUID_REGEX + "_0'"))).andReturn(0);
+        connection2.rollback();
+        connection1.setAutoCommit(true);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "ROLLBACK PREPARED 'load_" + UUID_REGEX + "_0'"))).andReturn(0);
+        statement.close();
+        EasyMock.expectLastCall().times(2);
+
+        PowerMock.replayAll();
+        try {
+            this.loader.populate(Arrays.<Connection>asList(connection1, connection2), this.file,
+                    false);
+            Assert.fail();
+        } catch (final SQLException e) {
+            Assert.assertEquals("invalid input syntax", e.getMessage());
+        }
+
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testInterrupted() throws SQLException, InterruptedException {
+        final BaseConnection connection1 = PowerMock.createMock(BaseConnection.class);
+        final BaseConnection connection2 = PowerMock.createMock(BaseConnection.class);
+        final Statement statement = PowerMock.createMock(Statement.class);
+        final QueryExecutor queryExecutor = PowerMock.createMock(QueryExecutor.class);
+        final CopyIn copyOp = PowerMock.createMock(CopyIn.class);
+        final CountDownLatch copying = new CountDownLatch(1);
+        final CountDownLatch prepared = new CountDownLatch(1);
+        final byte[] bytes = "e,f\n".getBytes(StandardCharsets.UTF_8);
+
+        PowerMock.resetAll();
+        EasyMock.expect(connection1.getAutoCommit()).andReturn(false);
+        connection1.setAutoCommit(false);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(connection2.getAutoCommit()).andReturn(false);
+        connection2.setAutoCommit(false);
+        EasyMock.expectLastCall().times(2);
+        TestHelper.expectReaderCopy(connection1, COPY_SQL, "a,b\nc,d\n", 2);
+        EasyMock.expect(connection2.getEncoding()).andReturn(Encoding.defaultEncoding());
+        EasyMock.expect(connection2.getQueryExecutor()).andReturn(queryExecutor);
+        EasyMock.expect(connection2.getAutoCommit()).andReturn(false);
+        EasyMock.expect(queryExecutor.startCopy(COPY_SQL, false)).andReturn(copyOp);
+        copyOp.writeToCopy(EasyMock.aryEq(bytes), EasyMock.eq(0), EasyMock.eq(bytes.length));
+        EasyMock.expectLastCall().andAnswer(() -> {
+            copying.countDown();
+            try {
+                new CountDownLatch(1).await(); // until the worker is interrupted
+            } catch (final InterruptedException e) {
+                throw new SQLException("interrupted");
+            }
+            return null;
+        });
+        EasyMock.expect(connection1.createStatement()).andReturn(statement).times(2);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "PREPARE TRANSACTION 'load_" + UUID_REGEX + "_0'"))).andAnswer(() -> {
+                    prepared.countDown();
+                    return 0;
+                });
+        connection2.rollback();
+        connection1.setAutoCommit(true);
+        EasyMock.expect(statement.executeUpdate(EasyMock.matches(
+                "ROLLBACK PREPARED 'load_" + UUID_REGEX + "_0'"))).andReturn(0);
+        statement.close();
+        EasyMock.expectLastCall().times(2);
+
+        PowerMock.replayAll();
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                this.loader.populate(Arrays.<Connection>asList(connection1, connection2),
+                        this.file, false);
+            } catch (final Throwable e) {
+                thrown.set(e);
+            }
+        });
+        thread.start();
+        copying.await();
+        prepared.await();
+        thread.interrupt();
+        thread.join();
+
+        PowerMock.verifyAll();
+        Assert.assertTrue(thrown.get() instanceof InterruptedException);
+    }
+}
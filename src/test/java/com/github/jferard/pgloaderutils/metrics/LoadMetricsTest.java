@@ -0,0 +1,88 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadMetricsTest {
+    @Test
+    public void testRates() {
+        final long[] now = {1000L};
+        final LoadMetrics metrics = new LoadMetrics(() -> now[0]);
+        metrics.rowsRead(100, 2000);
+        now[0] += 2_000_000_000L;
+        Assert.assertEquals(50.0, metrics.getRowsPerSecond(), 1e-9);
+        Assert.assertEquals(1000.0, metrics.getBytesPerSecond(), 1e-9);
+
+        metrics.batchExecuted(80, 1000);
+        metrics.bytesSent(4000);
+        Assert.assertEquals(40.0, metrics.getRowsPerSecond(), 1e-9);
+        Assert.assertEquals(2000.0, metrics.getBytesPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void testClientRatio() {
+        final LoadMetrics metrics = new LoadMetrics();
+        Assert.assertEquals(0.0, metrics.getClientRatio(), 1e-9);
+        metrics.stageTime(LoadStage.PARSE, 30);
+        metrics.stageTime(LoadStage.CONVERT, 45);
+        metrics.stageTime(LoadStage.WRITE, 20);
+        metrics.stageTime(LoadStage.EXECUTE, 5);
+        Assert.assertEquals(0.75, metrics.getClientRatio(), 1e-9);
+        Assert.assertEquals(20, metrics.getStageNanos(LoadStage.WRITE));
+    }
+
+    @Test
+    public void testHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentileNanos(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(50500.0, histogram.getMeanNanos(), 1e-9);
+        Assert.assertEquals(100000, histogram.getMaxNanos());
+        final long p50 = histogram.getPercentileNanos(50);
+        Assert.assertTrue(p50 >= 50000 && p50 < 2 * 50000);
+        Assert.assertEquals(100000, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testRecorder() {
+        final LoadMetrics metrics = new LoadMetrics();
+        final LoadRecorder recorder = new LoadRecorder(metrics);
+        for (int i = 0; i < LoadRecorder.REPORT_ROWS; i++) {
+            recorder.chars(10);
+            recorder.row();
+        }
+        Assert.assertEquals(LoadRecorder.REPORT_ROWS, metrics.getRowsRead());
+        recorder.row();
+        recorder.rejected();
+        Assert.assertEquals(LoadRecorder.REPORT_ROWS, metrics.getRowsRead());
+        recorder.report();
+        Assert.assertEquals(LoadRecorder.REPORT_ROWS + 1, metrics.getRowsRead());
+        Assert.assertEquals(10L * LoadRecorder.REPORT_ROWS, metrics.getChars());
+        Assert.assertEquals(1, metrics.getRejectedRows());
+    }
+}
@@ -22,6 +22,7 @@
 
 package com.github.jferard.pgloaderutils.provider;
 
+import com.github.jferard.pgloaderutils.sql.DefaultTypedValueConverter;
 import com.github.jferard.pgloaderutils.sql.GeneralDataType;
 import org.apache.commons.csv.CSVRecord;
 import org.easymock.EasyMock;
@@ -31,6 +32,8 @@ import org.powermock.api.easymock.PowerMock;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.math.BigDecimal;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
@@ -176,4 +179,61 @@ public class CSVRowsProviderTest {
                 Arrays.asList(GeneralDataType.INTEGER, GeneralDataType.TEXT));
         PowerMock.verifyAll();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTypedConverter() throws SQLException {
+        final CSVRecord rec1 = PowerMock.createMock(CSVRecord.class);
+        final PreparedStatement preparedStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(rec1.size()).andReturn(5).anyTimes();
+        EasyMock.expect(rec1.get(0)).andReturn("1");
+        EasyMock.expect(rec1.get(1)).andReturn("");
+        EasyMock.expect(rec1.get(2)).andReturn("2.5");
+        EasyMock.expect(rec1.get(3)).andReturn("2020-01-02");
+        EasyMock.expect(rec1.get(4)).andReturn("foo");
+        preparedStatement.setObject(1, "source", Types.VARCHAR);
+        preparedStatement.setInt(2, 1);
+        preparedStatement.setNull(3, Types.INTEGER);
+        preparedStatement.setBigDecimal(4, new BigDecimal("2.5"));
+        preparedStatement.setDate(5, Date.valueOf("2020-01-02"));
+        preparedStatement.setString(6, "foo");
+
+        PowerMock.replayAll();
+        final CSVRowsProvider provider = CSVRowsProvider.create(
+                Collections.singletonList(rec1).iterator(), Collections.singletonList("source"),
+                new DefaultTypedValueConverter(), i -> true);
+        provider.setStatementParameters(preparedStatement,
+                Arrays.asList(GeneralDataType.TEXT, GeneralDataType.INTEGER,
+                        GeneralDataType.INTEGER, GeneralDataType.NUMERIC, GeneralDataType.DATE,
+                        GeneralDataType.TEXT));
+        PowerMock.verifyAll();
+    }
+
+    @Test
+    public void testNextRow() throws SQLException {
+        final CSVRecord rec1 = PowerMock.createMock(CSVRecord.class);
+        final PreparedStatement preparedStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(rec1.size()).andReturn(1).anyTimes();
+        EasyMock.expect(rec1.get(0)).andReturn("1");
+        preparedStatement.setObject(4, "source", Types.VARCHAR);
+        preparedStatement.setInt(5, 1);
+        preparedStatement.setNull(6, Types.VARCHAR);
+        preparedStatement.setObject(1, "source", Types.VARCHAR);
+        preparedStatement.setInt(2, 1);
+        preparedStatement.setNull(3, Types.VARCHAR);
+
+        PowerMock.replayAll();
+        final CSVRowsProvider provider = CSVRowsProvider.create(
+                Collections.singletonList(rec1).iterator(), Collections.singletonList("source"),
+                new DefaultTypedValueConverter(), i -> true);
+        final BindableRow row = provider.nextRow(
+                Arrays.asList(GeneralDataType.TEXT, GeneralDataType.INTEGER,
+                        GeneralDataType.TEXT));
+        row.bind(preparedStatement, 4);
+        row.bind(preparedStatement, 1);
+        PowerMock.verifyAll();
+    }
+}
@@ -98,4 +98,25 @@ public class CSVSimpleRowsProviderTest {
                 Arrays.asList(GeneralDataType.INTEGER, GeneralDataType.TEXT));
         PowerMock.verifyAll();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNextRow() throws SQLException {
+        final CSVRecord rec1 = PowerMock.createMock(CSVRecord.class);
+        final PreparedStatement preparedStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        EasyMock.expect(rec1.size()).andReturn(3);
+        EasyMock.expect(rec1.get(0)).andReturn("foo");
+        EasyMock.expect(rec1.get(1)).andReturn("bar");
+        preparedStatement.setObject(3, "foo", 12);
+        preparedStatement.setObject(4, "bar", 12);
+
+        PowerMock.replayAll();
+        final SimpleCSVRowsProvider provider = new SimpleCSVRowsProvider(
+                Collections.singletonList(rec1).iterator(), Collections.emptyList(),
+                (value, type) -> value);
+        provider.nextRow(Arrays.asList(GeneralDataType.TEXT, GeneralDataType.TEXT))
+                .bind(preparedStatement, 3);
+        PowerMock.verifyAll();
+    }
+}
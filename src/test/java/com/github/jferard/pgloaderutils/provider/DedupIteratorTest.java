@@ -0,0 +1,98 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import com.github.jferard.pgloaderutils.CSVFile;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DedupIteratorTest {
+    private static final String DATA = "1,a,x\n2,b,y\n1,a,z\n3,b,t\n2,b,u\n";
+
+    @Test
+    public void testKeepFirst() throws IOException {
+        final CSVParser parser = CSVFormat.DEFAULT.parse(new StringReader(DATA));
+        final DedupIterator iterator =
+                DedupIterator.keepFirst(parser.iterator(), new int[]{0, 1}, 1024 * 1024);
+        Assert.assertEquals(Arrays.asList("x", "y", "t"), this.thirdFields(iterator));
+        Assert.assertEquals(2, iterator.getDuplicates());
+        iterator.close();
+    }
+
+    @Test
+    public void testKeepLast() throws IOException {
+        final Path path = Files.createTempFile("test", ".csv");
+        try {
+            Files.write(path, DATA.getBytes(StandardCharsets.UTF_8));
+            final CSVFile file = new CSVFile(path, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+            final DedupIterator iterator = DedupIterator.create(file, new int[]{0, 1},
+                    DedupMode.KEEP_LAST, DedupIterator.DEFAULT_MEMORY_BUDGET);
+            Assert.assertEquals(Arrays.asList("z", "t", "u"), this.thirdFields(iterator));
+            Assert.assertEquals(2, iterator.getDuplicates());
+            iterator.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        final Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+        final KeyHashTable table = new KeyHashTable(64 * 1024, directory);
+        Assert.assertFalse(table.isSpilled());
+        for (long i = 0; i < 10000; i++) {
+            Assert.assertEquals(KeyHashTable.MISSING, table.putIfAbsent(i, -i, i));
+        }
+        Assert.assertTrue(table.isSpilled());
+        Assert.assertEquals(10000, table.size());
+        Assert.assertEquals(5, table.putIfAbsent(5, -5, 42));
+        Assert.assertEquals(5, table.put(5, -5, 42));
+        Assert.assertEquals(42, table.get(5, -5));
+        Assert.assertEquals(0, table.get(0, 0));
+        Assert.assertEquals(KeyHashTable.MISSING, table.get(5, 5));
+        table.close();
+        Assert.assertFalse(table.isSpilled());
+    }
+
+    private List<String> thirdFields(final DedupIterator iterator) {
+        final List<String> fields = new ArrayList<>();
+        while (iterator.hasNext()) {
+            final CSVRecord record = iterator.next();
+            fields.add(record.get(2));
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.provider;
+
+import com.github.jferard.pgloaderutils.sql.DataType;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Assert;
+import org.junit.Test;
+import org.powermock.api.easymock.PowerMock;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+public class RowsProviderTest {
+    private static final List<DataType> TYPES =
+            Arrays.asList(GeneralDataType.INTEGER, GeneralDataType.TEXT);
+
+    @Test
+    public void testDefaultNextValues() {
+        final RowsProvider provider = new BindOnlyProvider();
+        Assert.assertEquals(Arrays.asList(1, null), provider.nextValues(TYPES));
+        Assert.assertEquals(Arrays.asList(2, null), provider.nextValues(TYPES));
+    }
+
+    @Test
+    public void testDefaultNextRow() throws SQLException {
+        final PreparedStatement preparedStatement = PowerMock.createMock(PreparedStatement.class);
+
+        PowerMock.resetAll();
+        preparedStatement.setInt(3, 1);
+        preparedStatement.setNull(4, Types.VARCHAR);
+        preparedStatement.setInt(1, 1);
+        preparedStatement.setNull(2, Types.VARCHAR);
+
+        PowerMock.replayAll();
+        final BindableRow row = new BindOnlyProvider().nextRow(TYPES);
+        row.bind(preparedStatement, 3);
+        row.bind(preparedStatement, 1);
+        PowerMock.verifyAll();
+    }
+
+    private static class BindOnlyProvider implements RowsProvider {
+        private int i = 0;
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public void setStatementParameters(final PreparedStatement preparedStatement,
+                                           final List<DataType> types) throws SQLException {
+            this.i++;
+            preparedStatement.setInt(1, this.i);
+            preparedStatement.setNull(2, Types.VARCHAR);
+        }
+
+        @Override
+        public CSVRecord getCurRecord() {
+            return null;
+        }
+    }
+}
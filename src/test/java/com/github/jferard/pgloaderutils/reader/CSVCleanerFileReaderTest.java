@@ -30,6 +30,8 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -75,4 +77,46 @@ public class CSVCleanerFileReaderTest {
                 "1.0,2,3\r\n", TestHelper.readAll(r));
         r.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testForWriter() throws IOException {
+        final CSVProcessorFileReader r = CSVProcessorFileReader.forWriter(
+                CSVFormat.RFC4180.parse(new StringReader("a,b,c\n1,2,3")), record -> record);
+        final StringWriter writer = new StringWriter();
+        r.writeTo(writer);
+        Assert.assertEquals("a,b,c\r\n1,2,3\r\n", writer.toString());
+        Assert.assertThrows(IllegalStateException.class, r::open);
+        r.close();
+    }
+
+    @Test
+    public void testBrokenWriter() throws IOException {
+        final CSVProcessorFileReader r =
+                CSVProcessorFileReader.fromReader(
+                        new StringReader("a,b,c\n1,2,3"), CSVFormat.RFC4180, record -> record);
+        final IOException exception = new IOException("Pipe closed");
+        final Writer writer = new Writer() {
+            @Override
+            public void write(final char[] cbuf, final int off, final int len)
+                    throws IOException {
+                throw exception;
+            }
+
+            @Override
+            public void flush() {
+                Assert.fail();
+            }
+
+            @Override
+            public void close() {
+                Assert.fail();
+            }
+        };
+        try {
+            r.writeTo(writer);
+            Assert.fail();
+        } catch (final IOException e) {
+            Assert.assertSame(exception, e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.jferard.pgloaderutils.reader;
+
+import com.github.jferard.pgloaderutils.TestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+public class ChunkedPipeTest {
+    @Test
+    public void testSameThread() throws IOException {
+        final ChunkedPipe pipe = new ChunkedPipe(4, 3);
+        final Writer writer = pipe.getWriter();
+        final Reader reader = pipe.getReader();
+        writer.write("abcdef");
+        writer.write('g');
+        writer.close();
+        Assert.assertEquals('a', reader.read());
+        final char[] cbuf = new char[10];
+        Assert.assertEquals(6, reader.read(cbuf, 0, 10));
+        Assert.assertEquals("bcdefg", new String(cbuf, 0, 6));
+        Assert.assertEquals(-1, reader.read(cbuf, 0, 10));
+        Assert.assertEquals(-1, reader.read());
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        final ChunkedPipe pipe = new ChunkedPipe(16, 2);
+        final Writer writer = pipe.getWriter();
+        final Reader reader = pipe.getReader();
+        writer.write("ab");
+        Assert.assertFalse(reader.ready());
+        writer.flush();
+        Assert.assertTrue(reader.ready());
+        final char[] cbuf = new char[10];
+        Assert.assertEquals(2, reader.read(cbuf, 0, 10));
+    }
+
+    @Test
+    public void testThreads() throws IOException, InterruptedException {
+        final ChunkedPipe pipe = new ChunkedPipe(7, 2);
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            expected.append(i).append(',');
+        }
+        final Thread thread = new Thread(() -> {
+            try (final Writer writer = pipe.getWriter()) {
+                for (int i = 0; i < 10000; i++) {
+                    writer.write(String.valueOf(i));
+                    writer.write(',');
+                }
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        final String actual = TestHelper.readAll(pipe.getReader());
+        thread.join();
+        Assert.assertEquals(expected.toString(), actual);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReaderClosed() throws IOException {
+        final ChunkedPipe pipe = new ChunkedPipe(2, 1);
+        final Writer writer = pipe.getWriter();
+        pipe.getReader().close();
+        writer.write("abcdef");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongSize() {
+        new ChunkedPipe(0, 1);
+    }
+}
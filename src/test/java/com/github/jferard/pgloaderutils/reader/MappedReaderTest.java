@@ -0,0 +1,122 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.reader;
+
+import com.github.jferard.pgloaderutils.TestHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MappedReaderTest {
+    private static final String TEXT = "a,é,€\n😀,b\n";
+
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        this.path = Files.createTempFile("test", ".csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(this.path);
+    }
+
+    @Test
+    public void testUTF8SmallWindows() throws IOException {
+        // every multi-byte sequence is split by a window end at least once
+        for (int windowSize = 4; windowSize < 10; windowSize++) {
+            Assert.assertEquals(TEXT, this.read(TEXT, StandardCharsets.UTF_8, windowSize));
+        }
+    }
+
+    @Test
+    public void testUTF8OneCharAtATime() throws IOException {
+        Files.write(this.path, TEXT.getBytes(StandardCharsets.UTF_8));
+        final MappedReader reader = this.open(StandardCharsets.UTF_8, 5);
+        final StringBuilder sb = new StringBuilder();
+        final char[] buffer = new char[1];
+        while (reader.read(buffer, 0, 1) != -1) {
+            sb.append(buffer[0]);
+        }
+        reader.close();
+        Assert.assertEquals(TEXT, sb.toString());
+    }
+
+    @Test
+    public void testUTF8Malformed() throws IOException {
+        Files.write(this.path, new byte[]{'a', (byte) 0xC3, 'b', (byte) 0xE2, (byte) 0x82});
+        final MappedReader reader = this.open(StandardCharsets.UTF_8, 4);
+        Assert.assertEquals("a\uFFFDb\uFFFD\uFFFD", TestHelper.readAll(reader));
+        reader.close();
+    }
+
+    @Test
+    public void testLatin1() throws IOException {
+        Assert.assertEquals("a,é,ç\n",
+                this.read("a,é,ç\n", StandardCharsets.ISO_8859_1, 4));
+    }
+
+    @Test
+    public void testOther() throws IOException {
+        Assert.assertEquals(TEXT, this.read(TEXT, StandardCharsets.UTF_16LE, 5));
+    }
+
+    @Test
+    public void testRegion() throws IOException {
+        Files.write(this.path, "a,b\nc,d\ne,f\n".getBytes(StandardCharsets.US_ASCII));
+        final MappedReader reader = new MappedReader(
+                FileChannel.open(this.path, StandardOpenOption.READ), StandardCharsets.US_ASCII,
+                4, 8, 4);
+        Assert.assertEquals("c,d\n", TestHelper.readAll(reader));
+        reader.close();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        Assert.assertEquals("", this.read("", StandardCharsets.UTF_16LE, 4));
+    }
+
+    private String read(final String text, final Charset charset, final int windowSize)
+            throws IOException {
+        Files.write(this.path, text.getBytes(charset));
+        final MappedReader reader = this.open(charset, windowSize);
+        final String ret = TestHelper.readAll(reader);
+        reader.close();
+        return ret;
+    }
+
+    private MappedReader open(final Charset charset, final int windowSize) throws IOException {
+        return new MappedReader(FileChannel.open(this.path, StandardOpenOption.READ), charset, 0,
+                Files.size(this.path), windowSize);
+    }
+}
@@ -27,6 +27,8 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.sql.SQLException;
 
 public class OpenableReaderTest {
@@ -40,6 +42,12 @@ public class OpenableReaderTest {
                 this.r = new StringReader("abc");
             }
 
+            @Override
+            public void writeTo(final Writer writer) throws IOException {
+                writer.write("abc");
+                writer.flush();
+            }
+
             @Override
             public int read(final char[] cbuf, final int off, final int len) throws IOException {
                 return this.r.read(cbuf, off, len);
@@ -50,6 +58,9 @@ public class OpenableReaderTest {
                 this.r = null;
             }
         };
+        final StringWriter writer = new StringWriter();
+        reader.writeTo(writer);
+        Assert.assertEquals("abc", writer.toString());
         reader.open();
         final char[] cbuf = new char[4];
         Assert.assertEquals(3, reader.read(cbuf, 1, 3));
@@ -0,0 +1,99 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.reader;
+
+import com.github.jferard.pgloaderutils.CSVRecordProcessor;
+import com.github.jferard.pgloaderutils.TestHelper;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ParallelCSVProcessorFileReaderTest {
+    private static final CSVRecordProcessor PROCESSOR = record -> {
+        if (record.get(1).equals("X")) {
+            throw new IllegalArgumentException();
+        }
+        return Arrays.asList(record.get(0), record.get(1).replace(',', '.'));
+    };
+
+    @Test
+    public void testOrdered() throws IOException {
+        final ParallelCSVProcessorFileReader r = this.create(true, 16);
+        final StringWriter writer = new StringWriter();
+        r.writeTo(writer);
+        Assert.assertEquals(this.expected(), writer.toString());
+        Assert.assertEquals(1, r.getIgnoredRecords().size());
+        Assert.assertEquals(7, r.getIgnoredRecords().get(0).getRecordNumber());
+    }
+
+    @Test
+    public void testUnordered() throws IOException {
+        final ParallelCSVProcessorFileReader r = this.create(false, 16);
+        final StringWriter writer = new StringWriter();
+        r.writeTo(writer);
+        final List<String> actual = Arrays.asList(writer.toString().split("\r\n"));
+        final List<String> expected = Arrays.asList(this.expected().split("\r\n"));
+        Collections.sort(actual);
+        Collections.sort(expected);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(1, r.getIgnoredRecords().size());
+    }
+
+    @Test
+    public void testOpen() throws IOException {
+        final ParallelCSVProcessorFileReader r = this.create(true, 1024);
+        r.open(); // the pipe is large enough
+        Assert.assertEquals(this.expected(), TestHelper.readAll(r));
+        r.close();
+    }
+
+    private ParallelCSVProcessorFileReader create(final boolean preserveOrder,
+                                                  final int chunkSize) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 50; i++) {
+            sb.append(i).append(";").append(i == 7 ? "X" : i + ",5").append("\n");
+        }
+        final CSVParser parser = new CSVParser(new StringReader(sb.toString()),
+                CSVFormat.Builder.create(CSVFormat.RFC4180).setDelimiter(';').build());
+        return new ParallelCSVProcessorFileReader(parser, PROCESSOR, 3, 4, preserveOrder,
+                chunkSize, 2);
+    }
+
+    private String expected() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 50; i++) {
+            if (i != 7) {
+                sb.append(i).append(",").append(i).append(".5\r\n");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.reader;
+
+import com.github.jferard.pgloaderutils.metrics.LoadMetrics;
+import com.github.jferard.pgloaderutils.source.CSVTokenizer;
+import com.github.jferard.pgloaderutils.sql.GeneralDataType;
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+public class RecordSourceFileReaderTest {
+    @Test
+    public void testPassThrough() throws IOException {
+        final RecordSourceFileReader reader = new RecordSourceFileReader(CSVTokenizer.create(
+                new StringReader("a;\"b,c\";\"d\"\"e\"\n1;2;3\n"),
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setDelimiter(';').build()));
+        final StringWriter writer = new StringWriter();
+        reader.writeTo(writer);
+        Assert.assertEquals("a,\"b,c\",\"d\"\"e\"\r\n1,2,3\r\n", writer.toString());
+    }
+
+    @Test
+    public void testConverted() throws IOException {
+        final BitSet convertedCols = new BitSet();
+        convertedCols.set(1);
+        final RecordSourceFileReader reader = new RecordSourceFileReader(
+                CSVTokenizer.create(new StringReader("a,1\nb,X\nc,3\n"), CSVFormat.DEFAULT),
+                Arrays.asList(GeneralDataType.TEXT, GeneralDataType.INTEGER),
+                (value, type) -> Integer.valueOf(value) * 2, convertedCols);
+        final StringWriter writer = new StringWriter();
+        reader.writeTo(writer);
+        Assert.assertEquals("a,2\r\nc,6\r\n", writer.toString());
+        Assert.assertEquals(1, reader.getIgnoredCount());
+    }
+
+    @Test
+    public void testListener() throws IOException {
+        final BitSet convertedCols = new BitSet();
+        convertedCols.set(0);
+        final RecordSourceFileReader reader = new RecordSourceFileReader(
+                CSVTokenizer.create(new StringReader("1\nX\n3\n"), CSVFormat.DEFAULT),
+                Collections.singletonList(GeneralDataType.INTEGER),
+                (value, type) -> Integer.valueOf(value), convertedCols);
+        final LoadMetrics metrics = new LoadMetrics();
+        reader.setListener(metrics);
+        reader.writeTo(new StringWriter());
+        Assert.assertEquals(2, metrics.getRowsRead());
+        Assert.assertEquals(6, metrics.getChars());
+        Assert.assertEquals(1, metrics.getRejectedRows());
+        Assert.assertEquals(0, metrics.getRowsLoaded());
+    }
+}
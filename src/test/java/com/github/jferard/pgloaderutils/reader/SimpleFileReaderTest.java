@@ -27,6 +27,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.logging.Logger;
 
 public class SimpleFileReaderTest {
@@ -42,4 +43,22 @@ public class SimpleFileReaderTest {
         Assert.assertArrayEquals(new char[] {'o', 'o', 0}, buffer);
         sfr.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWriteTo() throws IOException {
+        final StringReader sr = new StringReader("foo");
+        final SimpleFileReader sfr = new SimpleFileReader(sr, Logger.getLogger("test"), 1);
+        final StringWriter sw = new StringWriter();
+        sfr.writeTo(sw);
+        Assert.assertEquals("foo", sw.toString());
+    }
+
+    @Test
+    public void testWriteToSmallBlocks() throws IOException {
+        final StringReader sr = new StringReader("foo,bar\nbaz,qux");
+        final SimpleFileReader sfr = new SimpleFileReader(sr, Logger.getLogger("test"), 1, 3, 2);
+        final StringWriter sw = new StringWriter();
+        sfr.writeTo(sw);
+        Assert.assertEquals("foo,bar\nbaz,qux", sw.toString());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Some utilities for loading csv data into a PostgreSQL database:
+ * detect file encoding, CSV format and populate database
+ *
+ *     Copyright (C) 2016, 2018, 2020-2022 J. Férard <https://github.com/jferard>
+ *
+ * This file is part of pgLoader Utils.
+ *
+ * pgLoader Utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * pgLoader Utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.jferard.pgloaderutils.source;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CSVTokenizerTest {
+    @Test
+    public void testSimple() throws IOException {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "")),
+                this.tokenize("a,b\nc,\n", 1024));
+    }
+
+    @Test
+    public void testQuotes() throws IOException {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a,b", "c\"d", "e\r\nf"),
+                Arrays.asList("", "g")),
+                this.tokenize("\"a,b\",\"c\"\"d\",\"e\r\nf\"\r\n\"\",g", 1024));
+    }
+
+    @Test
+    public void testEmptyLinesAndCR() throws IOException {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "c"),
+                Arrays.asList("d")), this.tokenize("a\n\n\rb,c\r\rd", 1024));
+    }
+
+    @Test
+    public void testSmallBuffer() throws IOException {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("abc", "d\"e,f"), Arrays.asList("g", "h")),
+                this.tokenize("abc,\"d\"\"e,f\"\r\ng,h\r\n", 2));
+    }
+
+    @Test
+    public void testView() throws IOException {
+        final CSVTokenizer tokenizer =
+                CSVTokenizer.create(new StringReader("ab,cd\nef,gh\n"), CSVFormat.DEFAULT);
+        Assert.assertTrue(tokenizer.next());
+        final CharSequence view = tokenizer.get(1);
+        Assert.assertEquals(2, view.length());
+        Assert.assertEquals('d', view.charAt(1));
+        Assert.assertEquals(1, tokenizer.getRecordNumber());
+        Assert.assertTrue(tokenizer.next());
+        Assert.assertEquals("gh", view.toString()); // the view is reused
+        Assert.assertEquals("gh", new String(tokenizer.getRow(), tokenizer.getStart(1),
+                tokenizer.getEnd(1) - tokenizer.getStart(1)));
+        Assert.assertFalse(tokenizer.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnclosedQuote() throws IOException {
+        this.tokenize("\"a,b\n", 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEscape() {
+        CSVTokenizer.create(new StringReader(""),
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setEscape('\\').build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHeader() {
+        CSVTokenizer.create(new StringReader(""),
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setHeader().build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSkipHeaderRecord() {
+        CSVTokenizer.create(new StringReader(""),
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setSkipHeaderRecord(true).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCommentMarker() {
+        CSVTokenizer.create(new StringReader(""),
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setCommentMarker('#').build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrim() {
+        CSVTokenizer.create(new StringReader(""),
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setTrim(true).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIgnoreSurroundingSpaces() {
+        CSVTokenizer.create(new StringReader(""),
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setIgnoreSurroundingSpaces(true)
+                        .build());
+    }
+
+    @Test
+    public void testSameAsCommonsCSV() throws IOException {
+        final String data = "a;\"b;c\";\"d\"\"e\"\r\n\r\nf;;g\n\"\";h;\"i\nj\"";
+        final CSVFormat format =
+                CSVFormat.Builder.create(CSVFormat.DEFAULT).setDelimiter(';').build();
+        final RecordSource expected =
+                new CSVParserRecordSource(format.parse(new StringReader(data)));
+        final RecordSource actual = CSVTokenizer.create(new StringReader(data), format);
+        Assert.assertEquals(this.readAll(expected), this.readAll(actual));
+    }
+
+    private List<List<String>> tokenize(final String data, final int bufferSize)
+            throws IOException {
+        return this.readAll(new CSVTokenizer(new StringReader(data), ',', '"', true, bufferSize));
+    }
+
+    private List<List<String>> readAll(final RecordSource source) throws IOException {
+        final List<List<String>> records = new ArrayList<>();
+        while (source.next()) {
+            final List<String> record = new ArrayList<>();
+            for (int i = 0; i < source.size(); i++) {
+                record.add(source.getString(i));
+            }
+            records.add(record);
+        }
+        source.close();
+        return records;
+    }
+}
@@ -42,6 +42,56 @@ public class TableTest {
                 ")", table.createTableQuery(true));
     }
 
+    @Test
+    public void testStagingQueries() {
+        final Table table = Table.create("t", new Column("foo", GeneralDataType.INTEGER))
+                .withName("t_staging");
+        Assert.assertEquals("CREATE UNLOGGED TABLE IF NOT EXISTS t_staging (\n" +
+                "    foo INTEGER\n" +
+                ")", table.createTableQuery(true, true));
+        Assert.assertEquals("ALTER TABLE t_staging SET LOGGED", table.setLoggedQuery());
+        Assert.assertEquals("ALTER TABLE IF EXISTS t_staging RENAME TO t",
+                table.renameTableQuery("t"));
+    }
+
+    @Test
+    public void testUpsertQueries() {
+        final Table table = Table.create("t", new Column("id", GeneralDataType.INTEGER),
+                new Column("v", GeneralDataType.TEXT)).withKey("id");
+        Assert.assertEquals("CREATE TEMP TABLE IF NOT EXISTS t_merge (\n" +
+                "    id INTEGER,\n" +
+                "    v TEXT\n" +
+                ") ON COMMIT DELETE ROWS", table.withName("t_merge").createTempTableQuery());
+        Assert.assertEquals("INSERT INTO t (id, v)\n" +
+                "SELECT id, v FROM t_merge\n" +
+                "ON CONFLICT (id) DO UPDATE SET v = EXCLUDED.v", table.upsertQuery("t_merge"));
+        Assert.assertEquals("MERGE INTO t AS d\n" +
+                "USING t_merge AS s\n" +
+                "ON d.id = s.id\n" +
+                "WHEN MATCHED THEN UPDATE SET v = s.v\n" +
+                "WHEN NOT MATCHED THEN INSERT (id, v) VALUES (s.id, s.v)",
+                table.mergeQuery("t_merge"));
+        Assert.assertEquals("INSERT INTO t (id, v)\n" +
+                "SELECT id, v FROM t_merge\n" +
+                "ON CONFLICT (id, v) DO NOTHING", table.withKey("id", "v").upsertQuery("t_merge"));
+    }
+
+    @Test
+    public void testDeleteByKeyQuery() {
+        final Table table = Table.create("t", new Column("a", GeneralDataType.INTEGER),
+                new Column("b", GeneralDataType.TEXT), new Column("v", GeneralDataType.TEXT))
+                .withKey("a", "b");
+        Assert.assertEquals("DELETE FROM t WHERE (a, b) IN ((?, ?), (?, ?))",
+                table.deleteByKeyQuery(2));
+    }
+
+    @Test
+    public void testUpsertWithoutKey() {
+        final Table table = Table.create("t", new Column("id", GeneralDataType.INTEGER));
+        Assert.assertThrows(IllegalStateException.class, () -> table.upsertQuery("t_merge"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> table.withKey("foo"));
+    }
+
     @Test
     public void testDrop() {
         final Table table = new Table("table", Arrays.asList(new Column("foo", GeneralDataType.INTEGER),
@@ -69,4 +119,25 @@ public class TableTest {
                 "?, ?\n" +
                 ")", table.insertValuesQuery());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testInsertMultiRow() {
+        final Table table = new Table("table", Arrays.asList(new Column("foo", GeneralDataType.INTEGER),
+                new Column("bar", GeneralDataType.BOOLEAN)));
+        Assert.assertEquals("INSERT INTO \"table\" VALUES (\n" +
+                "?, ?\n" +
+                "), (\n" +
+                "?, ?\n" +
+                "), (\n" +
+                "?, ?\n" +
+                ")", table.insertValuesQuery(3));
+        Assert.assertEquals(32767, table.maxRowsPerInsert());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertTooManyRows() {
+        final Table table = new Table("table", Arrays.asList(new Column("foo", GeneralDataType.INTEGER),
+                new Column("bar", GeneralDataType.BOOLEAN)));
+        table.insertValuesQuery(32768);
+    }
+}